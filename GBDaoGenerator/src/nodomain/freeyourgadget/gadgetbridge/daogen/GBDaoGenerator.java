@@ -33,6 +33,7 @@ public class GBDaoGenerator {
     private static final String MODEL_PACKAGE = MAIN_PACKAGE + ".model";
     private static final String VALID_BY_DATE = MODEL_PACKAGE + ".ValidByDate";
     private static final String ACTIVITY_SUMMARY = MODEL_PACKAGE + ".ActivitySummary";
+    private static final String ACTIVITY_ROLLUP = MODEL_PACKAGE + ".ActivityRollup";
     private static final String OVERRIDE = "@Override";
     private static final String SAMPLE_RAW_INTENSITY = "rawIntensity";
     private static final String SAMPLE_STEPS = "steps";
@@ -43,7 +44,7 @@ public class GBDaoGenerator {
 
 
     public static void main(String[] args) throws Exception {
-        final Schema schema = new Schema(38, MAIN_PACKAGE + ".entities");
+        final Schema schema = new Schema(43, MAIN_PACKAGE + ".entities");
 
         Entity userAttributes = addUserAttributes(schema);
         Entity user = addUserInfo(schema, userAttributes);
@@ -95,6 +96,11 @@ public class GBDaoGenerator {
 
         addActivitySummary(schema, user, device);
         addBatteryLevel(schema, device);
+
+        addActivityRollup(schema, "HourlyActivityRollup", device);
+        addActivityRollup(schema, "DailyActivityRollup", device);
+        addSleepSession(schema, device);
+        addStepSession(schema, device);
         new DaoGenerator().generateAll(schema, "app/src/main/java");
     }
 
@@ -240,10 +246,12 @@ public class GBDaoGenerator {
         Entity activityOverlay = addEntity(schema, "PebbleHealthActivityOverlay");
 
         activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey();
-        activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey();
+        Property timestampTo = activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey().getProperty();
         activityOverlay.addIntProperty(SAMPLE_RAW_KIND).notNull().primaryKey();
         Property deviceId = activityOverlay.addLongProperty("deviceId").primaryKey().notNull().getProperty();
         activityOverlay.addToOne(device, deviceId);
+        // overlays are queried by device and end time
+        addIndex(activityOverlay, deviceId, timestampTo);
 
         Property userId = activityOverlay.addLongProperty("userId").notNull().getProperty();
         activityOverlay.addToOne(user, userId);
@@ -285,10 +293,12 @@ public class GBDaoGenerator {
         Entity activityOverlay = addEntity(schema, "HPlusHealthActivityOverlay");
 
         activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey();
-        activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey();
+        Property timestampTo = activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey().getProperty();
         activityOverlay.addIntProperty(SAMPLE_RAW_KIND).notNull().primaryKey();
         Property deviceId = activityOverlay.addLongProperty("deviceId").primaryKey().notNull().getProperty();
         activityOverlay.addToOne(device, deviceId);
+        // overlays are queried by device and end time
+        addIndex(activityOverlay, deviceId, timestampTo);
 
         Property userId = activityOverlay.addLongProperty("userId").notNull().getProperty();
         activityOverlay.addToOne(user, userId);
@@ -392,10 +402,12 @@ public class GBDaoGenerator {
         Entity activityOverlay = addEntity(schema, "WatchXPlusHealthActivityOverlay");
 
         activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey();
-        activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey();
+        Property timestampTo = activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey().getProperty();
         activityOverlay.addIntProperty(SAMPLE_RAW_KIND).notNull().primaryKey();
         Property deviceId = activityOverlay.addLongProperty("deviceId").primaryKey().notNull().getProperty();
         activityOverlay.addToOne(device, deviceId);
+        // overlays are queried by device and end time
+        addIndex(activityOverlay, deviceId, timestampTo);
 
         Property userId = activityOverlay.addLongProperty("userId").notNull().getProperty();
         activityOverlay.addToOne(user, userId);
@@ -451,9 +463,10 @@ public class GBDaoGenerator {
         Entity biometricSample = addEntity(schema, "LefunBiometricSample");
         biometricSample.implementsSerializable();
 
-        biometricSample.addIntProperty("timestamp").notNull().primaryKey();
+        Property timestamp = biometricSample.addIntProperty("timestamp").notNull().primaryKey().getProperty();
         Property deviceId = biometricSample.addLongProperty("deviceId").primaryKey().notNull().getProperty();
         biometricSample.addToOne(device, deviceId);
+        addIndex(biometricSample, deviceId, timestamp);
         Property userId = biometricSample.addLongProperty("userId").notNull().getProperty();
         biometricSample.addToOne(user, userId);
 
@@ -467,9 +480,10 @@ public class GBDaoGenerator {
         Entity sleepSample = addEntity(schema, "LefunSleepSample");
         sleepSample.implementsSerializable();
 
-        sleepSample.addIntProperty("timestamp").notNull().primaryKey();
+        Property timestamp = sleepSample.addIntProperty("timestamp").notNull().primaryKey().getProperty();
         Property deviceId = sleepSample.addLongProperty("deviceId").primaryKey().notNull().getProperty();
         sleepSample.addToOne(device, deviceId);
+        addIndex(sleepSample, deviceId, timestamp);
         Property userId = sleepSample.addLongProperty("userId").notNull().getProperty();
         sleepSample.addToOne(user, userId);
 
@@ -494,9 +508,11 @@ public class GBDaoGenerator {
                 "This class represents a sample specific to the device. Values like activity kind or\n" +
                         "intensity, are device specific. Normalized values can be retrieved through the\n" +
                         "corresponding {@link SampleProvider}.");
-        activitySample.addIntProperty("timestamp").notNull().codeBeforeGetterAndSetter(OVERRIDE).primaryKey();
+        Property timestamp = activitySample.addIntProperty("timestamp").notNull().codeBeforeGetterAndSetter(OVERRIDE).primaryKey().getProperty();
         Property deviceId = activitySample.addLongProperty("deviceId").primaryKey().notNull().codeBeforeGetterAndSetter(OVERRIDE).getProperty();
         activitySample.addToOne(device, deviceId);
+        // the primary key starts with the timestamp, but samples are always queried per device
+        addIndex(activitySample, deviceId, timestamp);
         Property userId = activitySample.addLongProperty("userId").notNull().codeBeforeGetterAndSetter(OVERRIDE).getProperty();
         activitySample.addToOne(user, userId);
     }
@@ -613,7 +629,7 @@ public class GBDaoGenerator {
                 "This class represents the summary of a user's activity event. I.e. a walk, hike, a bicycle tour, etc.");
 
         summary.addStringProperty("name").codeBeforeGetter(OVERRIDE);
-        summary.addDateProperty("startTime").notNull().codeBeforeGetter(OVERRIDE);
+        Property startTime = summary.addDateProperty("startTime").notNull().codeBeforeGetter(OVERRIDE).getProperty();
         summary.addDateProperty("endTime").notNull().codeBeforeGetter(OVERRIDE);
         summary.addIntProperty("activityKind").notNull().codeBeforeGetter(OVERRIDE);
 
@@ -625,10 +641,19 @@ public class GBDaoGenerator {
 
         Property deviceId = summary.addLongProperty("deviceId").notNull().codeBeforeGetter(OVERRIDE).getProperty();
         summary.addToOne(device, deviceId);
+        addIndex(summary, deviceId, startTime);
         Property userId = summary.addLongProperty("userId").notNull().codeBeforeGetter(OVERRIDE).getProperty();
         summary.addToOne(user, userId);
         summary.addStringProperty("summaryData");
         summary.addByteArrayProperty("rawSummaryData");
+        // typed copies of the most used summaryData values, for lists and totals
+        summary.addFloatProperty("distanceMeters");
+        summary.addFloatProperty("caloriesBurnt");
+        summary.addIntProperty("activeSeconds");
+        summary.addIntProperty("averageHR");
+        summary.addIntProperty("maxHR");
+        summary.addFloatProperty("averageSpeed");
+        summary.addFloatProperty("ascentMeters");
     }
 
     private static Property findProperty(Entity entity, String propertyName) {
@@ -640,6 +665,19 @@ public class GBDaoGenerator {
         throw new IllegalArgumentException("Property " + propertyName + " not found in Entity " + entity.getClassName());
     }
 
+    /**
+     * Adds a non-unique index on the given properties. Existing databases get the index
+     * with the next schema version, from DaoMaster.createAllTables(db, true) in
+     * DBOpenHelper#onUpgrade, which creates missing indexes of existing tables as well.
+     */
+    private static void addIndex(Entity entity, Property... properties) {
+        Index index = new Index();
+        for (Property property : properties) {
+            index.addProperty(property);
+        }
+        entity.addIndex(index);
+    }
+
     private static Entity addEntity(Schema schema, String className) {
         Entity entity = schema.addEntity(className);
         entity.addImport("de.greenrobot.dao.AbstractDao");
@@ -649,14 +687,73 @@ public class GBDaoGenerator {
     private static Entity addBatteryLevel(Schema schema, Entity device) {
         Entity batteryLevel = addEntity(schema, "BatteryLevel");
         batteryLevel.implementsSerializable();
-        batteryLevel.addIntProperty("timestamp").notNull().primaryKey();
+        Property timestamp = batteryLevel.addIntProperty("timestamp").notNull().primaryKey().getProperty();
         Property deviceId = batteryLevel.addLongProperty("deviceId").primaryKey().notNull().getProperty();
         batteryLevel.addToOne(device, deviceId);
         batteryLevel.addIntProperty("level").notNull();
-        batteryLevel.addIntProperty("batteryIndex").notNull().primaryKey();;
+        Property batteryIndex = batteryLevel.addIntProperty("batteryIndex").notNull().primaryKey().getProperty();
+        addIndex(batteryLevel, deviceId, batteryIndex, timestamp);
         return batteryLevel;
     }
 
+    private static Entity addActivityRollup(Schema schema, String className, Entity device) {
+        Entity rollup = addEntity(schema, className);
+        rollup.implementsInterface(ACTIVITY_ROLLUP);
+        rollup.setJavaDoc(
+                "Pre-aggregated activity data of a single device, derived from its activity samples.\n" +
+                        "The timestamp denotes the start of the aggregated period.");
+        rollup.addIntProperty("timestamp").notNull().primaryKey().codeBeforeGetter(OVERRIDE);
+        Property deviceId = rollup.addLongProperty("deviceId").primaryKey().notNull().codeBeforeGetter(OVERRIDE).getProperty();
+        rollup.addToOne(device, deviceId);
+        rollup.addIntProperty(SAMPLE_STEPS).notNull().codeBeforeGetter(OVERRIDE);
+        rollup.addIntProperty("lightSleepSteps").notNull().codeBeforeGetter(OVERRIDE);
+        rollup.addIntProperty("deepSleepSteps").notNull().codeBeforeGetter(OVERRIDE);
+        rollup.addIntProperty("notWornSteps").notNull().codeBeforeGetter(OVERRIDE);
+        rollup.addIntProperty("activeSeconds").notNull().codeBeforeGetter(OVERRIDE);
+        rollup.addIntProperty("lightSleepSeconds").notNull().codeBeforeGetter(OVERRIDE);
+        rollup.addIntProperty("deepSleepSeconds").notNull().codeBeforeGetter(OVERRIDE);
+        rollup.addIntProperty("notWornSeconds").notNull().codeBeforeGetter(OVERRIDE);
+        rollup.addIntProperty("heartRateMin").notNull().codeBeforeGetter(OVERRIDE);
+        rollup.addIntProperty("heartRateAvg").notNull().codeBeforeGetter(OVERRIDE);
+        rollup.addIntProperty("heartRateMax").notNull().codeBeforeGetter(OVERRIDE);
+        rollup.addIntProperty("heartRateSamples").notNull().codeBeforeGetter(OVERRIDE);
+        return rollup;
+    }
+
+    private static Entity addSleepSession(Schema schema, Entity device) {
+        Entity sleepSession = addEntity(schema, "SleepSession");
+        sleepSession.setJavaDoc(
+                "A sleep session of a single device, derived from its activity samples.\n" +
+                        "Timestamps are in seconds, durations in seconds as well.");
+        sleepSession.addIntProperty("sleepStart").notNull().primaryKey();
+        Property deviceId = sleepSession.addLongProperty("deviceId").primaryKey().notNull().getProperty();
+        sleepSession.addToOne(device, deviceId);
+        sleepSession.addIntProperty("sleepEnd").notNull();
+        sleepSession.addIntProperty("lightSleepSeconds").notNull();
+        sleepSession.addIntProperty("deepSleepSeconds").notNull();
+        sleepSession.addIntProperty("awakeSeconds").notNull();
+        return sleepSession;
+    }
+
+    private static Entity addStepSession(Schema schema, Entity device) {
+        Entity stepSession = addEntity(schema, "StepSession");
+        stepSession.setJavaDoc(
+                "A walking, running or other activity session of a single device, derived from its activity samples.\n" +
+                        "Timestamps are in seconds, the distance is in meters.");
+        stepSession.addIntProperty("sessionStart").notNull().primaryKey();
+        Property deviceId = stepSession.addLongProperty("deviceId").primaryKey().notNull().getProperty();
+        stepSession.addToOne(device, deviceId);
+        stepSession.addIntProperty("sessionEnd").notNull();
+        stepSession.addIntProperty(SAMPLE_STEPS).notNull();
+        stepSession.addFloatProperty("distance").notNull();
+        stepSession.addFloatProperty("intensity").notNull();
+        stepSession.addIntProperty("heartRateAverage").notNull();
+        stepSession.addIntProperty("activityKind").notNull();
+        stepSession.addBooleanProperty("ongoing").notNull().javaDocGetterAndSetter(
+                "Whether the session was still in progress when the last sample was recorded.");
+        return stepSession;
+    }
+
     private static Entity addFitProActivitySample(Schema schema, Entity user, Entity device) {
         Entity activitySample = addEntity(schema, "FitProActivitySample");
         activitySample.implementsSerializable();
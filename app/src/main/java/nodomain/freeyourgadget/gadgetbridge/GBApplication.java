@@ -54,15 +54,18 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.DBLockStatistics;
 import nodomain.freeyourgadget.gadgetbridge.database.DBOpenHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.PeriodicExporter;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityRollups;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
@@ -112,7 +115,13 @@ public class GBApplication extends Application {
     public static final String DATABASE_NAME = "Gadgetbridge";
 
     private static GBApplication context;
-    private static final Lock dbLock = new ReentrantLock();
+    private static final ReentrantLock dbLock = new ReentrantLock();
+    private static long dbLockAcquiredAtNanos;
+    private static final int DB_READER_POOL_SIZE = 4;
+    private static final List<LockHandler> dbReaders = new ArrayList<>(DB_READER_POOL_SIZE);
+    private static final BlockingQueue<LockHandler> idleDbReaders = new ArrayBlockingQueue<>(DB_READER_POOL_SIZE);
+    private static final ThreadLocal<LockHandler> currentDbReader = new ThreadLocal<>();
+    private static final long DB_SLOW_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
     private static DeviceService deviceService;
     private static SharedPreferences sharedPrefs;
     private static final String PREFS_VERSION = "shared_preferences_version";
@@ -199,6 +208,7 @@ public class GBApplication extends Application {
         sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         prefs = new Prefs(sharedPrefs);
         gbPrefs = new GBPrefs(prefs);
+        DBHelper.registerUserPreferencesListener(sharedPrefs);
 
         if (!GBEnvironment.isEnvironmentSetup()) {
             GBEnvironment.setupEnvironment(GBEnvironment.createDeviceEnvironment());
@@ -308,6 +318,8 @@ public class GBApplication extends Application {
             helper = new DaoMaster.DevOpenHelper(this, null, null);
         } else {
             helper = new DBOpenHelper(this, DATABASE_NAME, null);
+            // allows the readers to run concurrently with each other and with the writer
+            helper.setWriteAheadLoggingEnabled(true);
         }
         SQLiteDatabase db = helper.getWritableDatabase();
         DaoMaster daoMaster = new DaoMaster(db);
@@ -315,6 +327,60 @@ public class GBApplication extends Application {
             lockHandler = new LockHandler();
         }
         lockHandler.init(daoMaster, helper);
+        setupDBReaders(daoMaster, helper);
+    }
+
+    private static void setupDBReaders(DaoMaster daoMaster, DaoMaster.OpenHelper helper) {
+        synchronized (dbReaders) {
+            if (dbReaders.isEmpty()) {
+                for (int i = 0; i < DB_READER_POOL_SIZE; i++) {
+                    dbReaders.add(new LockHandler(true));
+                }
+            }
+            for (LockHandler reader : dbReaders) {
+                if (reader.holdCount > 0) {
+                    continue; // still in use, should not happen
+                }
+                idleDbReaders.remove(reader);
+                if (reader.isValid()) {
+                    reader.invalidate();
+                }
+                reader.init(daoMaster, helper);
+                idleDbReaders.add(reader);
+            }
+        }
+    }
+
+    /**
+     * Waits until all readers have been released and invalidates them, so that
+     * the database can be closed. Must only be called while holding the write lock.
+     * The readers are set up again with the next #setupDatabase().
+     *
+     * @throws IllegalStateException if the readers could not be invalidated
+     */
+    static void invalidateDBReaders() {
+        if (currentDbReader.get() != null) {
+            throw new IllegalStateException("Cannot close the database while holding a read-only DB handler");
+        }
+        List<LockHandler> drained = new ArrayList<>(DB_READER_POOL_SIZE);
+        synchronized (dbReaders) {
+            try {
+                for (int i = 0; i < dbReaders.size(); i++) {
+                    LockHandler reader = idleDbReaders.poll(30, TimeUnit.SECONDS);
+                    if (reader == null) {
+                        idleDbReaders.addAll(drained);
+                        throw new IllegalStateException("Timeout waiting for database readers to finish");
+                    }
+                    drained.add(reader);
+                }
+            } catch (InterruptedException ex) {
+                idleDbReaders.addAll(drained);
+                throw new IllegalStateException("Interrupted while waiting for database readers to finish", ex);
+            }
+            for (LockHandler reader : drained) {
+                reader.invalidate();
+            }
+        }
     }
 
     public static Context getContext() {
@@ -331,12 +397,28 @@ public class GBApplication extends Application {
         return deviceService;
     }
 
+    /**
+     * Returns the facade for talking to the given device only.
+     *
+     * @see DeviceService#forDevice(GBDevice)
+     */
+    public static DeviceService deviceService(GBDevice device) {
+        return deviceService.forDevice(device);
+    }
+
     /**
      * Returns the DBHandler instance for reading/writing or throws GBException
      * when that was not successful
      * If acquiring was successful, callers must call #releaseDB when they
      * are done (from the same thread that acquired the lock!
      * <p>
+     * There is only a single writer at a time. Callers that only read from the
+     * database should use #acquireDBReadOnly() instead.
+     * <p>
+     * Callers must not hold a read-only handler: the writer may be waiting for all
+     * readers to finish in #invalidateDBReaders(), so both would wait for each other
+     * until the timeout.
+     * <p>
      * Callers must not hold a reference to the returned instance because it
      * will be invalidated at some point.
      *
@@ -345,13 +427,22 @@ public class GBApplication extends Application {
      * @see #releaseDB()
      */
     public static DBHandler acquireDB() throws GBException {
+        if (currentDbReader.get() != null) {
+            Log.w(TAG, "Acquiring the DB writer while holding a reader", new IllegalStateException());
+        }
+        long start = System.nanoTime();
         try {
             if (dbLock.tryLock(30, TimeUnit.SECONDS)) {
+                if (dbLock.getHoldCount() == 1) {
+                    dbLockAcquiredAtNanos = System.nanoTime();
+                    recordDBWait(DBLockStatistics.WRITE, dbLockAcquiredAtNanos - start);
+                }
                 return lockHandler;
             }
         } catch (InterruptedException ex) {
             Log.i(TAG, "Interrupted while waiting for DB lock");
         }
+        DBLockStatistics.WRITE.recordTimeout(System.nanoTime() - start);
         throw new GBException("Unable to access the database.");
     }
 
@@ -362,9 +453,83 @@ public class GBApplication extends Application {
      * @see #acquireDB()
      */
     public static void releaseDB() {
+        if (dbLock.getHoldCount() == 1) {
+            DBLockStatistics.WRITE.recordHold(System.nanoTime() - dbLockAcquiredAtNanos);
+        }
         dbLock.unlock();
     }
 
+    /**
+     * Returns true if the current thread holds the database lock, i.e. is inside
+     * #acquireDB().
+     */
+    public static boolean isDBLockedByCurrentThread() {
+        return dbLock.isHeldByCurrentThread();
+    }
+
+    /**
+     * Returns a DBHandler instance for reading only or throws GBException when that
+     * was not successful. Several read-only handlers may be used concurrently, also while
+     * the writer (see #acquireDB()) is active. Nested acquisitions from the same thread
+     * return the same handler. If the current thread already holds the write lock, the
+     * writable handler is returned.
+     * <p>
+     * Callers must close the returned handler from the same thread when they are done
+     * and must not hold a reference to it afterwards.
+     *
+     * @return the read-only DBHandler
+     * @throws GBException
+     */
+    public static DBHandler acquireDBReadOnly() throws GBException {
+        if (dbLock.isHeldByCurrentThread()) {
+            return acquireDB();
+        }
+        LockHandler reader = currentDbReader.get();
+        if (reader != null) {
+            reader.holdCount++;
+            return reader;
+        }
+
+        long start = System.nanoTime();
+        try {
+            reader = idleDbReaders.poll(30, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Log.i(TAG, "Interrupted while waiting for DB reader");
+        }
+        if (reader == null) {
+            DBLockStatistics.READ.recordTimeout(System.nanoTime() - start);
+            throw new GBException("Unable to access the database.");
+        }
+        reader.holdCount = 1;
+        reader.acquiredAtNanos = System.nanoTime();
+        recordDBWait(DBLockStatistics.READ, reader.acquiredAtNanos - start);
+        currentDbReader.set(reader);
+        return reader;
+    }
+
+    /**
+     * Releases a read-only handler acquired through #acquireDBReadOnly().
+     *
+     * @throws IllegalMonitorStateException if the current thread is not owning the handler
+     */
+    static void releaseDBReadOnly(LockHandler reader) {
+        if (currentDbReader.get() != reader) {
+            throw new IllegalMonitorStateException("DB reader is not owned by the current thread");
+        }
+        if (--reader.holdCount == 0) {
+            DBLockStatistics.READ.recordHold(System.nanoTime() - reader.acquiredAtNanos);
+            currentDbReader.remove();
+            idleDbReaders.add(reader);
+        }
+    }
+
+    private static void recordDBWait(DBLockStatistics statistics, long waitNanos) {
+        statistics.recordWait(waitNanos);
+        if (waitNanos > DB_SLOW_WAIT_NANOS) {
+            Log.w(TAG, "Waited " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms for DB access: " + statistics);
+        }
+    }
+
     public static boolean isRunningLollipopOrLater() {
         return VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
     }
@@ -624,6 +789,8 @@ public class GBApplication extends Application {
         }
         boolean result = deleteOldActivityDatabase(context);
         result &= getContext().deleteDatabase(DATABASE_NAME);
+        DBHelper.invalidateIdentityCache();
+        ActivityRollups.invalidateAll();
         return result;
     }
 
@@ -19,20 +19,40 @@ package nodomain.freeyourgadget.gadgetbridge;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import de.greenrobot.dao.identityscope.IdentityScopeType;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.RealtimeSampleBuffer;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIngestionPipeline;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 
 /**
  * Provides low-level access to the database.
+ * <p/>
+ * There is a single writable LockHandler, guarded by an exclusive lock, and a pool of
+ * read-only LockHandlers that may be used concurrently. All of them share the same
+ * underlying database, but read-only handlers have their own session without an
+ * identity scope, so that they never see or modify entities cached by the writer.
+ * See {@link GBApplication#acquireDB()} and {@link GBApplication#acquireDBReadOnly()}.
  */
 public class LockHandler implements DBHandler {
 
+    private final boolean readOnly;
     private DaoMaster daoMaster = null;
     private DaoSession session = null;
     private SQLiteOpenHelper helper = null;
 
+    // bookkeeping for GBApplication, only accessed by the thread owning this handler
+    int holdCount;
+    long acquiredAtNanos;
+
     public LockHandler() {
+        this(false);
+    }
+
+    public LockHandler(boolean readOnly) {
+        this.readOnly = readOnly;
     }
 
     public void init(DaoMaster daoMaster, DaoMaster.OpenHelper helper) {
@@ -48,7 +68,7 @@ public class LockHandler implements DBHandler {
         this.daoMaster = daoMaster;
         this.helper = helper;
 
-        session = daoMaster.newSession();
+        session = readOnly ? daoMaster.newSession(IdentityScopeType.None) : daoMaster.newSession();
         if (session == null) {
             throw new RuntimeException("Unable to create database session");
         }
@@ -59,7 +79,12 @@ public class LockHandler implements DBHandler {
         return daoMaster;
     }
 
-    private boolean isValid() {
+    @Override
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    boolean isValid() {
         return daoMaster != null;
     }
 
@@ -72,25 +97,50 @@ public class LockHandler implements DBHandler {
     @Override
     public void close() {
         ensureValid();
-        GBApplication.releaseDB();
+        if (readOnly) {
+            GBApplication.releaseDBReadOnly(this);
+        } else {
+            GBApplication.releaseDB();
+        }
     }
 
     @Override
     public synchronized void openDb() {
+        if (readOnly) {
+            throw new IllegalStateException("Read-only handlers cannot open the database");
+        }
         if (session != null) {
             throw new IllegalStateException("session must be null");
         }
+        // the database may have been replaced or deleted while it was closed
+        DBHelper.invalidateIdentityCache();
         // this will create completely new db instances and in turn update this handler through #init()
         GBApplication.app().setupDatabase();
     }
 
     @Override
     public synchronized void closeDb() {
+        if (readOnly) {
+            throw new IllegalStateException("Read-only handlers cannot close the database");
+        }
         if (session == null) {
             throw new IllegalStateException("session must not be null");
         }
+        RealtimeSampleBuffer.flushAll();
+        SampleIngestionPipeline.getInstance().writePending();
+        // wait for all readers to finish, they will be re-initialized by #openDb()
+        GBApplication.invalidateDBReaders();
+        DBHelper.invalidateIdentityCache();
         session.clear();
         session.getDatabase().close();
+        invalidate();
+    }
+
+    /**
+     * Drops the references to the database without closing it. Used for read-only
+     * handlers when the shared database is about to be closed.
+     */
+    synchronized void invalidate() {
         session = null;
         helper = null;
         daoMaster = null;
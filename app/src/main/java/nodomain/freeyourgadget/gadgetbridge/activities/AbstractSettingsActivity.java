@@ -39,6 +39,7 @@ import java.util.Locale;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
 
 /**
@@ -230,13 +231,21 @@ public abstract class AbstractSettingsActivity extends AppCompatPreferenceActivi
         AndroidUtils.setLanguage(this, language);
     }
 
+    /**
+     * Returns the service the changed preferences are sent to. App wide settings go to
+     * all devices, subclasses for a single device return that device's service.
+     */
+    protected DeviceService getDeviceService() {
+        return GBApplication.deviceService();
+    }
+
     protected void addPreferenceHandlerFor(final String preferenceKey) {
         Preference pref = findPreference(preferenceKey);
         if (pref != null) {
             pref.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
                 @Override
                 public boolean onPreferenceChange(Preference preference, Object newVal) {
-                    GBApplication.deviceService().onSendConfiguration(preferenceKey);
+                    getDeviceService().onSendConfiguration(preferenceKey);
                     return true;
                 }
             });
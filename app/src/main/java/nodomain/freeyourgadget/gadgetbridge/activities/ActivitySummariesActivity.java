@@ -194,7 +194,7 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
                 if (item != null) {
                     ActivitySummary summary = (ActivitySummary) item;
                     try {
-                        showActivityDetail(position);
+                        showActivityDetail(summary.getId());
                     } catch (Exception e) {
                         GB.toast(getApplicationContext(), "Unable to display Activity Detail, maybe the activity is not available yet: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
                     }
@@ -322,12 +322,17 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
         LinkedHashMap<String, Integer> newMap = new LinkedHashMap<>(0); //reset
 
         newMap.put(getString(R.string.activity_summaries_all_activities), 0);
-        for (BaseActivitySummary item : getItemAdapter().getItems()) {
-            String activityName = ActivityKind.asString(item.getActivityKind(), this);
-            if (!newMap.containsKey(activityName) && item.getActivityKind() != 0) {
-                newMap.put(activityName, item.getActivityKind());
-
+        // only a page of the summaries is loaded, so ask the database for all kinds
+        try (DBHandler handler = GBApplication.acquireDBReadOnly()) {
+            ActivitySummariesAdapter adapter = (ActivitySummariesAdapter) getItemAdapter();
+            for (int activityKind : adapter.getDataSource().loadActivityKinds(handler.getDaoSession())) {
+                String activityName = ActivityKind.asString(activityKind, this);
+                if (!newMap.containsKey(activityName) && activityKind != 0) {
+                    newMap.put(activityName, activityKind);
+                }
             }
+        } catch (Exception e) {
+            LOG.error("Error loading activity kinds", e);
         }
         return newMap;
     }
@@ -351,6 +356,7 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
 
     @Override
     protected void onDestroy() {
+        ((ActivitySummariesAdapter) getItemAdapter()).cancelLoading();
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
         super.onDestroy();
     }
@@ -369,7 +375,7 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
 
     private void fetchTrackData() {
         if (mGBDevice.isInitialized() && !mGBDevice.isBusy()) {
-            GBApplication.deviceService().onFetchRecordedData(RecordedDataTypes.TYPE_GPS_TRACKS);
+            GBApplication.deviceService(mGBDevice).onFetchRecordedData(RecordedDataTypes.TYPE_GPS_TRACKS);
         } else {
             swipeLayout.setRefreshing(false);
             if (!mGBDevice.isInitialized()) {
@@ -397,11 +403,11 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
 
     }
 
-    private void showActivityDetail(int position) {
+    private void showActivityDetail(long summaryId) {
         Intent ActivitySummaryDetailIntent = new Intent(this, ActivitySummaryDetail.class);
         Bundle bundle = new Bundle();
 
-        bundle.putInt("position", position);
+        bundle.putLong("summaryId", summaryId);
         bundle.putSerializable("activityKindMap", activityKindMap);
         bundle.putSerializable("itemsFilter", (Serializable) itemsFilter);
         bundle.putInt("activityFilter", activityFilter);
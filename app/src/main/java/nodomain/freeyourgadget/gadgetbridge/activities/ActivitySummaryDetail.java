@@ -128,7 +128,7 @@ public class ActivitySummaryDetail extends AbstractGBActivity {
 
         Bundle bundle = intent.getExtras();
         gbDevice = bundle.getParcelable(GBDevice.EXTRA_DEVICE);
-        final int position = bundle.getInt("position", 0);
+        final long summaryId = bundle.getLong("summaryId", 0);
         final int activityFilter = bundle.getInt("activityFilter", 0);
         final long dateFromFilter = bundle.getLong("dateFromFilter", 0);
         final long dateToFilter = bundle.getLong("dateToFilter", 0);
@@ -136,7 +136,7 @@ public class ActivitySummaryDetail extends AbstractGBActivity {
         final String nameContainsFilter = bundle.getString("nameContainsFilter");
         final List itemsFilter = (List<Long>) bundle.getSerializable("itemsFilter");
 
-        final ActivitySummaryItems items = new ActivitySummaryItems(this, gbDevice, activityFilter, dateFromFilter, dateToFilter, nameContainsFilter, deviceFilter, itemsFilter);
+        final ActivitySummaryItems items = new ActivitySummaryItems(gbDevice, activityFilter, dateFromFilter, dateToFilter, nameContainsFilter, deviceFilter, itemsFilter);
         final ScrollView layout = findViewById(R.id.activity_summary_detail_scroll_layout);
         //final LinearLayout layout = findViewById(R.id.activity_summary_detail_relative_layout);
         alternateColor = getAlternateColor(this);
@@ -215,7 +215,7 @@ public class ActivitySummaryDetail extends AbstractGBActivity {
             }
         });
 
-        currentItem = items.getItem(position);
+        currentItem = items.getItem(summaryId);
         if (currentItem != null) {
             makeSummaryHeader(currentItem);
             makeSummaryContent(currentItem);
@@ -666,7 +666,7 @@ public class ActivitySummaryDetail extends AbstractGBActivity {
         GBApplication gbApp = (GBApplication) getApplicationContext();
         List<? extends GBDevice> devices = gbApp.getDeviceManager().getDevices();
 
-        try (DBHandler handler = GBApplication.acquireDB()) {
+        try (DBHandler handler = GBApplication.acquireDBReadOnly()) {
             daoSession = handler.getDaoSession();
             for (GBDevice device : devices) {
                 Device dbDevice = DBHelper.findDevice(device, daoSession);
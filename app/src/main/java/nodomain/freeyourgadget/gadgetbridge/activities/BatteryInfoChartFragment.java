@@ -53,6 +53,7 @@ import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.charts.AbstractChartFragment;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ChartDownsampler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBAccess;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
@@ -105,6 +106,8 @@ public class BatteryInfoChartFragment extends AbstractGBFragment {
             }
         }
 
+        entries = ChartDownsampler.downsample(entries);
+
         LineDataSet dataSet = new LineDataSet(entries, BATTERY_LABEL);
         dataSet.setLineWidth(2.2f);
         dataSet.setMode(LineDataSet.Mode.HORIZONTAL_BEZIER);
@@ -213,7 +216,7 @@ public class BatteryInfoChartFragment extends AbstractGBFragment {
     public class RefreshTask extends DBAccess {
 
         public RefreshTask(String task, Context context) {
-            super(task, context);
+            super(task, context, true);
         }
 
         @Override
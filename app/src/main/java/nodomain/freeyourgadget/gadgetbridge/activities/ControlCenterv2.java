@@ -73,6 +73,7 @@ import nodomain.freeyourgadget.gadgetbridge.BuildConfig;
 import nodomain.freeyourgadget.gadgetbridge.adapter.GBDeviceAdapterv2;
 import nodomain.freeyourgadget.gadgetbridge.database.DBAccess;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityDataPrecomputer;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
@@ -519,7 +520,7 @@ public class ControlCenterv2 extends AppCompatActivity
 
     public class RefreshTask extends DBAccess {
         public RefreshTask(String task, Context context) {
-            super(task, context);
+            super(task, context, true);
         }
 
         @Override
@@ -527,6 +528,9 @@ public class ControlCenterv2 extends AppCompatActivity
             for (GBDevice gbDevice : deviceList) {
                 final DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(gbDevice);
                 if (coordinator.supportsActivityTracking()) {
+                    // builds the rollups and sessions in the background if they are missing,
+                    // this task only reads
+                    ActivityDataPrecomputer.scheduleIfIdle(gbDevice);
                     long[] stepsAndSleepData = getSteps(gbDevice, db);
                     deviceActivityHashMap.put(gbDevice.getAddress(), stepsAndSleepData);
                 }
@@ -63,7 +63,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.LinkedHashMap;
@@ -76,12 +79,17 @@ import java.util.TreeMap;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.Widget;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.AbstractChartFragment;
 import nodomain.freeyourgadget.gadgetbridge.adapter.SpinnerWithIconAdapter;
 import nodomain.freeyourgadget.gadgetbridge.adapter.SpinnerWithIconItem;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.DBLockStatistics;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityDataPrecomputer;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
+import nodomain.freeyourgadget.gadgetbridge.devices.SleepSessions;
+import nodomain.freeyourgadget.gadgetbridge.devices.StepSessions;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.opentracks.OpenTracksContentObserver;
@@ -96,9 +104,12 @@ import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.model.RecordedDataTypes;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEQueueStatistics;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceProtocol;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
+import nodomain.freeyourgadget.gadgetbridge.util.TimingStatistics;
 import nodomain.freeyourgadget.gadgetbridge.util.WidgetPreferenceStorage;
 
 public class DebugActivity extends AbstractGBActivity {
@@ -224,7 +235,7 @@ public class DebugActivity extends AbstractGBActivity {
         rebootButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                GBApplication.deviceService().onReset(GBDeviceProtocol.RESET_FLAGS_REBOOT);
+                selectedDeviceService().onReset(GBDeviceProtocol.RESET_FLAGS_REBOOT);
             }
         });
 
@@ -239,7 +250,7 @@ public class DebugActivity extends AbstractGBActivity {
                         .setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
                             @Override
                             public void onClick(DialogInterface dialog, int which) {
-                                GBApplication.deviceService().onReset(GBDeviceProtocol.RESET_FLAGS_FACTORY_RESET);
+                                selectedDeviceService().onReset(GBDeviceProtocol.RESET_FLAGS_FACTORY_RESET);
                             }
                         })
                         .setNegativeButton(R.string.Cancel, new DialogInterface.OnClickListener() {
@@ -256,7 +267,7 @@ public class DebugActivity extends AbstractGBActivity {
             @Override
             public void onClick(View v) {
                 GB.toast("Measuring heart rate, please wait...", Toast.LENGTH_LONG, GB.INFO);
-                GBApplication.deviceService().onHeartRateTest();
+                selectedDeviceService().onHeartRateTest();
             }
         });
 
@@ -351,7 +362,7 @@ public class DebugActivity extends AbstractGBActivity {
         fetchDebugLogsButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                GBApplication.deviceService().onFetchRecordedData(RecordedDataTypes.TYPE_DEBUGLOGS);
+                selectedDeviceService().onFetchRecordedData(RecordedDataTypes.TYPE_DEBUGLOGS);
             }
         });
 
@@ -425,6 +436,30 @@ public class DebugActivity extends AbstractGBActivity {
             }
         });
 
+        Button rebuildSessionsButton = findViewById(R.id.rebuildSessions);
+        rebuildSessionsButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                rebuildSessions();
+            }
+        });
+
+        Button showTimingsButton = findViewById(R.id.showTimings);
+        showTimingsButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showTimings();
+            }
+        });
+
+        Button showBleStatisticsButton = findViewById(R.id.showBleStatistics);
+        showBleStatisticsButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showBleStatistics();
+            }
+        });
+
         Button addDeviceButtonDebug = findViewById(R.id.addDeviceButtonDebug);
         addDeviceButtonDebug.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -602,6 +637,93 @@ public class DebugActivity extends AbstractGBActivity {
         }
     }
 
+    private void rebuildSessions() {
+        // the sessions are rebuilt by the background writer, not under a read-only handler
+        for (GBDevice device : GBApplication.app().getDeviceManager().getDevices()) {
+            SleepSessions.invalidate(device);
+            StepSessions.invalidate(device);
+            ActivityDataPrecomputer.schedule(device);
+        }
+        GB.toast(this, "Rebuilding sleep and step sessions in the background", Toast.LENGTH_SHORT, GB.INFO);
+    }
+
+    private void showTimings() {
+        final TimingStatistics[] timings = new TimingStatistics[]{
+                AbstractChartFragment.FIRST_REFRESH_STATISTICS,
+                AbstractChartFragment.REFRESH_STATISTICS,
+                ActivityDataPrecomputer.STATISTICS
+        };
+        StringBuilder message = new StringBuilder();
+        for (TimingStatistics timing : timings) {
+            message.append(timing).append("\n\n");
+        }
+        message.append(DBLockStatistics.WRITE).append("\n\n");
+        message.append(DBLockStatistics.READ);
+
+        new AlertDialog.Builder(DebugActivity.this)
+                .setCancelable(true)
+                .setTitle("Chart and database timings")
+                .setMessage(message)
+                .setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                    }
+                })
+                .setNeutralButton("Reset", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        for (TimingStatistics timing : timings) {
+                            timing.reset();
+                        }
+                        DBLockStatistics.WRITE.reset();
+                        DBLockStatistics.READ.reset();
+                    }
+                })
+                .show();
+    }
+
+    private void showBleStatistics() {
+        StringBuilder report = new StringBuilder();
+        for (BtLEQueueStatistics statistics : BtLEQueueStatistics.getAll()) {
+            report.append(statistics).append("\n");
+        }
+        if (report.length() == 0) {
+            report.append("No Bluetooth LE device has been connected yet.");
+        }
+        final String message = report.toString();
+
+        new AlertDialog.Builder(DebugActivity.this)
+                .setCancelable(true)
+                .setTitle("BLE queue statistics")
+                .setMessage(message)
+                .setPositiveButton("Export", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        exportBleStatistics(message);
+                    }
+                })
+                .setNeutralButton("Reset", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        BtLEQueueStatistics.resetAll();
+                    }
+                })
+                .show();
+    }
+
+    private void exportBleStatistics(String report) {
+        try {
+            String fileName = String.format(Locale.ROOT, "ble-statistics-%tY%<tm%<td-%<tH%<tM%<tS.txt", System.currentTimeMillis());
+            File file = new File(FileUtils.getExternalFilesDir(), fileName);
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(report.getBytes(Charset.forName("UTF-8")));
+            }
+            GB.toast(DebugActivity.this, "Statistics exported to " + file.getPath(), Toast.LENGTH_LONG, GB.INFO);
+        } catch (IOException e) {
+            GB.toast(DebugActivity.this, "Exporting the statistics failed", Toast.LENGTH_LONG, GB.ERROR, e);
+        }
+    }
+
     private void deleteWidgetsPrefs() {
         WidgetPreferenceStorage widgetPreferenceStorage = new WidgetPreferenceStorage();
         widgetPreferenceStorage.deleteWidgetsPrefs(DebugActivity.this);
@@ -660,7 +782,15 @@ public class DebugActivity extends AbstractGBActivity {
     }
 
     private void testNewFunctionality() {
-        GBApplication.deviceService().onTestNewFunction();
+        selectedDeviceService().onTestNewFunction();
+    }
+
+    /**
+     * The device specific actions only go to the selected device, the simulated
+     * notifications, calls and music go to all devices.
+     */
+    private DeviceService selectedDeviceService() {
+        return GBApplication.deviceService(GBApplication.app().getDeviceManager().getSelectedDevice());
     }
 
     private void shareLog() {
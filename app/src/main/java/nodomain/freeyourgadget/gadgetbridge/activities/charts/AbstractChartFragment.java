@@ -70,6 +70,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+import nodomain.freeyourgadget.gadgetbridge.util.TimingStatistics;
 
 /**
  * A base class fragment to be used with ChartsActivity. The fragment can supply
@@ -94,6 +95,15 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractChartFragment.class);
 
+    /**
+     * The time from starting the first refresh of a chart until it has been rendered.
+     */
+    public static final TimingStatistics FIRST_REFRESH_STATISTICS = new TimingStatistics("First chart refresh");
+    /**
+     * The time from starting any refresh of a chart until it has been rendered.
+     */
+    public static final TimingStatistics REFRESH_STATISTICS = new TimingStatistics("Chart refresh");
+
     private final Set<String> mIntentFilterActions;
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
@@ -102,6 +112,7 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
         }
     };
     private boolean mChartDirty = true;
+    private boolean mChartRendered;
     private AsyncTask refreshTask;
 
     public boolean isChartDirty() {
@@ -242,6 +253,18 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
         }
     }
 
+    /**
+     * Called when this fragment has been scrolled out of the activity. Cancels a refresh
+     * that has not finished yet, it is repeated when the fragment becomes visible again.
+     */
+    @Override
+    protected void onMadeInvisibleInActivity() {
+        super.onMadeInvisibleInActivity();
+        if (cancelRefresh()) {
+            mChartDirty = true;
+        }
+    }
+
     protected void showDateBar(boolean show) {
         getChartsHost().getDateBar().setVisibility(show ? View.VISIBLE : View.GONE);
     }
@@ -255,7 +278,7 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
     protected void onReceive(Context context, Intent intent) {
         String action = intent.getAction();
         if (ChartsHost.REFRESH.equals(action)) {
-            refresh();
+            refreshIfVisible();
         } else if (ChartsHost.DATE_NEXT_DAY.equals(action)) {
             handleDate(getStartDate(), getEndDate(),+1);
         } else if (ChartsHost.DATE_PREV_DAY.equals(action)) {
@@ -414,14 +437,24 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
             if (chartsHost.getDevice() != null) {
                 mChartDirty = false;
                 updateDateInfo(getStartDate(), getEndDate());
-                if (refreshTask != null && refreshTask.getStatus() != AsyncTask.Status.FINISHED) {
-                    refreshTask.cancel(true);
-                }
+                cancelRefresh();
                 refreshTask = createRefreshTask("Visualizing data", getActivity()).execute();
             }
         }
     }
 
+    /**
+     * Cancels the current refresh, if it has not finished yet. Returns true if there was
+     * such a refresh.
+     */
+    private boolean cancelRefresh() {
+        if (refreshTask != null && refreshTask.getStatus() != AsyncTask.Status.FINISHED) {
+            refreshTask.cancel(true);
+            return true;
+        }
+        return false;
+    }
+
     /**
      * This method reads the data from the database, analyzes and prepares it for
      * the charts. This will be called from a background task, so there must not be
@@ -436,6 +469,10 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
     protected abstract void renderCharts();
 
     public DefaultChartsData<LineData> refresh(GBDevice gbDevice, List<? extends ActivitySample> samples) {
+        return refresh(gbDevice, SampleBlock.of(samples));
+    }
+
+    public DefaultChartsData<LineData> refresh(GBDevice gbDevice, SampleBlock samples) {
 //        Calendar cal = GregorianCalendar.getInstance();
 //        cal.clear();
         TimestampTranslation tsTranslation = new TimestampTranslation();
@@ -459,14 +496,12 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
             List<Entry> notWornEntries = new ArrayList<>(numEntries);
             boolean hr = supportsHeartrate(gbDevice);
             List<Entry> heartrateEntries = hr ? new ArrayList<Entry>(numEntries) : null;
-            List<Integer> colors = new ArrayList<>(numEntries); // this is kinda inefficient...
             int lastHrSampleIndex = -1;
             HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
 
             for (int i = 0; i < numEntries; i++) {
-                ActivitySample sample = samples.get(i);
-                int type = sample.getKind();
-                int ts = tsTranslation.shorten(sample.getTimestamp());
+                int type = samples.getKind(i);
+                int ts = tsTranslation.shorten(samples.getTimestamp(i));
 
 //                System.out.println(ts);
 //                ts = i;
@@ -481,7 +516,7 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
 //                    dateStringTo = dateFormat.format(date);
 //                }
 
-                float movement = sample.getIntensity();
+                float movement = samples.getIntensity(i);
 
                 float value = movement;
                 switch (type) {
@@ -531,13 +566,14 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
                         }
                         activityEntries.add(createLineEntry(value, ts));
                 }
-                if (hr && sample.getKind() != ActivityKind.TYPE_NOT_WORN && heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
+                int heartRate = samples.getHeartRate(i);
+                if (hr && type != ActivityKind.TYPE_NOT_WORN && heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
                     if (lastHrSampleIndex > -1 && ts - lastHrSampleIndex > 1800*HeartRateUtils.MAX_HR_MEASUREMENTS_GAP_MINUTES) {
                         heartrateEntries.add(createLineEntry(0, lastHrSampleIndex + 1));
                         heartrateEntries.add(createLineEntry(0, ts - 1));
                     }
 
-                    heartrateEntries.add(createLineEntry(sample.getHeartRate(), ts));
+                    heartrateEntries.add(createLineEntry(heartRate, ts));
                     lastHrSampleIndex = ts;
                 }
 
@@ -569,6 +605,17 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
             }
 
 
+            if (ChartDownsampler.isEnabled()) {
+                int maxEntries = ChartDownsampler.getMaxEntries();
+                activityEntries = ChartDownsampler.downsample(activityEntries, maxEntries);
+                deepSleepEntries = ChartDownsampler.downsample(deepSleepEntries, maxEntries);
+                lightSleepEntries = ChartDownsampler.downsample(lightSleepEntries, maxEntries);
+                notWornEntries = ChartDownsampler.downsample(notWornEntries, maxEntries);
+                if (hr) {
+                    heartrateEntries = ChartDownsampler.downsample(heartrateEntries, maxEntries);
+                }
+            }
+
             List<ILineDataSet> lineDataSets = new ArrayList<>();
             LineDataSet activitySet = createDataSet(activityEntries, akActivity.color, "Activity");
             lineDataSets.add(activitySet);
@@ -658,10 +705,11 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
     }
 
     public class RefreshTask extends DBAccess {
+        private final long startNanos = System.nanoTime();
         private ChartsData chartsData;
 
         public RefreshTask(String task, Context context) {
-            super(task, context);
+            super(task, context, true);
         }
 
         @Override
@@ -681,6 +729,12 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
             if (activity != null && !activity.isFinishing() && !activity.isDestroyed()) {
                 updateChartsnUIThread(chartsData);
                 renderCharts();
+                long nanos = System.nanoTime() - startNanos;
+                REFRESH_STATISTICS.record(nanos);
+                if (!mChartRendered) {
+                    mChartRendered = true;
+                    FIRST_REFRESH_STATISTICS.record(nanos);
+                }
             } else {
                 LOG.info("Not rendering charts because activity is not available anymore");
             }
@@ -17,7 +17,6 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.activities.charts;
 
-import android.app.Activity;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -50,10 +49,12 @@ import java.util.Locale;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityAmountCache;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityDataPrecomputer;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityRollups;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
 
 
 public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
@@ -74,6 +75,10 @@ public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
     protected ChartsData refreshInBackground(ChartsHost chartsHost, DBHandler db, GBDevice device) {
         Calendar day = Calendar.getInstance();
         day.setTime(chartsHost.getEndDate());
+        if (!ActivityRollups.isAvailable(device)) {
+            // the rollups are built in the background, until then the samples are analyzed
+            ActivityDataPrecomputer.scheduleIfIdle(device);
+        }
         //NB: we could have omitted the day, but this way we can move things to the past easily
         DayData dayData = refreshDayPie(db, day, device);
         WeekChartsData weekBeforeData = refreshWeekBeforeData(db, mWeekChart, day, device);
@@ -128,8 +133,10 @@ public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
         long daily_balance = 0;
         TOTAL_DAYS_FOR_AVERAGE=0;
 
+        // all days at once, with a single scan over the samples of the days not cached yet
+        ActivityAmounts[] amountsOfDays = ActivityAmountCache.getActivityAmountsOfDays(db, device, day, TOTAL_DAYS, mOffsetHours);
         for (int counter = 0; counter < TOTAL_DAYS; counter++) {
-            ActivityAmounts amounts = getActivityAmountsForDay(db, day, device);
+            ActivityAmounts amounts = amountsOfDays[counter];
             daily_balance=calculateBalance(amounts);
             if (daily_balance > 0) {
                 TOTAL_DAYS_FOR_AVERAGE++;
@@ -287,22 +294,6 @@ public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
         yAxisRight.setTextColor(CHART_TEXT_COLOR);
     }
 
-    private List<? extends ActivitySample> getSamplesOfDay(DBHandler db, Calendar day, int offsetHours, GBDevice device) {
-        int startTs;
-        int endTs;
-
-        day = (Calendar) day.clone(); // do not modify the caller's argument
-        day.set(Calendar.HOUR_OF_DAY, 0);
-        day.set(Calendar.MINUTE, 0);
-        day.set(Calendar.SECOND, 0);
-        day.add(Calendar.HOUR, offsetHours);
-
-        startTs = (int) (day.getTimeInMillis() / 1000);
-        endTs = startTs + 24 * 60 * 60 - 1;
-
-        return getSamples(db, device, startTs, endTs);
-    }
-
     @Override
     protected List<? extends ActivitySample> getSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
         return super.getAllSamples(db, device, tsFrom, tsTo);
@@ -337,26 +328,7 @@ public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
     }
 
     private ActivityAmounts getActivityAmountsForDay(DBHandler db, Calendar day, GBDevice device) {
-
-        LimitedQueue activityAmountCache = null;
-        ActivityAmounts amounts = null;
-
-        Activity activity = getActivity();
-        int key = (int) (day.getTimeInMillis() / 1000) + (mOffsetHours * 3600);
-        if (activity != null) {
-            activityAmountCache = ((ChartsActivity) activity).mActivityAmountCache;
-            amounts = (ActivityAmounts) (activityAmountCache.lookup(key));
-        }
-
-        if (amounts == null) {
-            ActivityAnalysis analysis = new ActivityAnalysis();
-            amounts = analysis.calculateActivityAmounts(getSamplesOfDay(db, day, mOffsetHours, device));
-            if (activityAmountCache != null) {
-                activityAmountCache.add(key, amounts);
-            }
-        }
-
-        return amounts;
+        return ActivityAmountCache.getActivityAmountsOfDay(db, device, day, mOffsetHours);
     }
 
     private int getRangeDays(){
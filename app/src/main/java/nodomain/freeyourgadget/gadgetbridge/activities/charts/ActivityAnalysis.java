@@ -20,8 +20,8 @@ package nodomain.freeyourgadget.gadgetbridge.activities.charts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Iterator;
 
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
@@ -31,74 +31,107 @@ import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 public class ActivityAnalysis {
     public static final Logger LOG = LoggerFactory.getLogger(ActivityAnalysis.class);
 
-    // store raw steps and duration
-    protected HashMap<Integer, Long> stats = new HashMap<Integer, Long>();
+    // store the duration in seconds per raw step count, indexed by the step count
+    protected long[] stats = new long[256];
     // max speed determined from samples
     private int maxSpeed = 0;
 
-    public ActivityAmounts calculateActivityAmounts(List<? extends ActivitySample> samples) {
+    public ActivityAmounts calculateActivityAmounts(Iterable<? extends ActivitySample> samples) {
+        Iterator<? extends ActivitySample> iterator = samples.iterator();
+        SampleBlock block = new SampleBlock();
+        block.fill(iterator);
+        return calculateActivityAmounts(block, iterator);
+    }
+
+    public ActivityAmounts calculateActivityAmounts(SampleBlock samples) {
+        return calculateActivityAmounts(samples, null);
+    }
+
+    /**
+     * Analyzes the given block and, if more is not null, all the blocks subsequently read
+     * from it. The block is only refilled when all of its samples have been processed.
+     */
+    private ActivityAmounts calculateActivityAmounts(SampleBlock block, Iterator<? extends ActivitySample> more) {
         ActivityAmount deepSleep = new ActivityAmount(ActivityKind.TYPE_DEEP_SLEEP);
         ActivityAmount lightSleep = new ActivityAmount(ActivityKind.TYPE_LIGHT_SLEEP);
         ActivityAmount notWorn = new ActivityAmount(ActivityKind.TYPE_NOT_WORN);
         ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
+        ActivityAmount[] amounts = {deepSleep, lightSleep, notWorn, activity};
+        // first and last timestamp per amount, only turned into dates at the end
+        int[] startTimestamps = new int[amounts.length];
+        int[] endTimestamps = new int[amounts.length];
+        boolean[] seen = new boolean[amounts.length];
+
+        int previousAmount = -1;
+        int previousTimestamp = 0;
+        int previousRawKind = 0;
+        do {
+            int size = block.size();
+            for (int i = 0; i < size; i++) {
+                int kind = block.getKind(i);
+                int amount;
+                switch (kind) {
+                    case ActivityKind.TYPE_DEEP_SLEEP:
+                        amount = 0;
+                        break;
+                    case ActivityKind.TYPE_LIGHT_SLEEP:
+                        amount = 1;
+                        break;
+                    case ActivityKind.TYPE_NOT_WORN:
+                        amount = 2;
+                        break;
+                    case ActivityKind.TYPE_ACTIVITY:
+                    default:
+                        amount = 3;
+                        break;
+                }
 
-        ActivityAmount previousAmount = null;
-        ActivitySample previousSample = null;
-        for (ActivitySample sample : samples) {
-            ActivityAmount amount;
-            switch (sample.getKind()) {
-                case ActivityKind.TYPE_DEEP_SLEEP:
-                    amount = deepSleep;
-                    break;
-                case ActivityKind.TYPE_LIGHT_SLEEP:
-                    amount = lightSleep;
-                    break;
-                case ActivityKind.TYPE_NOT_WORN:
-                    amount = notWorn;
-                    break;
-                case ActivityKind.TYPE_ACTIVITY:
-                default:
-                    amount = activity;
-                    break;
-            }
-
-            int steps = sample.getSteps();
-            if (steps > 0) {
-                amount.addSteps(steps);
-            }
-
-            if (previousSample != null) {
-                long timeDifference = sample.getTimestamp() - previousSample.getTimestamp();
-                if (previousSample.getRawKind() == sample.getRawKind()) {
-                    amount.addSeconds(timeDifference);
-                } else {
-                    long sharedTimeDifference = (long) (timeDifference / 2.0f);
-                    previousAmount.addSeconds(sharedTimeDifference);
-                    amount.addSeconds(sharedTimeDifference);
+                int steps = block.getSteps(i);
+                if (steps > 0) {
+                    amounts[amount].addSteps(steps);
                 }
 
-                // add time
-                if (steps > 0 && sample.getKind() == ActivityKind.TYPE_ACTIVITY) {
-                    if (steps > maxSpeed) {
-                        maxSpeed = steps;
+                int timestamp = block.getTimestamp(i);
+                int rawKind = block.getRawKind(i);
+                if (previousAmount >= 0) {
+                    long timeDifference = timestamp - previousTimestamp;
+                    if (previousRawKind == rawKind) {
+                        amounts[amount].addSeconds(timeDifference);
+                    } else {
+                        long sharedTimeDifference = (long) (timeDifference / 2.0f);
+                        amounts[previousAmount].addSeconds(sharedTimeDifference);
+                        amounts[amount].addSeconds(sharedTimeDifference);
                     }
 
-                    if (!stats.containsKey(steps)) {
-//                        LOG.debug("Adding: " + steps);
-                        stats.put(steps, timeDifference);
-                    } else {
-                        long time = stats.get(steps);
-//                        LOG.debug("Updating: " + steps + " " + timeDifference + time);
-                        stats.put(steps, timeDifference + time);
+                    // add time
+                    if (steps > 0 && kind == ActivityKind.TYPE_ACTIVITY) {
+                        if (steps > maxSpeed) {
+                            maxSpeed = steps;
+                        }
+                        if (steps >= stats.length) {
+                            stats = Arrays.copyOf(stats, Math.max(steps + 1, stats.length * 2));
+                        }
+                        stats[steps] += timeDifference;
                     }
                 }
-            }
 
-            amount.setStartDate(sample.getTimestamp());
-            amount.setEndDate(sample.getTimestamp());
+                if (!seen[amount]) {
+                    startTimestamps[amount] = timestamp;
+                    seen[amount] = true;
+                }
+                endTimestamps[amount] = timestamp;
+
+                previousAmount = amount;
+                previousTimestamp = timestamp;
+                previousRawKind = rawKind;
+            }
+        } while (more != null && block.fill(more));
 
-            previousAmount = amount;
-            previousSample = sample;
+        for (int i = 0; i < amounts.length; i++) {
+            if (seen[i]) {
+                amounts[i].setStartDate(startTimestamps[i]);
+                amounts[i].setEndDate(endTimestamps[i]);
+            }
         }
 
         ActivityAmounts result = new ActivityAmounts();
@@ -120,7 +153,14 @@ public class ActivityAnalysis {
         return result;
     }
 
-    int calculateTotalSteps(List<? extends ActivitySample> samples) {
+    /**
+     * Returns the highest step count of a single activity sample seen so far.
+     */
+    public int getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    int calculateTotalSteps(Iterable<? extends ActivitySample> samples) {
         int totalSteps = 0;
         for (ActivitySample sample : samples) {
             int steps = sample.getSteps();
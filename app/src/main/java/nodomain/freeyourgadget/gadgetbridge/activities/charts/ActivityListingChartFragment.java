@@ -46,6 +46,10 @@ import java.util.List;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityDataPrecomputer;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.StepSessions;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
@@ -107,7 +111,7 @@ public class ActivityListingChartFragment extends AbstractChartFragment {
         String action = intent.getAction();
         if (action.equals(ChartsHost.REFRESH)) {
             // TODO: use LimitLines to visualize smart alarms?
-            refresh();
+            refreshIfVisible();
         } else {
             super.onReceive(context, intent);
         }
@@ -115,19 +119,38 @@ public class ActivityListingChartFragment extends AbstractChartFragment {
 
     @Override
     protected ChartsData refreshInBackground(ChartsHost chartsHost, DBHandler db, GBDevice device) {
-        List<? extends ActivitySample> activitySamples;
-        activitySamples = getSamples(db, device);
         List<ActivitySession> stepSessions = null;
         ActivitySession ongoingSession = null;
         StepAnalysis stepAnalysis = new StepAnalysis();
         boolean isEmptySummary = false;
 
-        if (activitySamples != null) {
-            stepSessions = stepAnalysis.calculateStepSessions(activitySamples);
+        // prefer the stored sessions, and only analyze the samples of the day if there are none
+        SampleProvider<? extends AbstractActivitySample> provider = getProvider(db, device);
+        int tsFrom = getDayStart(getTSEnd());
+        int tsTo = tsFrom + 24 * 60 * 60 - 1;
+        tsDateTo = tsTo;
+        Integer totalSteps = null;
+        stepSessions = StepSessions.getStepSessions(provider, tsFrom, tsTo);
+        if (stepSessions != null) {
+            totalSteps = StepSessions.getTotalSteps(provider, tsFrom, tsTo);
+        }
+        if (stepSessions == null && !StepSessions.isAvailable(device)) {
+            // build them in the background for the next time
+            ActivityDataPrecomputer.scheduleIfIdle(device);
+        }
+        if (stepSessions == null || totalSteps == null) {
+            List<? extends ActivitySample> activitySamples = getSamples(db, device);
+            stepSessions = activitySamples != null ? stepAnalysis.calculateStepSessions(activitySamples) : null;
+        }
+
+        if (stepSessions != null) {
             if (stepSessions.toArray().length == 0) {
                 isEmptySummary = true;
             }
             ActivitySession stepSessionsSummary = stepAnalysis.calculateSummary(stepSessions, isEmptySummary);
+            if (totalSteps != null) {
+                stepSessionsSummary.setTotalDaySteps(totalSteps);
+            }
             stepSessions.add(0, stepSessionsSummary);
             ActivitySession emptySession = new ActivitySession();
             emptySession.setSessionType(ActivitySession.SESSION_EMPTY);
@@ -175,15 +198,19 @@ public class ActivityListingChartFragment extends AbstractChartFragment {
 
     @Override
     protected List<? extends ActivitySample> getSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
+        tsFrom = getDayStart(tsTo); //we need today initially, which is the end of the time range
+        tsTo = tsFrom + 24 * 60 * 60 - 1;
+        tsDateTo = tsTo;
+        return getAllSamples(db, device, tsFrom, tsTo);
+    }
+
+    private int getDayStart(int timestamp) {
         Calendar day = Calendar.getInstance();
-        day.setTimeInMillis(tsTo * 1000L); //we need today initially, which is the end of the time range
+        day.setTimeInMillis(timestamp * 1000L);
         day.set(Calendar.HOUR_OF_DAY, 0); //and we set time for the start and end of the same day
         day.set(Calendar.MINUTE, 0);
         day.set(Calendar.SECOND, 0);
-        tsFrom = (int) (day.getTimeInMillis() / 1000);
-        tsTo = tsFrom + 24 * 60 * 60 - 1;
-        tsDateTo = tsTo;
-        return getAllSamples(db, device, tsFrom, tsTo);
+        return (int) (day.getTimeInMillis() / 1000);
     }
 
     private void showOngoingActivitySnackbar(ActivitySession ongoingSession) {
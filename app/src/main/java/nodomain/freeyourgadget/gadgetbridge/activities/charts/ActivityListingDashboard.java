@@ -2,6 +2,7 @@ package nodomain.freeyourgadget.gadgetbridge.activities.charts;
 
 import android.app.DatePickerDialog;
 import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -28,11 +29,13 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.database.DBAccess;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityDataPrecomputer;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIterator;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.StepSessions;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
@@ -45,6 +48,7 @@ public class ActivityListingDashboard extends DialogFragment {
     private int timeFrom;
     private int timeTo;
     private View fragmentView;
+    private AsyncTask refreshTask;
 
     public ActivityListingDashboard() {
 
@@ -148,7 +152,11 @@ public class ActivityListingDashboard extends DialogFragment {
                 battery_status_time_span_text.setText(text);
                 battery_status_date_from_text.setText(DateTimeUtils.formatDate(new Date(timeFrom * 1000L)));
                 battery_status_date_to_text.setText(DateTimeUtils.formatDate(new Date(timeTo * 1000L)));
-                createRefreshTask("Visualizing data", getActivity()).execute();
+                // a refresh of a previously selected time span is not needed anymore
+                if (refreshTask != null && refreshTask.getStatus() != AsyncTask.Status.FINISHED) {
+                    refreshTask.cancel(true);
+                }
+                refreshTask = createRefreshTask("Visualizing data", getActivity()).execute();
             }
 
             @Override
@@ -198,16 +206,28 @@ public class ActivityListingDashboard extends DialogFragment {
     private ActivitySession get_data(GBDevice gbDevice, DBHandler db, int timeFrom, int timeTo) {
 
         List<ActivitySession> stepSessions;
-        List<? extends ActivitySample> activitySamples = getAllSamples(db, gbDevice, timeFrom, timeTo);
         StepAnalysis stepAnalysis = new StepAnalysis();
+        SampleProvider<? extends AbstractActivitySample> provider = getProvider(db, gbDevice);
 
-        boolean isEmptySummary = false;
-        if (activitySamples != null) {
-            stepSessions = stepAnalysis.calculateStepSessions(activitySamples);
-            if (stepSessions.toArray().length == 0) {
-                isEmptySummary = true;
+        Integer totalSteps = null;
+        stepSessions = StepSessions.getStepSessions(provider, timeFrom, timeTo);
+        if (stepSessions != null) {
+            totalSteps = StepSessions.getTotalSteps(provider, timeFrom, timeTo);
+        }
+        if (stepSessions == null && !StepSessions.isAvailable(gbDevice)) {
+            // build them in the background for the next time
+            ActivityDataPrecomputer.scheduleIfIdle(gbDevice);
+        }
+        if (stepSessions == null || totalSteps == null) {
+            // the time span may be up to a year, so do not load all samples at once
+            try (SampleIterator<? extends AbstractActivitySample> activitySamples = provider.iterateAllActivitySamples(timeFrom, timeTo)) {
+                stepSessions = stepAnalysis.calculateStepSessions(activitySamples);
             }
-            stepSessionsSummary = stepAnalysis.calculateSummary(stepSessions, isEmptySummary);
+        }
+        boolean isEmptySummary = stepSessions.isEmpty();
+        stepSessionsSummary = stepAnalysis.calculateSummary(stepSessions, isEmptySummary);
+        if (totalSteps != null) {
+            stepSessionsSummary.setTotalDaySteps(totalSteps);
         }
         return stepSessionsSummary;
     }
@@ -217,11 +237,6 @@ public class ActivityListingDashboard extends DialogFragment {
         return coordinator.getSampleProvider(device, db.getDaoSession());
     }
 
-    protected List<? extends ActivitySample> getAllSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
-        SampleProvider<? extends ActivitySample> provider = getProvider(db, device);
-        return provider.getAllActivitySamples(tsFrom, tsTo);
-    }
-
     void indicate_progress(boolean inProgress) {
         LinearLayout activity_list_dashboard_results_layout = fragmentView.findViewById(R.id.activity_list_dashboard_results_layout);
         RelativeLayout activity_list_dashboard_loading_layout = fragmentView.findViewById(R.id.activity_list_dashboard_loading_layout);
@@ -278,7 +293,7 @@ public class ActivityListingDashboard extends DialogFragment {
     public class RefreshTask extends DBAccess {
 
         public RefreshTask(String task, Context context) {
-            super(task, context);
+            super(task, context, true);
         }
 
         @Override
@@ -120,7 +120,7 @@ public class ActivitySleepChartFragment extends AbstractChartFragment {
             mSmartAlarmTo = intent.getIntExtra("smartalarm_to", -1);
             mTimestampFrom = intent.getIntExtra("recording_base_timestamp", -1);
             mSmartAlarmGoneOff = intent.getIntExtra("alarm_gone_off", -1);
-            refresh();
+            refreshIfVisible();
         } else {
             super.onReceive(context, intent);
         }
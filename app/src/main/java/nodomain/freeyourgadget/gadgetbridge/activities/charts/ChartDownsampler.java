@@ -0,0 +1,123 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import android.util.DisplayMetrics;
+
+import com.github.mikephil.charting.data.Entry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
+
+/**
+ * Reduces the entries of a chart series to about one per pixel of the screen width, so
+ * that long ranges do not push hundreds of thousands of entries into the charts.
+ * <p/>
+ * Uses min/max bucketing (M4): the x range is split into equally wide buckets, and
+ * of each bucket only the first, last, minimum and maximum entry are kept. Peaks, and the
+ * drops to zero at the transitions between activity kinds, are thereby preserved.
+ */
+public class ChartDownsampler {
+    // entries kept per bucket: first, min, max, last
+    private static final int ENTRIES_PER_BUCKET = 4;
+
+    /**
+     * Returns true unless downsampling has been disabled in the charts preferences.
+     */
+    public static boolean isEnabled() {
+        return GBApplication.getPrefs().getBoolean(GBPrefs.CHART_DOWNSAMPLING, true);
+    }
+
+    /**
+     * Returns the number of entries a series is reduced to, the larger screen dimension
+     * in pixels, so that landscape charts are not reduced too much.
+     */
+    public static int getMaxEntries() {
+        DisplayMetrics metrics = GBApplication.getContext().getResources().getDisplayMetrics();
+        return Math.max(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    /**
+     * Downsamples the given series to the screen size if enabled in the preferences.
+     */
+    public static List<Entry> downsample(List<Entry> entries) {
+        if (!isEnabled()) {
+            return entries;
+        }
+        return downsample(entries, getMaxEntries());
+    }
+
+    /**
+     * Reduces the given series to at most about maxEntries entries.
+     *
+     * @param entries the entries, sorted by x value
+     * @return the given list, if it is small enough, otherwise a new list
+     */
+    public static List<Entry> downsample(List<Entry> entries, int maxEntries) {
+        int size = entries.size();
+        int buckets = maxEntries / ENTRIES_PER_BUCKET;
+        if (size <= maxEntries || buckets < 1) {
+            return entries;
+        }
+        float minX = entries.get(0).getX();
+        float bucketWidth = (entries.get(size - 1).getX() - minX) / buckets;
+        if (bucketWidth <= 0) {
+            return entries;
+        }
+
+        List<Entry> result = new ArrayList<>(buckets * ENTRIES_PER_BUCKET);
+        int[] kept = new int[ENTRIES_PER_BUCKET];
+        int start = 0;
+        while (start < size) {
+            int bucket = (int) ((entries.get(start).getX() - minX) / bucketWidth);
+            float bucketEnd = minX + (bucket + 1) * bucketWidth;
+            boolean lastBucket = bucket >= buckets - 1;
+            int min = start;
+            int max = start;
+            int end = start + 1;
+            while (end < size && (lastBucket || entries.get(end).getX() < bucketEnd)) {
+                float y = entries.get(end).getY();
+                if (y < entries.get(min).getY()) {
+                    min = end;
+                }
+                if (y > entries.get(max).getY()) {
+                    max = end;
+                }
+                end++;
+            }
+
+            kept[0] = start;
+            kept[1] = min;
+            kept[2] = max;
+            kept[3] = end - 1;
+            Arrays.sort(kept);
+            int previous = -1;
+            for (int index : kept) {
+                if (index != previous) {
+                    result.add(entries.get(index));
+                    previous = index;
+                }
+            }
+            start = end;
+        }
+        return result;
+    }
+}
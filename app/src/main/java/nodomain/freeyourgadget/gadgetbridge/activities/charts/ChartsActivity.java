@@ -60,7 +60,6 @@ import nodomain.freeyourgadget.gadgetbridge.model.RecordedDataTypes;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
-import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 public class ChartsActivity extends AbstractGBFragmentActivity implements ChartsHost {
@@ -73,7 +72,6 @@ public class ChartsActivity extends AbstractGBFragmentActivity implements Charts
     private Date mEndDate;
     private SwipeRefreshLayout swipeLayout;
 
-    LimitedQueue mActivityAmountCache = new LimitedQueue(60);
     ArrayList<String> enabledTabsList;
 
     public static class ShowDurationDialog extends Dialog {
@@ -359,7 +357,7 @@ public class ChartsActivity extends AbstractGBFragmentActivity implements Charts
 
     private void fetchActivityData() {
         if (getDevice().isInitialized()) {
-            GBApplication.deviceService().onFetchRecordedData(RecordedDataTypes.TYPE_ACTIVITY);
+            GBApplication.deviceService(getDevice()).onFetchRecordedData(RecordedDataTypes.TYPE_ACTIVITY);
         } else {
             swipeLayout.setRefreshing(false);
             GB.toast(this, getString(R.string.device_not_connected), Toast.LENGTH_SHORT, GB.ERROR);
@@ -89,6 +89,7 @@ public class LiveActivityFragment extends AbstractChartFragment {
     private int mHeartRate;
     private int mMaxHeartRate = 0;
     private TimestampTranslation tsTranslation;
+    private GBDevice device;
 
     private class Steps {
         private int steps;
@@ -266,6 +267,7 @@ public class LiveActivityFragment extends AbstractChartFragment {
         IntentFilter filterLocal = new IntentFilter();
         filterLocal.addAction(DeviceService.ACTION_REALTIME_SAMPLES);
         tsTranslation = new TimestampTranslation();
+        device = getChartsHost().getDevice();
 
         View rootView = inflater.inflate(R.layout.fragment_live_activity, container, false);
 
@@ -347,7 +349,7 @@ public class LiveActivityFragment extends AbstractChartFragment {
         renderCharts();
 
         // have to enable it again and again to keep it measuring
-        GBApplication.deviceService().onEnableRealtimeHeartRateMeasurement(true);
+        GBApplication.deviceService(device).onEnableRealtimeHeartRateMeasurement(true);
     }
 
     private int getPulseIntervalMillis() {
@@ -366,8 +368,8 @@ public class LiveActivityFragment extends AbstractChartFragment {
             return;
         }
 
-        GBApplication.deviceService().onEnableRealtimeSteps(enable);
-        GBApplication.deviceService().onEnableRealtimeHeartRateMeasurement(enable);
+        GBApplication.deviceService(device).onEnableRealtimeSteps(enable);
+        GBApplication.deviceService(device).onEnableRealtimeHeartRateMeasurement(enable);
         if (enable) {
             if (getActivity() != null) {
                 getActivity().getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
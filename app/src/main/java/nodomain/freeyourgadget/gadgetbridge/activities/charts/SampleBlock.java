@@ -0,0 +1,165 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * A column-oriented copy of a range of activity samples, holding the values the analysis
+ * engines and chart builders need in primitive arrays. The (virtual) kind normalization
+ * of the sample providers is performed only once per sample, when the sample is added.
+ * <p/>
+ * A block is either filled completely via #of(Iterable), or reused as a fixed size window
+ * over a (cursor backed) sample iterator via #fill(Iterator), which keeps the memory
+ * consumption constant for arbitrary time spans.
+ */
+public final class SampleBlock {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private int size;
+    private int[] timestamps;
+    private int[] kinds;
+    private int[] rawKinds;
+    private int[] steps;
+    private int[] heartRates;
+    private float[] intensities;
+    private boolean[] trailing;
+
+    public SampleBlock() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SampleBlock(int capacity) {
+        capacity = Math.max(1, capacity);
+        timestamps = new int[capacity];
+        kinds = new int[capacity];
+        rawKinds = new int[capacity];
+        steps = new int[capacity];
+        heartRates = new int[capacity];
+        intensities = new float[capacity];
+        trailing = new boolean[capacity];
+    }
+
+    /**
+     * Returns a block containing all the given samples.
+     */
+    public static SampleBlock of(Iterable<? extends ActivitySample> samples) {
+        int capacity = DEFAULT_CAPACITY;
+        if (samples instanceof Collection) {
+            capacity = ((Collection<?>) samples).size();
+        }
+        SampleBlock block = new SampleBlock(capacity);
+        for (ActivitySample sample : samples) {
+            block.add(sample);
+        }
+        return block;
+    }
+
+    /**
+     * Appends the given sample, growing the block if necessary.
+     */
+    public void add(ActivitySample sample) {
+        if (size == timestamps.length) {
+            grow(size * 2);
+        }
+        timestamps[size] = sample.getTimestamp();
+        kinds[size] = sample.getKind();
+        rawKinds[size] = sample.getRawKind();
+        steps[size] = sample.getSteps();
+        heartRates[size] = sample.getHeartRate();
+        intensities[size] = sample.getIntensity();
+        trailing[size] = sample instanceof TrailingActivitySample;
+        size++;
+    }
+
+    /**
+     * Replaces the contents of this block with the next samples of the given iterator,
+     * at most as many as fit into the current capacity.
+     *
+     * @return true if at least one sample was read
+     */
+    public boolean fill(Iterator<? extends ActivitySample> samples) {
+        clear();
+        int capacity = timestamps.length;
+        while (size < capacity && samples.hasNext()) {
+            add(samples.next());
+        }
+        return size > 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * Returns the normalized activity kind, as returned by ActivitySample#getKind().
+     */
+    public int getKind(int index) {
+        return kinds[index];
+    }
+
+    public int getRawKind(int index) {
+        return rawKinds[index];
+    }
+
+    public int getSteps(int index) {
+        return steps[index];
+    }
+
+    public int getHeartRate(int index) {
+        return heartRates[index];
+    }
+
+    public float getIntensity(int index) {
+        return intensities[index];
+    }
+
+    /**
+     * Returns true if the sample at the given index is a TrailingActivitySample that was
+     * only added to extend the chart to the start or end of the displayed range.
+     */
+    public boolean isTrailing(int index) {
+        return trailing[index];
+    }
+
+    private void grow(int capacity) {
+        capacity = Math.max(capacity, DEFAULT_CAPACITY);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        rawKinds = Arrays.copyOf(rawKinds, capacity);
+        steps = Arrays.copyOf(steps, capacity);
+        heartRates = Arrays.copyOf(heartRates, capacity);
+        intensities = Arrays.copyOf(intensities, capacity);
+        trailing = Arrays.copyOf(trailing, capacity);
+    }
+}
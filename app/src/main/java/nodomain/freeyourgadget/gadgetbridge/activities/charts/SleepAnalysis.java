@@ -18,6 +18,7 @@ package nodomain.freeyourgadget.gadgetbridge.activities.charts;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
@@ -28,66 +29,86 @@ public class SleepAnalysis {
     public static final long MIN_SESSION_LENGTH = 5 * 60;
     public static final long MAX_WAKE_PHASE_LENGTH = 2 * 60 * 60;
 
-    public List<SleepSession> calculateSleepSessions(List<? extends ActivitySample> samples) {
+    public List<SleepSession> calculateSleepSessions(Iterable<? extends ActivitySample> samples) {
+        Iterator<? extends ActivitySample> iterator = samples.iterator();
+        SampleBlock block = new SampleBlock();
+        block.fill(iterator);
+        return calculateSleepSessions(block, iterator);
+    }
+
+    public List<SleepSession> calculateSleepSessions(SampleBlock samples) {
+        return calculateSleepSessions(samples, null);
+    }
+
+    private List<SleepSession> calculateSleepSessions(SampleBlock block, Iterator<? extends ActivitySample> more) {
         List<SleepSession> result = new ArrayList<>();
 
-        ActivitySample previousSample = null;
-        Date sleepStart = null;
-        Date sleepEnd = null;
+        boolean hasPreviousSample = false;
+        int previousTimestamp = 0;
+        boolean sleeping = false;
+        int sleepStart = 0;
+        int sleepEnd = 0;
         long lightSleepDuration = 0;
         long deepSleepDuration = 0;
         long durationSinceLastSleep = 0;
 
-        for (ActivitySample sample : samples) {
-            if (isSleep(sample)) {
-                if (sleepStart == null)
-                    sleepStart = getDateFromSample(sample);
-                sleepEnd = getDateFromSample(sample);
-
-                durationSinceLastSleep = 0;
-            } else {
-                //exclude "not worn" times from sleep sessions as this makes a discrepancy with the charts
-                if (lightSleepDuration + deepSleepDuration > MIN_SESSION_LENGTH)
-                    result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration));
-                sleepStart = null;
-                sleepEnd = null;
-                lightSleepDuration = 0;
-                deepSleepDuration = 0;
-            }
+        do {
+            int size = block.size();
+            for (int i = 0; i < size; i++) {
+                int kind = block.getKind(i);
+                int timestamp = block.getTimestamp(i);
+                if (isSleep(kind)) {
+                    if (!sleeping) {
+                        sleepStart = timestamp;
+                        sleeping = true;
+                    }
+                    sleepEnd = timestamp;
 
-            if (previousSample != null) {
-                long durationSinceLastSample = sample.getTimestamp() - previousSample.getTimestamp();
-                if (sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
-                    lightSleepDuration += durationSinceLastSample;
-                } else if (sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                    deepSleepDuration += durationSinceLastSample;
+                    durationSinceLastSleep = 0;
                 } else {
-                    durationSinceLastSleep += durationSinceLastSample;
-                    if (sleepStart != null && durationSinceLastSleep > MAX_WAKE_PHASE_LENGTH) {
-                        if (lightSleepDuration + deepSleepDuration > MIN_SESSION_LENGTH)
-                            result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration));
-                        sleepStart = null;
-                        sleepEnd = null;
-                        lightSleepDuration = 0;
-                        deepSleepDuration = 0;
+                    //exclude "not worn" times from sleep sessions as this makes a discrepancy with the charts
+                    if (lightSleepDuration + deepSleepDuration > MIN_SESSION_LENGTH)
+                        result.add(createSleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration));
+                    sleeping = false;
+                    lightSleepDuration = 0;
+                    deepSleepDuration = 0;
+                }
+
+                if (hasPreviousSample) {
+                    long durationSinceLastSample = timestamp - previousTimestamp;
+                    if (kind == ActivityKind.TYPE_LIGHT_SLEEP) {
+                        lightSleepDuration += durationSinceLastSample;
+                    } else if (kind == ActivityKind.TYPE_DEEP_SLEEP) {
+                        deepSleepDuration += durationSinceLastSample;
+                    } else {
+                        durationSinceLastSleep += durationSinceLastSample;
+                        if (sleeping && durationSinceLastSleep > MAX_WAKE_PHASE_LENGTH) {
+                            if (lightSleepDuration + deepSleepDuration > MIN_SESSION_LENGTH)
+                                result.add(createSleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration));
+                            sleeping = false;
+                            lightSleepDuration = 0;
+                            deepSleepDuration = 0;
+                        }
                     }
                 }
+
+                hasPreviousSample = true;
+                previousTimestamp = timestamp;
             }
+        } while (more != null && block.fill(more));
 
-            previousSample = sample;
-        }
         if (lightSleepDuration + deepSleepDuration > MIN_SESSION_LENGTH) {
-            result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration));
+            result.add(createSleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration));
         }
         return result;
     }
 
-    private boolean isSleep(ActivitySample sample) {
-        return sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP || sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP;
+    private boolean isSleep(int kind) {
+        return kind == ActivityKind.TYPE_DEEP_SLEEP || kind == ActivityKind.TYPE_LIGHT_SLEEP;
     }
 
-    private Date getDateFromSample(ActivitySample sample) {
-        return new Date(sample.getTimestamp() * 1000L);
+    private SleepSession createSleepSession(int sleepStart, int sleepEnd, long lightSleepDuration, long deepSleepDuration) {
+        return new SleepSession(new Date(sleepStart * 1000L), new Date(sleepEnd * 1000L), lightSleepDuration, deepSleepDuration);
     }
 
 
@@ -97,7 +118,7 @@ public class SleepAnalysis {
         private final long lightSleepDuration;
         private final long deepSleepDuration;
 
-        private SleepSession(Date sleepStart,
+        public SleepSession(Date sleepStart,
                              Date sleepEnd,
                              long lightSleepDuration,
                              long deepSleepDuration) {
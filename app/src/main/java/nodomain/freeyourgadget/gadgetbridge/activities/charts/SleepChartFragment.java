@@ -60,6 +60,10 @@ import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
 import nodomain.freeyourgadget.gadgetbridge.activities.charts.SleepAnalysis.SleepSession;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityDataPrecomputer;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SleepSessions;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
@@ -101,7 +105,7 @@ public class SleepChartFragment extends AbstractChartFragment {
             samples = getSamplesofSleep(db, device);
         }
 
-        MySleepChartsData mySleepChartsData = refreshSleepAmounts(device, samples);
+        MySleepChartsData mySleepChartsData = refreshSleepAmounts(device, getSleepSessions(db, device, samples));
 
         if (!CHARTS_SLEEP_RANGE_24H) {
             if (mySleepChartsData.sleepSessions.size() > 0) {
@@ -116,18 +120,38 @@ public class SleepChartFragment extends AbstractChartFragment {
                 }
             }
         }
-        DefaultChartsData chartsData = refresh(device, samples);
-        Triple<Float, Integer, Integer> hrData = calculateHrData(samples);
-        Triple<Float, Float, Float> intensityData = calculateIntensityData(samples);
+        SampleBlock block = SampleBlock.of(samples);
+        DefaultChartsData chartsData = refresh(device, block);
+        Triple<Float, Integer, Integer> hrData = calculateHrData(block);
+        Triple<Float, Float, Float> intensityData = calculateIntensityData(block);
         return new MyChartsData(mySleepChartsData, chartsData, hrData.getLeft(), hrData.getMiddle(), hrData.getRight(), intensityData.getLeft(), intensityData.getMiddle(), intensityData.getRight());
     }
 
 
 
-    private MySleepChartsData refreshSleepAmounts(GBDevice mGBDevice, List<? extends ActivitySample> samples) {
-        SleepAnalysis sleepAnalysis = new SleepAnalysis();
-        List<SleepSession> sleepSessions = sleepAnalysis.calculateSleepSessions(samples);
+    /**
+     * Returns the stored sleep sessions starting in the time range of the given samples, or
+     * calculates them from the samples if there are none stored for the device. Missing
+     * sessions are built in the background, never by the chart itself.
+     */
+    private List<SleepSession> getSleepSessions(DBHandler db, GBDevice device, List<? extends ActivitySample> samples) {
+        if (samples.isEmpty()) {
+            return Collections.emptyList();
+        }
+        SampleProvider<? extends AbstractActivitySample> provider = getProvider(db, device);
+        List<SleepSession> sleepSessions = SleepSessions.getSleepSessions(provider,
+                samples.get(0).getTimestamp(), samples.get(samples.size() - 1).getTimestamp());
+        if (sleepSessions == null) {
+            if (!SleepSessions.isAvailable(device)) {
+                ActivityDataPrecomputer.scheduleIfIdle(device);
+            }
+            SleepAnalysis sleepAnalysis = new SleepAnalysis();
+            sleepSessions = sleepAnalysis.calculateSleepSessions(samples);
+        }
+        return sleepSessions;
+    }
 
+    private MySleepChartsData refreshSleepAmounts(GBDevice mGBDevice, List<SleepSession> sleepSessions) {
         PieData data = new PieData();
 
 
@@ -221,73 +245,56 @@ public class SleepChartFragment extends AbstractChartFragment {
         }
     }
 
-    private Triple<Float, Integer, Integer> calculateHrData(List<? extends ActivitySample> samples) {
-        if (samples.toArray().length < 1) {
-            return Triple.of(0f, 0, 0);
-        }
-
-        List<Integer> heartRateValues = new ArrayList<>();
+    private Triple<Float, Integer, Integer> calculateHrData(SampleBlock samples) {
+        int count = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        float sum = 0;
         HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
-        for (ActivitySample sample : samples) {
-            if (sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP || sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                int heartRate = sample.getHeartRate();
+        for (int i = 0; i < samples.size(); i++) {
+            if (isSleep(samples.getKind(i))) {
+                int heartRate = samples.getHeartRate(i);
                 if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
-                    heartRateValues.add(heartRate);
+                    min = Math.min(min, heartRate);
+                    max = Math.max(max, heartRate);
+                    sum += heartRate;
+                    count++;
                 }
             }
         }
-        if (heartRateValues.toArray().length < 1) {
+        if (count < 1) {
             return Triple.of(0f, 0, 0);
         }
 
-        int min = Collections.min(heartRateValues);
-        int max = Collections.max(heartRateValues);
-        int count = heartRateValues.toArray().length;
-        float sum = calculateSumOfInts(heartRateValues);
         float average = sum / count;
         return Triple.of(average, min, max);
     }
 
-    private float calculateIntensitySum(List<Float> samples) {
-        float result = 0;
-        for (Float sample : samples) {
-            result += sample;
-        }
-        return result;
-    }
-
-    private float calculateSumOfInts(List<Integer> samples) {
-        float result = 0;
-        for (Integer sample : samples) {
-            result += sample;
-        }
-        return result;
-    }
-
-    private Triple<Float, Float, Float> calculateIntensityData(List<? extends ActivitySample> samples) {
-        if (samples.toArray().length < 1) {
-            return Triple.of(0f, 0f, 0f);
-        }
-
-        List<Float> allIntensities = new ArrayList<>();
-
-        for (ActivitySample s : samples) {
-            if (s.getKind() == ActivityKind.TYPE_LIGHT_SLEEP || s.getKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                float intensity = s.getIntensity();
-                allIntensities.add(intensity);
+    private Triple<Float, Float, Float> calculateIntensityData(SampleBlock samples) {
+        int count = 0;
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        float sum = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            if (isSleep(samples.getKind(i))) {
+                float intensity = samples.getIntensity(i);
+                min = Math.min(min, intensity);
+                max = Math.max(max, intensity);
+                sum += intensity;
+                count++;
             }
         }
-        if (allIntensities.toArray().length < 1) {
+        if (count < 1) {
             return Triple.of(0f, 0f, 0f);
         }
 
-        Float min = Collections.min(allIntensities);
-        Float max = Collections.max(allIntensities);
-        Float sum = calculateIntensitySum(allIntensities);
-
         return Triple.of(sum, min, max);
     }
 
+    private boolean isSleep(int kind) {
+        return kind == ActivityKind.TYPE_LIGHT_SLEEP || kind == ActivityKind.TYPE_DEEP_SLEEP;
+    }
+
     private String buildYouSleptText(MySleepChartsData pieData) {
         final StringBuilder result = new StringBuilder();
         if (pieData.getSleepSessions().isEmpty()) {
@@ -358,7 +365,7 @@ public class SleepChartFragment extends AbstractChartFragment {
             mSmartAlarmTo = intent.getIntExtra("smartalarm_to", -1);
             mTimestampFrom = intent.getIntExtra("recording_base_timestamp", -1);
             mSmartAlarmGoneOff = intent.getIntExtra("alarm_gone_off", -1);
-            refresh();
+            refreshIfVisible();
         } else {
             super.onReceive(context, intent);
         }
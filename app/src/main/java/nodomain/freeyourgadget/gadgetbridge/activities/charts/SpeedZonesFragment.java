@@ -35,7 +35,6 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
@@ -74,8 +73,12 @@ public class SpeedZonesFragment extends AbstractChartFragment {
             distanceFactorCm = user.getHeightCm() * user.GENDER_FEMALE_DISTANCE_FACTOR / 1000;
         }*/
 
-        for (Map.Entry<Integer, Long> entry : analysis.stats.entrySet()) {
-            entries.add(new BarEntry(entry.getKey(), entry.getValue() / 60));
+        int maxSpeed = analysis.getMaxSpeed();
+        for (int steps = 1; steps <= maxSpeed; steps++) {
+            long seconds = analysis.stats[steps];
+            if (seconds != 0) {
+                entries.add(new BarEntry(steps, seconds / 60));
+            }
         }
 
         BarDataSet set = new BarDataSet(entries, "");
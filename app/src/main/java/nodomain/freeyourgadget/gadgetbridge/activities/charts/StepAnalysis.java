@@ -21,6 +21,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -29,13 +30,38 @@ import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
+import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 public class StepAnalysis {
     protected static final Logger LOG = LoggerFactory.getLogger(StepAnalysis.class);
     private int totalDailySteps = 0;
 
-    public List<ActivitySession> calculateStepSessions(List<? extends ActivitySample> samples) {
-        LOG.debug("get all samples activitysessions: " + samples.toArray().length);
+    /**
+     * Returns a string that changes whenever one of the settings affecting the detected
+     * sessions changes, so that stored sessions can be recomputed.
+     */
+    public static String getSettingsSignature() {
+        Prefs prefs = GBApplication.getPrefs();
+        return prefs.getInt("chart_list_min_session_length", 5)
+                + "/" + prefs.getInt("chart_list_max_idle_phase_length", 5)
+                + "/" + prefs.getInt("chart_list_min_steps_per_minute", 40)
+                + "/" + prefs.getInt("chart_list_min_steps_per_minute_for_run", 120)
+                + "/" + new ActivityUser().getStepLengthCm();
+    }
+
+    public List<ActivitySession> calculateStepSessions(Iterable<? extends ActivitySample> samples) {
+        Iterator<? extends ActivitySample> iterator = samples.iterator();
+        SampleBlock block = new SampleBlock();
+        block.fill(iterator);
+        return calculateStepSessions(block, iterator);
+    }
+
+    public List<ActivitySession> calculateStepSessions(SampleBlock samples) {
+        return calculateStepSessions(samples, null);
+    }
+
+    private List<ActivitySession> calculateStepSessions(SampleBlock block, Iterator<? extends ActivitySample> more) {
+        int sampleCount = 0;
         List<ActivitySession> result = new ArrayList<>();
         ActivityUser activityUser = new ActivityUser();
         final int MIN_SESSION_LENGTH = 60 * GBApplication.getPrefs().getInt("chart_list_min_session_length", 5);
@@ -46,101 +72,120 @@ public class StepAnalysis {
         final double MIN_SESSION_INTENSITY = Math.max(0, Math.min(1, MIN_STEPS_PER_MINUTE * 0.01));
         totalDailySteps = 0;
 
-        ActivitySample previousSample = null;
-        Date sessionStart = null;
+        boolean hasPreviousSample = false;
+        int previousTimestamp = 0;
+        boolean inSession = false;
+        int sessionStart = 0;
         Date sessionEnd;
         int activeSteps = 0; //steps that we count
         int stepsBetweenActivePeriods = 0; //steps during time when we maybe take a rest but then restart
         int durationSinceLastActiveStep = 0;
         int activityKind;
 
-        List<Integer> heartRateSum = new ArrayList<>();
-        List<Integer> heartRateBetweenActivePeriodsSum = new ArrayList<>();
+        // heart rates are only ever averaged, so keep sum and count instead of the values
+        int heartRateSum = 0;
+        int heartRateCount = 0;
+        int heartRateBetweenActivePeriodsSum = 0;
+        int heartRateBetweenActivePeriodsCount = 0;
 
         float activeIntensity = 0;
         float intensityBetweenActivePeriods = 0;
         HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
 
-        for (ActivitySample sample : samples) {
-            int steps = sample.getSteps();
-            if (steps > 0) {
-                totalDailySteps += steps;
-            }
-
-            if (sample.getKind() != ActivityKind.TYPE_SLEEP //anything but sleep counts
-                    && !(sample instanceof TrailingActivitySample)) { //trailing samples have wrong date and make trailing activity have 0 duration
-
-                if (sessionStart == null) {
-                    sessionStart = getDateFromSample(sample);
-                    activeSteps = sample.getSteps();
-                    activeIntensity = sample.getIntensity();
-                    heartRateSum = new ArrayList<>();
-                    if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                        heartRateSum.add(sample.getHeartRate());
-                    }
-                    durationSinceLastActiveStep = 0;
-                    stepsBetweenActivePeriods = 0;
-                    heartRateBetweenActivePeriodsSum = new ArrayList<>();
-                    previousSample = null;
+        do {
+            int size = block.size();
+            sampleCount += size;
+            for (int i = 0; i < size; i++) {
+                int steps = block.getSteps(i);
+                if (steps > 0) {
+                    totalDailySteps += steps;
                 }
-                if (previousSample != null) {
-                    int durationSinceLastSample = sample.getTimestamp() - previousSample.getTimestamp();
-
-                    if (sample.getSteps() > MIN_STEPS_PER_MINUTE || //either some steps
-                            (sample.getIntensity() > MIN_SESSION_INTENSITY && sample.getSteps() > 0)) { //or some intensity plus at least one step
-                        activeSteps += sample.getSteps() + stepsBetweenActivePeriods;
-                        activeIntensity += sample.getIntensity() + intensityBetweenActivePeriods;
-                        if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                            heartRateSum.add(sample.getHeartRate());
-                        }
-                        heartRateSum.addAll(heartRateBetweenActivePeriodsSum);
-                        heartRateBetweenActivePeriodsSum = new ArrayList<>();
-                        stepsBetweenActivePeriods = 0;
-                        intensityBetweenActivePeriods = 0;
-                        durationSinceLastActiveStep = 0;
 
-                    } else { //short break data to remember, we will add it to the rest later, if break not too long
-                        stepsBetweenActivePeriods += sample.getSteps();
-                        if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                            heartRateBetweenActivePeriodsSum.add(sample.getHeartRate());
+                if (block.getKind(i) != ActivityKind.TYPE_SLEEP //anything but sleep counts
+                        && !block.isTrailing(i)) { //trailing samples have wrong date and make trailing activity have 0 duration
+
+                    int timestamp = block.getTimestamp(i);
+                    float intensity = block.getIntensity(i);
+                    int heartRate = block.getHeartRate(i);
+
+                    if (!inSession) {
+                        inSession = true;
+                        sessionStart = timestamp;
+                        activeSteps = steps;
+                        activeIntensity = intensity;
+                        heartRateSum = 0;
+                        heartRateCount = 0;
+                        if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
+                            heartRateSum += heartRate;
+                            heartRateCount++;
                         }
-                        durationSinceLastActiveStep += durationSinceLastSample;
-                        intensityBetweenActivePeriods += sample.getIntensity();
+                        durationSinceLastActiveStep = 0;
+                        stepsBetweenActivePeriods = 0;
+                        heartRateBetweenActivePeriodsSum = 0;
+                        heartRateBetweenActivePeriodsCount = 0;
+                        hasPreviousSample = false;
                     }
-                    if (durationSinceLastActiveStep >= MAX_IDLE_PHASE_LENGTH) { //break too long, we split here
-
-                        int current = sample.getTimestamp();
-                        int starting = (int) (sessionStart.getTime() / 1000);
-                        int session_length = current - starting - durationSinceLastActiveStep;
-
-                        if (session_length >= MIN_SESSION_LENGTH) { //valid activity session
-                            int heartRateAverage = heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
-                            float distance = (float) (activeSteps * STEP_LENGTH_M);
-                            sessionEnd = new Date((sample.getTimestamp() - durationSinceLastActiveStep) * 1000L);
-                            activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
-                            ActivitySession activitySession = new ActivitySession(sessionStart, sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind);
-                            //activitySession.setSessionType(ActivitySession.SESSION_ONGOING);
-                            result.add(activitySession);
+                    if (hasPreviousSample) {
+                        int durationSinceLastSample = timestamp - previousTimestamp;
+
+                        if (steps > MIN_STEPS_PER_MINUTE || //either some steps
+                                (intensity > MIN_SESSION_INTENSITY && steps > 0)) { //or some intensity plus at least one step
+                            activeSteps += steps + stepsBetweenActivePeriods;
+                            activeIntensity += intensity + intensityBetweenActivePeriods;
+                            if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
+                                heartRateSum += heartRate;
+                                heartRateCount++;
+                            }
+                            heartRateSum += heartRateBetweenActivePeriodsSum;
+                            heartRateCount += heartRateBetweenActivePeriodsCount;
+                            heartRateBetweenActivePeriodsSum = 0;
+                            heartRateBetweenActivePeriodsCount = 0;
+                            stepsBetweenActivePeriods = 0;
+                            intensityBetweenActivePeriods = 0;
+                            durationSinceLastActiveStep = 0;
+
+                        } else { //short break data to remember, we will add it to the rest later, if break not too long
+                            stepsBetweenActivePeriods += steps;
+                            if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
+                                heartRateBetweenActivePeriodsSum += heartRate;
+                                heartRateBetweenActivePeriodsCount++;
+                            }
+                            durationSinceLastActiveStep += durationSinceLastSample;
+                            intensityBetweenActivePeriods += intensity;
+                        }
+                        if (durationSinceLastActiveStep >= MAX_IDLE_PHASE_LENGTH) { //break too long, we split here
+
+                            int session_length = timestamp - sessionStart - durationSinceLastActiveStep;
+
+                            if (session_length >= MIN_SESSION_LENGTH) { //valid activity session
+                                int heartRateAverage = heartRateCount > 0 ? heartRateSum / heartRateCount : 0;
+                                float distance = (float) (activeSteps * STEP_LENGTH_M);
+                                sessionEnd = new Date((timestamp - durationSinceLastActiveStep) * 1000L);
+                                activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
+                                ActivitySession activitySession = new ActivitySession(getDateFromTimestamp(sessionStart), sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind);
+                                //activitySession.setSessionType(ActivitySession.SESSION_ONGOING);
+                                result.add(activitySession);
+                            }
+                            inSession = false;
                         }
-                        sessionStart = null;
                     }
+                    hasPreviousSample = true;
+                    previousTimestamp = timestamp;
                 }
-                previousSample = sample;
             }
-        }
+        } while (more != null && block.fill(more));
+        LOG.debug("get all samples activitysessions: " + sampleCount);
         //trailing activity: make sure we show the last portion of the data as well in case no further activity is recorded yet
 
-        if (sessionStart != null && previousSample != null) {
-            int current = previousSample.getTimestamp();
-            int starting = (int) (sessionStart.getTime() / 1000);
-            int session_length = current - starting - durationSinceLastActiveStep;
+        if (inSession && hasPreviousSample) {
+            int session_length = previousTimestamp - sessionStart - durationSinceLastActiveStep;
 
             if (session_length >= MIN_SESSION_LENGTH) {
-                int heartRateAverage = heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
+                int heartRateAverage = heartRateCount > 0 ? heartRateSum / heartRateCount : 0;
                 float distance = (float) (activeSteps * STEP_LENGTH_M);
-                sessionEnd = getDateFromSample(previousSample);
+                sessionEnd = getDateFromTimestamp(previousTimestamp);
                 activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
-                ActivitySession ongoingActivity = new ActivitySession(sessionStart, sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind);
+                ActivitySession ongoingActivity = new ActivitySession(getDateFromTimestamp(sessionStart), sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind);
                 ongoingActivity.setSessionType(ActivitySession.SESSION_ONGOING);
                 result.add(ongoingActivity);
             }
@@ -222,7 +267,7 @@ public class StepAnalysis {
         return ActivityKind.TYPE_ACTIVITY;
     }
 
-    private Date getDateFromSample(ActivitySample sample) {
-        return new Date(sample.getTimestamp() * 1000L);
+    private Date getDateFromTimestamp(int timestamp) {
+        return new Date(timestamp * 1000L);
     }
 }
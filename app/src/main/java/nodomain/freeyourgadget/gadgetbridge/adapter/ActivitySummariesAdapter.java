@@ -17,16 +17,14 @@
 package nodomain.freeyourgadget.gadgetbridge.adapter;
 
 import android.content.Context;
+import android.os.CancellationSignal;
 import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
-import android.widget.Toast;
 
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,26 +34,22 @@ import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
-import de.greenrobot.dao.query.QueryBuilder;
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivitySummaryDataSource;
+import nodomain.freeyourgadget.gadgetbridge.database.DBAccess;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
-import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummaryDao;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryJsonSummary;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.FormatUtils;
-import nodomain.freeyourgadget.gadgetbridge.util.GB;
-
-import static nodomain.freeyourgadget.gadgetbridge.activities.ActivitySummariesFilter.ALL_DEVICES;
 
 public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<BaseActivitySummary> {
     protected static final Logger LOG = LoggerFactory.getLogger(ActivitySummariesAdapter.class);
+    private static final int PAGE_SIZE = 50;
+    /** how close to the end of the loaded items the next page is requested */
+    private static final int PREFETCH_DISTANCE = 10;
     private final GBDevice device;
     long dateFromFilter = 0;
     long dateToFilter = 0;
@@ -64,6 +58,10 @@ public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<Bas
     List<Long> itemsFilter;
     private int activityKindFilter;
     private int backgroundColor = 0;
+    private ActivitySummaryDataSource dataSource;
+    private ActivitySummaryDataSource.Totals totals = new ActivitySummaryDataSource.Totals();
+    private LoadPageTask loadTask;
+    private boolean hasMoreItems;
 
     public ActivitySummariesAdapter(Context context, GBDevice device, int activityKindFilter, long dateFromFilter, long dateToFilter, String nameContainsFilter, long deviceFilter, List itemsFilter) {
         super(context);
@@ -79,54 +77,46 @@ public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<Bas
 
     @Override
     public void loadItems() {
-        try (DBHandler handler = GBApplication.acquireDB()) {
-            BaseActivitySummaryDao summaryDao = handler.getDaoSession().getBaseActivitySummaryDao();
-            Device dbDevice = DBHelper.findDevice(device, handler.getDaoSession());
-
-            QueryBuilder<BaseActivitySummary> qb = summaryDao.queryBuilder();
-
-            if (deviceFilter == ALL_DEVICES) {
-                qb.orderDesc(BaseActivitySummaryDao.Properties.StartTime);
-            } else if (deviceFilter != 0) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.DeviceId.eq(
-                                deviceFilter)).orderDesc(BaseActivitySummaryDao.Properties.StartTime);
-            } else {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.DeviceId.eq(
-                                dbDevice.getId())).orderDesc(BaseActivitySummaryDao.Properties.StartTime);
-            }
-
-            if (activityKindFilter != 0) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.ActivityKind.eq(activityKindFilter));
-            }
-
-            if (dateFromFilter != 0) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.StartTime.gt(new Date(dateFromFilter)));
-            }
-            if (dateToFilter != 0) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.EndTime.lt(new Date(dateToFilter)));
-            }
-            if (nameContainsFilter != null && nameContainsFilter.length() > 0) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.Name.like("%" + nameContainsFilter + "%"));
-            }
-            if (itemsFilter != null) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.Id.in(itemsFilter));
-            }
+        // the filters may have changed, so drop a page still being loaded and start over
+        cancelLoading();
+        dataSource = new ActivitySummaryDataSource(device, activityKindFilter, dateFromFilter, dateToFilter, nameContainsFilter, deviceFilter, itemsFilter);
+        hasMoreItems = true;
+        loadTask = new LoadPageTask(dataSource, null);
+        loadTask.execute();
+    }
+
+    /**
+     * Loads the next page in the background, unless one is already being loaded or all
+     * items have been loaded.
+     */
+    private void loadNextPage() {
+        if (loadTask != null || !hasMoreItems || getCount() < 2) {
+            return;
+        }
+        loadTask = new LoadPageTask(dataSource, getItem(getCount() - 1));
+        loadTask.execute();
+    }
 
+    public void cancelLoading() {
+        if (loadTask != null) {
+            loadTask.cancelQuery();
+            loadTask = null;
+        }
+    }
 
-            List<BaseActivitySummary> allSummaries = new ArrayList<>();
-            allSummaries.add(new BaseActivitySummary());
-            allSummaries.addAll(qb.build().list());
-            setItems(allSummaries, true);
-        } catch (Exception e) {
-            GB.toast("Error loading activity summaries.", Toast.LENGTH_SHORT, GB.ERROR, e);
+    @Override
+    public View getView(int position, View view, ViewGroup parent) {
+        if (position >= getCount() - PREFETCH_DISTANCE) {
+            loadNextPage();
         }
+        return super.getView(position, view, parent);
+    }
+
+    /**
+     * Returns the data source of the currently shown items.
+     */
+    public ActivitySummaryDataSource getDataSource() {
+        return dataSource;
     }
 
     public void setActivityKindFilter(int filter) {
@@ -163,16 +153,6 @@ public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<Bas
                 .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         view = inflater.inflate(R.layout.activity_summary_dashboard_item, parent, false);
 
-        double durationSum = 0;
-        double caloriesBurntSum = 0;
-        double distanceSum = 0;
-        double activeSecondsSum = 0;
-        double firstItemDate = 0;
-        double lastItemDate = 0;
-        int activitiesCount = getCount() - 1;
-        int activityIcon = 0;
-        boolean activitySame = true;
-
         TextView durationSumView = view.findViewById(R.id.summary_dashboard_layout_duration_label);
         TextView caloriesBurntSumView = view.findViewById(R.id.summary_dashboard_layout_calories_label);
         TextView distanceSumView = view.findViewById(R.id.summary_dashboard_layout_distance_label);
@@ -184,41 +164,16 @@ public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<Bas
         ImageView activityIconView = view.findViewById(R.id.summary_dashboard_layout_activity_icon);
         ImageView activityIconBigView = view.findViewById(R.id.summary_dashboard_layout_big_activity_icon);
 
-        for (BaseActivitySummary sportitem : getItems()) {
-            if (sportitem.getStartTime() == null) continue; //first item is empty, for dashboard
-
-            if (firstItemDate == 0) firstItemDate = sportitem.getStartTime().getTime();
-            lastItemDate = sportitem.getEndTime().getTime();
-            durationSum += sportitem.getEndTime().getTime() - sportitem.getStartTime().getTime();
-
-            if (activityIcon == 0) {
-                activityIcon = sportitem.getActivityKind();
-            } else {
-                if (activityIcon != sportitem.getActivityKind()) {
-                    activitySame = false;
-                }
-            }
-
+        double durationSum = totals.durationMillis;
+        double caloriesBurntSum = totals.caloriesBurnt;
+        double distanceSum = totals.distanceMeters;
+        double activeSecondsSum = totals.activeSeconds;
+        double firstItemDate = totals.latestStartTime;
+        double lastItemDate = totals.earliestStartTime;
+        int activitiesCount = totals.count;
+        int activityIcon = totals.activityKind;
+        boolean activitySame = totals.sameActivityKind;
 
-            ActivitySummaryJsonSummary activitySummaryJsonSummary = new ActivitySummaryJsonSummary(sportitem);
-            JSONObject summarySubdata = activitySummaryJsonSummary.getSummaryData();
-
-            if (summarySubdata != null) {
-                try {
-                    if (summarySubdata.has("caloriesBurnt")) {
-                        caloriesBurntSum += summarySubdata.getJSONObject("caloriesBurnt").getDouble("value");
-                    }
-                    if (summarySubdata.has("distanceMeters")) {
-                        distanceSum += summarySubdata.getJSONObject("distanceMeters").getDouble("value");
-                    }
-                    if (summarySubdata.has("activeSeconds")) {
-                        activeSecondsSum += summarySubdata.getJSONObject("activeSeconds").getDouble("value");
-                    }
-                } catch (JSONException e) {
-                    LOG.error("SportsActivity", e);
-                }
-            }
-        }
         DecimalFormat df = new DecimalFormat("#.##");
         durationSumView.setText(String.format("%s", DateTimeUtils.formatDurationHoursMinutes((long) durationSum, TimeUnit.MILLISECONDS)));
         caloriesBurntSumView.setText(String.format("%s %s", (long) caloriesBurntSum, context.getString(R.string.calories_unit)));
@@ -393,4 +348,54 @@ public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<Bas
     public void setBackgroundColor(int backgroundColor) {
         this.backgroundColor = backgroundColor;
     }
+
+    private class LoadPageTask extends DBAccess {
+        private final ActivitySummaryDataSource source;
+        private final BaseActivitySummary after;
+        private final CancellationSignal cancellationSignal = new CancellationSignal();
+        private List<BaseActivitySummary> page;
+        private ActivitySummaryDataSource.Totals pageTotals;
+
+        LoadPageTask(ActivitySummaryDataSource source, BaseActivitySummary after) {
+            super("Loading activity summaries", getContext(), true);
+            this.source = source;
+            this.after = after;
+        }
+
+        void cancelQuery() {
+            cancel(true);
+            cancellationSignal.cancel();
+        }
+
+        @Override
+        protected void doInBackground(DBHandler handler) {
+            page = source.loadPage(handler.getDaoSession(), after, PAGE_SIZE, cancellationSignal);
+            if (after == null) {
+                pageTotals = source.loadTotals(handler.getDaoSession(), cancellationSignal);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Object o) {
+            super.onPostExecute(o);
+            if (loadTask != this) {
+                return;
+            }
+            loadTask = null;
+            if (page == null) {
+                hasMoreItems = false;
+                return;
+            }
+            hasMoreItems = page.size() == PAGE_SIZE;
+            if (after == null) {
+                List<BaseActivitySummary> items = new ArrayList<>(page.size() + 1);
+                items.add(new BaseActivitySummary()); // the dashboard
+                items.addAll(page);
+                totals = pageTotals;
+                setItems(items, true);
+            } else {
+                addAll(page);
+            }
+        }
+    }
 }
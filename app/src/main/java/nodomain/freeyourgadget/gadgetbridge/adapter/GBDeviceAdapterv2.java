@@ -154,7 +154,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
             public boolean onLongClick(View v) {
                 if (device.getState() != GBDevice.State.NOT_CONNECTED) {
                     showTransientSnackbar(R.string.controlcenter_snackbar_disconnecting);
-                    GBApplication.deviceService().disconnect();
+                    GBApplication.deviceService(device).disconnect();
                 }
                 return true;
             }
@@ -253,7 +253,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
         holder.heartRateStatusBox.setOnClickListener(new View.OnClickListener() {
                                                          @Override
                                                          public void onClick(View v) {
-                                                             GBApplication.deviceService().onHeartRateTest();
+                                                             GBApplication.deviceService(device).onHeartRateTest();
                                                              HeartRateDialog dialog = new HeartRateDialog(context);
                                                              dialog.show();
                                                          }
@@ -283,7 +283,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                                                         @Override
                                                         public void onClick(View v) {
                                                             showTransientSnackbar(R.string.busy_task_fetch_activity_data);
-                                                            GBApplication.deviceService().onFetchRecordedData(RecordedDataTypes.TYPE_ACTIVITY);
+                                                            GBApplication.deviceService(device).onFetchRecordedData(RecordedDataTypes.TYPE_ACTIVITY);
                                                         }
                                                     }
         );
@@ -297,7 +297,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                                                          @Override
                                                          public void onClick(View v) {
                                                              showTransientSnackbar(R.string.controlcenter_snackbar_requested_screenshot);
-                                                             GBApplication.deviceService().onScreenshotReq();
+                                                             GBApplication.deviceService(device).onScreenshotReq();
                                                          }
                                                      }
         );
@@ -419,16 +419,16 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                                                                          context.startActivity(startIntent);
                                                                          return;
                                                                      }
-                                                                     GBApplication.deviceService().onFindDevice(true);
+                                                                     GBApplication.deviceService(device).onFindDevice(true);
                                                                      Snackbar.make(parent, R.string.control_center_find_lost_device, Snackbar.LENGTH_INDEFINITE).setAction(R.string.find_lost_device_you_found_it, new View.OnClickListener() {
                                                                          @Override
                                                                          public void onClick(View v) {
-                                                                             GBApplication.deviceService().onFindDevice(false);
+                                                                             GBApplication.deviceService(device).onFindDevice(false);
                                                                          }
                                                                      }).setCallback(new Snackbar.Callback() {
                                                                          @Override
                                                                          public void onDismissed(Snackbar snackbar, int event) {
-                                                                             GBApplication.deviceService().onFindDevice(false);
+                                                                             GBApplication.deviceService(device).onFindDevice(false);
                                                                              super.onDismissed(snackbar, event);
                                                                          }
                                                                      }).show();
@@ -450,7 +450,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
 //                                                             new DialogInterface.OnCancelListener() {
 //                                                                 @Override
 //                                                                 public void onCancel(DialogInterface dialog) {
-//                                                                     GBApplication.deviceService().onFindDevice(false);
+//                                                                     GBApplication.deviceService(device).onFindDevice(false);
 //                                                                 }
 //                                                             });
                                                  }
@@ -536,7 +536,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                             final float frequency = fm_presets[index];
                             device.setExtraInfo("fm_frequency", fm_presets[index]);
                             fmFrequencyLabel.setText(String.format(Locale.getDefault(), "%.1f", (float) frequency));
-                            GBApplication.deviceService().onSetFmFrequency(frequency);
+                            GBApplication.deviceService(device).onSetFmFrequency(frequency);
                             alert[0].dismiss();
                         }
                     });
@@ -582,7 +582,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                                 } else {
                                     device.setExtraInfo("fm_frequency", frequency);
                                     fmFrequencyLabel.setText(String.format(Locale.getDefault(), "%.1f", frequency));
-                                    GBApplication.deviceService().onSetFmFrequency(frequency);
+                                    GBApplication.deviceService(device).onSetFmFrequency(frequency);
                                 }
                             }
                         });
@@ -634,7 +634,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                         public void onColorSelected(int dialogId, int color) {
                             ledColor.setColor(color);
                             device.setExtraInfo("led_color", color);
-                            GBApplication.deviceService().onSetLedColor(color);
+                            GBApplication.deviceService(device).onSetLedColor(color);
                         }
 
                         @Override
@@ -659,7 +659,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                             .setIcon(R.drawable.ic_power_settings_new)
                             .setPositiveButton(android.R.string.yes, new DialogInterface.OnClickListener() {
                                 public void onClick(final DialogInterface dialog, final int whichButton) {
-                                    GBApplication.deviceService().onPowerOff();
+                                    GBApplication.deviceService(device).onPowerOff();
                                 }
                             })
                             .setNegativeButton(android.R.string.no, null)
@@ -735,6 +735,7 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
                                     dbDevice.setAlias(alias);
                                     dbDevice.update();
                                     device.setAlias(alias);
+                                    DBHelper.invalidateDeviceIdentity(device);
                                 } catch (Exception ex) {
                                     GB.toast(context, context.getString(R.string.error_setting_alias) + ex.getMessage(), Toast.LENGTH_LONG, GB.ERROR, ex);
                                 } finally {
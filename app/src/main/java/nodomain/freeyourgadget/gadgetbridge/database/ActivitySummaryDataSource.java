@@ -0,0 +1,255 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import de.greenrobot.dao.Property;
+import de.greenrobot.dao.query.WhereCondition;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummaryDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+import static nodomain.freeyourgadget.gadgetbridge.activities.ActivitySummariesFilter.ALL_DEVICES;
+
+/**
+ * Queries the activity summaries matching a set of filters page by page, newest first.
+ * Pages are addressed by the start time and id of the last item of the previous page
+ * (keyset pagination), so that loading a page costs the same regardless of how far the
+ * list has been scrolled.
+ *
+ * The summaries of a page do not contain the summary data and raw summary data, which
+ * are only needed by the details view. They must not be updated; use
+ * {@link #loadSummary(DaoSession, long)} to get the complete summary instead.
+ */
+public class ActivitySummaryDataSource {
+    private static final String START_TIME = BaseActivitySummaryDao.Properties.StartTime.columnName;
+    private static final String ID = BaseActivitySummaryDao.Properties.Id.columnName;
+
+    private final GBDevice device;
+    private final int activityKindFilter;
+    private final long dateFromFilter;
+    private final long dateToFilter;
+    private final String nameContainsFilter;
+    private final long deviceFilter;
+    private final List<Long> itemsFilter;
+
+    public ActivitySummaryDataSource(GBDevice device, int activityKindFilter, long dateFromFilter, long dateToFilter, String nameContainsFilter, long deviceFilter, List<Long> itemsFilter) {
+        this.device = device;
+        this.activityKindFilter = activityKindFilter;
+        this.dateFromFilter = dateFromFilter;
+        this.dateToFilter = dateToFilter;
+        this.nameContainsFilter = nameContainsFilter;
+        this.deviceFilter = deviceFilter;
+        this.itemsFilter = itemsFilter;
+    }
+
+    /**
+     * Returns up to limit summaries that come after the given one, or the first ones if
+     * after is null.
+     */
+    public List<BaseActivitySummary> loadPage(DaoSession session, BaseActivitySummary after, int limit, CancellationSignal cancellationSignal) {
+        BaseActivitySummaryDao summaryDao = session.getBaseActivitySummaryDao();
+        StringBuilder sql = new StringBuilder("SELECT ");
+        Property[] properties = summaryDao.getProperties();
+        for (int i = 0; i < properties.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            Property property = properties[i];
+            // keep the column order expected by readEntity(), but leave out the large columns
+            if (property == BaseActivitySummaryDao.Properties.SummaryData || property == BaseActivitySummaryDao.Properties.RawSummaryData) {
+                sql.append("NULL");
+            } else {
+                sql.append('"').append(property.columnName).append('"');
+            }
+        }
+        sql.append(" FROM ").append(BaseActivitySummaryDao.TABLENAME);
+
+        List<WhereCondition> conditions = getFilterConditions(session);
+        if (after != null) {
+            conditions.add(getKeysetCondition(after, "<"));
+        }
+        List<String> args = appendWhere(sql, conditions);
+        sql.append(" ORDER BY ").append(START_TIME).append(" DESC,").append(ID).append(" DESC LIMIT ").append(limit);
+
+        List<BaseActivitySummary> summaries = new ArrayList<>(limit);
+        try (Cursor cursor = rawQuery(session.getDatabase(), sql.toString(), args, cancellationSignal)) {
+            while (cursor.moveToNext()) {
+                BaseActivitySummary summary = summaryDao.readEntity(cursor, 0);
+                // needed for delete() and the lazily loaded device
+                summary.__setDaoSession(session);
+                summaries.add(summary);
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Returns the complete summary with the given id, or null if it does not exist (anymore).
+     */
+    public BaseActivitySummary loadSummary(DaoSession session, long id) {
+        return session.getBaseActivitySummaryDao().load(id);
+    }
+
+    /**
+     * Returns the complete summary following (older) or preceding (newer) the given one,
+     * or null if there is none.
+     */
+    public BaseActivitySummary loadNeighbour(DaoSession session, BaseActivitySummary summary, boolean older) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(ID).append(" FROM ").append(BaseActivitySummaryDao.TABLENAME);
+        List<WhereCondition> conditions = getFilterConditions(session);
+        conditions.add(getKeysetCondition(summary, older ? "<" : ">"));
+        List<String> args = appendWhere(sql, conditions);
+        String order = older ? " DESC" : " ASC";
+        sql.append(" ORDER BY ").append(START_TIME).append(order).append(',').append(ID).append(order).append(" LIMIT 1");
+
+        try (Cursor cursor = rawQuery(session.getDatabase(), sql.toString(), args, null)) {
+            if (cursor.moveToFirst()) {
+                return loadSummary(session, cursor.getLong(0));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sums up the summaries in a single query, using the typed value columns instead of
+     * the summary data of each summary.
+     */
+    public Totals loadTotals(DaoSession session, CancellationSignal cancellationSignal) {
+        String endTime = BaseActivitySummaryDao.Properties.EndTime.columnName;
+        String activityKind = BaseActivitySummaryDao.Properties.ActivityKind.columnName;
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*)")
+                .append(",SUM(").append(endTime).append('-').append(START_TIME).append(')')
+                .append(",SUM(").append(BaseActivitySummaryDao.Properties.CaloriesBurnt.columnName).append(')')
+                .append(",SUM(").append(BaseActivitySummaryDao.Properties.DistanceMeters.columnName).append(')')
+                .append(",SUM(").append(BaseActivitySummaryDao.Properties.ActiveSeconds.columnName).append(')')
+                .append(",MAX(").append(START_TIME).append(')')
+                .append(",MIN(").append(START_TIME).append(')')
+                .append(",MIN(").append(activityKind).append(')')
+                .append(",MAX(").append(activityKind).append(')')
+                .append(" FROM ").append(BaseActivitySummaryDao.TABLENAME);
+        List<String> args = appendWhere(sql, getFilterConditions(session));
+
+        Totals totals = new Totals();
+        try (Cursor cursor = rawQuery(session.getDatabase(), sql.toString(), args, cancellationSignal)) {
+            if (cursor.moveToFirst()) {
+                totals.count = cursor.getInt(0);
+                totals.durationMillis = cursor.getLong(1);
+                totals.caloriesBurnt = cursor.getDouble(2);
+                totals.distanceMeters = cursor.getDouble(3);
+                totals.activeSeconds = cursor.getDouble(4);
+                totals.latestStartTime = cursor.getLong(5);
+                totals.earliestStartTime = cursor.getLong(6);
+                totals.activityKind = cursor.getInt(7);
+                totals.sameActivityKind = cursor.getInt(7) == cursor.getInt(8);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Returns the distinct activity kinds of the summaries.
+     */
+    public List<Integer> loadActivityKinds(DaoSession session) {
+        String activityKind = BaseActivitySummaryDao.Properties.ActivityKind.columnName;
+        StringBuilder sql = new StringBuilder("SELECT DISTINCT ").append(activityKind)
+                .append(" FROM ").append(BaseActivitySummaryDao.TABLENAME);
+        List<String> args = appendWhere(sql, getFilterConditions(session));
+
+        List<Integer> kinds = new ArrayList<>();
+        try (Cursor cursor = rawQuery(session.getDatabase(), sql.toString(), args, null)) {
+            while (cursor.moveToNext()) {
+                kinds.add(cursor.getInt(0));
+            }
+        }
+        return kinds;
+    }
+
+    private List<WhereCondition> getFilterConditions(DaoSession session) {
+        List<WhereCondition> conditions = new ArrayList<>();
+        if (deviceFilter != ALL_DEVICES && deviceFilter != 0) {
+            conditions.add(BaseActivitySummaryDao.Properties.DeviceId.eq(deviceFilter));
+        } else if (deviceFilter != ALL_DEVICES) {
+            Device dbDevice = DBHelper.findDevice(device, session);
+            conditions.add(BaseActivitySummaryDao.Properties.DeviceId.eq(dbDevice.getId()));
+        }
+
+        if (activityKindFilter != 0) {
+            conditions.add(BaseActivitySummaryDao.Properties.ActivityKind.eq(activityKindFilter));
+        }
+        if (dateFromFilter != 0) {
+            conditions.add(BaseActivitySummaryDao.Properties.StartTime.gt(new Date(dateFromFilter)));
+        }
+        if (dateToFilter != 0) {
+            conditions.add(BaseActivitySummaryDao.Properties.EndTime.lt(new Date(dateToFilter)));
+        }
+        if (nameContainsFilter != null && nameContainsFilter.length() > 0) {
+            conditions.add(BaseActivitySummaryDao.Properties.Name.like("%" + nameContainsFilter + "%"));
+        }
+        if (itemsFilter != null) {
+            conditions.add(BaseActivitySummaryDao.Properties.Id.in(itemsFilter));
+        }
+        return conditions;
+    }
+
+    private static List<String> appendWhere(StringBuilder sql, List<WhereCondition> conditions) {
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < conditions.size(); i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ");
+            conditions.get(i).appendTo(sql, null);
+            conditions.get(i).appendValuesTo(values);
+        }
+        List<String> args = new ArrayList<>(values.size());
+        for (Object value : values) {
+            args.add(String.valueOf(value));
+        }
+        return args;
+    }
+
+    private static WhereCondition getKeysetCondition(BaseActivitySummary summary, String comparison) {
+        // the id breaks ties between summaries with the same start time
+        long startTime = summary.getStartTime().getTime();
+        return new WhereCondition.StringCondition(
+                "(" + START_TIME + comparison + "? OR (" + START_TIME + "=? AND " + ID + comparison + "?))",
+                startTime, startTime, summary.getId());
+    }
+
+    private static Cursor rawQuery(SQLiteDatabase db, String sql, List<String> args, CancellationSignal cancellationSignal) {
+        return db.rawQuery(sql, args.toArray(new String[0]), cancellationSignal);
+    }
+
+    public static class Totals {
+        public int count;
+        public long durationMillis;
+        public double caloriesBurnt;
+        public double distanceMeters;
+        public double activeSeconds;
+        public long latestStartTime;
+        public long earliestStartTime;
+        public int activityKind;
+        public boolean sameActivityKind = true;
+    }
+}
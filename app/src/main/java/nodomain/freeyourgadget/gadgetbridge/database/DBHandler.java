@@ -48,6 +48,13 @@ public interface DBHandler extends AutoCloseable {
 
     SQLiteDatabase getDatabase();
 
+    /**
+     * Returns true if this handler was acquired for reading only. Read-only handlers
+     * may be used concurrently by several threads, so they must not be used for
+     * modifying the database and do not support #closeDb() and #openDb().
+     */
+    boolean isReadOnly();
+
     DaoMaster getDaoMaster();
     DaoSession getDaoSession();
 }
@@ -18,7 +18,9 @@
 package nodomain.freeyourgadget.gadgetbridge.database;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
@@ -29,6 +31,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
@@ -37,15 +41,21 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.Query;
 import de.greenrobot.dao.query.QueryBuilder;
 import de.greenrobot.dao.query.WhereCondition;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityRollups;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.RealtimeSampleBuffer;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIngestionPipeline;
 import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDescription;
 import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDescriptionDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.Alarm;
@@ -83,12 +93,51 @@ import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 public class DBHelper {
     private static final Logger LOG = LoggerFactory.getLogger(DBHelper.class);
 
+    /**
+     * Caches the ids of the Device entities by device address, together with the
+     * GBDevice state they were last brought up to date with. As long as that state
+     * does not change, #getDevice() and #findDevice() do not need any query.
+     */
+    private static final Map<String, DeviceIdentity> deviceIdentities = new ConcurrentHashMap<>();
+    /**
+     * The id of the User entity, as long as it is up to date with the user preferences.
+     */
+    private static volatile Long userId;
+    /**
+     * Whether the SQLite library supports VACUUM INTO, determined on the first export.
+     */
+    private static volatile Boolean vacuumIntoSupported;
+
+    // the default page size of SQLite; a snapshot file does not need to use the same one
+    private static final int EXPORT_PAGE_SIZE = 4096;
+    private static final int EXPORT_PAGES_PER_CHUNK = 64;
+
+    private static final SharedPreferences.OnSharedPreferenceChangeListener userPreferencesListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if (key != null && isUserPreference(key)) {
+                invalidateUserIdentity();
+            }
+        }
+    };
+
     private final Context context;
 
     public DBHelper(Context context) {
         this.context = context;
     }
 
+    /**
+     * Receives progress updates while exporting the database.
+     */
+    public interface ExportProgressListener {
+        /**
+         * @param bytesWritten the number of bytes written to the destination so far
+         * @param totalBytes   the total number of bytes that will be written
+         */
+        void onProgress(long bytesWritten, long totalBytes);
+    }
+
     /**
      * Closes the database and returns its name.
      * Important: after calling this, you have to DBHandler#openDb() it again
@@ -108,34 +157,183 @@ public class DBHelper {
         return path;
     }
 
-    public File exportDB(DBHandler dbHandler, File toDir) throws IllegalStateException, IOException {
-        String dbPath = getClosedDBPath(dbHandler);
+    /**
+     * Exports the database into the given directory, see #exportDB(OutputStream, ExportProgressListener).
+     */
+    public File exportDB(File toDir) throws IllegalStateException, IOException {
+        File destFile = new File(toDir, GBApplication.DATABASE_NAME);
+        if (destFile.exists()) {
+            File backup = new File(toDir, destFile.getName() + "_" + getDate());
+            destFile.renameTo(backup);
+        } else if (!toDir.exists()) {
+            if (!toDir.mkdirs()) {
+                throw new IOException("Unable to create directory: " + toDir.getAbsolutePath());
+            }
+        }
+
+        try (OutputStream out = new FileOutputStream(destFile)) {
+            exportDB(out, null);
+        }
+        return destFile;
+    }
+
+    public void exportDB(OutputStream dest) throws IOException {
+        exportDB(dest, null);
+    }
+
+    /**
+     * Writes a consistent snapshot of the database to the given stream, without closing
+     * the database. The database is only locked while taking the snapshot, see
+     * #createSnapshot(), not while writing it to the stream, which may be slow.
+     * <p/>
+     * Takes the locks itself, so the caller must neither hold the writer lock nor a
+     * read-only handler.
+     *
+     * @param dest     the stream to write to. Note: the caller has to close the stream!
+     * @param listener receives progress updates, may be null
+     */
+    public void exportDB(OutputStream dest, @Nullable ExportProgressListener listener) throws IOException {
+        long startNanos = System.nanoTime();
+        File snapshot = createSnapshot();
         try {
-            File sourceFile = new File(dbPath);
-            File destFile = new File(toDir, sourceFile.getName());
-            if (destFile.exists()) {
-                File backup = new File(toDir, destFile.getName() + "_" + getDate());
-                destFile.renameTo(backup);
-            } else if (!toDir.exists()) {
-                if (!toDir.mkdirs()) {
-                    throw new IOException("Unable to create directory: " + toDir.getAbsolutePath());
+            long snapshotNanos = System.nanoTime() - startNanos;
+            long bytes = copyInPages(snapshot, dest, listener);
+            long totalMillis = (System.nanoTime() - startNanos) / 1000000;
+            LOG.info("Exported database with " + bytes + " bytes in " + totalMillis + "ms ("
+                    + (snapshotNanos / 1000000) + "ms for the snapshot)");
+        } finally {
+            deleteSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * Writes a consistent snapshot of the database into a new file in the cache directory,
+     * which the caller must delete with #deleteSnapshot(File) when done.
+     * <p/>
+     * When the SQLite version supports VACUUM INTO, the snapshot is taken through a
+     * read-only handler, so that writers are not blocked. Otherwise, the database file is
+     * copied while holding the writer lock.
+     * <p/>
+     * Takes the locks itself, so the caller must neither hold the writer lock nor a
+     * read-only handler.
+     */
+    File createSnapshot() throws IOException {
+        // include the samples that are not yet written
+        RealtimeSampleBuffer.flushAll();
+        SampleIngestionPipeline.getInstance().writePending();
+
+        File snapshot = File.createTempFile("export", ".db", context.getCacheDir());
+        boolean created = false;
+        try {
+            try (DBHandler reader = GBApplication.acquireDBReadOnly()) {
+                SQLiteDatabase db = reader.getDatabase();
+                if (supportsVacuumInto(db)) {
+                    // VACUUM INTO only reads from the database, but the framework would run
+                    // it on the primary connection, which the writer uses as well. So use a
+                    // connection of its own; the handler keeps the database from being
+                    // closed or replaced meanwhile.
+                    SQLiteDatabase snapshotSource = SQLiteDatabase.openDatabase(db.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+                    try {
+                        // the target must be empty, which is the case for a newly created temp file
+                        snapshotSource.execSQL("VACUUM INTO " + DatabaseUtils.sqlEscapeString(snapshot.getAbsolutePath()));
+                    } finally {
+                        snapshotSource.close();
+                    }
+                    created = true;
+                    return snapshot;
                 }
             }
 
-            FileUtils.copyFile(sourceFile, destFile);
-            return destFile;
+            try (DBHandler writer = GBApplication.acquireDB()) {
+                // no snapshot possible, so move all committed data into the database file and
+                // keep other connections from writing while copying it. Since the writer lock
+                // is held, nothing can be committed between the checkpoint and the transaction.
+                SQLiteDatabase db = writer.getDatabase();
+                if (db.isWriteAheadLoggingEnabled()) {
+                    try (Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(FULL)", null)) {
+                        if (cursor.moveToFirst() && cursor.getInt(0) != 0) {
+                            throw new IOException("Unable to checkpoint the database before exporting it");
+                        }
+                    }
+                }
+                db.beginTransaction();
+                try (OutputStream out = new FileOutputStream(snapshot)) {
+                    copyInPages(new File(db.getPath()), out, null);
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            created = true;
+            return snapshot;
+        } catch (GBException ex) {
+            throw new IOException("Unable to access the database", ex);
         } finally {
-            dbHandler.openDb();
+            if (!created) {
+                deleteSnapshot(snapshot);
+            }
         }
     }
 
-    public void exportDB(DBHandler dbHandler, OutputStream dest) throws IOException {
-        String dbPath = getClosedDBPath(dbHandler);
+    static void deleteSnapshot(File snapshot) {
+        if (!SQLiteDatabase.deleteDatabase(snapshot) && snapshot.exists()) {
+            LOG.warn("Unable to delete database snapshot " + snapshot);
+        }
+    }
+
+    /**
+     * Copies the given file to the stream, in chunks of whole database pages.
+     *
+     * @return the number of bytes copied
+     */
+    static long copyInPages(File source, OutputStream dest, @Nullable ExportProgressListener listener) throws IOException {
+        long total = source.length();
+        long written = 0;
+        byte[] buffer = new byte[EXPORT_PAGE_SIZE * EXPORT_PAGES_PER_CHUNK];
+        try (FileInputStream in = new FileInputStream(source)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                dest.write(buffer, 0, read);
+                written += read;
+                if (listener != null) {
+                    listener.onProgress(written, Math.max(total, written));
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * VACUUM INTO is available since SQLite 3.27.0.
+     */
+    private static boolean supportsVacuumInto(SQLiteDatabase db) {
+        Boolean supported = vacuumIntoSupported;
+        if (supported == null) {
+            String version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null);
+            supported = compareVersions(version, "3.27.0") >= 0;
+            vacuumIntoSupported = supported;
+            LOG.info("SQLite version " + version + ", VACUUM INTO supported: " + supported);
+        }
+        return supported;
+    }
+
+    static int compareVersions(String version1, String version2) {
+        String[] parts1 = version1.split("\\.");
+        String[] parts2 = version2.split("\\.");
+        for (int i = 0; i < Math.max(parts1.length, parts2.length); i++) {
+            int part1 = i < parts1.length ? parseVersionPart(parts1[i]) : 0;
+            int part2 = i < parts2.length ? parseVersionPart(parts2[i]) : 0;
+            if (part1 != part2) {
+                return part1 < part2 ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int parseVersionPart(String part) {
         try {
-            File source = new File(dbPath);
-            FileUtils.copyFileToStream(source, dest);
-        } finally {
-            dbHandler.openDb();
+            return Integer.parseInt(part.trim());
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 
@@ -148,7 +346,11 @@ public class DBHelper {
         try {
             File toFile = new File(dbPath);
             FileUtils.copyFile(fromFile, toFile);
+            ActivityRollups.invalidateAll();
+            IncrementalExporter.reset(context);
         } finally {
+            // even a failed copy may have overwritten the database partially
+            invalidateIdentityCache();
             dbHandler.openDb();
         }
     }
@@ -212,8 +414,16 @@ public class DBHelper {
      */
     @NonNull
     public static User getUser(DaoSession session) {
-        ActivityUser prefsUser = new ActivityUser();
         UserDao userDao = session.getUserDao();
+        Long cachedUserId = userId;
+        if (cachedUserId != null) {
+            User user = userDao.load(cachedUserId);
+            if (user != null) {
+                return user;
+            }
+        }
+
+        ActivityUser prefsUser = new ActivityUser();
         User user;
         List<User> users = userDao.loadAll();
         if (users.isEmpty()) {
@@ -224,9 +434,68 @@ public class DBHelper {
         }
         ensureUserAttributes(user, prefsUser, session);
 
+        userId = user.getId();
         return user;
     }
 
+    /**
+     * Returns the id of the user entity, see #getUser(DaoSession).
+     */
+    public static long getUserId(DaoSession session) {
+        Long cachedUserId = userId;
+        if (cachedUserId != null) {
+            return cachedUserId;
+        }
+        return getUser(session).getId();
+    }
+
+    /**
+     * Keeps the cached user up to date with the user preferences. Must be called once
+     * with the default shared preferences.
+     */
+    public static void registerUserPreferencesListener(SharedPreferences sharedPreferences) {
+        sharedPreferences.registerOnSharedPreferenceChangeListener(userPreferencesListener);
+    }
+
+    private static boolean isUserPreference(String key) {
+        switch (key) {
+            case ActivityUser.PREF_USER_NAME:
+            case ActivityUser.PREF_USER_YEAR_OF_BIRTH:
+            case ActivityUser.PREF_USER_GENDER:
+            case ActivityUser.PREF_USER_HEIGHT_CM:
+            case ActivityUser.PREF_USER_WEIGHT_KG:
+            case ActivityUser.PREF_USER_SLEEP_DURATION:
+            case ActivityUser.PREF_USER_STEPS_GOAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Makes the next #getUser(DaoSession) check the user entity against the preferences again.
+     */
+    public static void invalidateUserIdentity() {
+        userId = null;
+    }
+
+    /**
+     * Makes the next lookup of the given device query the database again, e.g. after
+     * the device entity has been modified or deleted directly.
+     */
+    public static void invalidateDeviceIdentity(GBDevice gbDevice) {
+        deviceIdentities.remove(gbDevice.getAddress());
+    }
+
+    /**
+     * Clears all cached device and user ids. Must be called whenever the database
+     * is closed, replaced or deleted.
+     */
+    public static void invalidateIdentityCache() {
+        deviceIdentities.clear();
+        userId = null;
+    }
+
     @NonNull
     public static UserAttributes getUserAttributes(User user) {
         List<UserAttributes> list = user.getUserAttributesList();
@@ -380,14 +649,42 @@ public class DBHelper {
     @Nullable
     public static Device findDevice(GBDevice gbDevice, DaoSession session) {
         DeviceDao deviceDao = session.getDeviceDao();
+        DeviceIdentity identity = deviceIdentities.get(gbDevice.getAddress());
+        if (identity != null) {
+            Device device = deviceDao.load(identity.deviceId);
+            if (device != null) {
+                return device;
+            }
+            deviceIdentities.remove(gbDevice.getAddress());
+        }
         Query<Device> query = deviceDao.queryBuilder().where(DeviceDao.Properties.Identifier.eq(gbDevice.getAddress())).build();
         List<Device> devices = query.list();
         if (devices.size() > 0) {
-            return devices.get(0);
+            Device device = devices.get(0);
+            if (identity == null) {
+                deviceIdentities.put(gbDevice.getAddress(), new DeviceIdentity(device.getId()));
+            }
+            return device;
         }
         return null;
     }
 
+    /**
+     * Returns the id of the Device entity corresponding to the given GBDevice. Unlike
+     * #findDevice(GBDevice, DaoSession), no entity is loaded if the id is already known.
+     *
+     * @return the id of the device entity, or null if none
+     */
+    @Nullable
+    public static Long findDeviceId(GBDevice gbDevice, DaoSession session) {
+        DeviceIdentity identity = deviceIdentities.get(gbDevice.getAddress());
+        if (identity != null) {
+            return identity.deviceId;
+        }
+        Device device = findDevice(gbDevice, session);
+        return device != null ? device.getId() : null;
+    }
+
     /**
      * Returns all active (that is, not old, archived ones) from the database.
      * (currently the active handling is not available)
@@ -406,6 +703,14 @@ public class DBHelper {
      * @return the device entity corresponding to the given GBDevice
      */
     public static Device getDevice(GBDevice gbDevice, DaoSession session) {
+        DeviceIdentity identity = deviceIdentities.get(gbDevice.getAddress());
+        if (identity != null && identity.isUpToDate(gbDevice)) {
+            Device device = session.getDeviceDao().load(identity.deviceId);
+            if (device != null) {
+                return device;
+            }
+        }
+
         Device device = findDevice(gbDevice, session);
         if (device == null) {
             device = createDevice(gbDevice, session);
@@ -416,9 +721,21 @@ public class DBHelper {
             ensureDeviceAttributes(device, gbDevice, session);
         }
 
+        deviceIdentities.put(gbDevice.getAddress(), new DeviceIdentity(device.getId(), gbDevice));
         return device;
     }
 
+    /**
+     * Returns the id of the device entity, see #getDevice(GBDevice, DaoSession).
+     */
+    public static long getDeviceId(GBDevice gbDevice, DaoSession session) {
+        DeviceIdentity identity = deviceIdentities.get(gbDevice.getAddress());
+        if (identity != null && identity.isUpToDate(gbDevice)) {
+            return identity.deviceId;
+        }
+        return getDevice(gbDevice, session).getId();
+    }
+
     @NonNull
     public static DeviceAttributes getDeviceAttributes(Device device) {
         List<DeviceAttributes> list = device.getDeviceAttributesList();
@@ -726,4 +1043,67 @@ public class DBHelper {
             LOG.warn("Unable to acquire database to clear the session", e);
         }
     }
+
+    /**
+     * The cached id of a Device entity, plus the GBDevice state that the entity and
+     * its attributes were last updated with. Changes of e.g. the name, alias or firmware
+     * make the entry stale, so that the entity is brought up to date again.
+     */
+    private static class DeviceIdentity {
+        private final long deviceId;
+        private final boolean checked;
+        private final String name;
+        private final String alias;
+        private final String model;
+        private final int type;
+        private final boolean attributesChecked;
+        private final String firmwareVersion;
+        private final String firmwareVersion2;
+        private final String volatileAddress;
+
+        DeviceIdentity(long deviceId) {
+            this.deviceId = deviceId;
+            checked = false;
+            name = null;
+            alias = null;
+            model = null;
+            type = 0;
+            attributesChecked = false;
+            firmwareVersion = null;
+            firmwareVersion2 = null;
+            volatileAddress = null;
+        }
+
+        DeviceIdentity(long deviceId, GBDevice gbDevice) {
+            this.deviceId = deviceId;
+            checked = true;
+            name = gbDevice.getName();
+            alias = gbDevice.getAlias();
+            model = gbDevice.getModel();
+            type = gbDevice.getType().getKey();
+            attributesChecked = gbDevice.isInitialized();
+            firmwareVersion = gbDevice.getFirmwareVersion();
+            firmwareVersion2 = gbDevice.getFirmwareVersion2();
+            volatileAddress = gbDevice.getVolatileAddress();
+        }
+
+        boolean isUpToDate(GBDevice gbDevice) {
+            if (!checked) {
+                return false;
+            }
+            if (!Objects.equals(name, gbDevice.getName())
+                    || !Objects.equals(alias, gbDevice.getAlias())
+                    || !Objects.equals(model, gbDevice.getModel())
+                    || type != gbDevice.getType().getKey()) {
+                return false;
+            }
+            if (gbDevice.isInitialized()) {
+                return attributesChecked
+                        && Objects.equals(firmwareVersion, gbDevice.getFirmwareVersion())
+                        && Objects.equals(firmwareVersion2, gbDevice.getFirmwareVersion2())
+                        && Objects.equals(volatileAddress, gbDevice.getVolatileAddress());
+            }
+            return true;
+        }
+    }
 }
@@ -0,0 +1,111 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how long threads wait for and hold database access, in order to be able to
+ * measure lock contention. There is one instance for the writer and one for the readers.
+ * Updating the counters is lock-free and cheap enough to be always enabled.
+ */
+public class DBLockStatistics {
+    public static final DBLockStatistics WRITE = new DBLockStatistics("write");
+    public static final DBLockStatistics READ = new DBLockStatistics("read");
+
+    private final String name;
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+    private final AtomicLong holdNanosTotal = new AtomicLong();
+    private final AtomicLong holdNanosMax = new AtomicLong();
+
+    private DBLockStatistics(String name) {
+        this.name = name;
+    }
+
+    public void recordWait(long nanos) {
+        acquisitions.incrementAndGet();
+        waitNanosTotal.addAndGet(nanos);
+        updateMax(waitNanosMax, nanos);
+    }
+
+    public void recordTimeout(long nanos) {
+        timeouts.incrementAndGet();
+        waitNanosTotal.addAndGet(nanos);
+        updateMax(waitNanosMax, nanos);
+    }
+
+    public void recordHold(long nanos) {
+        holdNanosTotal.addAndGet(nanos);
+        updateMax(holdNanosMax, nanos);
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanosTotal.get());
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanosMax.get());
+    }
+
+    public long getTotalHoldMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(holdNanosTotal.get());
+    }
+
+    public long getMaxHoldMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(holdNanosMax.get());
+    }
+
+    public void reset() {
+        acquisitions.set(0);
+        timeouts.set(0);
+        waitNanosTotal.set(0);
+        waitNanosMax.set(0);
+        holdNanosTotal.set(0);
+        holdNanosMax.set(0);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        do {
+            current = max.get();
+            if (value <= current) {
+                return;
+            }
+        } while (!max.compareAndSet(current, value));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "DB %s lock: %d acquisitions, %d timeouts, wait total/max %d/%d ms, hold total/max %d/%d ms",
+                name, getAcquisitions(), getTimeouts(), getTotalWaitMillis(), getMaxWaitMillis(),
+                getTotalHoldMillis(), getMaxHoldMillis());
+    }
+}
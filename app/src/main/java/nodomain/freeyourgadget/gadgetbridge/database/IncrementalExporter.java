@@ -0,0 +1,541 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import de.greenrobot.dao.AbstractDao;
+import de.greenrobot.dao.Property;
+import de.greenrobot.dao.identityscope.IdentityScopeType;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityRollups;
+import nodomain.freeyourgadget.gadgetbridge.devices.RealtimeSampleBuffer;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIngestionPipeline;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+/**
+ * Exports the database incrementally: a full (base) export is followed by delta files,
+ * each containing only the rows that may have changed since the previous export.
+ * <p/>
+ * Tables with a TIMESTAMP column (samples, battery levels, ...) are tracked by their
+ * timestamps, since most of them are WITHOUT ROWID tables. Rows are not only appended
+ * at the end, though: a device may deliver its history after realtime samples of the same
+ * time have been stored, and overlays change samples of the last days. So each delta
+ * contains all rows newer than {@link #OVERLAP_SECONDS} before the newest row of the
+ * previous export, and merging it replaces all rows of that range, which also carries the
+ * updates and deletes in that range. The rows before that range are considered settled;
+ * their count is recorded, and a new base export is made once it changed, i.e. rows were
+ * added to or deleted from that range. Updates of settled rows that do not change their
+ * count are not carried by the deltas.
+ * <p/>
+ * All other tables are small and are always exported completely. A delta is a compressed
+ * SQLite database with the same table layout, so merging it into a database restored from
+ * the base export is a matter of copying its rows.
+ * <p/>
+ * A new base export is also required once the deltas get too large compared to the base,
+ * or when the schema changed.
+ */
+public class IncrementalExporter {
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalExporter.class);
+
+    public static final String DELTA_DIR = "delta";
+
+    private static final String DELTA_FILE_PREFIX = "Gadgetbridge_delta_";
+    private static final String DELTA_FILE_SUFFIX = ".db.gz";
+    private static final String DELTA_INFO_TABLE = "DELTA_INFO";
+    private static final String DELTA_TABLES_TABLE = "DELTA_TABLES";
+
+    private static final String STATE_PREFERENCES = "incremental_export";
+    private static final String STATE_BASE_TIMESTAMP = "base_timestamp";
+    private static final String STATE_BASE_SIZE = "base_size";
+    private static final String STATE_SCHEMA_VERSION = "schema_version";
+    private static final String STATE_SEQUENCE = "sequence";
+    private static final String STATE_DELTA_SIZE = "delta_size";
+    private static final String STATE_FORMAT = "format";
+    private static final String STATE_SETTLED_PREFIX = "settled_timestamp_";
+    private static final String STATE_SETTLED_COUNT_PREFIX = "settled_count_";
+
+    /**
+     * Increment whenever the way the rows are tracked changes, to force a base export.
+     */
+    private static final int FORMAT = 2;
+
+    /**
+     * The rows of a tracked table up to this long before its newest row are exported again
+     * by every delta, since these may still change.
+     */
+    static final long OVERLAP_SECONDS = 14 * 24 * 60 * 60;
+    // larger timestamps are in milliseconds, the year 5138 in seconds would be 1973
+    private static final long MIN_MILLIS_TIMESTAMP = 100000000000L;
+
+    /**
+     * A new base export is made once all deltas together exceed this fraction of the base.
+     */
+    private static final double MAX_DELTA_RATIO = 0.5;
+
+    private final Context context;
+    private final SharedPreferences state;
+
+    public IncrementalExporter(Context context) {
+        this.context = context;
+        this.state = context.getSharedPreferences(STATE_PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Forgets the previous exports, so that the next incremental export is a base export.
+     * Must be called when the database is replaced.
+     */
+    public static void reset(Context context) {
+        context.getSharedPreferences(STATE_PREFERENCES, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+
+    public static File getDeltaDir(File exportDir) {
+        return new File(exportDir, DELTA_DIR);
+    }
+
+    /**
+     * Returns true if the next export must be a base export instead of a delta.
+     */
+    public boolean needsBaseExport(DBHandler dbHandler) throws IOException {
+        long baseTimestamp = state.getLong(STATE_BASE_TIMESTAMP, 0);
+        if (baseTimestamp == 0) {
+            return true;
+        }
+        if (state.getInt(STATE_SCHEMA_VERSION, 0) != DaoMaster.SCHEMA_VERSION) {
+            LOG.info("Schema changed since the base export");
+            return true;
+        }
+        long baseSize = state.getLong(STATE_BASE_SIZE, 0);
+        if (state.getLong(STATE_DELTA_SIZE, 0) > baseSize * MAX_DELTA_RATIO) {
+            LOG.info("Deltas are too large compared to the base export");
+            return true;
+        }
+        if (listDeltaFiles(getDeltaDir(FileUtils.getExternalFilesDir()), baseTimestamp).size() != state.getInt(STATE_SEQUENCE, 0)) {
+            LOG.info("Delta files of the base export are missing");
+            return true;
+        }
+        if (state.getInt(STATE_FORMAT, 0) != FORMAT) {
+            LOG.info("The base export tracks its rows differently");
+            return true;
+        }
+        SQLiteDatabase db = dbHandler.getDatabase();
+        for (AbstractDao<?, ?> dao : dbHandler.getDaoSession().getAllDaos()) {
+            String table = dao.getTablename();
+            if (!isTracked(dao)) {
+                continue;
+            }
+            String settledKey = STATE_SETTLED_PREFIX + table;
+            if (!state.contains(settledKey)) {
+                LOG.info("Table " + table + " is not part of the base export");
+                return true;
+            }
+            if (countSettled(db, table, state.getLong(settledKey, 0)) != state.getLong(STATE_SETTLED_COUNT_PREFIX + table, 0)) {
+                LOG.info("Settled rows were added to or removed from " + table + " since the last export");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a full export to the given stream, and starts a new series of deltas on top of it.
+     * Like DBHelper#exportDB(OutputStream, DBHelper.ExportProgressListener), this takes the
+     * locks itself, so the caller must neither hold the writer lock nor a read-only handler.
+     */
+    public void exportBase(OutputStream dest, @Nullable DBHelper.ExportProgressListener listener) throws IOException {
+        File snapshot = new DBHelper(context).createSnapshot();
+        long size;
+        Map<String, long[]> marks;
+        try {
+            size = DBHelper.copyInPages(snapshot, dest, listener);
+            // the writers may have continued since the snapshot, so the marks are taken from
+            // the snapshot itself in order to match the export
+            SQLiteDatabase snapshotDb = SQLiteDatabase.openDatabase(snapshot.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+            try {
+                marks = getMarks(new DaoMaster(snapshotDb).newSession(IdentityScopeType.None));
+            } finally {
+                snapshotDb.close();
+            }
+        } finally {
+            DBHelper.deleteSnapshot(snapshot);
+        }
+
+        File deltaDir = getDeltaDir(FileUtils.getExternalFilesDir());
+        for (File file : listDeltaFiles(deltaDir, -1)) {
+            if (!file.delete()) {
+                LOG.warn("Unable to delete obsolete delta " + file);
+            }
+        }
+
+        SharedPreferences.Editor editor = state.edit().clear();
+        editor.putLong(STATE_BASE_TIMESTAMP, System.currentTimeMillis());
+        editor.putLong(STATE_BASE_SIZE, size);
+        editor.putInt(STATE_SCHEMA_VERSION, DaoMaster.SCHEMA_VERSION);
+        editor.putInt(STATE_FORMAT, FORMAT);
+        putMarks(editor, marks);
+        editor.apply();
+    }
+
+    /**
+     * Writes the rows that may have changed since the previous export to a new delta file in
+     * the delta directory.
+     *
+     * @param dbHandler the handler of the writable database, the caller must hold the writer lock
+     * @return the new delta file
+     */
+    public File exportDelta(DBHandler dbHandler) throws IOException {
+        long startNanos = System.nanoTime();
+        long baseTimestamp = state.getLong(STATE_BASE_TIMESTAMP, 0);
+        if (baseTimestamp == 0) {
+            throw new IllegalStateException("A base export is required first");
+        }
+        flushPending();
+
+        int sequence = state.getInt(STATE_SEQUENCE, 0) + 1;
+        File deltaDir = getDeltaDir(FileUtils.getExternalFilesDir());
+        if (!deltaDir.exists() && !deltaDir.mkdirs()) {
+            throw new IOException("Unable to create directory: " + deltaDir.getAbsolutePath());
+        }
+        File deltaFile = new File(deltaDir, String.format(Locale.US, "%s%d_%05d%s", DELTA_FILE_PREFIX, baseTimestamp, sequence, DELTA_FILE_SUFFIX));
+
+        SQLiteDatabase db = dbHandler.getDatabase();
+        Map<String, long[]> marks = new HashMap<>();
+        long rows = 0;
+        File tempFile = File.createTempFile("delta", ".db", context.getCacheDir());
+        try {
+            SQLiteDatabase delta = SQLiteDatabase.openOrCreateDatabase(tempFile, null);
+            try {
+                delta.beginTransaction();
+                try {
+                    delta.execSQL("CREATE TABLE " + DELTA_INFO_TABLE + " (BASE_TIMESTAMP INTEGER, SEQUENCE INTEGER, SCHEMA_VERSION INTEGER)");
+                    delta.execSQL("INSERT INTO " + DELTA_INFO_TABLE + " VALUES (?, ?, ?)", new Object[]{baseTimestamp, sequence, DaoMaster.SCHEMA_VERSION});
+                    delta.execSQL("CREATE TABLE " + DELTA_TABLES_TABLE + " (NAME TEXT, COMPLETE INTEGER, AFTER_TIMESTAMP INTEGER)");
+
+                    for (AbstractDao<?, ?> dao : dbHandler.getDaoSession().getAllDaos()) {
+                        String table = dao.getTablename();
+                        boolean tracked = isTracked(dao);
+                        String createSql = DatabaseUtils.stringForQuery(db, "SELECT sql FROM sqlite_master WHERE type='table' AND name=?", new String[]{table});
+                        delta.execSQL(createSql);
+                        String where = null;
+                        long settled = state.getLong(STATE_SETTLED_PREFIX + table, 0);
+                        if (tracked) {
+                            // the caller holds the writer lock, so the marks match the rows
+                            where = "TIMESTAMP > " + settled;
+                            marks.put(table, getMark(db, table));
+                        }
+                        rows += copyRows(db, delta, table, where, false);
+
+                        ContentValues values = new ContentValues();
+                        values.put("NAME", table);
+                        values.put("COMPLETE", tracked ? 0 : 1);
+                        if (tracked) {
+                            values.put("AFTER_TIMESTAMP", settled);
+                        }
+                        delta.insertOrThrow(DELTA_TABLES_TABLE, null, values);
+                    }
+                    delta.setTransactionSuccessful();
+                } finally {
+                    delta.endTransaction();
+                }
+            } finally {
+                delta.close();
+            }
+            compress(tempFile, deltaFile);
+        } finally {
+            SQLiteDatabase.deleteDatabase(tempFile);
+        }
+
+        SharedPreferences.Editor editor = state.edit();
+        editor.putInt(STATE_SEQUENCE, sequence);
+        editor.putLong(STATE_DELTA_SIZE, state.getLong(STATE_DELTA_SIZE, 0) + deltaFile.length());
+        putMarks(editor, marks);
+        editor.apply();
+
+        LOG.info("Exported delta " + deltaFile.getName() + " with " + rows + " rows and " + deltaFile.length()
+                + " bytes in " + (System.nanoTime() - startNanos) / 1000000 + "ms");
+        return deltaFile;
+    }
+
+    /**
+     * Merges all deltas of the most recent base export found in the given directory into
+     * the database, which should just have been restored from that base export.
+     *
+     * @param dbHandler the handler of the writable database, the caller must hold the writer lock
+     * @return the number of merged delta files
+     */
+    public int importDeltas(DBHandler dbHandler, File deltaDir) throws IOException {
+        int merged = mergeDeltas(dbHandler.getDatabase(), deltaDir);
+        if (merged == 0) {
+            return 0;
+        }
+        DBHelper.invalidateIdentityCache();
+        ActivityRollups.invalidateAll();
+        dbHandler.getDaoSession().clear();
+        return merged;
+    }
+
+    /**
+     * Merges all deltas of the most recent base export found in the given directory into
+     * the given database.
+     *
+     * @return the number of merged delta files
+     */
+    int mergeDeltas(SQLiteDatabase db, File deltaDir) throws IOException {
+        List<File> deltaFiles = listDeltaFiles(deltaDir, -1);
+        if (deltaFiles.isEmpty()) {
+            return 0;
+        }
+        // only the deltas of the newest base export belong together
+        long baseTimestamp = getBaseTimestamp(deltaFiles.get(deltaFiles.size() - 1));
+        deltaFiles = listDeltaFiles(deltaDir, baseTimestamp);
+
+        for (File deltaFile : deltaFiles) {
+            File tempFile = File.createTempFile("delta", ".db", context.getCacheDir());
+            try {
+                decompress(deltaFile, tempFile);
+                SQLiteDatabase delta = SQLiteDatabase.openDatabase(tempFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+                try {
+                    long rows = mergeDelta(delta, db);
+                    LOG.info("Merged delta " + deltaFile.getName() + " with " + rows + " rows");
+                } finally {
+                    delta.close();
+                }
+            } finally {
+                SQLiteDatabase.deleteDatabase(tempFile);
+            }
+        }
+        return deltaFiles.size();
+    }
+
+    private long mergeDelta(SQLiteDatabase delta, SQLiteDatabase db) {
+        long rows = 0;
+        db.beginTransaction();
+        try (Cursor tables = delta.rawQuery("SELECT * FROM " + DELTA_TABLES_TABLE, null)) {
+            // missing in the deltas of older versions, which only contain added rows
+            int afterTimestampIndex = tables.getColumnIndex("AFTER_TIMESTAMP");
+            while (tables.moveToNext()) {
+                String table = tables.getString(tables.getColumnIndexOrThrow("NAME"));
+                boolean complete = tables.getInt(tables.getColumnIndexOrThrow("COMPLETE")) != 0;
+                if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type='table' AND name=?", new String[]{table}) == 0) {
+                    LOG.warn("Skipping unknown table " + table);
+                    continue;
+                }
+                if (complete) {
+                    db.delete(table, null, null);
+                } else if (afterTimestampIndex >= 0 && !tables.isNull(afterTimestampIndex)) {
+                    // the delta contains all rows of that range, including the updated ones
+                    // and without the deleted ones
+                    db.delete(table, "TIMESTAMP > ?", new String[]{String.valueOf(tables.getLong(afterTimestampIndex))});
+                }
+                rows += copyRows(delta, db, table, null, true);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return rows;
+    }
+
+    /**
+     * Copies the rows of the given table, selected by the optional where clause, from one
+     * database to the other. The columns are matched by name.
+     */
+    private static long copyRows(SQLiteDatabase from, SQLiteDatabase to, String table, @Nullable String where, boolean replace) {
+        long rows = 0;
+        String sql = "SELECT * FROM \"" + table + "\"" + (where != null ? " WHERE " + where : "");
+        try (Cursor cursor = from.rawQuery(sql, null)) {
+            String[] columns = cursor.getColumnNames();
+            StringBuilder insert = new StringBuilder(replace ? "INSERT OR REPLACE INTO \"" : "INSERT INTO \"");
+            insert.append(table).append("\" (");
+            for (int i = 0; i < columns.length; i++) {
+                insert.append(i > 0 ? ",\"" : "\"").append(columns[i]).append('"');
+            }
+            insert.append(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                insert.append(i > 0 ? ",?" : "?");
+            }
+            insert.append(')');
+
+            SQLiteStatement statement = to.compileStatement(insert.toString());
+            try {
+                while (cursor.moveToNext()) {
+                    statement.clearBindings();
+                    for (int i = 0; i < columns.length; i++) {
+                        switch (cursor.getType(i)) {
+                            case Cursor.FIELD_TYPE_INTEGER:
+                                statement.bindLong(i + 1, cursor.getLong(i));
+                                break;
+                            case Cursor.FIELD_TYPE_FLOAT:
+                                statement.bindDouble(i + 1, cursor.getDouble(i));
+                                break;
+                            case Cursor.FIELD_TYPE_STRING:
+                                statement.bindString(i + 1, cursor.getString(i));
+                                break;
+                            case Cursor.FIELD_TYPE_BLOB:
+                                statement.bindBlob(i + 1, cursor.getBlob(i));
+                                break;
+                            case Cursor.FIELD_TYPE_NULL:
+                            default:
+                                statement.bindNull(i + 1);
+                                break;
+                        }
+                    }
+                    statement.executeInsert();
+                    rows++;
+                }
+            } finally {
+                statement.close();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Tables with a TIMESTAMP column are mostly appended to and exported incrementally,
+     * all others are small and are always exported completely.
+     */
+    private static boolean isTracked(AbstractDao<?, ?> dao) {
+        for (Property property : dao.getProperties()) {
+            if ("TIMESTAMP".equals(property.columnName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the mark of the given tracked table: {the timestamp up to which its rows are
+     * settled, the number of these rows}.
+     */
+    private static long[] getMark(SQLiteDatabase db, String table) {
+        long newest = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(TIMESTAMP), 0) FROM \"" + table + "\"", null);
+        long settled = newest - (newest >= MIN_MILLIS_TIMESTAMP ? OVERLAP_SECONDS * 1000 : OVERLAP_SECONDS);
+        return new long[]{settled, countSettled(db, table, settled)};
+    }
+
+    private static long countSettled(SQLiteDatabase db, String table, long settled) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM \"" + table + "\" WHERE TIMESTAMP <= " + settled, null);
+    }
+
+    private static Map<String, long[]> getMarks(DaoSession session) {
+        Map<String, long[]> marks = new HashMap<>();
+        SQLiteDatabase db = session.getDatabase();
+        for (AbstractDao<?, ?> dao : session.getAllDaos()) {
+            if (isTracked(dao)) {
+                marks.put(dao.getTablename(), getMark(db, dao.getTablename()));
+            }
+        }
+        return marks;
+    }
+
+    private static void putMarks(SharedPreferences.Editor editor, Map<String, long[]> marks) {
+        for (Map.Entry<String, long[]> mark : marks.entrySet()) {
+            editor.putLong(STATE_SETTLED_PREFIX + mark.getKey(), mark.getValue()[0]);
+            editor.putLong(STATE_SETTLED_COUNT_PREFIX + mark.getKey(), mark.getValue()[1]);
+        }
+    }
+
+    private static void flushPending() {
+        RealtimeSampleBuffer.flushAll();
+        SampleIngestionPipeline.getInstance().writePending();
+    }
+
+    /**
+     * Returns the delta files in the given directory, sorted by base export and sequence.
+     *
+     * @param baseTimestamp only return the deltas of this base export, or all if -1
+     */
+    private static List<File> listDeltaFiles(File deltaDir, long baseTimestamp) {
+        List<File> result = new ArrayList<>();
+        File[] files = deltaDir.listFiles();
+        if (files == null) {
+            return result;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            long fileBaseTimestamp = getBaseTimestamp(file);
+            if (fileBaseTimestamp > 0 && (baseTimestamp == -1 || fileBaseTimestamp == baseTimestamp)) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    private static long getBaseTimestamp(File deltaFile) {
+        String name = deltaFile.getName();
+        if (!name.startsWith(DELTA_FILE_PREFIX) || !name.endsWith(DELTA_FILE_SUFFIX)) {
+            return 0;
+        }
+        String[] parts = name.substring(DELTA_FILE_PREFIX.length(), name.length() - DELTA_FILE_SUFFIX.length()).split("_");
+        try {
+            return Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void compress(File source, File dest) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source));
+             OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(dest)))) {
+            copy(in, out);
+        }
+    }
+
+    private static void decompress(File source, File dest) throws IOException {
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(source)));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(dest))) {
+            copy(in, out);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.SystemClock;
 
 import org.slf4j.Logger;
@@ -86,38 +87,72 @@ public class PeriodicExporter extends BroadcastReceiver {
         return new RefreshTask(task, context);
     }
 
-    public class RefreshTask extends DBAccess {
+    /**
+     * Runs the export in the background. Unlike a DBAccess task, it does not hold the
+     * database lock while running, since the export takes the locks itself and only as
+     * long as necessary, see DBHelper#exportDB(OutputStream, DBHelper.ExportProgressListener).
+     */
+    public class RefreshTask extends AsyncTask<Object, Void, Void> {
         Context localContext;
 
         public RefreshTask(String task, Context context) {
-            super(task, context);
             localContext = context;
         }
 
         @Override
-        protected void doInBackground(DBHandler handler) {
+        protected Void doInBackground(Object... params) {
             LOG.info("Exporting DB in a background thread");
-            try (DBHandler dbHandler = GBApplication.acquireDB()) {
+            try {
                 DBHelper helper = new DBHelper(localContext);
                 String dst = GBApplication.getPrefs().getString(GBPrefs.AUTO_EXPORT_LOCATION, null);
                 if (dst == null) {
                     LOG.info("Unable to export DB, export location not set");
-                    return;
+                    return null;
+                }
+                IncrementalExporter incrementalExporter = null;
+                if (GBApplication.getPrefs().getBoolean(GBPrefs.AUTO_EXPORT_INCREMENTAL, false)) {
+                    incrementalExporter = new IncrementalExporter(localContext);
+                    boolean deltaExported = false;
+                    try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                        if (!incrementalExporter.needsBaseExport(dbHandler)) {
+                            incrementalExporter.exportDelta(dbHandler);
+                            deltaExported = true;
+                        }
+                    }
+                    if (deltaExported) {
+                        GBApplication.app().setLastAutoExportTimestamp(System.currentTimeMillis());
+                        return null;
+                    }
+                    LOG.info("Writing a new base for the incremental export");
                 }
                 Uri dstUri = Uri.parse(dst);
                 try (OutputStream out = localContext.getContentResolver().openOutputStream(dstUri)) {
-                    helper.exportDB(dbHandler, out);
+                    DBHelper.ExportProgressListener listener = new DBHelper.ExportProgressListener() {
+                        private int lastPercentage = -1;
+
+                        @Override
+                        public void onProgress(long bytesWritten, long totalBytes) {
+                            int percentage = (int) (bytesWritten * 100 / totalBytes);
+                            if (percentage != lastPercentage) {
+                                lastPercentage = percentage;
+                                GB.updateTransferNotification(null, localContext.getString(R.string.activity_DB_test_export_message), true, percentage, localContext);
+                            }
+                        }
+                    };
+                    if (incrementalExporter != null) {
+                        incrementalExporter.exportBase(out, listener);
+                    } else {
+                        helper.exportDB(out, listener);
+                    }
                     GBApplication gbApp = GBApplication.app();
                     gbApp.setLastAutoExportTimestamp(System.currentTimeMillis());
                 }
             } catch (Exception ex) {
+                GB.removeNotification(GB.NOTIFICATION_ID_TRANSFER, localContext);
                 GB.updateExportFailedNotification(localContext.getString(R.string.notif_export_failed_title), localContext);
                 LOG.info("Exception while exporting DB: ", ex);
             }
-        }
-
-        @Override
-        protected void onPostExecute(Object o) {
+            return null;
         }
     }
 }
@@ -0,0 +1,112 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database.schema;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+
+import de.greenrobot.dao.Property;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.DBUpdateScript;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiActivitySummaryParser;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummaryDao;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryJsonSummary;
+
+/**
+ * Adds the typed value columns of the activity summaries and fills them for the existing
+ * summaries, from the raw summary data where available and from the JSON summary data
+ * otherwise.
+ */
+public class GadgetbridgeUpdate_41 implements DBUpdateScript {
+    private static final Logger LOG = LoggerFactory.getLogger(GadgetbridgeUpdate_41.class);
+
+    @Override
+    public void upgradeSchema(SQLiteDatabase db) {
+        addColumn(db, BaseActivitySummaryDao.Properties.DistanceMeters, "REAL");
+        addColumn(db, BaseActivitySummaryDao.Properties.CaloriesBurnt, "REAL");
+        addColumn(db, BaseActivitySummaryDao.Properties.ActiveSeconds, "INTEGER");
+        addColumn(db, BaseActivitySummaryDao.Properties.AverageHR, "INTEGER");
+        addColumn(db, BaseActivitySummaryDao.Properties.MaxHR, "INTEGER");
+        addColumn(db, BaseActivitySummaryDao.Properties.AverageSpeed, "REAL");
+        addColumn(db, BaseActivitySummaryDao.Properties.AscentMeters, "REAL");
+
+        String query = "SELECT " + BaseActivitySummaryDao.Properties.Id.columnName + ","
+                + BaseActivitySummaryDao.Properties.StartTime.columnName + ","
+                + BaseActivitySummaryDao.Properties.SummaryData.columnName + ","
+                + BaseActivitySummaryDao.Properties.RawSummaryData.columnName
+                + " FROM " + BaseActivitySummaryDao.TABLENAME;
+        try (Cursor cursor = db.rawQuery(query, null)) {
+            while (cursor.moveToNext()) {
+                BaseActivitySummary summary = new BaseActivitySummary();
+                summary.setStartTime(new Date(cursor.getLong(1)));
+                if (!cursor.isNull(3)) {
+                    summary.setRawSummaryData(cursor.getBlob(3));
+                    try {
+                        summary = new HuamiActivitySummaryParser().parseBinaryData(summary);
+                    } catch (Exception e) {
+                        LOG.warn("Unable to parse raw data of activity summary " + cursor.getLong(0), e);
+                        continue;
+                    }
+                } else if (!cursor.isNull(2)) {
+                    try {
+                        ActivitySummaryJsonSummary.setTypedValues(summary, new JSONObject(cursor.getString(2)));
+                    } catch (JSONException e) {
+                        LOG.warn("Unable to parse summary data of activity summary " + cursor.getLong(0), e);
+                        continue;
+                    }
+                } else {
+                    continue;
+                }
+                if (summary == null) {
+                    continue;
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(BaseActivitySummaryDao.Properties.DistanceMeters.columnName, summary.getDistanceMeters());
+                values.put(BaseActivitySummaryDao.Properties.CaloriesBurnt.columnName, summary.getCaloriesBurnt());
+                values.put(BaseActivitySummaryDao.Properties.ActiveSeconds.columnName, summary.getActiveSeconds());
+                values.put(BaseActivitySummaryDao.Properties.AverageHR.columnName, summary.getAverageHR());
+                values.put(BaseActivitySummaryDao.Properties.MaxHR.columnName, summary.getMaxHR());
+                values.put(BaseActivitySummaryDao.Properties.AverageSpeed.columnName, summary.getAverageSpeed());
+                values.put(BaseActivitySummaryDao.Properties.AscentMeters.columnName, summary.getAscentMeters());
+                db.update(BaseActivitySummaryDao.TABLENAME, values,
+                        BaseActivitySummaryDao.Properties.Id.columnName + "=?",
+                        new String[]{String.valueOf(cursor.getLong(0))});
+            }
+        }
+    }
+
+    @Override
+    public void downgradeSchema(SQLiteDatabase db) {
+    }
+
+    private void addColumn(SQLiteDatabase db, Property property, String type) {
+        if (!DBHelper.existsColumn(BaseActivitySummaryDao.TABLENAME, property.columnName, db)) {
+            db.execSQL("ALTER TABLE " + BaseActivitySummaryDao.TABLENAME + " ADD COLUMN "
+                    + property.columnName + " " + type);
+        }
+    }
+}
@@ -86,7 +86,7 @@ public abstract class AbstractDeviceCoordinator implements DeviceCoordinator {
     public void deleteDevice(final GBDevice gbDevice) throws GBException {
         LOG.info("will try to delete device: " + gbDevice.getName());
         if (gbDevice.isConnected() || gbDevice.isConnecting()) {
-            GBApplication.deviceService().disconnect();
+            GBApplication.deviceService(gbDevice).disconnect();
         }
         Prefs prefs = getPrefs();
 
@@ -121,6 +121,9 @@ public abstract class AbstractDeviceCoordinator implements DeviceCoordinator {
             }
         } catch (Exception e) {
             throw new GBException("Error deleting device: " + e.getMessage(), e);
+        } finally {
+            // also when the deletion failed halfway, the next lookup must query the database
+            DBHelper.invalidateDeviceIdentity(gbDevice);
         }
     }
 
@@ -18,6 +18,7 @@
 package nodomain.freeyourgadget.gadgetbridge.devices;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -30,7 +31,6 @@ import de.greenrobot.dao.query.WhereCondition;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 
@@ -83,24 +83,66 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
     @Override
     public void addGBActivitySample(T activitySample) {
         getSampleDao().insertOrReplace(activitySample);
+        notifySamplesChanged(activitySample.getTimestamp(), activitySample.getTimestamp());
     }
 
     @Override
     public void addGBActivitySamples(T[] activitySamples) {
+        addGBActivitySamples(Arrays.asList(activitySamples));
+    }
+
+    /**
+     * Adds the given samples in a single transaction.
+     */
+    public void addGBActivitySamples(List<T> activitySamples) {
         getSampleDao().insertOrReplaceInTx(activitySamples);
+        if (!activitySamples.isEmpty()) {
+            int tsFrom = Integer.MAX_VALUE;
+            int tsTo = Integer.MIN_VALUE;
+            for (T sample : activitySamples) {
+                tsFrom = Math.min(tsFrom, sample.getTimestamp());
+                tsTo = Math.max(tsTo, sample.getTimestamp());
+            }
+            notifySamplesChanged(tsFrom, tsTo);
+        }
+    }
+
+    /**
+     * Invalidates the data derived from the samples of the given time range, i.e. the
+     * {@link ActivityAmountCache}, the {@link ActivityRollups} and the sleep and step sessions.
+     * The latter are only marked as dirty and recomputed by the {@link ActivityDataPrecomputer}
+     * later, so this is cheap enough for the writers, which call it while holding the writer
+     * lock. This is done by #addGBActivitySample(s) already; writers that change the samples
+     * in any other way, e.g. by writing overlays that change their kind, must call this afterwards.
+     */
+    public void notifySamplesChanged(int tsFrom, int tsTo) {
+        ActivityAmountCache.invalidate(getDevice(), tsFrom, tsTo);
+        ActivityRollups.markDirty(this, tsFrom, tsTo);
+        SleepSessions.markDirty(this, tsFrom, tsTo);
+        StepSessions.markDirty(this, tsFrom, tsTo);
+        ActivityDataPrecomputer.scheduleAfterWrite(getDevice());
+    }
+
+    /**
+     * Adds a realtime sample through the {@link RealtimeSampleBuffer}, i.e. it will be written
+     * together with the following realtime samples of the device. Use this for samples that
+     * arrive every second or so. The sample must not be modified afterwards.
+     */
+    public void addGBActivitySampleBuffered(T activitySample) {
+        RealtimeSampleBuffer.add(this, activitySample);
     }
 
     @Nullable
     @Override
     public T getLatestActivitySample() {
         QueryBuilder<T> qb = getSampleDao().queryBuilder();
-        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
-        if (dbDevice == null) {
+        Long deviceId = DBHelper.findDeviceId(getDevice(), getSession());
+        if (deviceId == null) {
             // no device, no sample
             return null;
         }
         Property deviceProperty = getDeviceIdentifierSampleProperty();
-        qb.where(deviceProperty.eq(dbDevice.getId())).orderDesc(getTimestampSampleProperty()).limit(1);
+        qb.where(deviceProperty.eq(deviceId)).orderDesc(getTimestampSampleProperty()).limit(1);
         List<T> samples = qb.build().list();
         if (samples.isEmpty()) {
             return null;
@@ -111,20 +153,10 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
     }
 
     protected List<T> getGBActivitySamples(int timestamp_from, int timestamp_to, int activityType) {
-        if (getRawKindSampleProperty() == null && activityType != ActivityKind.TYPE_ALL) {
-            // if we do not have a raw kind property we cannot query anything else then TYPE_ALL
+        QueryBuilder<T> qb = createSampleQuery(timestamp_from, timestamp_to, activityType);
+        if (qb == null) {
             return Collections.emptyList();
         }
-        QueryBuilder<T> qb = getSampleDao().queryBuilder();
-        Property timestampProperty = getTimestampSampleProperty();
-        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
-        if (dbDevice == null) {
-            // no device, no samples
-            return Collections.emptyList();
-        }
-        Property deviceProperty = getDeviceIdentifierSampleProperty();
-        qb.where(deviceProperty.eq(dbDevice.getId()), timestampProperty.ge(timestamp_from))
-            .where(timestampProperty.le(timestamp_to), getClauseForActivityType(qb, activityType));
         List<T> samples = qb.build().list();
         for (T sample : samples) {
             sample.setProvider(this);
@@ -133,6 +165,48 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
         return samples;
     }
 
+    @NonNull
+    @Override
+    public SampleIterator<T> iterateAllActivitySamples(int timestamp_from, int timestamp_to) {
+        return iterateGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
+    }
+
+    /**
+     * Streaming variant of #getGBActivitySamples(int, int, int). Subclasses that post-process
+     * the samples there must do the same here, see SampleIterator#process().
+     */
+    protected SampleIterator<T> iterateGBActivitySamples(int timestamp_from, int timestamp_to, int activityType) {
+        QueryBuilder<T> qb = createSampleQuery(timestamp_from, timestamp_to, activityType);
+        if (qb == null) {
+            return SampleIterator.empty();
+        }
+        return new SampleIterator<>(this, getSampleDao(), qb.buildCursor().query());
+    }
+
+    /**
+     * Returns the query for the samples of the given type within the given time span, or null
+     * if there cannot be any samples.
+     */
+    @Nullable
+    protected QueryBuilder<T> createSampleQuery(int timestamp_from, int timestamp_to, int activityType) {
+        if (getRawKindSampleProperty() == null && activityType != ActivityKind.TYPE_ALL) {
+            // if we do not have a raw kind property we cannot query anything else then TYPE_ALL
+            return null;
+        }
+        QueryBuilder<T> qb = getSampleDao().queryBuilder();
+        Property timestampProperty = getTimestampSampleProperty();
+        Long deviceId = DBHelper.findDeviceId(getDevice(), getSession());
+        if (deviceId == null) {
+            // no device, no samples
+            return null;
+        }
+        Property deviceProperty = getDeviceIdentifierSampleProperty();
+        qb.where(deviceProperty.eq(deviceId), timestampProperty.ge(timestamp_from))
+            .where(timestampProperty.le(timestamp_to), getClauseForActivityType(qb, activityType))
+            .orderAsc(timestampProperty);
+        return qb;
+    }
+
     /**
      * Detaches all samples of this type from the session. Changes to them may not be
      * written back to the database.
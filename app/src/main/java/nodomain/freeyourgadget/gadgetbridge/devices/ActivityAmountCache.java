@@ -0,0 +1,209 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+
+/**
+ * A process-wide LRU cache of the activity amounts of single days, shared by the week
+ * charts, the daily totals of the widget and the device list.
+ * <p/>
+ * Entries are keyed by device, day, offset hours and analysis type. They are invalidated
+ * whenever samples of the covered time range are written or changed, which is reported by
+ * {@link AbstractSampleProvider#notifySamplesChanged(int, int)}, and completely when the
+ * database is replaced.
+ * The returned ActivityAmounts are shared and must not be modified.
+ */
+public class ActivityAmountCache {
+    /**
+     * The amounts as calculated by {@link ActivityAnalysis}, or from the rollups.
+     */
+    public static final int TYPE_ACTIVITY_AMOUNTS = 0;
+
+    // an entry takes less than 1KB, so this keeps the cache well below 1MB
+    private static final int MAX_ENTRIES = 512;
+
+    private static final LinkedHashMap<Key, ActivityAmounts> cache = new LinkedHashMap<Key, ActivityAmounts>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, ActivityAmounts> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    // incremented on every invalidation, to avoid caching amounts calculated from stale samples
+    private static long generation;
+
+    /**
+     * Returns the activity amounts of the given day of the device, from the cache, the rollups,
+     * or by analyzing the samples.
+     *
+     * @param day         any time of the day, will not be modified
+     * @param offsetHours the offset of the start of the range from midnight, e.g. -12 for sleep
+     */
+    public static ActivityAmounts getActivityAmountsOfDay(DBHandler db, GBDevice device, Calendar day, int offsetHours) {
+        return getActivityAmountsOfDays(db, device, day, 1, offsetHours)[0];
+    }
+
+    /**
+     * Returns the activity amounts of the given number of consecutive days of the device,
+     * starting with the given day. Days that are neither cached nor available from the
+     * rollups are calculated together, with a single scan over their samples, see
+     * {@link DailyActivityAggregator}.
+     *
+     * @param firstDay    any time of the first day, will not be modified
+     * @param offsetHours the offset of the start of the ranges from midnight, e.g. -12 for sleep
+     */
+    public static ActivityAmounts[] getActivityAmountsOfDays(DBHandler db, GBDevice device, Calendar firstDay, int days, int offsetHours) {
+        Calendar day = (Calendar) firstDay.clone(); // do not modify the caller's argument
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        Key[] keys = new Key[days];
+        for (int i = 0; i < days; i++) {
+            int dayStart = (int) (day.getTimeInMillis() / 1000);
+            day.add(Calendar.HOUR, offsetHours);
+            int startTs = (int) (day.getTimeInMillis() / 1000);
+            day.add(Calendar.HOUR, -offsetHours);
+            keys[i] = new Key(device.getAddress(), dayStart, offsetHours, TYPE_ACTIVITY_AMOUNTS, startTs);
+            day.add(Calendar.DATE, 1);
+        }
+
+        ActivityAmounts[] result = new ActivityAmounts[days];
+        int missing = 0;
+        long currentGeneration;
+        synchronized (cache) {
+            for (int i = 0; i < days; i++) {
+                result[i] = cache.get(keys[i]);
+                if (result[i] == null) {
+                    missing++;
+                }
+            }
+            currentGeneration = generation;
+        }
+        if (missing == 0) {
+            return result;
+        }
+
+        SampleProvider<? extends AbstractActivitySample> provider = DeviceHelper.getInstance().getCoordinator(device).getSampleProvider(device, db.getDaoSession());
+        // prefer the pre-aggregated rollups, fall back to analyzing the samples
+        int[] missingIndexes = new int[missing];
+        int[] missingStarts = new int[missing];
+        missing = 0;
+        for (int i = 0; i < days; i++) {
+            if (result[i] == null) {
+                int startTs = keys[i].startTs;
+                result[i] = ActivityRollups.getActivityAmounts(provider, startTs, startTs + ActivityRollups.DAY_SECONDS - 1);
+                if (result[i] == null) {
+                    missingIndexes[missing] = i;
+                    missingStarts[missing] = startTs;
+                    missing++;
+                }
+            }
+        }
+        if (missing > 0) {
+            ActivityAmounts[] calculated = DailyActivityAggregator.aggregate(provider, Arrays.copyOf(missingStarts, missing), ActivityRollups.DAY_SECONDS);
+            for (int i = 0; i < missing; i++) {
+                result[missingIndexes[i]] = calculated[i];
+            }
+        }
+
+        synchronized (cache) {
+            if (generation == currentGeneration) {
+                for (int i = 0; i < days; i++) {
+                    cache.put(keys[i], result[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the entries of all days of the device that overlap the given time range.
+     */
+    public static void invalidate(GBDevice device, int tsFrom, int tsTo) {
+        String address = device.getAddress();
+        synchronized (cache) {
+            generation++;
+            for (Iterator<Key> iterator = cache.keySet().iterator(); iterator.hasNext(); ) {
+                Key key = iterator.next();
+                if (key.address.equals(address) && key.startTs <= tsTo && key.startTs + ActivityRollups.DAY_SECONDS > tsFrom) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all entries, e.g. after the database has been replaced or deleted.
+     */
+    public static void invalidateAll() {
+        synchronized (cache) {
+            generation++;
+            cache.clear();
+        }
+    }
+
+    private static class Key {
+        private final String address;
+        private final int dayStart;
+        private final int offsetHours;
+        private final int type;
+        // the start of the covered range, derived from the other values
+        private final int startTs;
+
+        Key(String address, int dayStart, int offsetHours, int type, int startTs) {
+            this.address = address;
+            this.dayStart = dayStart;
+            this.offsetHours = offsetHours;
+            this.type = type;
+            this.startTs = startTs;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return dayStart == other.dayStart && offsetHours == other.offsetHours
+                    && type == other.type && address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = address.hashCode();
+            result = 31 * result + dayStart;
+            result = 31 * result + offsetHours;
+            result = 31 * result + type;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import android.os.Process;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+import nodomain.freeyourgadget.gadgetbridge.util.TimingStatistics;
+
+/**
+ * Precomputes the data shown by the charts in the background after new activity data has
+ * been received (see GB#signalActivityDataFinish()), so that the charts of today, this week
+ * and this month do not have to analyze the samples when they are opened the next time.
+ * <p/>
+ * This builds the {@link ActivityRollups}, {@link SleepSessions} and {@link StepSessions}
+ * if necessary and applies their pending updates, which takes the writer lock, and then
+ * fills the {@link ActivityAmountCache} with the days of the week and month charts through
+ * a read-only handler. Readers never update the derived data themselves, they only ask for
+ * a job through {@link #scheduleIfIdle(GBDevice)} when they find it missing. Neither do the
+ * writers, they only mark the changed ranges as dirty and ask for a job through
+ * {@link #scheduleAfterWrite(GBDevice)}, which waits a bit so that a fetch or the realtime
+ * samples written in the meantime are handled by the same job.
+ * <p/>
+ * There is at most one pending job per device; scheduling another one supersedes it, and
+ * a job that is already running stops at its next step, which includes the next pass of a
+ * rebuild. The jobs run one after another on a single background thread: their rebuilds
+ * take the writer lock, so a second thread would only wait for the first one.
+ */
+public class ActivityDataPrecomputer {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivityDataPrecomputer.class);
+
+    /**
+     * The time from scheduling a job until it has finished, including the time it waited
+     * for a thread.
+     */
+    public static final TimingStatistics STATISTICS = new TimingStatistics("Chart data precomputation");
+
+    // the days before today whose amounts are cached, enough for the month charts
+    static final int DAYS = 31;
+
+    // the time between a write and the job it asks for
+    static final int WRITE_DELAY_SECONDS = 30;
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Activity Precomputer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // only waits for the delays of #scheduleAfterWrite(GBDevice), the jobs run on the executor
+    private static final ScheduledThreadPoolExecutor delayExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Activity Precomputer Delay");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+        delayExecutor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        delayExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // the pending or running job by device address
+    private static final Map<String, Job> jobs = new HashMap<>();
+    // the addresses of the devices waiting for the delay of #scheduleAfterWrite(GBDevice)
+    private static final Set<String> delayed = new HashSet<>();
+
+    private ActivityDataPrecomputer() {
+    }
+
+    /**
+     * Schedules the precomputation for all known devices that support activity tracking.
+     */
+    public static void schedule() {
+        GBApplication app = GBApplication.app();
+        if (app == null || app.getDeviceManager() == null) {
+            return;
+        }
+        // the device list may change while iterating, since this is not called on the UI thread
+        List<GBDevice> devices = new ArrayList<>(app.getDeviceManager().getDevices());
+        for (GBDevice device : devices) {
+            schedule(device);
+        }
+    }
+
+    /**
+     * Schedules the precomputation for the given device, superseding a job of the device
+     * that has not finished yet.
+     */
+    public static void schedule(GBDevice device) {
+        if (!DeviceHelper.getInstance().getCoordinator(device).supportsActivityTracking()) {
+            return;
+        }
+        schedule(new Job(device));
+    }
+
+    static void schedule(Job job) {
+        synchronized (jobs) {
+            Job previous = jobs.put(job.device.getAddress(), job);
+            if (previous != null) {
+                previous.cancelled.set(true);
+                executor.remove(previous);
+            }
+        }
+        executor.execute(job);
+    }
+
+    /**
+     * Schedules the precomputation for the given device, unless a job of the device is
+     * pending or running already. Used by the readers that found the derived data of the
+     * device missing, since superseding a running job would keep it from ever finishing.
+     */
+    public static void scheduleIfIdle(GBDevice device) {
+        if (!isScheduled(device)) {
+            schedule(device);
+        }
+    }
+
+    /**
+     * Schedules the precomputation for the given device after its samples have been written
+     * or changed, see {@link AbstractSampleProvider#notifySamplesChanged(int, int)}. The job
+     * is only asked for after {@link #WRITE_DELAY_SECONDS}, and only once for all writes of
+     * the device until then. Like #scheduleIfIdle(GBDevice), this does not supersede a job
+     * of the device; a pending job handles the new dirty ranges as well, a running one is
+     * repeated after it has finished, since it may have passed them already.
+     * <p/>
+     * Cheap enough to be called by the writers while holding the writer lock.
+     */
+    public static void scheduleAfterWrite(final GBDevice device) {
+        final String address = device.getAddress();
+        synchronized (jobs) {
+            if (!delayed.add(address)) {
+                return;
+            }
+        }
+        delayExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (jobs) {
+                    delayed.remove(address);
+                    Job job = jobs.get(address);
+                    if (job != null) {
+                        if (job.started) {
+                            job.repeat = true;
+                        }
+                        return;
+                    }
+                }
+                schedule(device);
+            }
+        }, WRITE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns true if a job of the given device is pending or running.
+     */
+    public static boolean isScheduled(GBDevice device) {
+        synchronized (jobs) {
+            return jobs.containsKey(device.getAddress());
+        }
+    }
+
+    /**
+     * The precomputation of a single device. Not private, so that the tests can replace the
+     * work with their own.
+     */
+    static class Job implements Runnable {
+        final GBDevice device;
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        private final long scheduledAtNanos = System.nanoTime();
+        // both guarded by jobs; whether the job is running, and whether samples have been
+        // written since, see #scheduleAfterWrite(GBDevice)
+        private boolean started;
+        private boolean repeat;
+
+        Job(GBDevice device) {
+            this.device = device;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            synchronized (jobs) {
+                started = true;
+            }
+            boolean repeatJob = false;
+            try {
+                if (precompute()) {
+                    STATISTICS.record(System.nanoTime() - scheduledAtNanos);
+                    LOG.info("Precomputed chart data for " + device + " in "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scheduledAtNanos) + "ms");
+                }
+            } catch (Exception ex) {
+                LOG.warn("Error precomputing chart data for " + device, ex);
+            } finally {
+                synchronized (jobs) {
+                    if (jobs.get(device.getAddress()) == this) {
+                        jobs.remove(device.getAddress());
+                        repeatJob = repeat;
+                    }
+                }
+            }
+            if (repeatJob) {
+                schedule(device);
+            }
+        }
+
+        /**
+         * Returns false if the job has been superseded before it was finished.
+         */
+        boolean precompute() throws Exception {
+            DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
+            // the derived data is updated through the writer, before and without holding a
+            // read-only handler, see GBApplication#invalidateDBReaders()
+            SampleProvider<? extends AbstractActivitySample> provider;
+            try (DBHandler db = GBApplication.acquireDB()) {
+                provider = coordinator.getSampleProvider(device, db.getDaoSession());
+            }
+            if (!(provider instanceof AbstractSampleProvider)) {
+                return false;
+            }
+            AbstractSampleProvider<?> writerProvider = (AbstractSampleProvider<?>) provider;
+
+            ActivityRollups.ensureAvailable(writerProvider, cancelled);
+            if (cancelled.get()) {
+                return false;
+            }
+            SleepSessions.ensureAvailable(writerProvider, cancelled);
+            if (cancelled.get()) {
+                return false;
+            }
+            StepSessions.ensureAvailable(writerProvider, cancelled);
+            if (cancelled.get()) {
+                return false;
+            }
+
+            try (DBHandler db = GBApplication.acquireDBReadOnly()) {
+                // the week and month charts of steps and sleep, see AbstractWeekChartFragment
+                Calendar firstDay = Calendar.getInstance();
+                firstDay.add(Calendar.DATE, -DAYS);
+                ActivityAmountCache.getActivityAmountsOfDays(db, device, firstDay, DAYS + 1, 0);
+                if (cancelled.get()) {
+                    return false;
+                }
+                ActivityAmountCache.getActivityAmountsOfDays(db, device, firstDay, DAYS + 1, -12);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+
+/**
+ * Applies activity overlays, i.e. time ranges reported separately by some devices (like
+ * sleep phases) that override the samples they cover.
+ * <p/>
+ * Samples and overlays are merged in a single sweep over the time ordered samples. The
+ * overlays covering the current sample are kept in an interval structure ordered by their
+ * end, so the cost is O((samples + overlays) * log(overlays)) plus one #apply() call per
+ * covered sample, instead of O(samples * overlays) for applying one overlay after another.
+ * <p/>
+ * The overlays covering a sample are applied in the order of the overlay list, so the
+ * result is the same as when applying the complete overlays one after another, as long as
+ * #apply() only modifies the given sample (and state kept per overlay).
+ *
+ * @param <S> the sample type
+ * @param <O> the overlay type
+ */
+public abstract class ActivityOverlayEngine<S extends AbstractActivitySample, O> {
+
+    /**
+     * Returns the start of the given overlay, inclusive.
+     */
+    protected abstract int getTimestampFrom(O overlay);
+
+    /**
+     * Returns the end of the given overlay, exclusive.
+     */
+    protected abstract int getTimestampTo(O overlay);
+
+    /**
+     * Applies the overlay to a sample covered by it.
+     *
+     * @param overlayIndex the index of the overlay in the list passed to #applyOverlays(),
+     *                     e.g. for keeping state per overlay
+     */
+    protected abstract void apply(S sample, O overlay, int overlayIndex);
+
+    /**
+     * Applies the given overlays to the given samples.
+     *
+     * @param samples  the samples, sorted by timestamp
+     * @param overlays the overlays, in the order they are to be applied
+     */
+    public void applyOverlays(List<S> samples, List<O> overlays) {
+        int count = overlays.size();
+        if (count == 0 || samples.isEmpty()) {
+            return;
+        }
+        final int[] from = new int[count];
+        final int[] to = new int[count];
+        Integer[] byStart = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            O overlay = overlays.get(i);
+            from[i] = getTimestampFrom(overlay);
+            to[i] = getTimestampTo(overlay);
+            byStart[i] = i;
+        }
+        Arrays.sort(byStart, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer one, Integer other) {
+                return compareInts(from[one], from[other]);
+            }
+        });
+        PriorityQueue<Integer> byEnd = new PriorityQueue<>(count, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer one, Integer other) {
+                return compareInts(to[one], to[other]);
+            }
+        });
+        // the indexes of the overlays covering the current sample, in application order
+        TreeSet<Integer> active = new TreeSet<>();
+
+        int next = 0;
+        for (S sample : samples) {
+            int timestamp = sample.getTimestamp();
+            while (next < count && from[byStart[next]] <= timestamp) {
+                Integer index = byStart[next++];
+                byEnd.add(index);
+                active.add(index);
+            }
+            while (!byEnd.isEmpty() && to[byEnd.peek()] <= timestamp) {
+                active.remove(byEnd.poll());
+            }
+            for (Integer index : active) {
+                apply(sample, overlays.get(index), index);
+            }
+        }
+    }
+
+    /**
+     * Merges the additional samples into the given ones, with the same result as appending
+     * them and sorting the complete list by timestamp with a stable sort, but without sorting
+     * the already ordered samples again.
+     *
+     * @param samples    the samples, sorted by timestamp
+     * @param additional the samples to insert, in any order
+     * @return a new list with all samples
+     */
+    public static <S extends AbstractActivitySample> List<S> mergeSorted(List<S> samples, List<S> additional) {
+        List<S> sortedAdditional = new ArrayList<>(additional);
+        Collections.sort(sortedAdditional, new Comparator<S>() {
+            @Override
+            public int compare(S one, S other) {
+                return compareInts(one.getTimestamp(), other.getTimestamp());
+            }
+        });
+
+        List<S> result = new ArrayList<>(samples.size() + sortedAdditional.size());
+        int i = 0;
+        int j = 0;
+        while (i < samples.size() && j < sortedAdditional.size()) {
+            // on equal timestamps, the existing samples come first
+            if (samples.get(i).getTimestamp() <= sortedAdditional.get(j).getTimestamp()) {
+                result.add(samples.get(i++));
+            } else {
+                result.add(sortedAdditional.get(j++));
+            }
+        }
+        result.addAll(samples.subList(i, samples.size()));
+        result.addAll(sortedAdditional.subList(j, sortedAdditional.size()));
+        return result;
+    }
+
+    private static int compareInts(int one, int other) {
+        return one < other ? -1 : (one == other ? 0 : 1);
+    }
+}
@@ -0,0 +1,610 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.greenrobot.dao.query.QueryBuilder;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.DailyActivityRollup;
+import nodomain.freeyourgadget.gadgetbridge.entities.DailyActivityRollupDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.HourlyActivityRollup;
+import nodomain.freeyourgadget.gadgetbridge.entities.HourlyActivityRollupDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityRollup;
+import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+
+/**
+ * Maintains the hourly and daily activity rollup tables, which contain pre-aggregated
+ * steps, activity/sleep durations and heart rate statistics per device.
+ * <p/>
+ * Writing or changing samples only marks their hours as dirty, see
+ * {@link AbstractSampleProvider#notifySamplesChanged(int, int)}, which also schedules the
+ * {@link ActivityDataPrecomputer} that recomputes them in the background. The dirty ranges
+ * are persisted, so that they are recomputed even if the process dies before.
+ * <p/>
+ * Durations are calculated the same way as in
+ * {@link nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis}, with the
+ * exception that the time between the last sample of an hour and the first sample of the next
+ * hour is accounted to the latter. Totals for a range of hours may therefore differ by a single
+ * sample interval from an analysis of the raw samples of that range.
+ * <p/>
+ * Reading the rollups only requires a read-only handler; it never updates them, since that
+ * would take the writer lock while holding a reader. Everything else takes the writer lock
+ * itself, so it must only be called from a writer or a background job that does not hold
+ * a read-only handler.
+ */
+public class ActivityRollups {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivityRollups.class);
+
+    /**
+     * Increment whenever the way rollups are calculated changes, to force a rebuild.
+     */
+    private static final int ROLLUP_VERSION = 1;
+    private static final String PREF_ROLLUPS_BUILT = "activity_rollups_built_v" + ROLLUP_VERSION;
+    private static final String PREF_ROLLUPS_DIRTY = "activity_rollups_dirty";
+
+    public static final int HOUR_SECONDS = 60 * 60;
+    public static final int DAY_SECONDS = 24 * HOUR_SECONDS;
+    // recompute at most a week at once, in order to limit the number of samples in memory;
+    // a rebuild takes the writer lock for a single pass only
+    private static final int MAX_HOURS_PER_PASS = 7 * 24;
+
+    // the ranges that have not been recomputed yet
+    private static final DirtyRanges dirtyRanges = new DirtyRanges(PREF_ROLLUPS_DIRTY);
+
+    /**
+     * Called after samples have been written or changed. Only marks their hours as dirty,
+     * they are recomputed by the {@link ActivityDataPrecomputer} in the background.
+     */
+    static void markDirty(AbstractSampleProvider<?> provider, int tsFrom, int tsTo) {
+        dirtyRanges.mark(provider.getDevice().getAddress(), tsFrom, tsTo);
+    }
+
+    /**
+     * Recomputes the pending dirty hours of the provider's device, if any.
+     */
+    public static void flush(AbstractSampleProvider<?> provider) {
+        String address = provider.getDevice().getAddress();
+        int[] range = dirtyRanges.get(address);
+        if (range == null) {
+            return;
+        }
+        try (DBHandler db = GBApplication.acquireDB()) {
+            Device dbDevice = DBHelper.findDevice(provider.getDevice(), db.getDaoSession());
+            if (dbDevice != null) {
+                update(provider, db.getDaoSession(), dbDevice, range[0], range[1]);
+            }
+            // the range stays dirty if it has been extended in the meantime
+            dirtyRanges.remove(address, range);
+        } catch (GBException ex) {
+            LOG.warn("Unable to update activity rollups for " + provider.getDevice() + ", will retry later", ex);
+        } catch (Exception ex) {
+            LOG.warn("Error updating activity rollups, invalidating them for " + provider.getDevice(), ex);
+            setAvailable(provider.getDevice(), false);
+            dirtyRanges.remove(address);
+        }
+    }
+
+    /**
+     * Returns true if the rollups of the given device are complete, i.e. have been fully
+     * built once and are being kept up to date since.
+     */
+    public static boolean isAvailable(GBDevice device) {
+        Prefs prefs = GBApplication.getPrefs();
+        return prefs.getStringSet(PREF_ROLLUPS_BUILT, new HashSet<String>()).contains(device.getAddress());
+    }
+
+    /**
+     * Builds the rollups of the provider's device unless they are already available, and
+     * recomputes its pending dirty hours. May take a while for devices with lots of samples,
+     * so must only be called from a background job, e.g. the {@link ActivityDataPrecomputer}.
+     *
+     * @param provider  a provider of the writer session, see #rebuild(AbstractSampleProvider, AtomicBoolean)
+     * @param cancelled checked between the passes of a rebuild, which stops if it is set
+     */
+    public static void ensureAvailable(SampleProvider<?> provider, AtomicBoolean cancelled) {
+        if (provider instanceof AbstractSampleProvider) {
+            AbstractSampleProvider<?> sampleProvider = (AbstractSampleProvider<?>) provider;
+            if (!isAvailable(sampleProvider.getDevice())) {
+                rebuild(sampleProvider, cancelled);
+            }
+            flush(sampleProvider);
+        }
+    }
+
+    /**
+     * Deletes and recomputes all rollups of the provider's device from its samples.
+     *
+     * @see #rebuild(AbstractSampleProvider, AtomicBoolean)
+     */
+    public static void rebuild(AbstractSampleProvider<?> provider) {
+        rebuild(provider, new AtomicBoolean());
+    }
+
+    /**
+     * Deletes and recomputes all rollups of the provider's device from its samples. The
+     * writer lock is only held for a single pass at a time; the rollups are unavailable
+     * until the last pass is done. A cancelled rebuild leaves them unavailable.
+     *
+     * @param provider  a provider of the writer session, i.e. of #acquireDB(), so that the
+     *                  samples are read while holding the writer lock
+     * @param cancelled checked before each pass
+     */
+    public static void rebuild(AbstractSampleProvider<?> provider, AtomicBoolean cancelled) {
+        GBDevice gbDevice = provider.getDevice();
+        long start = System.currentTimeMillis();
+        int[] range;
+        try (DBHandler db = GBApplication.acquireDB()) {
+            if (db.getDaoSession() != provider.getSession()) {
+                LOG.warn("Not rebuilding the activity rollups for " + gbDevice + ", the provider does not belong to the writer");
+                return;
+            }
+            range = startRebuild(provider, db.getDaoSession());
+        } catch (GBException ex) {
+            LOG.warn("Unable to rebuild activity rollups for " + gbDevice, ex);
+            return;
+        }
+        if (range == null) {
+            return;
+        }
+
+        for (int passStart = range[0]; passStart < range[1]; passStart += MAX_HOURS_PER_PASS * HOUR_SECONDS) {
+            int passEnd = Math.min(range[1], passStart + MAX_HOURS_PER_PASS * HOUR_SECONDS);
+            if (cancelled.get()) {
+                LOG.info("Rebuild of the activity rollups for " + gbDevice + " cancelled");
+                return;
+            }
+            try (DBHandler db = GBApplication.acquireDB()) {
+                DaoSession session = db.getDaoSession();
+                Device dbDevice = DBHelper.findDevice(gbDevice, session);
+                if (session != provider.getSession() || dbDevice == null) {
+                    LOG.warn("Database has been replaced, aborting the rebuild of the activity rollups for " + gbDevice);
+                    return;
+                }
+                updateHours(provider, session, dbDevice, passStart, passEnd);
+                // a day spanning two passes is completed by the second one
+                updateDays(session, dbDevice, passStart, passEnd);
+            } catch (GBException ex) {
+                LOG.warn("Unable to rebuild activity rollups for " + gbDevice, ex);
+                return;
+            }
+        }
+        setAvailable(gbDevice, true);
+        LOG.info("Rebuilt activity rollups for " + gbDevice + " in " + (System.currentTimeMillis() - start) + "ms");
+        // the samples written during the rebuild
+        flush(provider);
+    }
+
+    /**
+     * Deletes all rollups of the device and returns the range of full hours of its samples,
+     * {start inclusive, end exclusive}, or null if the device is not known.
+     */
+    @Nullable
+    private static int[] startRebuild(AbstractSampleProvider<?> provider, DaoSession session) {
+        GBDevice gbDevice = provider.getDevice();
+        Device dbDevice = DBHelper.findDevice(gbDevice, session);
+        if (dbDevice == null) {
+            return null;
+        }
+        setAvailable(gbDevice, false);
+        dirtyRanges.remove(gbDevice.getAddress());
+
+        session.getHourlyActivityRollupDao().queryBuilder()
+                .where(HourlyActivityRollupDao.Properties.DeviceId.eq(dbDevice.getId()))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+        session.getDailyActivityRollupDao().queryBuilder()
+                .where(DailyActivityRollupDao.Properties.DeviceId.eq(dbDevice.getId()))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+
+        AbstractActivitySample first = getFirstSample(provider, dbDevice);
+        AbstractActivitySample latest = provider.getLatestActivitySample();
+        if (first == null || latest == null) {
+            // nothing to do
+            return new int[]{0, 0};
+        }
+        return new int[]{getHourStart(first.getTimestamp()), getHourStart(latest.getTimestamp()) + HOUR_SECONDS};
+    }
+
+    /**
+     * Marks the rollups, and the other data derived from the samples, of all devices as
+     * unavailable, e.g. after the database has been replaced or deleted.
+     */
+    public static void invalidateAll() {
+        dirtyRanges.clear();
+        ActivityAmountCache.invalidateAll();
+        SleepSessions.invalidateAll();
+        StepSessions.invalidateAll();
+        GBApplication.getPrefs().getPreferences().edit().remove(PREF_ROLLUPS_BUILT).apply();
+    }
+
+    /**
+     * Returns the activity amounts of the given time range from the rollups, or null if
+     * the rollups cannot be used to answer that query, e.g. because they are not available
+     * (yet), the range has not been recomputed since samples of it were written, or the range
+     * is not aligned to full hours. Callers must fall back to analyzing the samples in that case.
+     *
+     * @param tsFrom the start of the range, inclusive
+     * @param tsTo   the end of the range, inclusive
+     */
+    @Nullable
+    public static ActivityAmounts getActivityAmounts(SampleProvider<?> provider, int tsFrom, int tsTo) {
+        if (!(provider instanceof AbstractSampleProvider)) {
+            return null;
+        }
+        AbstractSampleProvider<?> sampleProvider = (AbstractSampleProvider<?>) provider;
+        if (tsFrom % HOUR_SECONDS != 0 || (tsTo + 1) % HOUR_SECONDS != 0 || tsTo < tsFrom) {
+            return null;
+        }
+        if (!isAvailable(sampleProvider.getDevice())
+                || dirtyRanges.overlaps(sampleProvider.getDevice().getAddress(), tsFrom, tsTo)) {
+            return null;
+        }
+
+        DaoSession session = sampleProvider.getSession();
+        Device dbDevice = DBHelper.findDevice(sampleProvider.getDevice(), session);
+        if (dbDevice == null) {
+            return new ActivityAmounts();
+        }
+
+        Totals totals = new Totals();
+        if (tsTo + 1 - tsFrom == DAY_SECONDS) {
+            DailyActivityRollup daily = session.getDailyActivityRollupDao().queryBuilder()
+                    .where(DailyActivityRollupDao.Properties.DeviceId.eq(dbDevice.getId()),
+                            DailyActivityRollupDao.Properties.Timestamp.eq(tsFrom))
+                    .unique();
+            if (daily != null) {
+                totals.add(daily);
+                return totals.toActivityAmounts();
+            }
+        }
+
+        for (HourlyActivityRollup hourly : getHourlyRollups(session, dbDevice, tsFrom, tsTo + 1)) {
+            totals.add(hourly);
+        }
+        return totals.toActivityAmounts();
+    }
+
+    static int getHourStart(int timestamp) {
+        return timestamp - (timestamp % HOUR_SECONDS);
+    }
+
+    private static void setAvailable(GBDevice device, boolean available) {
+        Prefs prefs = GBApplication.getPrefs();
+        HashSet<String> built = new HashSet<>(prefs.getStringSet(PREF_ROLLUPS_BUILT, new HashSet<String>()));
+        boolean changed = available ? built.add(device.getAddress()) : built.remove(device.getAddress());
+        if (changed) {
+            SharedPreferences.Editor editor = prefs.getPreferences().edit();
+            Prefs.putStringSet(editor, PREF_ROLLUPS_BUILT, built);
+            editor.apply();
+        }
+    }
+
+    @Nullable
+    static <T extends AbstractActivitySample> T getFirstSample(AbstractSampleProvider<T> provider, Device dbDevice) {
+        QueryBuilder<T> qb = provider.getSampleDao().queryBuilder();
+        qb.where(provider.getDeviceIdentifierSampleProperty().eq(dbDevice.getId()))
+                .orderAsc(provider.getTimestampSampleProperty()).limit(1);
+        List<T> samples = qb.build().list();
+        provider.detachFromSession();
+        return samples.isEmpty() ? null : samples.get(0);
+    }
+
+    /**
+     * Recomputes the rollups of the given range. Samples are read through the provider,
+     * the rollups are written through the given session, which must belong to the writer.
+     */
+    private static void update(AbstractSampleProvider<?> provider, DaoSession session, Device dbDevice, int tsFrom, int tsTo) {
+        int rangeStart = getHourStart(tsFrom);
+        int rangeEnd = getHourStart(tsTo) + HOUR_SECONDS;
+        for (int passStart = rangeStart; passStart < rangeEnd; passStart += MAX_HOURS_PER_PASS * HOUR_SECONDS) {
+            int passEnd = Math.min(rangeEnd, passStart + MAX_HOURS_PER_PASS * HOUR_SECONDS);
+            updateHours(provider, session, dbDevice, passStart, passEnd);
+        }
+        updateDays(session, dbDevice, rangeStart, rangeEnd);
+    }
+
+    /**
+     * Recomputes the hourly rollups in the given range.
+     *
+     * @param rangeStart the start of the first hour, inclusive
+     * @param rangeEnd   the end of the last hour, exclusive
+     */
+    private static void updateHours(AbstractSampleProvider<?> provider, DaoSession session, final Device dbDevice, final int rangeStart, final int rangeEnd) {
+        // include the preceding hour, so that the duration up to the first sample can be calculated
+        List<? extends AbstractActivitySample> samples = provider.getAllActivitySamples(rangeStart - HOUR_SECONDS, rangeEnd - 1);
+
+        Totals[] hours = new Totals[(rangeEnd - rangeStart) / HOUR_SECONDS];
+        AbstractActivitySample previousSample = null;
+        int previousKind = ActivityKind.TYPE_UNKNOWN;
+        for (AbstractActivitySample sample : samples) {
+            int timestamp = sample.getTimestamp();
+            int kind = sample.getKind();
+            if (timestamp >= rangeStart && timestamp < rangeEnd) {
+                int index = (timestamp - rangeStart) / HOUR_SECONDS;
+                Totals hour = hours[index];
+                if (hour == null) {
+                    hour = new Totals();
+                    hours[index] = hour;
+                }
+                hour.addSteps(kind, sample.getSteps());
+                hour.addHeartRate(sample.getHeartRate());
+                if (previousSample != null) {
+                    long timeDifference = timestamp - previousSample.getTimestamp();
+                    if (previousSample.getRawKind() == sample.getRawKind()) {
+                        hour.addSeconds(kind, timeDifference);
+                    } else {
+                        long sharedTimeDifference = (long) (timeDifference / 2.0f);
+                        hour.addSeconds(previousKind, sharedTimeDifference);
+                        hour.addSeconds(kind, sharedTimeDifference);
+                    }
+                }
+            }
+            previousSample = sample;
+            previousKind = kind;
+        }
+
+        final List<HourlyActivityRollup> rollups = new ArrayList<>();
+        for (int i = 0; i < hours.length; i++) {
+            if (hours[i] != null) {
+                HourlyActivityRollup rollup = new HourlyActivityRollup();
+                rollup.setTimestamp(rangeStart + i * HOUR_SECONDS);
+                rollup.setDeviceId(dbDevice.getId());
+                hours[i].applyTo(rollup);
+                rollups.add(rollup);
+            }
+        }
+
+        final HourlyActivityRollupDao dao = session.getHourlyActivityRollupDao();
+        session.runInTx(new Runnable() {
+            @Override
+            public void run() {
+                dao.queryBuilder().where(
+                        HourlyActivityRollupDao.Properties.DeviceId.eq(dbDevice.getId()),
+                        HourlyActivityRollupDao.Properties.Timestamp.ge(rangeStart),
+                        HourlyActivityRollupDao.Properties.Timestamp.lt(rangeEnd)
+                ).buildDelete().executeDeleteWithoutDetachingEntities();
+                dao.insertOrReplaceInTx(rollups);
+            }
+        });
+        dao.detachAll();
+    }
+
+    /**
+     * Recomputes the daily rollups of all local days overlapping the given range
+     * from the hourly rollups.
+     */
+    private static void updateDays(DaoSession session, Device dbDevice, int rangeStart, int rangeEnd) {
+        Calendar day = Calendar.getInstance();
+        day.setTimeInMillis(rangeStart * 1000L);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+
+        DailyActivityRollupDao dailyDao = session.getDailyActivityRollupDao();
+        int dayStart = (int) (day.getTimeInMillis() / 1000);
+        while (dayStart < rangeEnd) {
+            day.add(Calendar.DATE, 1);
+            int nextDayStart = (int) (day.getTimeInMillis() / 1000);
+
+            List<HourlyActivityRollup> hourlies = getHourlyRollups(session, dbDevice, dayStart, nextDayStart);
+            if (hourlies.isEmpty()) {
+                dailyDao.queryBuilder().where(
+                        DailyActivityRollupDao.Properties.DeviceId.eq(dbDevice.getId()),
+                        DailyActivityRollupDao.Properties.Timestamp.eq(dayStart)
+                ).buildDelete().executeDeleteWithoutDetachingEntities();
+            } else {
+                Totals totals = new Totals();
+                for (HourlyActivityRollup hourly : hourlies) {
+                    totals.add(hourly);
+                }
+                DailyActivityRollup daily = new DailyActivityRollup();
+                daily.setTimestamp(dayStart);
+                daily.setDeviceId(dbDevice.getId());
+                totals.applyTo(daily);
+                dailyDao.insertOrReplace(daily);
+            }
+            dayStart = nextDayStart;
+        }
+        dailyDao.detachAll();
+    }
+
+    @NonNull
+    private static List<HourlyActivityRollup> getHourlyRollups(DaoSession session, Device dbDevice, int tsFrom, int tsToExclusive) {
+        HourlyActivityRollupDao dao = session.getHourlyActivityRollupDao();
+        List<HourlyActivityRollup> result = dao.queryBuilder().where(
+                HourlyActivityRollupDao.Properties.DeviceId.eq(dbDevice.getId()),
+                HourlyActivityRollupDao.Properties.Timestamp.ge(tsFrom),
+                HourlyActivityRollupDao.Properties.Timestamp.lt(tsToExclusive)
+        ).orderAsc(HourlyActivityRollupDao.Properties.Timestamp).list();
+        dao.detachAll();
+        return result;
+    }
+
+    /**
+     * Mutable accumulator for the values of a rollup.
+     */
+    private static class Totals {
+        private long steps;
+        private long lightSleepSteps;
+        private long deepSleepSteps;
+        private long notWornSteps;
+        private long activeSeconds;
+        private long lightSleepSeconds;
+        private long deepSleepSeconds;
+        private long notWornSeconds;
+        private int heartRateMin = Integer.MAX_VALUE;
+        private int heartRateMax;
+        private long heartRateSum;
+        private int heartRateSamples;
+
+        void addSteps(int kind, int steps) {
+            if (steps <= 0) {
+                return;
+            }
+            this.steps += steps;
+            switch (kind) {
+                case ActivityKind.TYPE_DEEP_SLEEP:
+                    deepSleepSteps += steps;
+                    break;
+                case ActivityKind.TYPE_LIGHT_SLEEP:
+                    lightSleepSteps += steps;
+                    break;
+                case ActivityKind.TYPE_NOT_WORN:
+                    notWornSteps += steps;
+                    break;
+            }
+        }
+
+        void addSeconds(int kind, long seconds) {
+            switch (kind) {
+                case ActivityKind.TYPE_DEEP_SLEEP:
+                    deepSleepSeconds += seconds;
+                    break;
+                case ActivityKind.TYPE_LIGHT_SLEEP:
+                    lightSleepSeconds += seconds;
+                    break;
+                case ActivityKind.TYPE_NOT_WORN:
+                    notWornSeconds += seconds;
+                    break;
+                case ActivityKind.TYPE_ACTIVITY:
+                default:
+                    activeSeconds += seconds;
+                    break;
+            }
+        }
+
+        void addHeartRate(int heartRate) {
+            if (heartRate >= HeartRateUtils.MIN_HEART_RATE_VALUE && heartRate <= HeartRateUtils.MAX_HEART_RATE_VALUE) {
+                heartRateMin = Math.min(heartRateMin, heartRate);
+                heartRateMax = Math.max(heartRateMax, heartRate);
+                heartRateSum += heartRate;
+                heartRateSamples++;
+            }
+        }
+
+        void add(ActivityRollup rollup) {
+            steps += rollup.getSteps();
+            lightSleepSteps += rollup.getLightSleepSteps();
+            deepSleepSteps += rollup.getDeepSleepSteps();
+            notWornSteps += rollup.getNotWornSteps();
+            activeSeconds += rollup.getActiveSeconds();
+            lightSleepSeconds += rollup.getLightSleepSeconds();
+            deepSleepSeconds += rollup.getDeepSleepSeconds();
+            notWornSeconds += rollup.getNotWornSeconds();
+            if (rollup.getHeartRateSamples() > 0) {
+                heartRateMin = Math.min(heartRateMin, rollup.getHeartRateMin());
+                heartRateMax = Math.max(heartRateMax, rollup.getHeartRateMax());
+                heartRateSum += (long) rollup.getHeartRateAvg() * rollup.getHeartRateSamples();
+                heartRateSamples += rollup.getHeartRateSamples();
+            }
+        }
+
+        private int getHeartRateMin() {
+            return heartRateSamples > 0 ? heartRateMin : 0;
+        }
+
+        private int getHeartRateAvg() {
+            return heartRateSamples > 0 ? (int) (heartRateSum / heartRateSamples) : 0;
+        }
+
+        void applyTo(HourlyActivityRollup rollup) {
+            rollup.setSteps((int) steps);
+            rollup.setLightSleepSteps((int) lightSleepSteps);
+            rollup.setDeepSleepSteps((int) deepSleepSteps);
+            rollup.setNotWornSteps((int) notWornSteps);
+            rollup.setActiveSeconds((int) activeSeconds);
+            rollup.setLightSleepSeconds((int) lightSleepSeconds);
+            rollup.setDeepSleepSeconds((int) deepSleepSeconds);
+            rollup.setNotWornSeconds((int) notWornSeconds);
+            rollup.setHeartRateMin(getHeartRateMin());
+            rollup.setHeartRateAvg(getHeartRateAvg());
+            rollup.setHeartRateMax(heartRateMax);
+            rollup.setHeartRateSamples(heartRateSamples);
+        }
+
+        void applyTo(DailyActivityRollup rollup) {
+            rollup.setSteps((int) steps);
+            rollup.setLightSleepSteps((int) lightSleepSteps);
+            rollup.setDeepSleepSteps((int) deepSleepSteps);
+            rollup.setNotWornSteps((int) notWornSteps);
+            rollup.setActiveSeconds((int) activeSeconds);
+            rollup.setLightSleepSeconds((int) lightSleepSeconds);
+            rollup.setDeepSleepSeconds((int) deepSleepSeconds);
+            rollup.setNotWornSeconds((int) notWornSeconds);
+            rollup.setHeartRateMin(getHeartRateMin());
+            rollup.setHeartRateAvg(getHeartRateAvg());
+            rollup.setHeartRateMax(heartRateMax);
+            rollup.setHeartRateSamples(heartRateSamples);
+        }
+
+        ActivityAmounts toActivityAmounts() {
+            ActivityAmount deepSleep = new ActivityAmount(ActivityKind.TYPE_DEEP_SLEEP);
+            deepSleep.addSeconds(deepSleepSeconds);
+            deepSleep.addSteps(deepSleepSteps);
+            ActivityAmount lightSleep = new ActivityAmount(ActivityKind.TYPE_LIGHT_SLEEP);
+            lightSleep.addSeconds(lightSleepSeconds);
+            lightSleep.addSteps(lightSleepSteps);
+            ActivityAmount notWorn = new ActivityAmount(ActivityKind.TYPE_NOT_WORN);
+            notWorn.addSeconds(notWornSeconds);
+            notWorn.addSteps(notWornSteps);
+            ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
+            activity.addSeconds(activeSeconds);
+            activity.addSteps(steps - lightSleepSteps - deepSleepSteps - notWornSteps);
+
+            // like ActivityAnalysis, only include the amounts with a duration
+            ActivityAmounts result = new ActivityAmounts();
+            if (deepSleep.getTotalSeconds() > 0) {
+                result.addAmount(deepSleep);
+            }
+            if (lightSleep.getTotalSeconds() > 0) {
+                result.addAmount(lightSleep);
+            }
+            if (activity.getTotalSeconds() > 0) {
+                result.addAmount(activity);
+            }
+            if (notWorn.getTotalSeconds() > 0) {
+                result.addAmount(notWorn);
+            }
+            result.calculatePercentages();
+            return result;
+        }
+    }
+}
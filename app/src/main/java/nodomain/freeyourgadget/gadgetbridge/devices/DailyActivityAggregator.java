@@ -0,0 +1,166 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.SampleBlock;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+
+/**
+ * Calculates the activity amounts of many consecutive days at once, e.g. for the 30 days
+ * of the week charts.
+ * <p/>
+ * Instead of one query per day, the whole window is read in a single ordered scan and
+ * split into per-day sample blocks on the fly. The days are then analyzed in parallel,
+ * in batches of #BATCH_DAYS days, so that only the samples of one batch are kept in
+ * memory, regardless of the size of the window.
+ */
+public class DailyActivityAggregator {
+    private static final Logger LOG = LoggerFactory.getLogger(DailyActivityAggregator.class);
+
+    // the number of completed days collected before they are analyzed
+    static final int BATCH_DAYS = 32;
+    // ranges with fewer days are analyzed on the calling thread
+    private static final int MIN_PARALLEL_DAYS = 4;
+
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService executor = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+        private int count;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Activity Aggregator " + ++count);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private DailyActivityAggregator() {
+    }
+
+    /**
+     * Returns the activity amounts of the given days, in the same order.
+     *
+     * @param provider     the provider of the device's samples
+     * @param startTs      the start timestamps of the days, ascending
+     * @param dayLength    the length of a day in seconds, the range of day i is
+     *                     [startTs[i], startTs[i] + dayLength - 1]
+     */
+    public static ActivityAmounts[] aggregate(SampleProvider<? extends AbstractActivitySample> provider, int[] startTs, int dayLength) {
+        int days = startTs.length;
+        ActivityAmounts[] result = new ActivityAmounts[days];
+        if (days == 0) {
+            return result;
+        }
+        long start = System.currentTimeMillis();
+        SampleBlock[] blocks = new SampleBlock[days];
+        int samples = 0;
+        // the first day whose range has not ended yet
+        int current = 0;
+        // the days before this one have already been analyzed
+        int analyzed = 0;
+        try (SampleIterator<? extends AbstractActivitySample> iterator = provider.iterateAllActivitySamples(startTs[0], startTs[days - 1] + dayLength - 1)) {
+            while (iterator.hasNext()) {
+                AbstractActivitySample sample = iterator.next();
+                int timestamp = sample.getTimestamp();
+                while (current < days && startTs[current] + dayLength <= timestamp) {
+                    current++;
+                }
+                if (current - analyzed >= BATCH_DAYS) {
+                    analyze(blocks, result, analyzed, current);
+                    analyzed = current;
+                }
+                // with DST changes, the ranges of adjacent days may overlap
+                for (int day = current; day < days && startTs[day] <= timestamp; day++) {
+                    if (blocks[day] == null) {
+                        blocks[day] = new SampleBlock();
+                    }
+                    blocks[day].add(sample);
+                }
+                samples++;
+            }
+        }
+        analyze(blocks, result, analyzed, days);
+        LOG.debug("Aggregated " + samples + " samples of " + days + " days in " + (System.currentTimeMillis() - start) + "ms");
+        return result;
+    }
+
+    /**
+     * Analyzes the blocks of the days [from, to) and releases them. The range is split into
+     * one chunk per core; all chunks but the first are forked to the executor, the first is
+     * analyzed on the calling thread before joining the others.
+     */
+    private static void analyze(final SampleBlock[] blocks, final ActivityAmounts[] result, int from, int to) {
+        int days = to - from;
+        if (days <= 0) {
+            return;
+        }
+        int chunks = Math.min(PARALLELISM, days / MIN_PARALLEL_DAYS);
+        if (chunks <= 1) {
+            analyzeChunk(blocks, result, from, to);
+            return;
+        }
+
+        int chunkSize = (days + chunks - 1) / chunks;
+        List<Future<?>> forked = new ArrayList<>(chunks - 1);
+        for (int chunkStart = from + chunkSize; chunkStart < to; chunkStart += chunkSize) {
+            final int chunkFrom = chunkStart;
+            final int chunkTo = Math.min(chunkStart + chunkSize, to);
+            forked.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    analyzeChunk(blocks, result, chunkFrom, chunkTo);
+                }
+            }));
+        }
+        analyzeChunk(blocks, result, from, Math.min(from + chunkSize, to));
+
+        for (Future<?> future : forked) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                throw new RuntimeException("Error analyzing activity samples", ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while analyzing activity samples", ex);
+            }
+        }
+    }
+
+    private static void analyzeChunk(SampleBlock[] blocks, ActivityAmounts[] result, int from, int to) {
+        for (int day = from; day < to; day++) {
+            if (blocks[day] == null) {
+                result[day] = new ActivityAmounts();
+            } else {
+                result[day] = new ActivityAnalysis().calculateActivityAmounts(blocks[day]);
+                blocks[day] = null;
+            }
+        }
+    }
+}
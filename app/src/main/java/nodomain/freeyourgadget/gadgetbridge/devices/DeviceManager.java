@@ -143,11 +143,11 @@ public class DeviceManager {
             if (selectedDevice.equals(dev)) {
                 selectedDevice = dev; // equality vs identity!
             } else {
-                if (selectedDevice.isConnected() && dev.isConnected()) {
-                    LOG.warn("multiple connected devices -- this is currently not really supported");
-                    selectedDevice = dev; // use the last one that changed
-                } else if (!selectedDevice.isConnected()) {
-                    selectedDevice = dev; // use the last one that changed
+                // several devices may be connected at the same time, the selected one is
+                // the last one that changed, unless it would replace a connected one by a
+                // disconnected one
+                if (dev.isConnected() || !selectedDevice.isConnected()) {
+                    selectedDevice = dev;
                 }
             }
         }
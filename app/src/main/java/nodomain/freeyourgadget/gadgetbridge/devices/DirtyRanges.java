@@ -0,0 +1,168 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+
+/**
+ * The time ranges {from, to} per device address whose derived data, e.g. the
+ * {@link ActivityRollups}, has not been updated yet.
+ * <p/>
+ * The ranges are persisted in the preferences, widened to full hours, so that they are not
+ * lost when the process dies before the derived data has been updated. In order to keep the
+ * number of writes low, a range is only persisted again when it grows by another hour.
+ */
+class DirtyRanges {
+    private static final int HOUR_SECONDS = 60 * 60;
+
+    private final String preferenceKey;
+    // the current ranges, loaded from the preferences on first use
+    private Map<String, int[]> ranges;
+    // the ranges as persisted, i.e. widened to full hours
+    private final Map<String, int[]> persisted = new HashMap<>();
+
+    DirtyRanges(String preferenceKey) {
+        this.preferenceKey = preferenceKey;
+    }
+
+    /**
+     * Extends the range of the device by the given one.
+     *
+     * @return a copy of the resulting range
+     */
+    synchronized int[] mark(String address, int tsFrom, int tsTo) {
+        load();
+        int[] range = ranges.get(address);
+        if (range == null) {
+            range = new int[]{tsFrom, tsTo};
+            ranges.put(address, range);
+        } else {
+            range[0] = Math.min(range[0], tsFrom);
+            range[1] = Math.max(range[1], tsTo);
+        }
+        int[] widened = new int[]{getHourStart(range[0]), getHourStart(range[1]) + HOUR_SECONDS - 1};
+        int[] previous = persisted.get(address);
+        if (previous == null || previous[0] != widened[0] || previous[1] != widened[1]) {
+            persisted.put(address, widened);
+            save();
+        }
+        return new int[]{range[0], range[1]};
+    }
+
+    /**
+     * Returns a copy of the range of the device, or null if there is none.
+     */
+    @Nullable
+    synchronized int[] get(String address) {
+        load();
+        int[] range = ranges.get(address);
+        return range != null ? new int[]{range[0], range[1]} : null;
+    }
+
+    /**
+     * Returns true if the range of the device overlaps the given one.
+     */
+    synchronized boolean overlaps(String address, int tsFrom, int tsTo) {
+        load();
+        int[] range = ranges.get(address);
+        return range != null && range[0] <= tsTo && range[1] >= tsFrom;
+    }
+
+    /**
+     * Removes the range of the device, if it has not been extended since it was returned
+     * by #get(String) or #mark(String, int, int).
+     *
+     * @return false if the range has been extended in the meantime
+     */
+    synchronized boolean remove(String address, int[] expected) {
+        load();
+        int[] range = ranges.get(address);
+        if (range != null && (range[0] != expected[0] || range[1] != expected[1])) {
+            return false;
+        }
+        ranges.remove(address);
+        if (persisted.remove(address) != null) {
+            save();
+        }
+        return true;
+    }
+
+    /**
+     * Removes the range of the device.
+     */
+    synchronized void remove(String address) {
+        load();
+        ranges.remove(address);
+        if (persisted.remove(address) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Removes the ranges of all devices.
+     */
+    synchronized void clear() {
+        ranges = new HashMap<>();
+        persisted.clear();
+        GBApplication.getPrefs().getPreferences().edit().remove(preferenceKey).apply();
+    }
+
+    private void load() {
+        if (ranges != null) {
+            return;
+        }
+        ranges = new HashMap<>();
+        Set<String> entries = GBApplication.getPrefs().getStringSet(preferenceKey, new HashSet<String>());
+        for (String entry : entries) {
+            // from,to,address
+            String[] parts = entry.split(",", 3);
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                int[] range = new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+                ranges.put(parts[2], range);
+                persisted.put(parts[2], new int[]{range[0], range[1]});
+            } catch (NumberFormatException ignored) {
+            }
+        }
+    }
+
+    private void save() {
+        HashSet<String> entries = new HashSet<>();
+        for (Map.Entry<String, int[]> entry : persisted.entrySet()) {
+            entries.add(entry.getValue()[0] + "," + entry.getValue()[1] + "," + entry.getKey());
+        }
+        SharedPreferences.Editor editor = GBApplication.getPrefs().getPreferences().edit();
+        Prefs.putStringSet(editor, preferenceKey, entries);
+        editor.apply();
+    }
+
+    private static int getHourStart(int timestamp) {
+        return timestamp - (timestamp % HOUR_SECONDS);
+    }
+}
@@ -0,0 +1,194 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+/**
+ * Write-behind buffer for realtime samples, which some devices report about once per second
+ * (e.g. while live heart rate measurement is enabled). Instead of one database transaction
+ * per sample, the samples of each device are collected and written in a single transaction
+ * when
+ * <ul>
+ *     <li>{@link #MAX_BUFFERED_SAMPLES} samples have been collected</li>
+ *     <li>the oldest buffered sample is {@link #MAX_DELAY_MILLIS} old</li>
+ *     <li>the device disconnects, the service shuts down or the database is closed</li>
+ * </ul>
+ * Buffered samples must not be modified anymore, since they are written later.
+ *
+ * @see AbstractSampleProvider#addGBActivitySampleBuffered(AbstractActivitySample)
+ */
+public class RealtimeSampleBuffer {
+    private static final Logger LOG = LoggerFactory.getLogger(RealtimeSampleBuffer.class);
+
+    static final int MAX_BUFFERED_SAMPLES = 60;
+    static final long MAX_DELAY_MILLIS = 60 * 1000;
+
+    private static final Map<String, Batch<?>> batches = new HashMap<>();
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Realtime Sample Buffer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private RealtimeSampleBuffer() {
+    }
+
+    /**
+     * Buffers the given sample, to be written through the given provider later.
+     */
+    static <T extends AbstractActivitySample> void add(AbstractSampleProvider<T> provider, T sample) {
+        String address = provider.getDevice().getAddress();
+        Batch<?> previousBatch = null;
+        Batch<?> fullBatch = null;
+        synchronized (batches) {
+            Batch<T> batch = getBatch(address, provider);
+            if (batch == null) {
+                previousBatch = batches.remove(address);
+                batch = new Batch<>(address, provider);
+                batches.put(address, batch);
+                batch.scheduleTimeout();
+            }
+            batch.samples.add(sample);
+            if (batch.samples.size() >= MAX_BUFFERED_SAMPLES) {
+                batches.remove(address);
+                fullBatch = batch;
+            }
+        }
+        if (previousBatch != null) {
+            previousBatch.write();
+        }
+        if (fullBatch != null) {
+            fullBatch.write();
+        }
+    }
+
+    /**
+     * Returns the current batch of the device if it can take samples of the given provider.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends AbstractActivitySample> Batch<T> getBatch(String address, AbstractSampleProvider<T> provider) {
+        Batch<?> batch = batches.get(address);
+        if (batch != null && batch.provider.getClass() == provider.getClass()
+                && batch.provider.getSession() == provider.getSession()) {
+            return (Batch<T>) batch;
+        }
+        return null;
+    }
+
+    /**
+     * Writes the buffered samples of the given device, if any.
+     */
+    public static void flush(GBDevice device) {
+        Batch<?> batch;
+        synchronized (batches) {
+            batch = batches.remove(device.getAddress());
+        }
+        if (batch != null) {
+            batch.write();
+        }
+    }
+
+    /**
+     * Writes the buffered samples of the given device in the background, so that it can
+     * be called from the UI thread.
+     */
+    public static void flushAsync(final GBDevice device) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush(device);
+            }
+        });
+    }
+
+    /**
+     * Writes the buffered samples of all devices.
+     */
+    public static void flushAll() {
+        List<Batch<?>> pending;
+        synchronized (batches) {
+            pending = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        for (Batch<?> batch : pending) {
+            batch.write();
+        }
+    }
+
+    private static void flushTimedOut(Batch<?> batch) {
+        synchronized (batches) {
+            if (batches.get(batch.address) != batch) {
+                return; // already written
+            }
+            batches.remove(batch.address);
+        }
+        batch.write();
+    }
+
+    private static class Batch<T extends AbstractActivitySample> {
+        private final String address;
+        private final AbstractSampleProvider<T> provider;
+        private final List<T> samples = new ArrayList<>(MAX_BUFFERED_SAMPLES);
+        private ScheduledFuture<?> timeout;
+
+        Batch(String address, AbstractSampleProvider<T> provider) {
+            this.address = address;
+            this.provider = provider;
+        }
+
+        void scheduleTimeout() {
+            timeout = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushTimedOut(Batch.this);
+                }
+            }, MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        void write() {
+            timeout.cancel(false);
+            try (DBHandler db = GBApplication.acquireDB()) {
+                provider.addGBActivitySamples(samples);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Wrote " + samples.size() + " realtime samples of " + provider.getDevice());
+                }
+            } catch (Exception e) {
+                LOG.error("Unable to write " + samples.size() + " realtime samples of " + provider.getDevice(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,606 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.greenrobot.dao.AbstractDao;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+
+/**
+ * Pipeline for storing data fetched from devices. Device supports submit samples and
+ * other entities, which are put into a bounded queue and written by a single writer
+ * thread. The writer takes everything that is queued, groups the items by sample
+ * provider and device or by entity type and writes each group in one transaction, so
+ * that a fetch of thousands of records needs only a few transactions and the Bluetooth
+ * thread does not have to wait for the database. If a group cannot be written, its
+ * items are retried one by one and only the failing ones are skipped.
+ * <p/>
+ * When the queue is full, submitting blocks until there is space again, which slows
+ * down the submitting fetch operation. If the submitting thread holds the database
+ * lock itself, it writes the pending items instead of waiting. Fetch operations should
+ * not get that far: they request their next chunk of data from the device through
+ * #runWhenUncongested(Runnable), which holds the request back until the writer has
+ * caught up if the queue is congested.
+ * <p/>
+ * Device supports should submit their samples through #submit(GBDevice, List), which
+ * does not need the database: the writer resolves the sample provider and the user and
+ * device ids. That way the Bluetooth thread never waits for the database lock, which the
+ * writer holds for a whole batch.
+ * <p/>
+ * Since the items are written asynchronously, data must not be read back right after
+ * submitting it. Use #runWhenWritten(Runnable) e.g. to signal the end of a fetch, and
+ * {@link WriteOperation}s for read-modify-write cases like merging into existing samples.
+ */
+public class SampleIngestionPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(SampleIngestionPipeline.class);
+
+    static final int DEFAULT_CAPACITY = 4096;
+    static final int MAX_BATCH_SIZE = 2048;
+    private static final long SUBMIT_TIMEOUT_SECONDS = 30;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private static final SampleIngestionPipeline instance = new SampleIngestionPipeline(DEFAULT_CAPACITY, true);
+
+    /**
+     * A write that is executed by the writer thread in its own transaction, after all
+     * previously submitted items have been written.
+     */
+    public interface WriteOperation {
+        void write(DaoSession session) throws Exception;
+    }
+
+    private final BlockingQueue<Item> queue;
+    private final int capacity;
+    private final boolean background;
+    private final Object queueMonitor = new Object();
+    private Thread writerThread;
+
+    private final AtomicLong submittedRecords = new AtomicLong();
+    private final AtomicLong writtenRecords = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong failedTransactions = new AtomicLong();
+    private final AtomicLong backpressureCount = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    public static SampleIngestionPipeline getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param background whether to use a writer thread. If false, items are only written
+     *                   when the queue is full or #writePending() is called.
+     */
+    SampleIngestionPipeline(int capacity, boolean background) {
+        this.capacity = capacity;
+        this.background = background;
+        queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Submits the given activity samples, to be written through the given provider.
+     * The samples must not be modified afterwards.
+     *
+     * @return false if the samples had to be dropped because the queue was blocked
+     */
+    public <T extends AbstractActivitySample> boolean submit(AbstractSampleProvider<T> provider, List<T> samples) {
+        if (samples.isEmpty()) {
+            return true;
+        }
+        return enqueue(new SampleItem<T>(provider, new ArrayList<T>(samples)));
+    }
+
+    /**
+     * Submits a single activity sample, see #submit(AbstractSampleProvider, List).
+     */
+    public <T extends AbstractActivitySample> boolean submit(AbstractSampleProvider<T> provider, T sample) {
+        return enqueue(new SampleItem<T>(provider, Collections.singletonList(sample)));
+    }
+
+    /**
+     * Submits activity samples of the given device, to be written through the sample
+     * provider of its coordinator. The writer sets the user and device ids of the samples,
+     * so the caller neither has to set them nor to access the database. Devices with more
+     * than one sample provider must use #submit(AbstractSampleProvider, List) instead.
+     * The samples must not be modified afterwards.
+     *
+     * @return false if the samples had to be dropped because the queue was blocked
+     */
+    public <T extends AbstractActivitySample> boolean submit(GBDevice device, List<T> samples) {
+        if (samples.isEmpty()) {
+            return true;
+        }
+        return enqueue(new DeviceSampleItem<T>(device, new ArrayList<T>(samples)));
+    }
+
+    /**
+     * Submits a single activity sample, see #submit(GBDevice, List).
+     */
+    public <T extends AbstractActivitySample> boolean submit(GBDevice device, T sample) {
+        return enqueue(new DeviceSampleItem<T>(device, Collections.singletonList(sample)));
+    }
+
+    /**
+     * Submits other entities, which are inserted or replaced using the DAO of their class.
+     */
+    public boolean submitEntities(List<?> entities) {
+        if (entities.isEmpty()) {
+            return true;
+        }
+        return enqueue(new EntityItem(new ArrayList<Object>(entities)));
+    }
+
+    public boolean submitEntity(Object entity) {
+        return enqueue(new EntityItem(Collections.singletonList(entity)));
+    }
+
+    public boolean submit(WriteOperation operation) {
+        return enqueue(new OperationItem(operation));
+    }
+
+    /**
+     * Runs the given callback on the writer thread, after all previously submitted
+     * items have been written.
+     */
+    public boolean runWhenWritten(Runnable callback) {
+        return enqueue(new CallbackItem(callback));
+    }
+
+    /**
+     * Returns true if the queue is more than three quarters full, i.e. submitting will
+     * soon block.
+     */
+    public boolean isCongested() {
+        return queue.size() > capacity * 3 / 4;
+    }
+
+    /**
+     * Runs the given request for more data right away, unless the queue is congested. In
+     * that case the request is run by the writer once everything submitted so far has been
+     * written, so the device pauses sending instead of filling up the queue.
+     */
+    public void runWhenUncongested(Runnable request) {
+        if (isCongested()) {
+            backpressureCount.incrementAndGet();
+            if (background) {
+                LOG.info("Delaying the next fetch request until the queue is written. " + this);
+                if (runWhenWritten(request)) {
+                    return;
+                }
+            } else {
+                writePending();
+            }
+        }
+        request.run();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getSubmittedRecords() {
+        return submittedRecords.get();
+    }
+
+    public long getWrittenRecords() {
+        return writtenRecords.get();
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    public long getTransactions() {
+        return transactions.get();
+    }
+
+    public long getFailedTransactions() {
+        return failedTransactions.get();
+    }
+
+    /**
+     * Returns how often submitting had to wait for the writer because the queue was full,
+     * or a fetch request was held back because it was congested.
+     */
+    public long getBackpressureCount() {
+        return backpressureCount.get();
+    }
+
+    /**
+     * Returns the number of records written per second of transaction time.
+     */
+    public long getThroughput() {
+        long nanos = writeNanos.get();
+        if (nanos == 0) {
+            return 0;
+        }
+        return writtenRecords.get() * TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "Sample ingestion: %d submitted, %d written, %d dropped, %d transactions (%d failed), queue %d/%d (max %d), %d backpressure waits, %d records/s",
+                getSubmittedRecords(), getWrittenRecords(), getDroppedRecords(), getTransactions(), getFailedTransactions(),
+                getQueueDepth(), capacity, getMaxQueueDepth(), getBackpressureCount(), getThroughput());
+    }
+
+    private boolean enqueue(Item item) {
+        submittedRecords.addAndGet(item.getRecordCount());
+        if (!queue.offer(item)) {
+            backpressureCount.incrementAndGet();
+            if (!background || GBApplication.isDBLockedByCurrentThread()) {
+                // the writer cannot make progress while we hold the lock, so write ourselves
+                writePending();
+                if (!queue.offer(item)) {
+                    LOG.error("Dropping " + item.getRecordCount() + " records, the queue is still full. " + this);
+                    droppedRecords.addAndGet(item.getRecordCount());
+                    return false;
+                }
+            } else if (!offer(item)) {
+                LOG.error("Dropping " + item.getRecordCount() + " records, the queue is blocked. " + this);
+                droppedRecords.addAndGet(item.getRecordCount());
+                return false;
+            }
+        }
+        int depth = queue.size();
+        int max;
+        while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+            // retry, another thread updated the maximum
+        }
+        if (background) {
+            startWriter();
+            synchronized (queueMonitor) {
+                queueMonitor.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    private boolean offer(Item item) {
+        try {
+            return queue.offer(item, SUBMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private synchronized void startWriter() {
+        if (writerThread != null) {
+            return;
+        }
+        writerThread = new Thread("Sample Ingestion Writer") {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        };
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private void runWriter() {
+        while (true) {
+            try {
+                synchronized (queueMonitor) {
+                    while (queue.isEmpty()) {
+                        queueMonitor.wait();
+                    }
+                }
+                // items are only taken from the queue while holding the lock, so that
+                // closing the database can write everything that is still pending
+                try (DBHandler db = GBApplication.acquireDB()) {
+                    writeBatch(db.getDaoSession());
+                } catch (GBException e) {
+                    LOG.warn("Unable to access the database, retrying. " + this, e);
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                LOG.info("Sample ingestion writer interrupted");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes all pending items in the current thread. Called before the database is closed.
+     */
+    public void writePending() {
+        try (DBHandler db = GBApplication.acquireDB()) {
+            while (!queue.isEmpty()) {
+                writeBatch(db.getDaoSession());
+            }
+        } catch (GBException e) {
+            LOG.error("Unable to write pending samples. " + this, e);
+        }
+    }
+
+    private void writeBatch(DaoSession session) {
+        List<Item> batch = new ArrayList<>();
+        queue.drainTo(batch, MAX_BATCH_SIZE);
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // operations and callbacks may depend on everything submitted before them, so
+        // the groups collected so far are written first
+        Map<Object, List<Item>> groups = new LinkedHashMap<>();
+        for (Item item : batch) {
+            Object key = item.getGroupKey();
+            if (key != null) {
+                List<Item> group = groups.get(key);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(key, group);
+                }
+                group.add(item);
+                continue;
+            }
+            writeGroups(session, groups);
+            if (item instanceof CallbackItem) {
+                try {
+                    ((CallbackItem) item).callback.run();
+                } catch (Exception e) {
+                    LOG.error("Error running callback", e);
+                }
+            } else {
+                writeGroup(session, Collections.singletonList(item));
+            }
+        }
+        writeGroups(session, groups);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(toString());
+        }
+    }
+
+    private void writeGroups(DaoSession session, Map<Object, List<Item>> groups) {
+        for (List<Item> group : groups.values()) {
+            writeGroup(session, group);
+        }
+        groups.clear();
+    }
+
+    private void writeGroup(DaoSession session, List<Item> group) {
+        if (writeInTx(session, group)) {
+            return;
+        }
+        if (group.size() == 1) {
+            skip(group.get(0));
+            return;
+        }
+        LOG.warn("Retrying " + group.size() + " items one by one");
+        for (Item item : group) {
+            if (!writeInTx(session, Collections.singletonList(item))) {
+                skip(item);
+            }
+        }
+    }
+
+    private boolean writeInTx(final DaoSession session, final List<Item> group) {
+        int records = 0;
+        for (Item item : group) {
+            records += item.getRecordCount();
+        }
+        long start = System.nanoTime();
+        try {
+            session.runInTx(new Runnable() {
+                @Override
+                public void run() {
+                    group.get(0).write(session, group);
+                }
+            });
+            writtenRecords.addAndGet(records);
+            return true;
+        } catch (Exception e) {
+            failedTransactions.incrementAndGet();
+            LOG.error("Error writing " + records + " records", e);
+            return false;
+        } finally {
+            transactions.incrementAndGet();
+            writeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void skip(Item item) {
+        LOG.error("Skipping " + item.getRecordCount() + " records that cannot be written");
+        droppedRecords.addAndGet(item.getRecordCount());
+    }
+
+    private abstract static class Item {
+        /**
+         * Items with an equal, non-null key are written together.
+         */
+        Object getGroupKey() {
+            return null;
+        }
+
+        /**
+         * Returns the number of records for the statistics, operations are not counted.
+         */
+        int getRecordCount() {
+            return 0;
+        }
+
+        /**
+         * Writes the given group of items, of which this is the first one.
+         */
+        abstract void write(DaoSession session, List<Item> group);
+    }
+
+    private static class SampleItem<T extends AbstractActivitySample> extends Item {
+        private final AbstractSampleProvider<T> provider;
+        private final List<T> samples;
+        private final Object key;
+
+        SampleItem(AbstractSampleProvider<T> provider, List<T> samples) {
+            this.provider = provider;
+            this.samples = samples;
+            key = Arrays.asList(provider.getClass(), provider.getDevice().getAddress(), provider.getSession());
+        }
+
+        @Override
+        Object getGroupKey() {
+            return key;
+        }
+
+        @Override
+        int getRecordCount() {
+            return samples.size();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void write(DaoSession session, List<Item> group) {
+            List<T> all = new ArrayList<>();
+            for (Item item : group) {
+                all.addAll(((SampleItem<T>) item).samples);
+            }
+            provider.addGBActivitySamples(all);
+        }
+    }
+
+    private static class DeviceSampleItem<T extends AbstractActivitySample> extends Item {
+        private final GBDevice device;
+        private final List<T> samples;
+        private final Object key;
+
+        DeviceSampleItem(GBDevice device, List<T> samples) {
+            this.device = device;
+            this.samples = samples;
+            key = Arrays.asList(DeviceSampleItem.class, device.getAddress(), samples.get(0).getClass());
+        }
+
+        @Override
+        Object getGroupKey() {
+            return key;
+        }
+
+        @Override
+        int getRecordCount() {
+            return samples.size();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void write(DaoSession session, List<Item> group) {
+            SampleProvider<?> provider = DeviceHelper.getInstance().getCoordinator(device).getSampleProvider(device, session);
+            if (!(provider instanceof AbstractSampleProvider)) {
+                throw new IllegalStateException("No sample provider to write the samples of " + device);
+            }
+            long userId = DBHelper.getUserId(session);
+            long deviceId = DBHelper.getDeviceId(device, session);
+            List<T> all = new ArrayList<>();
+            for (Item item : group) {
+                for (T sample : ((DeviceSampleItem<T>) item).samples) {
+                    sample.setUserId(userId);
+                    sample.setDeviceId(deviceId);
+                    all.add(sample);
+                }
+            }
+            ((AbstractSampleProvider<T>) provider).addGBActivitySamples(all);
+        }
+    }
+
+    private static class EntityItem extends Item {
+        private final List<Object> entities;
+
+        EntityItem(List<Object> entities) {
+            this.entities = entities;
+        }
+
+        @Override
+        Object getGroupKey() {
+            return entities.get(0).getClass();
+        }
+
+        @Override
+        int getRecordCount() {
+            return entities.size();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void write(DaoSession session, List<Item> group) {
+            List<Object> all = new ArrayList<>();
+            for (Item item : group) {
+                all.addAll(((EntityItem) item).entities);
+            }
+            AbstractDao<Object, ?> dao = (AbstractDao<Object, ?>) session.getDao(entities.get(0).getClass());
+            dao.insertOrReplaceInTx(all);
+        }
+    }
+
+    private static class OperationItem extends Item {
+        private final WriteOperation operation;
+
+        OperationItem(WriteOperation operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        void write(DaoSession session, List<Item> group) {
+            try {
+                operation.write(session);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class CallbackItem extends Item {
+        private final Runnable callback;
+
+        CallbackItem(Runnable callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        void write(DaoSession session, List<Item> group) {
+        }
+    }
+}
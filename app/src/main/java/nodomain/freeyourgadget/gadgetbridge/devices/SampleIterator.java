@@ -0,0 +1,147 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import android.database.Cursor;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import de.greenrobot.dao.AbstractDao;
+import de.greenrobot.dao.InternalQueryDaoAccess;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+
+/**
+ * Iterates over samples while they are read from the database, see
+ * SampleProvider#iterateAllActivitySamples(int, int). The rows are read from a cursor
+ * one at a time, like Query#list() reads them, so arbitrarily long time ranges can be
+ * processed without holding all samples in memory. Callers should copy what they need
+ * from a sample, e.g. into a SampleBlock, instead of keeping the samples.
+ * <p/>
+ * The iterator is also an Iterable, so it can be passed to code expecting a
+ * collection of samples, but it can only be iterated once. It must be closed
+ * when done, and it must not be used after the DBHandler it was created from
+ * has been released.
+ *
+ * @param <T> the sample type
+ */
+public class SampleIterator<T extends AbstractActivitySample> implements Iterator<T>, Iterable<T>, Closeable {
+    private final SampleProvider<T> provider;
+    private final InternalQueryDaoAccess<T> daoAccess;
+    private final Cursor cursor;
+    private final Iterator<T> iterator;
+    private boolean moved;
+    private boolean hasRow;
+    private boolean iterated;
+    private boolean closed;
+
+    /**
+     * Creates an iterator over samples that have already been loaded.
+     */
+    public SampleIterator(List<T> samples) {
+        this.provider = null;
+        this.daoAccess = null;
+        this.cursor = null;
+        this.iterator = samples.iterator();
+    }
+
+    /**
+     * Creates an iterator reading the samples from the given cursor, e.g. created by
+     * CursorQuery#query(), with the given DAO. The cursor is closed with the iterator.
+     */
+    public SampleIterator(SampleProvider<T> provider, AbstractDao<T, ?> dao, Cursor cursor) {
+        this.provider = provider;
+        this.daoAccess = new InternalQueryDaoAccess<>(dao);
+        this.cursor = cursor;
+        this.iterator = null;
+    }
+
+    public static <T extends AbstractActivitySample> SampleIterator<T> empty() {
+        return new SampleIterator<>(Collections.<T>emptyList());
+    }
+
+    /**
+     * Hook for post processing each sample before it is returned.
+     */
+    protected void process(T sample) {
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("Samples can only be iterated once");
+        }
+        iterated = true;
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        boolean hasNext;
+        if (cursor != null) {
+            if (!moved) {
+                hasRow = cursor.moveToNext();
+                moved = true;
+            }
+            hasNext = hasRow;
+        } else {
+            hasNext = iterator.hasNext();
+        }
+        if (!hasNext) {
+            close();
+        }
+        return hasNext;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T next;
+        if (cursor != null) {
+            moved = false;
+            next = daoAccess.loadCurrent(cursor, 0, true);
+            next.setProvider(provider);
+        } else {
+            next = iterator.next();
+        }
+        process(next);
+        return next;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Samples cannot be removed");
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+}
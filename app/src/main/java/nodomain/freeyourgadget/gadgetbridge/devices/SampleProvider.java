@@ -53,6 +53,20 @@ public interface SampleProvider<T extends AbstractActivitySample> {
     @NonNull
     List<T> getAllActivitySamples(int timestamp_from, int timestamp_to);
 
+    /**
+     * Like #getAllActivitySamples(int, int), but returns the samples one by one while reading
+     * them from the database, so that long time spans can be processed in constant memory.
+     * The returned iterator must be closed.
+     *
+     * Implementations that post-process the samples in #getAllActivitySamples(int, int) must
+     * also override this method.
+     * @param timestamp_from the start timestamp
+     * @param timestamp_to the end timestamp
+     * @return the iterator over the samples of any type
+     */
+    @NonNull
+    SampleIterator<T> iterateAllActivitySamples(int timestamp_from, int timestamp_to);
+
     /**
      * Returns the list of all samples that represent user "activity", within
      * the given time span. This excludes samples of type sleep, for example.
@@ -0,0 +1,378 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.SleepAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.SleepSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.SleepSessionDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+
+/**
+ * Maintains the sleep session table, which contains the sleep sessions of each device as
+ * calculated by {@link SleepAnalysis}, so that the sleep charts do not need to analyze the
+ * samples every time they are shown.
+ * <p/>
+ * Like the {@link ActivityRollups}, the sessions are updated after samples have been added
+ * or changed, see {@link AbstractSampleProvider#notifySamplesChanged(int, int)}. Only the
+ * samples around the changed range are segmented again: the night window reaching
+ * {@link #NIGHT_MARGIN} seconds before and after the range, widened to include all stored
+ * sessions overlapping it. Like theirs, the dirty
+ * ranges are persisted, and the sessions are built and updated by the
+ * {@link ActivityDataPrecomputer} and the writers only.
+ * <p/>
+ * Reading the sessions only requires a read-only handler. Everything else takes the writer
+ * lock itself, so it must not be called while holding a read-only handler.
+ */
+public class SleepSessions {
+    private static final Logger LOG = LoggerFactory.getLogger(SleepSessions.class);
+
+    /**
+     * Increment whenever the way sessions are calculated changes, to force a rebuild.
+     */
+    private static final int SESSIONS_VERSION = 1;
+    private static final String PREF_SESSIONS_BUILT = "sleep_sessions_built_v" + SESSIONS_VERSION;
+    private static final String PREF_SESSIONS_DIRTY = "sleep_sessions_dirty";
+
+    public static final int NIGHT_MARGIN = 12 * 60 * 60;
+    // segment at most a week at once; a rebuild takes the writer lock for a single pass only,
+    // in order to limit the time the other writers are blocked
+    private static final int MAX_SECONDS_PER_PASS = 7 * 24 * 60 * 60;
+
+    // the ranges that have not been segmented again yet
+    private static final DirtyRanges dirtyRanges = new DirtyRanges(PREF_SESSIONS_DIRTY);
+
+    /**
+     * Called after samples have been written or changed. Only marks their range as dirty,
+     * the nights around it are segmented again by the {@link ActivityDataPrecomputer}.
+     */
+    static void markDirty(AbstractSampleProvider<?> provider, int tsFrom, int tsTo) {
+        dirtyRanges.mark(provider.getDevice().getAddress(), tsFrom, tsTo);
+    }
+
+    /**
+     * Updates the sessions around the pending dirty range of the provider's device, if any.
+     * While the sessions are not available, e.g. during a rebuild, the range is kept, since
+     * the rebuild may have passed it already.
+     */
+    public static void flush(AbstractSampleProvider<?> provider) {
+        String address = provider.getDevice().getAddress();
+        int[] range = dirtyRanges.get(address);
+        if (range == null || !isAvailable(provider.getDevice())) {
+            return;
+        }
+        try (DBHandler db = GBApplication.acquireDB()) {
+            Device dbDevice = DBHelper.findDevice(provider.getDevice(), db.getDaoSession());
+            if (dbDevice != null) {
+                update(provider, db.getDaoSession(), dbDevice, range[0], range[1]);
+            }
+            dirtyRanges.remove(address, range);
+        } catch (GBException ex) {
+            LOG.warn("Unable to update sleep sessions for " + provider.getDevice() + ", will retry later", ex);
+        } catch (Exception ex) {
+            LOG.warn("Error updating sleep sessions, invalidating them for " + provider.getDevice(), ex);
+            invalidate(provider.getDevice());
+        }
+    }
+
+    /**
+     * Returns true if the sessions of the given device are complete, i.e. have been fully
+     * built once and are being kept up to date since.
+     */
+    public static boolean isAvailable(GBDevice device) {
+        Prefs prefs = GBApplication.getPrefs();
+        return prefs.getStringSet(PREF_SESSIONS_BUILT, new HashSet<String>()).contains(device.getAddress());
+    }
+
+    /**
+     * Builds the sessions of the provider's device unless they are already available, and
+     * updates them around its pending dirty range. May take a while for devices with lots of
+     * samples, so must only be called from a background job, e.g. the
+     * {@link ActivityDataPrecomputer}.
+     *
+     * @param provider  a provider of the writer session, see #rebuild(AbstractSampleProvider, AtomicBoolean)
+     * @param cancelled checked between the passes of a rebuild, which stops if it is set
+     */
+    public static void ensureAvailable(SampleProvider<?> provider, AtomicBoolean cancelled) {
+        if (provider instanceof AbstractSampleProvider) {
+            AbstractSampleProvider<?> sampleProvider = (AbstractSampleProvider<?>) provider;
+            if (!isAvailable(sampleProvider.getDevice())) {
+                rebuild(sampleProvider, cancelled);
+            }
+            flush(sampleProvider);
+        }
+    }
+
+    /**
+     * Deletes and recomputes all sessions of the provider's device from its samples.
+     *
+     * @see #rebuild(AbstractSampleProvider, AtomicBoolean)
+     */
+    public static void rebuild(AbstractSampleProvider<?> provider) {
+        rebuild(provider, new AtomicBoolean());
+    }
+
+    /**
+     * Deletes and recomputes all sessions of the provider's device from its samples. The
+     * writer lock is only held for a single pass at a time; the sessions are unavailable
+     * until the last pass is done. A cancelled rebuild leaves them unavailable.
+     *
+     * @param provider  a provider of the writer session, i.e. of #acquireDB(), so that the
+     *                  samples are read while holding the writer lock
+     * @param cancelled checked before each pass
+     */
+    public static void rebuild(AbstractSampleProvider<?> provider, AtomicBoolean cancelled) {
+        GBDevice gbDevice = provider.getDevice();
+        long start = System.currentTimeMillis();
+        int[] range;
+        try (DBHandler db = GBApplication.acquireDB()) {
+            if (db.getDaoSession() != provider.getSession()) {
+                LOG.warn("Not rebuilding the sleep sessions for " + gbDevice + ", the provider does not belong to the writer");
+                return;
+            }
+            range = startRebuild(provider, db.getDaoSession());
+        } catch (GBException ex) {
+            LOG.warn("Unable to rebuild sleep sessions for " + gbDevice, ex);
+            return;
+        }
+        if (range == null) {
+            return;
+        }
+
+        for (long passStart = range[0]; passStart <= range[1]; passStart += MAX_SECONDS_PER_PASS) {
+            int passEnd = (int) Math.min(range[1], passStart + MAX_SECONDS_PER_PASS - 1);
+            if (cancelled.get()) {
+                LOG.info("Rebuild of the sleep sessions for " + gbDevice + " cancelled");
+                return;
+            }
+            try (DBHandler db = GBApplication.acquireDB()) {
+                DaoSession session = db.getDaoSession();
+                Device dbDevice = DBHelper.findDevice(gbDevice, session);
+                if (session != provider.getSession() || dbDevice == null) {
+                    LOG.warn("Database has been replaced, aborting the rebuild of the sleep sessions for " + gbDevice);
+                    return;
+                }
+                updatePass(provider, session, dbDevice, (int) passStart, passEnd);
+            } catch (GBException ex) {
+                LOG.warn("Unable to rebuild sleep sessions for " + gbDevice, ex);
+                return;
+            }
+        }
+        setAvailable(gbDevice, true);
+        LOG.info("Rebuilt sleep sessions for " + gbDevice + " in " + (System.currentTimeMillis() - start) + "ms");
+        // the samples written during the rebuild
+        flush(provider);
+    }
+
+    /**
+     * Deletes all sessions of the device and returns the range of its samples, or null if
+     * the device is not known.
+     */
+    @Nullable
+    private static int[] startRebuild(AbstractSampleProvider<?> provider, DaoSession session) {
+        GBDevice gbDevice = provider.getDevice();
+        Device dbDevice = DBHelper.findDevice(gbDevice, session);
+        if (dbDevice == null) {
+            return null;
+        }
+        setAvailable(gbDevice, false);
+        dirtyRanges.remove(gbDevice.getAddress());
+
+        session.getSleepSessionDao().queryBuilder()
+                .where(SleepSessionDao.Properties.DeviceId.eq(dbDevice.getId()))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+
+        AbstractActivitySample first = ActivityRollups.getFirstSample(provider, dbDevice);
+        AbstractActivitySample latest = provider.getLatestActivitySample();
+        if (first == null || latest == null) {
+            // nothing to do
+            return new int[]{0, -1};
+        }
+        return new int[]{first.getTimestamp(), latest.getTimestamp()};
+    }
+
+    /**
+     * Marks the sessions of the given device as unavailable, so that they are rebuilt by
+     * the next {@link ActivityDataPrecomputer} job.
+     */
+    public static void invalidate(GBDevice device) {
+        setAvailable(device, false);
+        dirtyRanges.remove(device.getAddress());
+    }
+
+    /**
+     * Marks the sessions of all devices as unavailable, e.g. after the database has been
+     * replaced or deleted.
+     */
+    public static void invalidateAll() {
+        dirtyRanges.clear();
+        GBApplication.getPrefs().getPreferences().edit().remove(PREF_SESSIONS_BUILT).apply();
+    }
+
+    /**
+     * Returns the sleep sessions starting in the given time range, ordered by their start,
+     * or null if they are not available (yet) or have not been updated since samples around
+     * the range were written. Callers must fall back to analyzing the samples in that case.
+     *
+     * @param tsFrom the start of the range, inclusive
+     * @param tsTo   the end of the range, inclusive
+     */
+    @Nullable
+    public static List<SleepAnalysis.SleepSession> getSleepSessions(SampleProvider<?> provider, int tsFrom, int tsTo) {
+        if (!(provider instanceof AbstractSampleProvider)) {
+            return null;
+        }
+        AbstractSampleProvider<?> sampleProvider = (AbstractSampleProvider<?>) provider;
+        if (!isAvailable(sampleProvider.getDevice()) || dirtyRanges.overlaps(sampleProvider.getDevice().getAddress(),
+                tsFrom - NIGHT_MARGIN, tsTo + NIGHT_MARGIN)) {
+            return null;
+        }
+
+        DaoSession session = sampleProvider.getSession();
+        List<SleepAnalysis.SleepSession> result = new ArrayList<>();
+        Device dbDevice = DBHelper.findDevice(sampleProvider.getDevice(), session);
+        if (dbDevice == null) {
+            return result;
+        }
+        SleepSessionDao dao = session.getSleepSessionDao();
+        List<SleepSession> stored = dao.queryBuilder().where(
+                SleepSessionDao.Properties.DeviceId.eq(dbDevice.getId()),
+                SleepSessionDao.Properties.SleepStart.ge(tsFrom),
+                SleepSessionDao.Properties.SleepStart.le(tsTo)
+        ).orderAsc(SleepSessionDao.Properties.SleepStart).list();
+        dao.detachAll();
+
+        for (SleepSession sleepSession : stored) {
+            result.add(new SleepAnalysis.SleepSession(
+                    new Date(sleepSession.getSleepStart() * 1000L),
+                    new Date(sleepSession.getSleepEnd() * 1000L),
+                    sleepSession.getLightSleepSeconds(),
+                    sleepSession.getDeepSleepSeconds()));
+        }
+        return result;
+    }
+
+    private static void setAvailable(GBDevice device, boolean available) {
+        Prefs prefs = GBApplication.getPrefs();
+        HashSet<String> built = new HashSet<>(prefs.getStringSet(PREF_SESSIONS_BUILT, new HashSet<String>()));
+        boolean changed = available ? built.add(device.getAddress()) : built.remove(device.getAddress());
+        if (changed) {
+            SharedPreferences.Editor editor = prefs.getPreferences().edit();
+            Prefs.putStringSet(editor, PREF_SESSIONS_BUILT, built);
+            editor.apply();
+        }
+    }
+
+    /**
+     * Segments the night window around the given range again. Since a session may only have
+     * been stored partially in the window, the window is widened to the stored sessions
+     * overlapping it.
+     */
+    private static void update(AbstractSampleProvider<?> provider, DaoSession session, Device dbDevice, int tsFrom, int tsTo) {
+        int windowStart = tsFrom - NIGHT_MARGIN;
+        int windowEnd = tsTo + NIGHT_MARGIN;
+        SleepSessionDao dao = session.getSleepSessionDao();
+        List<SleepSession> overlapping = dao.queryBuilder().where(
+                SleepSessionDao.Properties.DeviceId.eq(dbDevice.getId()),
+                SleepSessionDao.Properties.SleepStart.le(windowEnd),
+                SleepSessionDao.Properties.SleepEnd.ge(windowStart)
+        ).list();
+        dao.detachAll();
+        for (SleepSession sleepSession : overlapping) {
+            windowStart = Math.min(windowStart, sleepSession.getSleepStart());
+            windowEnd = Math.max(windowEnd, sleepSession.getSleepEnd());
+        }
+        updatePasses(provider, session, dbDevice, windowStart, windowEnd);
+    }
+
+    private static void updatePasses(AbstractSampleProvider<?> provider, DaoSession session, Device dbDevice, int rangeStart, int rangeEnd) {
+        for (long passStart = rangeStart; passStart <= rangeEnd; passStart += MAX_SECONDS_PER_PASS) {
+            int passEnd = (int) Math.min(rangeEnd, passStart + MAX_SECONDS_PER_PASS - 1);
+            updatePass(provider, session, dbDevice, (int) passStart, passEnd);
+        }
+    }
+
+    /**
+     * Replaces the stored sessions starting in the given range with the ones calculated from
+     * the samples. The samples are read with a margin on both sides, so that the sessions
+     * starting in the range are complete and the segmentation starts in the same state as it
+     * would when analyzing all samples.
+     *
+     * @param rangeStart the start of the range, inclusive
+     * @param rangeEnd   the end of the range, inclusive
+     */
+    private static void updatePass(AbstractSampleProvider<?> provider, DaoSession session, final Device dbDevice, final int rangeStart, final int rangeEnd) {
+        List<SleepAnalysis.SleepSession> calculated;
+        try (SampleIterator<?> samples = provider.iterateAllActivitySamples(rangeStart - NIGHT_MARGIN, rangeEnd + NIGHT_MARGIN)) {
+            calculated = new SleepAnalysis().calculateSleepSessions(samples);
+        }
+
+        final List<SleepSession> sessions = new ArrayList<>();
+        for (SleepAnalysis.SleepSession calculatedSession : calculated) {
+            int sleepStart = (int) (calculatedSession.getSleepStart().getTime() / 1000);
+            if (sleepStart < rangeStart || sleepStart > rangeEnd) {
+                continue;
+            }
+            int sleepEnd = (int) (calculatedSession.getSleepEnd().getTime() / 1000);
+            long lightSleep = calculatedSession.getLightSleepDuration();
+            long deepSleep = calculatedSession.getDeepSleepDuration();
+            SleepSession sleepSession = new SleepSession();
+            sleepSession.setSleepStart(sleepStart);
+            sleepSession.setDeviceId(dbDevice.getId());
+            sleepSession.setSleepEnd(sleepEnd);
+            sleepSession.setLightSleepSeconds((int) lightSleep);
+            sleepSession.setDeepSleepSeconds((int) deepSleep);
+            // the part of the session not covered by sleep samples
+            sleepSession.setAwakeSeconds((int) Math.max(0, sleepEnd - sleepStart - lightSleep - deepSleep));
+            sessions.add(sleepSession);
+        }
+
+        final SleepSessionDao dao = session.getSleepSessionDao();
+        session.runInTx(new Runnable() {
+            @Override
+            public void run() {
+                dao.queryBuilder().where(
+                        SleepSessionDao.Properties.DeviceId.eq(dbDevice.getId()),
+                        SleepSessionDao.Properties.SleepStart.ge(rangeStart),
+                        SleepSessionDao.Properties.SleepStart.le(rangeEnd)
+                ).buildDelete().executeDeleteWithoutDetachingEntities();
+                dao.insertOrReplaceInTx(sessions);
+            }
+        });
+        dao.detachAll();
+    }
+}
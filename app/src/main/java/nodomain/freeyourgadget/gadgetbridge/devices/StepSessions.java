@@ -0,0 +1,435 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.StepAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.StepSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.StepSessionDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
+import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+
+/**
+ * Maintains the step session table, which contains the activity sessions of each device as
+ * detected by {@link StepAnalysis}, so that the activity lists can show any time range
+ * without analyzing its samples.
+ * <p/>
+ * Like the {@link SleepSessions}, the sessions are updated in the background after samples
+ * have been added or changed, by analyzing the samples from {@link #MARGIN} seconds before to {@link #MARGIN}
+ * seconds after the changed range again, widened to include all stored sessions overlapping
+ * it. The dirty ranges are persisted, and the sessions are built by
+ * {@link #ensureAvailable(SampleProvider, AtomicBoolean)} from a background job; until then, readers get
+ * null and must analyze the samples themselves.
+ * <p/>
+ * Since the detected sessions depend on the chart settings, the sessions of all devices
+ * are considered unavailable when those settings change.
+ * <p/>
+ * Reading the sessions only requires a read-only handler. Everything else takes the writer
+ * lock itself, so it must not be called while holding a read-only handler.
+ */
+public class StepSessions {
+    private static final Logger LOG = LoggerFactory.getLogger(StepSessions.class);
+
+    /**
+     * Increment whenever the way sessions are calculated changes, to force a rebuild.
+     */
+    private static final int SESSIONS_VERSION = 1;
+    private static final String PREF_SESSIONS_BUILT = "step_sessions_built_v" + SESSIONS_VERSION;
+    private static final String PREF_SESSIONS_SETTINGS = "step_sessions_settings";
+    private static final String PREF_SESSIONS_DIRTY = "step_sessions_dirty";
+
+    public static final int MARGIN = 12 * 60 * 60;
+    // analyze at most a week at once; a rebuild takes the writer lock for a single pass only,
+    // in order to limit the time the other writers are blocked
+    private static final int MAX_SECONDS_PER_PASS = 7 * 24 * 60 * 60;
+
+    // the ranges that have not been analyzed again yet
+    private static final DirtyRanges dirtyRanges = new DirtyRanges(PREF_SESSIONS_DIRTY);
+
+    /**
+     * Called after samples have been written or changed. Only marks their range as dirty,
+     * the {@link ActivityDataPrecomputer} analyzes it again later.
+     */
+    static void markDirty(AbstractSampleProvider<?> provider, int tsFrom, int tsTo) {
+        dirtyRanges.mark(provider.getDevice().getAddress(), tsFrom, tsTo);
+    }
+
+    /**
+     * Updates the sessions around the pending dirty range of the provider's device, if any.
+     * While the sessions are not available, e.g. during a rebuild, the range is kept, since
+     * the rebuild may have passed it already.
+     */
+    public static void flush(AbstractSampleProvider<?> provider) {
+        String address = provider.getDevice().getAddress();
+        int[] range = dirtyRanges.get(address);
+        if (range == null || !isAvailable(provider.getDevice())) {
+            return;
+        }
+        try (DBHandler db = GBApplication.acquireDB()) {
+            Device dbDevice = DBHelper.findDevice(provider.getDevice(), db.getDaoSession());
+            if (dbDevice != null) {
+                update(provider, db.getDaoSession(), dbDevice, range[0], range[1]);
+            }
+            dirtyRanges.remove(address, range);
+        } catch (GBException ex) {
+            LOG.warn("Unable to update step sessions for " + provider.getDevice() + ", will retry later", ex);
+        } catch (Exception ex) {
+            LOG.warn("Error updating step sessions, invalidating them for " + provider.getDevice(), ex);
+            invalidate(provider.getDevice());
+        }
+    }
+
+    /**
+     * Returns true if the sessions of the given device are complete, i.e. have been fully
+     * built once with the current settings and are being kept up to date since.
+     */
+    public static boolean isAvailable(GBDevice device) {
+        Prefs prefs = GBApplication.getPrefs();
+        if (!StepAnalysis.getSettingsSignature().equals(prefs.getString(PREF_SESSIONS_SETTINGS, null))) {
+            return false;
+        }
+        return prefs.getStringSet(PREF_SESSIONS_BUILT, new HashSet<String>()).contains(device.getAddress());
+    }
+
+    /**
+     * Builds the sessions of the provider's device unless they are already available, and
+     * updates them around its pending dirty range. May take a while for devices with lots of
+     * samples, so must only be called from a background job, e.g. the
+     * {@link ActivityDataPrecomputer}.
+     *
+     * @param provider  a provider of the writer session, see #rebuild(AbstractSampleProvider, AtomicBoolean)
+     * @param cancelled checked between the passes of a rebuild, which stops if it is set
+     */
+    public static void ensureAvailable(SampleProvider<?> provider, AtomicBoolean cancelled) {
+        if (provider instanceof AbstractSampleProvider) {
+            AbstractSampleProvider<?> sampleProvider = (AbstractSampleProvider<?>) provider;
+            if (!isAvailable(sampleProvider.getDevice())) {
+                rebuild(sampleProvider, cancelled);
+            }
+            flush(sampleProvider);
+        }
+    }
+
+    /**
+     * Deletes and recomputes all sessions of the provider's device from its samples.
+     *
+     * @see #rebuild(AbstractSampleProvider, AtomicBoolean)
+     */
+    public static void rebuild(AbstractSampleProvider<?> provider) {
+        rebuild(provider, new AtomicBoolean());
+    }
+
+    /**
+     * Deletes and recomputes all sessions of the provider's device from its samples. The
+     * writer lock is only held for a single pass at a time; the sessions are unavailable
+     * until the last pass is done. A cancelled rebuild leaves them unavailable.
+     *
+     * @param provider  a provider of the writer session, i.e. of #acquireDB(), so that the
+     *                  samples are read while holding the writer lock
+     * @param cancelled checked before each pass
+     */
+    public static void rebuild(AbstractSampleProvider<?> provider, AtomicBoolean cancelled) {
+        GBDevice gbDevice = provider.getDevice();
+        long start = System.currentTimeMillis();
+        int[] range;
+        try (DBHandler db = GBApplication.acquireDB()) {
+            if (db.getDaoSession() != provider.getSession()) {
+                LOG.warn("Not rebuilding the step sessions for " + gbDevice + ", the provider does not belong to the writer");
+                return;
+            }
+            range = startRebuild(provider, db.getDaoSession());
+        } catch (GBException ex) {
+            LOG.warn("Unable to rebuild step sessions for " + gbDevice, ex);
+            return;
+        }
+        if (range == null) {
+            return;
+        }
+
+        long passStart = range[0];
+        while (passStart <= range[1]) {
+            int passEnd = (int) Math.min(range[1], passStart + MAX_SECONDS_PER_PASS - 1);
+            if (cancelled.get()) {
+                LOG.info("Rebuild of the step sessions for " + gbDevice + " cancelled");
+                return;
+            }
+            try (DBHandler db = GBApplication.acquireDB()) {
+                DaoSession session = db.getDaoSession();
+                Device dbDevice = DBHelper.findDevice(gbDevice, session);
+                if (session != provider.getSession() || dbDevice == null) {
+                    LOG.warn("Database has been replaced, aborting the rebuild of the step sessions for " + gbDevice);
+                    return;
+                }
+                passStart = updatePass(provider, session, dbDevice, (int) passStart, passEnd, range[1]) + 1L;
+            } catch (GBException ex) {
+                LOG.warn("Unable to rebuild step sessions for " + gbDevice, ex);
+                return;
+            }
+        }
+        setAvailable(gbDevice, true);
+        LOG.info("Rebuilt step sessions for " + gbDevice + " in " + (System.currentTimeMillis() - start) + "ms");
+        // the samples written during the rebuild
+        flush(provider);
+    }
+
+    /**
+     * Deletes all sessions of the device and returns the range of its samples, or null if
+     * the device is not known.
+     */
+    @Nullable
+    private static int[] startRebuild(AbstractSampleProvider<?> provider, DaoSession session) {
+        GBDevice gbDevice = provider.getDevice();
+        Device dbDevice = DBHelper.findDevice(gbDevice, session);
+        if (dbDevice == null) {
+            return null;
+        }
+        setAvailable(gbDevice, false);
+        dirtyRanges.remove(gbDevice.getAddress());
+
+        session.getStepSessionDao().queryBuilder()
+                .where(StepSessionDao.Properties.DeviceId.eq(dbDevice.getId()))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+
+        AbstractActivitySample first = ActivityRollups.getFirstSample(provider, dbDevice);
+        AbstractActivitySample latest = provider.getLatestActivitySample();
+        if (first == null || latest == null) {
+            // nothing to do
+            return new int[]{0, -1};
+        }
+        return new int[]{first.getTimestamp(), latest.getTimestamp()};
+    }
+
+    /**
+     * Marks the sessions of the given device as unavailable, so that they are rebuilt by
+     * the next {@link ActivityDataPrecomputer} job.
+     */
+    public static void invalidate(GBDevice device) {
+        setAvailable(device, false);
+        dirtyRanges.remove(device.getAddress());
+    }
+
+    /**
+     * Marks the sessions of all devices as unavailable, e.g. after the database has been
+     * replaced or deleted.
+     */
+    public static void invalidateAll() {
+        dirtyRanges.clear();
+        GBApplication.getPrefs().getPreferences().edit().remove(PREF_SESSIONS_BUILT).apply();
+    }
+
+    /**
+     * Returns the sessions starting in the given time range, ordered by their start, or null
+     * if they are not available (yet) or have not been updated since samples around the range
+     * were written. Callers must fall back to analyzing the samples in that case.
+     *
+     * @param tsFrom the start of the range, inclusive
+     * @param tsTo   the end of the range, inclusive
+     */
+    @Nullable
+    public static List<ActivitySession> getStepSessions(SampleProvider<?> provider, int tsFrom, int tsTo) {
+        if (!(provider instanceof AbstractSampleProvider)) {
+            return null;
+        }
+        AbstractSampleProvider<?> sampleProvider = (AbstractSampleProvider<?>) provider;
+        if (!isAvailable(sampleProvider.getDevice()) || dirtyRanges.overlaps(sampleProvider.getDevice().getAddress(),
+                tsFrom - MARGIN, tsTo + MARGIN)) {
+            return null;
+        }
+
+        DaoSession session = sampleProvider.getSession();
+        List<ActivitySession> result = new ArrayList<>();
+        Device dbDevice = DBHelper.findDevice(sampleProvider.getDevice(), session);
+        if (dbDevice == null) {
+            return result;
+        }
+        StepSessionDao dao = session.getStepSessionDao();
+        List<StepSession> stored = dao.queryBuilder().where(
+                StepSessionDao.Properties.DeviceId.eq(dbDevice.getId()),
+                StepSessionDao.Properties.SessionStart.ge(tsFrom),
+                StepSessionDao.Properties.SessionStart.le(tsTo)
+        ).orderAsc(StepSessionDao.Properties.SessionStart).list();
+        dao.detachAll();
+
+        for (StepSession stepSession : stored) {
+            ActivitySession activitySession = new ActivitySession(
+                    new Date(stepSession.getSessionStart() * 1000L),
+                    new Date(stepSession.getSessionEnd() * 1000L),
+                    stepSession.getSteps(),
+                    stepSession.getHeartRateAverage(),
+                    stepSession.getIntensity(),
+                    stepSession.getDistance(),
+                    stepSession.getActivityKind());
+            if (stepSession.getOngoing()) {
+                activitySession.setSessionType(ActivitySession.SESSION_ONGOING);
+            }
+            result.add(activitySession);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total steps of the given time range, including the ones outside of
+     * sessions, from the activity rollups, or null if they cannot be used for that range.
+     *
+     * @see ActivityRollups#getActivityAmounts(SampleProvider, int, int)
+     */
+    @Nullable
+    public static Integer getTotalSteps(SampleProvider<?> provider, int tsFrom, int tsTo) {
+        ActivityAmounts amounts = ActivityRollups.getActivityAmounts(provider, tsFrom, tsTo);
+        if (amounts == null) {
+            return null;
+        }
+        long steps = 0;
+        for (ActivityAmount amount : amounts.getAmounts()) {
+            steps += amount.getTotalSteps();
+        }
+        return (int) steps;
+    }
+
+    private static void setAvailable(GBDevice device, boolean available) {
+        Prefs prefs = GBApplication.getPrefs();
+        String settings = StepAnalysis.getSettingsSignature();
+        HashSet<String> built = new HashSet<>();
+        // sessions built with other settings are outdated
+        if (settings.equals(prefs.getString(PREF_SESSIONS_SETTINGS, null))) {
+            built.addAll(prefs.getStringSet(PREF_SESSIONS_BUILT, new HashSet<String>()));
+        }
+        if (available) {
+            built.add(device.getAddress());
+        } else {
+            built.remove(device.getAddress());
+        }
+        SharedPreferences.Editor editor = prefs.getPreferences().edit();
+        editor.putString(PREF_SESSIONS_SETTINGS, settings);
+        Prefs.putStringSet(editor, PREF_SESSIONS_BUILT, built);
+        editor.apply();
+    }
+
+    /**
+     * Analyzes the samples around the given range again. The range is widened to the stored
+     * sessions overlapping it, so that these are detected again from their first sample.
+     */
+    private static void update(AbstractSampleProvider<?> provider, DaoSession session, Device dbDevice, int tsFrom, int tsTo) {
+        int windowStart = tsFrom - MARGIN;
+        int windowEnd = tsTo + MARGIN;
+        StepSessionDao dao = session.getStepSessionDao();
+        List<StepSession> overlapping = dao.queryBuilder().where(
+                StepSessionDao.Properties.DeviceId.eq(dbDevice.getId()),
+                StepSessionDao.Properties.SessionStart.le(windowEnd),
+                StepSessionDao.Properties.SessionEnd.ge(windowStart)
+        ).list();
+        dao.detachAll();
+        for (StepSession stepSession : overlapping) {
+            windowStart = Math.min(windowStart, stepSession.getSessionStart());
+            windowEnd = Math.max(windowEnd, stepSession.getSessionEnd());
+        }
+        AbstractActivitySample latest = provider.getLatestActivitySample();
+        int latestTimestamp = latest != null ? latest.getTimestamp() : windowEnd;
+        updatePasses(provider, session, dbDevice, windowStart, windowEnd, latestTimestamp);
+    }
+
+    private static void updatePasses(AbstractSampleProvider<?> provider, DaoSession session, Device dbDevice, int rangeStart, int rangeEnd, int latestTimestamp) {
+        long passStart = rangeStart;
+        while (passStart <= rangeEnd) {
+            int passEnd = (int) Math.min(rangeEnd, passStart + MAX_SECONDS_PER_PASS - 1);
+            passStart = updatePass(provider, session, dbDevice, (int) passStart, passEnd, latestTimestamp) + 1L;
+        }
+    }
+
+    /**
+     * Replaces the stored sessions starting in the given range with the ones detected in the
+     * samples. The samples are read from the start of the range, where either a stored
+     * session starts or no session is in progress, up to {@link #MARGIN} seconds after its
+     * end, so that the sessions starting in the range are complete.
+     * <p/>
+     * The last session may continue after the end of the range. Its remainder must not be
+     * detected as a session of its own by the next pass, so the stored sessions are replaced
+     * up to the end of the last session, and the next pass must start after that.
+     *
+     * @param rangeStart the start of the range, inclusive
+     * @param rangeEnd   the end of the range, inclusive
+     * @return the end of the range that has been replaced, inclusive
+     */
+    private static int updatePass(AbstractSampleProvider<?> provider, DaoSession session, final Device dbDevice, final int rangeStart, final int rangeEnd, int latestTimestamp) {
+        int samplesEnd = rangeEnd + MARGIN;
+        List<ActivitySession> detected;
+        try (SampleIterator<?> samples = provider.iterateAllActivitySamples(rangeStart, samplesEnd)) {
+            detected = new StepAnalysis().calculateStepSessions(samples);
+        }
+        // a session can only still be in progress if the samples up to the latest one were analyzed
+        boolean includesLatest = samplesEnd >= latestTimestamp;
+
+        final List<StepSession> sessions = new ArrayList<>();
+        int replacedEnd = rangeEnd;
+        for (ActivitySession activitySession : detected) {
+            int sessionStart = (int) (activitySession.getStartTime().getTime() / 1000);
+            if (sessionStart < rangeStart || sessionStart > rangeEnd) {
+                continue;
+            }
+            StepSession stepSession = new StepSession();
+            stepSession.setSessionStart(sessionStart);
+            stepSession.setDeviceId(dbDevice.getId());
+            stepSession.setSessionEnd((int) (activitySession.getEndTime().getTime() / 1000));
+            stepSession.setSteps(activitySession.getActiveSteps());
+            stepSession.setDistance(activitySession.getDistance());
+            stepSession.setIntensity(activitySession.getIntensity());
+            stepSession.setHeartRateAverage(activitySession.getHeartRateAverage());
+            stepSession.setActivityKind(activitySession.getActivityKind());
+            stepSession.setOngoing(includesLatest && activitySession.getSessionType() == ActivitySession.SESSION_ONGOING);
+            sessions.add(stepSession);
+            replacedEnd = Math.max(replacedEnd, stepSession.getSessionEnd());
+        }
+        final int deleteEnd = replacedEnd;
+
+        final StepSessionDao dao = session.getStepSessionDao();
+        session.runInTx(new Runnable() {
+            @Override
+            public void run() {
+                dao.queryBuilder().where(
+                        StepSessionDao.Properties.DeviceId.eq(dbDevice.getId()),
+                        StepSessionDao.Properties.SessionStart.ge(rangeStart),
+                        StepSessionDao.Properties.SessionStart.le(deleteEnd)
+                ).buildDelete().executeDeleteWithoutDetachingEntities();
+                dao.insertOrReplaceInTx(sessions);
+            }
+        });
+        dao.detachAll();
+        return replacedEnd;
+    }
+}
@@ -59,6 +59,11 @@ public class UnknownDeviceCoordinator extends AbstractDeviceCoordinator {
             return null;
         }
 
+        @Override
+        public SampleIterator iterateAllActivitySamples(int timestamp_from, int timestamp_to) {
+            return SampleIterator.empty();
+        }
+
         @Override
         public List getActivitySamples(int timestamp_from, int timestamp_to) {
             return null;
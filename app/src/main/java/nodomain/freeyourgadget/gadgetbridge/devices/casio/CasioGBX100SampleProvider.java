@@ -28,10 +28,12 @@ import java.util.List;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIterator;
 import nodomain.freeyourgadget.gadgetbridge.entities.CasioGBX100ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.CasioGBX100ActivitySampleDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 
 public class CasioGBX100SampleProvider extends AbstractSampleProvider<CasioGBX100ActivitySample> {
     private static final Logger LOG = LoggerFactory.getLogger(CasioGBX100SampleProvider.class);
@@ -91,6 +93,12 @@ public class CasioGBX100SampleProvider extends AbstractSampleProvider<CasioGBX10
         return super.getActivitySamples(timestamp_from, timestamp_to);
     }
 
+    @NonNull
+    @Override
+    public SampleIterator<CasioGBX100ActivitySample> iterateAllActivitySamples(int timestamp_from, int timestamp_to) {
+        return iterateGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ACTIVITY);
+    }
+
     @Override
     public List<CasioGBX100ActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         return super.getActivitySamples(timestamp_from, timestamp_to);
@@ -21,9 +21,9 @@ package nodomain.freeyourgadget.gadgetbridge.devices.hplus;
 * @author João Paulo Barraca &lt;jpbarraca@gmail.com&gt;
 */
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.GregorianCalendar;
 import java.util.List;
 
@@ -33,8 +33,9 @@ import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityOverlayEngine;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIterator;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlay;
 import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlayDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySample;
@@ -122,75 +123,46 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
         return getAllActivitySamples(timestamp_from, timestamp_to);
     }
 
+    @NonNull
+    @Override
+    public SampleIterator<HPlusHealthActivitySample> iterateAllActivitySamples(int timestamp_from, int timestamp_to) {
+        // the overlays can only be applied to the complete list of samples
+        return new SampleIterator<>(getAllActivitySamples(timestamp_from, timestamp_to));
+    }
+
     @NonNull
     @Override
     public List<HPlusHealthActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         List<HPlusHealthActivitySample> samples = super.getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
 
-        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
-        if (dbDevice == null) {
+        Long deviceId = DBHelper.findDeviceId(getDevice(), getSession());
+        if (deviceId == null) {
             return Collections.emptyList();
         }
 
         QueryBuilder<HPlusHealthActivityOverlay> qb = getSession().getHPlusHealthActivityOverlayDao().queryBuilder();
 
-        qb.where(HPlusHealthActivityOverlayDao.Properties.DeviceId.eq(dbDevice.getId()),
+        qb.where(HPlusHealthActivityOverlayDao.Properties.DeviceId.eq(deviceId),
                 HPlusHealthActivityOverlayDao.Properties.TimestampFrom.ge(timestamp_from - 3600 * 24),
                 HPlusHealthActivityOverlayDao.Properties.TimestampTo.le(timestamp_to),
                 HPlusHealthActivityOverlayDao.Properties.TimestampTo.ge(timestamp_from));
 
         List<HPlusHealthActivityOverlay> overlayRecords = qb.build().list();
 
-
-
-        //Apply Overlays
+        //Create fake events to improve activity counters if there are no events around the overlay
+        //timestamp boundaries
+        //Insert one before, one at the beginning, one at the end, and one 1s after.
+        List<HPlusHealthActivitySample> virtualSamples = new ArrayList<>(overlayRecords.size() * 4);
         for (HPlusHealthActivityOverlay overlay : overlayRecords) {
-
-            //Create fake events to improve activity counters if there are no events around the overlay
-            //timestamp boundaries
-            //Insert one before, one at the beginning, one at the end, and one 1s after.
-            insertVirtualItem(samples, Math.max(overlay.getTimestampFrom() - 1, timestamp_from), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.max(overlay.getTimestampFrom(), timestamp_from), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.min(overlay.getTimestampTo() - 1, timestamp_to - 1), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.min(overlay.getTimestampTo(), timestamp_to), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.max(overlay.getTimestampFrom() - 1, timestamp_from), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.max(overlay.getTimestampFrom(), timestamp_from), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.min(overlay.getTimestampTo() - 1, timestamp_to - 1), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.min(overlay.getTimestampTo(), timestamp_to), overlay.getDeviceId(), overlay.getUserId());
         }
-
-        Collections.sort(samples, new Comparator<HPlusHealthActivitySample>() {
-            public int compare(HPlusHealthActivitySample one, HPlusHealthActivitySample other) {
-                return one.getTimestamp() - other.getTimestamp();
-            }
-        });
+        samples = ActivityOverlayEngine.mergeSorted(samples, virtualSamples);
 
         //Apply Overlays
-        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
-
-            long nonSleepTimeEnd = 0;
-            for (HPlusHealthActivitySample sample : samples) {
-                if (sample.getRawKind() == ActivityKind.TYPE_NOT_WORN)
-                    continue;
-
-                if (sample.getTimestamp() >= overlay.getTimestampFrom() && sample.getTimestamp() < overlay.getTimestampTo()) {
-                    if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN || overlay.getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP || overlay.getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                        if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0){
-                            nonSleepTimeEnd = sample.getTimestamp() + 10 * 60; // 10 minutes
-                            continue;
-                        }else if(sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd){
-                            continue;
-                        }
-
-                        if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
-                            sample.setHeartRate(0);
-
-                        if (sample.getRawKind() != ActivityKind.TYPE_NOT_WORN)
-                            sample.setRawKind(overlay.getRawKind());
-
-                        sample.setRawIntensity(10);
-                    }
-                }
-            }
-        }
-
-
+        new OverlayEngine(overlayRecords.size()).applyOverlays(samples, overlayRecords);
 
         //Fix Step counters
         //Todays sample steps will come from the Day Slots messages
@@ -237,6 +209,51 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
         return samples;
     }
 
+    /**
+     * Applies the sleep and not worn overlays. Day slots with steps keep the samples of the
+     * following 10 minutes from being overlaid, separately for each overlay.
+     */
+    private static class OverlayEngine extends ActivityOverlayEngine<HPlusHealthActivitySample, HPlusHealthActivityOverlay> {
+        private final long[] nonSleepTimeEnd;
+
+        OverlayEngine(int overlayCount) {
+            nonSleepTimeEnd = new long[overlayCount];
+        }
+
+        @Override
+        protected int getTimestampFrom(HPlusHealthActivityOverlay overlay) {
+            return overlay.getTimestampFrom();
+        }
+
+        @Override
+        protected int getTimestampTo(HPlusHealthActivityOverlay overlay) {
+            return overlay.getTimestampTo();
+        }
+
+        @Override
+        protected void apply(HPlusHealthActivitySample sample, HPlusHealthActivityOverlay overlay, int overlayIndex) {
+            if (sample.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                return;
+
+            if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN || overlay.getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP || overlay.getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
+                if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0){
+                    nonSleepTimeEnd[overlayIndex] = sample.getTimestamp() + 10 * 60; // 10 minutes
+                    return;
+                }else if(sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd[overlayIndex]){
+                    return;
+                }
+
+                if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                    sample.setHeartRate(0);
+
+                if (sample.getRawKind() != ActivityKind.TYPE_NOT_WORN)
+                    sample.setRawKind(overlay.getRawKind());
+
+                sample.setRawIntensity(10);
+            }
+        }
+    }
+
     private List<HPlusHealthActivitySample> insertVirtualItem(List<HPlusHealthActivitySample> samples, int timestamp, long deviceId, long userId) {
         HPlusHealthActivitySample sample = new HPlusHealthActivitySample(
                 timestamp,            // ts
@@ -28,6 +28,7 @@ import java.util.Date;
 
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryJsonSummary;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryParser;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiActivityDetailsParser;
@@ -374,6 +375,7 @@ public class HuamiActivitySummaryParser implements ActivitySummaryParser {
         }
 
         summary.setSummaryData(summaryData.toString());
+        ActivitySummaryJsonSummary.setTypedValues(summary, summaryData);
         return summary;
     }
 
@@ -20,6 +20,7 @@ package nodomain.freeyourgadget.gadgetbridge.devices.miband;
 import java.util.List;
 
 import de.greenrobot.dao.query.QueryBuilder;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIterator;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiConst;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
@@ -43,17 +44,46 @@ public class MiBand2SampleProvider extends AbstractMiBandSampleProvider {
         return samples;
     }
 
+    @Override
+    protected SampleIterator<MiBandActivitySample> iterateGBActivitySamples(int timestamp_from, int timestamp_to, int activityType) {
+        QueryBuilder<MiBandActivitySample> qb = createSampleQuery(timestamp_from, timestamp_to, activityType);
+        if (qb == null) {
+            return SampleIterator.empty();
+        }
+        final KindPostprocessor postprocessor = new KindPostprocessor();
+        return new SampleIterator<MiBandActivitySample>(this, getSampleDao(), qb.buildCursor().query()) {
+            @Override
+            protected void process(MiBandActivitySample sample) {
+                postprocessor.process(sample);
+            }
+        };
+    }
+
     /**
      * "Temporary" runtime post processing of activity kinds.
      * @param samples
      */
     private void postprocess(List<MiBandActivitySample> samples) {
-        if (samples.isEmpty()) {
-            return;
+        KindPostprocessor postprocessor = new KindPostprocessor();
+        for (MiBandActivitySample sample : samples) {
+            postprocessor.process(sample);
         }
+    }
+
+    /**
+     * Replaces the "no change" activity kinds with the previous valid kind. Must be
+     * given the samples in order.
+     */
+    private class KindPostprocessor {
+        private boolean first = true;
+        private int lastValidKind;
+
+        void process(MiBandActivitySample sample) {
+            if (first) {
+                lastValidKind = determinePreviousValidActivityType(sample);
+                first = false;
+            }
 
-        int lastValidKind = determinePreviousValidActivityType(samples.get(0));
-        for (MiBandActivitySample sample : samples) {
             int rawKind = sample.getRawKind();
             if (rawKind != TYPE_UNSET) {
                 rawKind &= 0xf;
@@ -32,6 +32,7 @@ import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.AbstractSettingsActivity;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
@@ -63,7 +64,7 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
                 invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        GBApplication.deviceService().onSendConfiguration(ActivityUser.PREF_USER_STEPS_GOAL);
+                        getDeviceService().onSendConfiguration(ActivityUser.PREF_USER_STEPS_GOAL);
                     }
                 });
                 return true;
@@ -115,7 +116,15 @@ public class MiBandPreferencesActivity extends AbstractSettingsActivity {
     private void tryVibration(NotificationType type) {
         NotificationSpec spec = new NotificationSpec();
         spec.type = type;
-        GBApplication.deviceService().onNotification(spec);
+        getDeviceService().onNotification(spec);
+    }
+
+    /**
+     * The goal and the vibration tests are meant for the selected Mi Band only.
+     */
+    @Override
+    protected DeviceService getDeviceService() {
+        return GBApplication.deviceService(GBApplication.app().getDeviceManager().getSelectedDevice());
     }
 
     @Override
@@ -20,13 +20,15 @@ package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
 import java.util.Collections;
 import java.util.List;
 
+import androidx.annotation.NonNull;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityOverlayEngine;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIterator;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
@@ -50,12 +52,19 @@ public class PebbleHealthSampleProvider extends AbstractSampleProvider<PebbleHea
         super(device, session);
     }
 
+    @NonNull
+    @Override
+    public SampleIterator<PebbleHealthActivitySample> iterateAllActivitySamples(int timestamp_from, int timestamp_to) {
+        // the overlays can only be applied to the complete list of samples
+        return new SampleIterator<>(getAllActivitySamples(timestamp_from, timestamp_to));
+    }
+
     @Override
     public List<PebbleHealthActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         List<PebbleHealthActivitySample> samples = super.getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
 
-        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
-        if (dbDevice == null) {
+        Long deviceId = DBHelper.findDeviceId(getDevice(), getSession());
+        if (deviceId == null) {
             // no device, no samples
             return Collections.emptyList();
         }
@@ -63,18 +72,27 @@ public class PebbleHealthSampleProvider extends AbstractSampleProvider<PebbleHea
         QueryBuilder<PebbleHealthActivityOverlay> qb = getSession().getPebbleHealthActivityOverlayDao().queryBuilder();
 
         // I assume it returns the records by id ascending ... (last overlay is dominant)
-        qb.where(PebbleHealthActivityOverlayDao.Properties.DeviceId.eq(dbDevice.getId()), PebbleHealthActivityOverlayDao.Properties.TimestampTo.ge(timestamp_from))
+        qb.where(PebbleHealthActivityOverlayDao.Properties.DeviceId.eq(deviceId), PebbleHealthActivityOverlayDao.Properties.TimestampTo.ge(timestamp_from))
                 .where(PebbleHealthActivityOverlayDao.Properties.TimestampFrom.le(timestamp_to));
         List<PebbleHealthActivityOverlay> overlayRecords = qb.build().list();
 
-        for (PebbleHealthActivityOverlay overlay : overlayRecords) {
-            for (PebbleHealthActivitySample sample : samples) {
-                if (overlay.getTimestampFrom() <= sample.getTimestamp() && sample.getTimestamp() < overlay.getTimestampTo()) {
-                    // patch in the raw kind
-                    sample.setRawKind(overlay.getRawKind());
-                }
+        new ActivityOverlayEngine<PebbleHealthActivitySample, PebbleHealthActivityOverlay>() {
+            @Override
+            protected int getTimestampFrom(PebbleHealthActivityOverlay overlay) {
+                return overlay.getTimestampFrom();
             }
-        }
+
+            @Override
+            protected int getTimestampTo(PebbleHealthActivityOverlay overlay) {
+                return overlay.getTimestampTo();
+            }
+
+            @Override
+            protected void apply(PebbleHealthActivitySample sample, PebbleHealthActivityOverlay overlay, int overlayIndex) {
+                // patch in the raw kind
+                sample.setRawKind(overlay.getRawKind());
+            }
+        }.applyOverlays(samples, overlayRecords);
         detachFromSession();
         return samples;
     }
@@ -22,6 +22,7 @@ import android.preference.Preference;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.AbstractSettingsActivity;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 
 public class ZeTimePreferenceActivity extends AbstractSettingsActivity {
     @Override
@@ -30,13 +31,13 @@ public class ZeTimePreferenceActivity extends AbstractSettingsActivity {
 
         addPreferencesFromResource(R.xml.zetime_preferences);
 
-        GBApplication.deviceService().onReadConfiguration("do_it");
+        getDeviceService().onReadConfiguration("do_it");
 
         final Preference heartrateMeasurementInterval = findPreference(ZeTimeConstants.PREF_ZETIME_HEARTRATE_INTERVAL);
         heartrateMeasurementInterval.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
             @Override
             public boolean onPreferenceChange(Preference preference, Object newVal) {
-                GBApplication.deviceService().onSetHeartRateMeasurementInterval(Integer.parseInt((String) newVal));
+                getDeviceService().onSetHeartRateMeasurementInterval(Integer.parseInt((String) newVal));
                 return true;
             }
         });
@@ -75,6 +76,14 @@ public class ZeTimePreferenceActivity extends AbstractSettingsActivity {
         addPreferenceHandlerFor(ZeTimeConstants.PREF_USER_ACTIVETIME_GOAL);
     }
 
+    /**
+     * Returns the service for the selected device, the ZeTime these settings are read from.
+     */
+    @Override
+    protected DeviceService getDeviceService() {
+        return GBApplication.deviceService(GBApplication.app().getDeviceManager().getSelectedDevice());
+    }
+
     /**
      * delayed execution so that the preferences are applied first
      */
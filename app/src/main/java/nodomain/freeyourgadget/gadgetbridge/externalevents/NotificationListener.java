@@ -454,7 +454,7 @@ public class NotificationListener extends NotificationListenerService {
         List<String> wordsList = new ArrayList<>();
         NotificationFilter notificationFilter;
 
-        try (DBHandler db = GBApplication.acquireDB()) {
+        try (DBHandler db = GBApplication.acquireDBReadOnly()) {
 
             NotificationFilterDao notificationFilterDao = db.getDaoSession().getNotificationFilterDao();
             NotificationFilterEntryDao notificationFilterEntryDao = db.getDaoSession().getNotificationFilterEntryDao();
@@ -53,6 +53,8 @@ import static nodomain.freeyourgadget.gadgetbridge.util.JavaExtensions.coalesce;
 public class GBDeviceService implements DeviceService {
     protected final Context mContext;
     private final Class<? extends Service> mServiceClass;
+    @Nullable
+    private final GBDevice mDevice;
     public static final String[] transliterationExtras = new String[]{
             EXTRA_NOTIFICATION_SENDER,
             EXTRA_NOTIFICATION_SUBJECT,
@@ -68,12 +70,26 @@ public class GBDeviceService implements DeviceService {
     };
 
     public GBDeviceService(Context context) {
+        this(context, null);
+    }
+
+    protected GBDeviceService(Context context, @Nullable GBDevice device) {
         mContext = context;
         mServiceClass = DeviceCommunicationService.class;
+        mDevice = device;
+    }
+
+    @Override
+    public DeviceService forDevice(GBDevice device) {
+        return new GBDeviceService(mContext, device);
     }
 
     protected Intent createIntent() {
-        return new Intent(mContext, mServiceClass);
+        Intent intent = new Intent(mContext, mServiceClass);
+        if (mDevice != null) {
+            intent.putExtra(GBDevice.EXTRA_DEVICE, mDevice);
+        }
+        return intent;
     }
 
     protected void invokeService(Intent intent) {
@@ -112,7 +128,7 @@ public class GBDeviceService implements DeviceService {
     @Override
     public void connect(@Nullable GBDevice device, boolean firstTime) {
         Intent intent = createIntent().setAction(ACTION_CONNECT)
-                .putExtra(GBDevice.EXTRA_DEVICE, device)
+                .putExtra(GBDevice.EXTRA_DEVICE, device != null ? device : mDevice)
                 .putExtra(EXTRA_CONNECT_FIRST_TIME, firstTime);
         invokeService(intent);
     }
@@ -0,0 +1,54 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+/**
+ * Aggregated activity data of a single device for a fixed period of time
+ * (e.g. one hour or one day), starting at {@link #getTimestamp()}.
+ */
+public interface ActivityRollup {
+    int getTimestamp();
+
+    long getDeviceId();
+
+    /**
+     * The total steps, including the ones of the light sleep, deep sleep and not worn samples.
+     */
+    int getSteps();
+
+    int getLightSleepSteps();
+
+    int getDeepSleepSteps();
+
+    int getNotWornSteps();
+
+    int getActiveSeconds();
+
+    int getLightSleepSeconds();
+
+    int getDeepSleepSeconds();
+
+    int getNotWornSeconds();
+
+    int getHeartRateMin();
+
+    int getHeartRateAvg();
+
+    int getHeartRateMax();
+
+    int getHeartRateSamples();
+}
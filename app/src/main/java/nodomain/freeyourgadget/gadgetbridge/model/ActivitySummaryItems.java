@@ -1,44 +1,57 @@
 package nodomain.freeyourgadget.gadgetbridge.model;
 
-import android.content.Context;
+import android.widget.Toast;
 
 import java.util.List;
 
-import nodomain.freeyourgadget.gadgetbridge.adapter.ActivitySummariesAdapter;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivitySummaryDataSource;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
+/**
+ * Navigates through the complete activity summaries matching the filters of the list,
+ * loading one summary at a time.
+ */
 public class ActivitySummaryItems {
-    ActivitySummariesAdapter itemsAdapter;
-    private int current_position = 0;
+    private final ActivitySummaryDataSource dataSource;
+    private BaseActivitySummary currentItem;
 
-    public ActivitySummaryItems(Context context, GBDevice device, int activityKindFilter, long dateFromFilter, long dateToFilter, String nameContainsFilter, long deviceFilter, List itemsFilter) {
-
-        this.itemsAdapter = new ActivitySummariesAdapter(context, device, activityKindFilter, dateFromFilter, dateToFilter, nameContainsFilter, deviceFilter, itemsFilter);
-    }
-
-    public BaseActivitySummary getItem(int position) {
-        if (position == 0) return null;
-        current_position = position;
-        return itemsAdapter.getItem(position);
+    public ActivitySummaryItems(GBDevice device, int activityKindFilter, long dateFromFilter, long dateToFilter, String nameContainsFilter, long deviceFilter, List<Long> itemsFilter) {
+        this.dataSource = new ActivitySummaryDataSource(device, activityKindFilter, dateFromFilter, dateToFilter, nameContainsFilter, deviceFilter, itemsFilter);
     }
 
-    public int getPosition(BaseActivitySummary item) {
-        return itemsAdapter.getPosition(item);
+    public BaseActivitySummary getItem(long id) {
+        try (DBHandler handler = GBApplication.acquireDBReadOnly()) {
+            currentItem = dataSource.loadSummary(handler.getDaoSession(), id);
+        } catch (Exception e) {
+            GB.toast("Error loading activity summary.", Toast.LENGTH_SHORT, GB.ERROR, e);
+        }
+        return currentItem;
     }
 
     public BaseActivitySummary getNextItem() {
-        if (current_position + 1 < itemsAdapter.getCount()) {
-            current_position += 1;
-            return itemsAdapter.getItem(current_position);
-        }
-        return null;
+        return moveTo(true);
     }
 
     public BaseActivitySummary getPrevItem() {
-        if (current_position - 1 >= 1) { //0 is empty item for summary dashboard
-            current_position -= 1;
-            return itemsAdapter.getItem(current_position);
+        return moveTo(false);
+    }
+
+    private BaseActivitySummary moveTo(boolean older) {
+        if (currentItem == null) {
+            return null;
+        }
+        try (DBHandler handler = GBApplication.acquireDBReadOnly()) {
+            BaseActivitySummary item = dataSource.loadNeighbour(handler.getDaoSession(), currentItem, older);
+            if (item != null) {
+                currentItem = item;
+            }
+            return item;
+        } catch (Exception e) {
+            GB.toast("Error loading activity summary.", Toast.LENGTH_SHORT, GB.ERROR, e);
         }
         return null;
     }
@@ -65,6 +65,42 @@ public class ActivitySummaryJsonSummary {
         return summaryData;
     }
 
+    /**
+     * Copies the most used values of the given summary data into the typed columns of the
+     * summary, so that lists and totals can be computed without parsing the JSON. Values
+     * missing from the summary data are set to null. The average speed is computed like
+     * the one shown in the details.
+     */
+    public static void setTypedValues(BaseActivitySummary summary, JSONObject summaryData) {
+        Double distanceMeters = getValue(summaryData, "distanceMeters");
+        Double activeSeconds = getValue(summaryData, "activeSeconds");
+        Double averageSpeed = getValue(summaryData, "averageSpeed");
+        if (distanceMeters != null && activeSeconds != null && activeSeconds > 0) {
+            averageSpeed = distanceMeters / activeSeconds;
+        }
+        Double caloriesBurnt = getValue(summaryData, "caloriesBurnt");
+        Double averageHR = getValue(summaryData, "averageHR");
+        Double maxHR = getValue(summaryData, "maxHR");
+        Double ascentMeters = getValue(summaryData, "ascentMeters");
+
+        summary.setDistanceMeters(distanceMeters != null ? distanceMeters.floatValue() : null);
+        summary.setCaloriesBurnt(caloriesBurnt != null ? caloriesBurnt.floatValue() : null);
+        summary.setActiveSeconds(activeSeconds != null ? activeSeconds.intValue() : null);
+        summary.setAverageHR(averageHR != null ? averageHR.intValue() : null);
+        summary.setMaxHR(maxHR != null ? maxHR.intValue() : null);
+        summary.setAverageSpeed(averageSpeed != null ? averageSpeed.floatValue() : null);
+        summary.setAscentMeters(ascentMeters != null ? ascentMeters.floatValue() : null);
+    }
+
+    private static Double getValue(JSONObject summaryData, String key) {
+        JSONObject innerData = summaryData.optJSONObject(key);
+        if (innerData == null) {
+            return null;
+        }
+        double value = innerData.optDouble("value", Double.NaN);
+        return Double.isNaN(value) ? null : value;
+    }
+
     private String getCorrectSummary(BaseActivitySummary item){
         if (item.getRawSummaryData() != null) {
             ActivitySummaryParser parser = new HuamiActivitySummaryParser(); // FIXME: if something else than huami supports that make sure to have the right parser
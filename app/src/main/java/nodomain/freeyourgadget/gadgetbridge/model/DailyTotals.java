@@ -26,8 +26,8 @@ import java.util.Calendar;
 import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityAmountCache;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
@@ -67,7 +67,7 @@ public class DailyTotals {
 
     public long[] getDailyTotalsForDevice(GBDevice device, Calendar day) {
 
-        try (DBHandler handler = GBApplication.acquireDB()) {
+        try (DBHandler handler = GBApplication.acquireDBReadOnly()) {
             return getDailyTotalsForDevice(device, day, handler);
 
         } catch (Exception e) {
@@ -77,12 +77,11 @@ public class DailyTotals {
     }
 
     public long[] getDailyTotalsForDevice(GBDevice device, Calendar day, DBHandler handler) {
-            ActivityAnalysis analysis = new ActivityAnalysis();
             ActivityAmounts amountsSteps;
             ActivityAmounts amountsSleep;
 
-            amountsSteps = analysis.calculateActivityAmounts(getSamplesOfDay(handler, day, 0, device));
-            amountsSleep = analysis.calculateActivityAmounts(getSamplesOfDay(handler, day, -12, device));
+            amountsSteps = getActivityAmountsOfDay(handler, day, 0, device);
+            amountsSleep = getActivityAmountsOfDay(handler, day, -12, device);
 
             long[] sleep = getTotalsSleepForActivityAmounts(amountsSleep);
             long steps = getTotalsStepsForActivityAmounts(amountsSteps);
@@ -116,23 +115,10 @@ public class DailyTotals {
     }
 
 
-    private List<? extends ActivitySample> getSamplesOfDay(DBHandler db, Calendar day, int offsetHours, GBDevice device) {
-        int startTs;
-        int endTs;
-
-        day = (Calendar) day.clone(); // do not modify the caller's argument
-        day.set(Calendar.HOUR_OF_DAY, 0);
-        day.set(Calendar.MINUTE, 0);
-        day.set(Calendar.SECOND, 0);
-        day.add(Calendar.HOUR, offsetHours);
-
-        startTs = (int) (day.getTimeInMillis() / 1000);
-        endTs = startTs + 24 * 60 * 60 - 1;
-
-        return getSamples(db, device, startTs, endTs);
+    private ActivityAmounts getActivityAmountsOfDay(DBHandler db, Calendar day, int offsetHours, GBDevice device) {
+        return ActivityAmountCache.getActivityAmountsOfDay(db, device, day, offsetHours);
     }
 
-
     public List<? extends ActivitySample> getSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
         return getAllSamples(db, device, tsFrom, tsTo);
     }
@@ -144,6 +144,14 @@ public interface DeviceService extends EventHandler {
     String EXTRA_CALENDAREVENT_DESCRIPTION = "calendarevent_description";
     String EXTRA_CALENDAREVENT_LOCATION = "calendarevent_location";
 
+    /**
+     * Returns a facade that sends all requests to the given device only. Requests sent
+     * through the facade returned by
+     * {@link nodomain.freeyourgadget.gadgetbridge.GBApplication#deviceService()} go to all
+     * connected devices.
+     */
+    DeviceService forDevice(GBDevice device);
+
     void start();
 
     void connect();
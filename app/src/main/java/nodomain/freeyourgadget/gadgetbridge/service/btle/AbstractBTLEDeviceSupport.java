@@ -28,6 +28,7 @@ import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -62,6 +63,7 @@ public abstract class AbstractBTLEDeviceSupport extends AbstractDeviceSupport im
     private Logger logger;
 
     private final List<AbstractBleProfile<?>> mSupportedProfiles = new ArrayList<>();
+    private final CharacteristicDispatcher mCharacteristicDispatcher = new CharacteristicDispatcher();
     public static final String BASE_UUID = "0000%s-0000-1000-8000-00805f9b34fb"; //this is common for all BTLE devices. see http://stackoverflow.com/questions/18699251/finding-out-android-bluetooth-le-gatt-profiles
     private final Object characteristicsMonitor = new Object();
 
@@ -203,6 +205,29 @@ public abstract class AbstractBTLEDeviceSupport extends AbstractDeviceSupport im
 
     protected void addSupportedProfile(AbstractBleProfile<?> profile) {
         mSupportedProfiles.add(profile);
+        Collection<UUID> characteristics = profile.getHandledCharacteristics();
+        if (characteristics == null) {
+            mCharacteristicDispatcher.addFallback(profile);
+        } else {
+            for (UUID characteristic : characteristics) {
+                mCharacteristicDispatcher.add(characteristic, profile);
+            }
+        }
+    }
+
+    /**
+     * Subclasses should call this method from their constructor to add a handler for reads
+     * and notifications of the given characteristic. The default implementations of
+     * {@link #onCharacteristicRead(BluetoothGatt, BluetoothGattCharacteristic, int)} and
+     * {@link #onCharacteristicChanged(BluetoothGatt, BluetoothGattCharacteristic)} look up
+     * the handlers with a single map lookup, instead of comparing the UUID with every
+     * characteristic the device knows about.
+     *
+     * @param characteristic the UUID of the characteristic
+     * @param handler the handler, usually an {@link AbstractGattCallback}
+     */
+    protected void addCharacteristicHandler(UUID characteristic, GattCallback handler) {
+        mCharacteristicDispatcher.add(characteristic, handler);
     }
 
     /**
@@ -297,12 +322,7 @@ public abstract class AbstractBTLEDeviceSupport extends AbstractDeviceSupport im
     @Override
     public boolean onCharacteristicRead(BluetoothGatt gatt,
                                         BluetoothGattCharacteristic characteristic, int status) {
-        for (AbstractBleProfile profile : mSupportedProfiles) {
-            if (profile.onCharacteristicRead(gatt, characteristic, status)) {
-                return true;
-            }
-        }
-        return false;
+        return mCharacteristicDispatcher.onCharacteristicRead(gatt, characteristic, status);
     }
 
     @Override
@@ -339,12 +359,7 @@ public abstract class AbstractBTLEDeviceSupport extends AbstractDeviceSupport im
     @Override
     public boolean onCharacteristicChanged(BluetoothGatt gatt,
                                            BluetoothGattCharacteristic characteristic) {
-        for (AbstractBleProfile profile : mSupportedProfiles) {
-            if (profile.onCharacteristicChanged(gatt, characteristic)) {
-                return true;
-            }
-        }
-        return false;
+        return mCharacteristicDispatcher.onCharacteristicChanged(gatt, characteristic);
     }
 
     @Override
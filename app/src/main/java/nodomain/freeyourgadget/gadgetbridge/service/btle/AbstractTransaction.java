@@ -24,6 +24,8 @@ import java.util.Locale;
 public abstract class AbstractTransaction {
     private final String mName;
     private final long creationTimestamp = System.currentTimeMillis();
+    /** When the transaction was added to the {@link BtLEQueue}, for the queue statistics */
+    long enqueuedNanos;
 
     public AbstractTransaction(String taskName) {
         this.mName = taskName;
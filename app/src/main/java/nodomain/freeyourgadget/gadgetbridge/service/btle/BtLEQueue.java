@@ -51,6 +51,7 @@ import nodomain.freeyourgadget.gadgetbridge.Logging;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice.State;
 import nodomain.freeyourgadget.gadgetbridge.service.DeviceSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.BulkWriteAction;
 
 /**
  * One queue/thread per connectable device.
@@ -76,6 +77,9 @@ public final class BtLEQueue {
     private CountDownLatch mWaitForServerActionResultLatch;
     private CountDownLatch mConnectionLatch;
     private BluetoothGattCharacteristic mWaitCharacteristic;
+    private volatile BulkWriteAction mBulkWriteAction;
+    private final BtLEQueueStatistics mStatistics;
+    private final GattCallbackExecutor mCallbackExecutor;
     private final InternalGattCallback internalGattCallback;
     private final InternalGattServerCallback internalGattServerCallback;
     private boolean mAutoReconnect;
@@ -89,6 +93,7 @@ public final class BtLEQueue {
             while (!mDisposed && !mCrashed) {
                 try {
                     AbstractTransaction qTransaction = mTransactions.take();
+                    mStatistics.recordTransactionWait(System.nanoTime() - qTransaction.enqueuedNanos);
 
                     if (!isConnected()) {
                         LOG.debug("not connected, waiting for connection...");
@@ -150,20 +155,34 @@ public final class BtLEQueue {
                             if (LOG.isDebugEnabled()) {
                                 LOG.debug("About to run action: " + action);
                             }
+                            if (action instanceof BulkWriteAction) {
+                                // the action waits for its writes itself, see onCharacteristicWrite()
+                                mBulkWriteAction = (BulkWriteAction) action;
+                            }
                             if (action instanceof GattListenerAction) {
                                 // this special action overwrites the transaction gatt listener (if any), it must
                                 // always be the last action in the transaction
                                 internalGattCallback.setTransactionGattCallback(((GattListenerAction) action).getGattCallback());
                             }
-                            if (action.run(mBluetoothGatt)) {
+                            BtLEQueueStatistics.ActionType actionType = BtLEQueueStatistics.getActionType(action);
+                            if (actionType == BtLEQueueStatistics.ActionType.MTU) {
+                                mStatistics.recordMtuRequested();
+                            }
+                            long actionStartNanos = System.nanoTime();
+                            boolean success = action.run(mBluetoothGatt);
+                            mBulkWriteAction = null;
+                            if (success) {
                                 // check again, maybe due to some condition, action did not need to write, so we can't wait
                                 boolean waitForResult = action.expectsResult();
                                 if (waitForResult) {
                                     mWaitForActionResultLatch.await();
                                     mWaitForActionResultLatch = null;
-                                    if (mAbortTransaction) {
-                                        break;
-                                    }
+                                }
+                                if (actionType != BtLEQueueStatistics.ActionType.MTU) {
+                                    mStatistics.recordAction(actionType, System.nanoTime() - actionStartNanos);
+                                }
+                                if (waitForResult && mAbortTransaction) {
+                                    break;
                                 }
                             } else {
                                 LOG.error("Action returned false: " + action);
@@ -181,6 +200,7 @@ public final class BtLEQueue {
                 } finally {
                     mWaitForActionResultLatch = null;
                     mWaitCharacteristic = null;
+                    mBulkWriteAction = null;
                 }
             }
             LOG.info("Queue Dispatch Thread terminated.");
@@ -190,6 +210,8 @@ public final class BtLEQueue {
     public BtLEQueue(BluetoothAdapter bluetoothAdapter, GBDevice gbDevice, GattCallback externalGattCallback, GattServerCallback externalGattServerCallback, Context context, Set<BluetoothGattService> supportedServerServices) {
         mBluetoothAdapter = bluetoothAdapter;
         mGbDevice = gbDevice;
+        mStatistics = BtLEQueueStatistics.get(gbDevice.getAddress());
+        mCallbackExecutor = new GattCallbackExecutor("Gadgetbridge GATT Callbacks " + gbDevice.getAddress(), mStatistics);
         internalGattCallback = new InternalGattCallback(externalGattCallback);
         internalGattServerCallback = new InternalGattServerCallback(externalGattServerCallback);
         mContext = context;
@@ -293,6 +315,7 @@ public final class BtLEQueue {
         mTransactions.clear();
         mAbortTransaction = true;
         mAbortServerTransaction = true;
+        abortBulkWrite();
         if (mWaitForActionResultLatch != null) {
             mWaitForActionResultLatch.countDown();
         }
@@ -341,6 +364,7 @@ public final class BtLEQueue {
         disconnect();
         dispatchThread.interrupt();
         dispatchThread = null;
+        mCallbackExecutor.shutdown();
 //            dispatchThread.join();
 //        } catch (InterruptedException ex) {
 //            LOG.error("Exception while disposing BtLEQueue", ex);
@@ -355,7 +379,9 @@ public final class BtLEQueue {
     public void add(Transaction transaction) {
         LOG.debug("about to add: " + transaction);
         if (!transaction.isEmpty()) {
+            transaction.enqueuedNanos = System.nanoTime();
             mTransactions.add(transaction);
+            mStatistics.recordEnqueued(mTransactions.size());
         }
     }
 
@@ -364,11 +390,19 @@ public final class BtLEQueue {
      */
     public void abortCurrentTransaction() {
         mAbortTransaction = true;
+        abortBulkWrite();
         if (mWaitForActionResultLatch != null) {
             mWaitForActionResultLatch.countDown();
         }
     }
 
+    private void abortBulkWrite() {
+        BulkWriteAction bulkWriteAction = mBulkWriteAction;
+        if (bulkWriteAction != null) {
+            bulkWriteAction.abort();
+        }
+    }
+
     /**
      * Adds a serverTransaction to the end of the queue
      *
@@ -377,7 +411,9 @@ public final class BtLEQueue {
     public void add(ServerTransaction transaction) {
         LOG.debug("about to add: " + transaction);
         if(!transaction.isEmpty()) {
+            transaction.enqueuedNanos = System.nanoTime();
             mTransactions.add(transaction);
+            mStatistics.recordEnqueued(mTransactions.size());
         }
     }
 
@@ -395,8 +431,10 @@ public final class BtLEQueue {
             //mTransactions.drainTo(tail);
             tail.addAll(mTransactions);
             mTransactions.clear();
+            transaction.enqueuedNanos = System.nanoTime();
             mTransactions.add(transaction);
             mTransactions.addAll(tail);
+            mStatistics.recordEnqueued(mTransactions.size());
         }
     }
 
@@ -418,6 +456,14 @@ public final class BtLEQueue {
         return mBluetoothGatt.getServices();
     }
 
+    /**
+     * Returns the callback that receives the events of the Bluetooth stack, so that tests
+     * can simulate a device.
+     */
+    BluetoothGattCallback getGattCallback() {
+        return internalGattCallback;
+    }
+
     private boolean checkCorrectGattInstance(BluetoothGatt gatt, String where) {
         if (gatt != mBluetoothGatt && mBluetoothGatt != null) {
             LOG.info("Ignoring event from wrong BluetoothGatt instance: " + where + "; " + gatt);
@@ -436,6 +482,15 @@ public final class BtLEQueue {
         return true;
     }
 
+    /**
+     * The action the dispatch thread waits for when a GATT event arrives. It is taken on
+     * arrival, because the event is only handled later on the callback executor.
+     */
+    private final class WaitingAction {
+        private final BluetoothGattCharacteristic characteristic = mWaitCharacteristic;
+        private final CountDownLatch latch = mWaitForActionResultLatch;
+    }
+
     // Implements callback methods for GATT events that the app cares about.  For example,
     // connection change and services discovered.
     private final class InternalGattCallback extends BluetoothGattCallback {
@@ -530,83 +585,142 @@ public final class BtLEQueue {
         }
 
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+        public void onCharacteristicWrite(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
             LOG.debug("characteristic write: " + characteristic.getUuid() + getStatusString(status));
             if (!checkCorrectGattInstance(gatt, "characteristic write")) {
                 return;
             }
-            if (getCallbackToUse() != null) {
-                getCallbackToUse().onCharacteristicWrite(gatt, characteristic, status);
-            }
-            checkWaitingCharacteristic(characteristic, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mStatistics.addBytesOut(characteristic.getValue());
+            }
+            // the next write only starts after this one was handled, so the value is still the same
+            final GattCallback callback = getCallbackToUse();
+            final BulkWriteAction bulkWriteAction = mBulkWriteAction;
+            final WaitingAction waitingAction = new WaitingAction();
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (callback != null) {
+                        try {
+                            callback.onCharacteristicWrite(gatt, characteristic, status);
+                        } catch (Throwable ex) {
+                            LOG.error("onCharacteristicWrite: " + ex.getMessage(), ex);
+                        }
+                    }
+                    if (bulkWriteAction != null && characteristic.getUuid().equals(bulkWriteAction.getCharacteristic().getUuid())) {
+                        bulkWriteAction.onCharacteristicWrite(status);
+                        return;
+                    }
+                    checkWaitingCharacteristic(characteristic, status, waitingAction);
+                }
+            });
         }
 
 
 
         @Override
-        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        public void onMtuChanged(final BluetoothGatt gatt, final int mtu, final int status) {
             super.onMtuChanged(gatt, mtu, status);
-
-            if(getCallbackToUse() != null){
-                getCallbackToUse().onMtuChanged(gatt, mtu, status);
+            mStatistics.recordMtuChanged();
+
+            final GattCallback callback = getCallbackToUse();
+            if (callback != null) {
+                mCallbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            callback.onMtuChanged(gatt, mtu, status);
+                        } catch (Throwable ex) {
+                            LOG.error("onMtuChanged: " + ex.getMessage(), ex);
+                        }
+                    }
+                });
             }
         }
 
 
 
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt,
+        public void onCharacteristicRead(final BluetoothGatt gatt,
                                          BluetoothGattCharacteristic characteristic,
-                                         int status) {
+                                         final int status) {
             LOG.debug("characteristic read: " + characteristic.getUuid() + getStatusString(status));
             if (!checkCorrectGattInstance(gatt, "characteristic read")) {
                 return;
             }
-            if (getCallbackToUse() != null) {
-                try {
-                    getCallbackToUse().onCharacteristicRead(gatt, characteristic, status);
-                } catch (Throwable ex) {
-                    LOG.error("onCharacteristicRead: " + ex.getMessage(), ex);
+            byte[] value = characteristic.getValue();
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mStatistics.addBytesIn(value);
+            }
+            // a notification of the same characteristic may change the value before the read is handled
+            final BluetoothGattCharacteristic snapshot = new CharacteristicSnapshot(characteristic, value != null ? value.clone() : null);
+            final GattCallback callback = getCallbackToUse();
+            final WaitingAction waitingAction = new WaitingAction();
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (callback != null) {
+                        try {
+                            callback.onCharacteristicRead(gatt, snapshot, status);
+                        } catch (Throwable ex) {
+                            LOG.error("onCharacteristicRead: " + ex.getMessage(), ex);
+                        }
+                    }
+                    checkWaitingCharacteristic(snapshot, status, waitingAction);
                 }
-            }
-            checkWaitingCharacteristic(characteristic, status);
+            });
         }
 
         @Override
-        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        public void onDescriptorRead(final BluetoothGatt gatt, final BluetoothGattDescriptor descriptor, final int status) {
             LOG.debug("descriptor read: " + descriptor.getUuid() + getStatusString(status));
             if (!checkCorrectGattInstance(gatt, "descriptor read")) {
                 return;
             }
-            if (getCallbackToUse() != null) {
-                try {
-                    getCallbackToUse().onDescriptorRead(gatt, descriptor, status);
-                } catch (Throwable ex) {
-                    LOG.error("onDescriptorRead: " + ex.getMessage(), ex);
+            final GattCallback callback = getCallbackToUse();
+            final WaitingAction waitingAction = new WaitingAction();
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (callback != null) {
+                        try {
+                            callback.onDescriptorRead(gatt, descriptor, status);
+                        } catch (Throwable ex) {
+                            LOG.error("onDescriptorRead: " + ex.getMessage(), ex);
+                        }
+                    }
+                    checkWaitingCharacteristic(descriptor.getCharacteristic(), status, waitingAction);
                 }
-            }
-            checkWaitingCharacteristic(descriptor.getCharacteristic(), status);
+            });
         }
 
         @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        public void onDescriptorWrite(final BluetoothGatt gatt, final BluetoothGattDescriptor descriptor, final int status) {
             LOG.debug("descriptor write: " + descriptor.getUuid() + getStatusString(status));
             if (!checkCorrectGattInstance(gatt, "descriptor write")) {
                 return;
             }
-            if (getCallbackToUse() != null) {
-                try {
-                    getCallbackToUse().onDescriptorWrite(gatt, descriptor, status);
-                } catch (Throwable ex) {
-                    LOG.error("onDescriptorWrite: " + ex.getMessage(), ex);
+            final GattCallback callback = getCallbackToUse();
+            final WaitingAction waitingAction = new WaitingAction();
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (callback != null) {
+                        try {
+                            callback.onDescriptorWrite(gatt, descriptor, status);
+                        } catch (Throwable ex) {
+                            LOG.error("onDescriptorWrite: " + ex.getMessage(), ex);
+                        }
+                    }
+                    checkWaitingCharacteristic(descriptor.getCharacteristic(), status, waitingAction);
                 }
-            }
-            checkWaitingCharacteristic(descriptor.getCharacteristic(), status);
+            });
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,
                                             BluetoothGattCharacteristic characteristic) {
+            long arrivalNanos = System.nanoTime();
             if (LOG.isDebugEnabled()) {
                 String content = Logging.formatBytes(characteristic.getValue());
                 LOG.debug("characteristic changed: " + characteristic.getUuid() + " value: " + content);
@@ -614,45 +728,50 @@ public final class BtLEQueue {
             if (!checkCorrectGattInstance(gatt, "characteristic changed")) {
                 return;
             }
-            if (getCallbackToUse() != null) {
-                try {
-                    getCallbackToUse().onCharacteristicChanged(gatt, characteristic);
-                } catch (Throwable ex) {
-                    LOG.error("onCharaceristicChanged: " + ex.getMessage(), ex);
-                }
+            mStatistics.addBytesIn(characteristic.getValue());
+            GattCallback callback = getCallbackToUse();
+            if (callback != null) {
+                // only copy the value here, the handlers run on the callback executor
+                mCallbackExecutor.onCharacteristicChanged(callback, gatt, characteristic, arrivalNanos);
             } else {
                 LOG.info("No gattcallback registered, ignoring characteristic change");
             }
         }
 
         @Override
-        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+        public void onReadRemoteRssi(final BluetoothGatt gatt, final int rssi, final int status) {
             LOG.debug("remote rssi: " + rssi + getStatusString(status));
             if (!checkCorrectGattInstance(gatt, "remote rssi")) {
                 return;
             }
-            if (getCallbackToUse() != null) {
-                try {
-                    getCallbackToUse().onReadRemoteRssi(gatt, rssi, status);
-                } catch (Throwable ex) {
-                    LOG.error("onReadRemoteRssi: " + ex.getMessage(), ex);
-                }
+            final GattCallback callback = getCallbackToUse();
+            if (callback != null) {
+                mCallbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            callback.onReadRemoteRssi(gatt, rssi, status);
+                        } catch (Throwable ex) {
+                            LOG.error("onReadRemoteRssi: " + ex.getMessage(), ex);
+                        }
+                    }
+                });
             }
         }
 
-        private void checkWaitingCharacteristic(BluetoothGattCharacteristic characteristic, int status) {
+        private void checkWaitingCharacteristic(BluetoothGattCharacteristic characteristic, int status, WaitingAction waitingAction) {
             if (status != BluetoothGatt.GATT_SUCCESS) {
                 if (characteristic != null) {
                     LOG.debug("failed btle action, aborting transaction: " + characteristic.getUuid() + getStatusString(status));
                 }
                 mAbortTransaction = true;
             }
-            if (characteristic != null && BtLEQueue.this.mWaitCharacteristic != null && characteristic.getUuid().equals(BtLEQueue.this.mWaitCharacteristic.getUuid())) {
-                if (mWaitForActionResultLatch != null) {
-                    mWaitForActionResultLatch.countDown();
+            if (characteristic != null && waitingAction.characteristic != null && characteristic.getUuid().equals(waitingAction.characteristic.getUuid())) {
+                if (waitingAction.latch != null) {
+                    waitingAction.latch.countDown();
                 }
             } else {
-                if (BtLEQueue.this.mWaitCharacteristic != null) {
+                if (waitingAction.characteristic != null) {
                     LOG.error("checkWaitingCharacteristic: mismatched characteristic received: " + ((characteristic != null && characteristic.getUuid() != null) ? characteristic.getUuid().toString() : "(null)"));
                 }
             }
@@ -0,0 +1,256 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.BulkWriteAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.NotifyAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.ReadAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.RequestMtuAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.WaitAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.WriteAction;
+
+/**
+ * Latency and throughput statistics of the {@link BtLEQueue} of one device: how long the
+ * actions of each type take until the device answered, how long transactions wait in the
+ * queue, how long the device support needs to handle notifications and how often they
+ * arrive, and how many bytes went over the air. The statistics are kept per device
+ * address for the lifetime of the process, so that they survive reconnections, and can
+ * be looked at and exported in the debug activity.
+ */
+public class BtLEQueueStatistics {
+    public enum ActionType {
+        WRITE, BULK_WRITE, READ, NOTIFY, MTU, WAIT, OTHER
+    }
+
+    private static final ConcurrentMap<String, BtLEQueueStatistics> STATISTICS = new ConcurrentHashMap<>();
+
+    private final String address;
+    private volatile long startMillis = System.currentTimeMillis();
+    private final LatencyHistogram[] actionLatencies = new LatencyHistogram[ActionType.values().length];
+    private final LatencyHistogram transactionWaits = new LatencyHistogram();
+    private final LatencyHistogram notificationHandling = new LatencyHistogram();
+    private final LatencyHistogram callbackDelays = new LatencyHistogram();
+    private final ConcurrentMap<UUID, Notifications> notifications = new ConcurrentHashMap<>();
+    private final AtomicInteger queueDepthMax = new AtomicInteger();
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private volatile long mtuRequestNanos;
+
+    private static class Notifications {
+        private final LatencyHistogram interArrivalTimes = new LatencyHistogram();
+        private final AtomicLong lastNanos = new AtomicLong();
+    }
+
+    BtLEQueueStatistics(String address) {
+        this.address = address;
+        for (int i = 0; i < actionLatencies.length; i++) {
+            actionLatencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Returns the statistics of the device with the given address, creating them if
+     * necessary.
+     */
+    public static BtLEQueueStatistics get(String address) {
+        BtLEQueueStatistics statistics = STATISTICS.get(address);
+        if (statistics == null) {
+            BtLEQueueStatistics created = new BtLEQueueStatistics(address);
+            statistics = STATISTICS.putIfAbsent(address, created);
+            if (statistics == null) {
+                statistics = created;
+            }
+        }
+        return statistics;
+    }
+
+    public static List<BtLEQueueStatistics> getAll() {
+        List<BtLEQueueStatistics> all = new ArrayList<>(STATISTICS.values());
+        Collections.sort(all, new Comparator<BtLEQueueStatistics>() {
+            @Override
+            public int compare(BtLEQueueStatistics lhs, BtLEQueueStatistics rhs) {
+                return lhs.address.compareTo(rhs.address);
+            }
+        });
+        return all;
+    }
+
+    public static void resetAll() {
+        for (BtLEQueueStatistics statistics : STATISTICS.values()) {
+            statistics.reset();
+        }
+    }
+
+    public static ActionType getActionType(BtLEAction action) {
+        if (action instanceof BulkWriteAction) {
+            return ActionType.BULK_WRITE;
+        } else if (action instanceof WriteAction) {
+            return ActionType.WRITE;
+        } else if (action instanceof ReadAction) {
+            return ActionType.READ;
+        } else if (action instanceof NotifyAction) {
+            return ActionType.NOTIFY;
+        } else if (action instanceof RequestMtuAction) {
+            return ActionType.MTU;
+        } else if (action instanceof WaitAction) {
+            return ActionType.WAIT;
+        }
+        return ActionType.OTHER;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    void recordEnqueued(int queueDepth) {
+        transactions.incrementAndGet();
+        int current;
+        do {
+            current = queueDepthMax.get();
+            if (queueDepth <= current) {
+                return;
+            }
+        } while (!queueDepthMax.compareAndSet(current, queueDepth));
+    }
+
+    void recordTransactionWait(long nanos) {
+        transactionWaits.record(nanos);
+    }
+
+    void recordAction(ActionType type, long nanos) {
+        actionLatencies[type.ordinal()].record(nanos);
+    }
+
+    /**
+     * The MTU request completes asynchronously with onMtuChanged(), so its latency is
+     * measured between the two instead of by the dispatch thread.
+     */
+    void recordMtuRequested() {
+        mtuRequestNanos = System.nanoTime();
+    }
+
+    void recordMtuChanged() {
+        long requested = mtuRequestNanos;
+        if (requested != 0) {
+            mtuRequestNanos = 0;
+            recordAction(ActionType.MTU, System.nanoTime() - requested);
+        }
+    }
+
+    void recordNotification(UUID characteristic, long arrivalNanos, long handlingNanos) {
+        Notifications perCharacteristic = notifications.get(characteristic);
+        if (perCharacteristic == null) {
+            Notifications created = new Notifications();
+            perCharacteristic = notifications.putIfAbsent(characteristic, created);
+            if (perCharacteristic == null) {
+                perCharacteristic = created;
+            }
+        }
+        long last = perCharacteristic.lastNanos.getAndSet(arrivalNanos);
+        if (last != 0) {
+            perCharacteristic.interArrivalTimes.record(arrivalNanos - last);
+        }
+        notificationHandling.record(handlingNanos);
+    }
+
+    /**
+     * Records how long a GATT event waited for the events before it to be handled,
+     * see {@link GattCallbackExecutor}.
+     */
+    void recordCallbackDelay(long nanos) {
+        callbackDelays.record(nanos);
+    }
+
+    void addBytesIn(byte[] value) {
+        if (value != null) {
+            bytesIn.addAndGet(value.length);
+        }
+    }
+
+    void addBytesOut(byte[] value) {
+        if (value != null) {
+            bytesOut.addAndGet(value.length);
+        }
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public LatencyHistogram getActionLatency(ActionType type) {
+        return actionLatencies[type.ordinal()];
+    }
+
+    /**
+     * Resets all counters. The instance stays registered, because the queue of a
+     * connected device keeps using it.
+     */
+    public void reset() {
+        startMillis = System.currentTimeMillis();
+        for (LatencyHistogram latency : actionLatencies) {
+            latency.reset();
+        }
+        transactionWaits.reset();
+        notificationHandling.reset();
+        callbackDelays.reset();
+        notifications.clear();
+        queueDepthMax.set(0);
+        transactions.set(0);
+        bytesIn.set(0);
+        bytesOut.set(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, "Device %s, since %tF %<tT\n", address, startMillis));
+        builder.append(String.format(Locale.ROOT, "Bytes in/out: %d/%d\n", getBytesIn(), getBytesOut()));
+        builder.append(String.format(Locale.ROOT, "Transactions: %d, max queue depth %d\n", transactions.get(), queueDepthMax.get()));
+        builder.append("Queue wait: ").append(transactionWaits).append('\n');
+        for (ActionType type : ActionType.values()) {
+            LatencyHistogram latency = getActionLatency(type);
+            if (latency.getCount() > 0) {
+                builder.append(type).append(": ").append(latency).append('\n');
+            }
+        }
+        builder.append("Notification handling: ").append(notificationHandling).append('\n');
+        builder.append("Callback delay: ").append(callbackDelays).append('\n');
+        for (Map.Entry<UUID, Notifications> entry : notifications.entrySet()) {
+            builder.append("Notifications ").append(entry.getKey()).append(": ")
+                    .append(entry.getValue().interArrivalTimes.getCount() + 1).append(" received, inter-arrival ")
+                    .append(entry.getValue().interArrivalTimes).append('\n');
+        }
+        return builder.toString();
+    }
+}
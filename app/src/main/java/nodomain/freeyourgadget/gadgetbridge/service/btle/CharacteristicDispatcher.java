@@ -0,0 +1,97 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Dispatches characteristic reads and notifications to the handlers registered for the
+ * characteristic's UUID with a single map lookup, instead of asking every handler in turn
+ * whether it is responsible. Handlers that did not tell which characteristics they handle
+ * are added as fallback and get to see all events that no registered handler consumed,
+ * in the order they were added.
+ * <p/>
+ * Handlers are expected to be added during construction of the device support, before
+ * the first event arrives; the dispatcher is not safe for concurrent modification.
+ */
+public class CharacteristicDispatcher {
+    private final Map<UUID, List<GattCallback>> handlers = new HashMap<>();
+    private final List<GattCallback> fallbackHandlers = new ArrayList<>();
+
+    /**
+     * Adds a handler for reads and notifications of the given characteristic.
+     * Several handlers may be added for the same characteristic, they are asked
+     * in the order they were added until one of them returns true.
+     */
+    public void add(UUID characteristic, GattCallback handler) {
+        List<GattCallback> characteristicHandlers = handlers.get(characteristic);
+        if (characteristicHandlers == null) {
+            characteristicHandlers = new ArrayList<>(1);
+            handlers.put(characteristic, characteristicHandlers);
+        }
+        characteristicHandlers.add(handler);
+    }
+
+    /**
+     * Adds a handler that is asked for all characteristics that no handler
+     * added with {@link #add(UUID, GattCallback)} has handled.
+     */
+    public void addFallback(GattCallback handler) {
+        fallbackHandlers.add(handler);
+    }
+
+    public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+        List<GattCallback> characteristicHandlers = handlers.get(characteristic.getUuid());
+        if (characteristicHandlers != null) {
+            for (int i = 0; i < characteristicHandlers.size(); i++) {
+                if (characteristicHandlers.get(i).onCharacteristicRead(gatt, characteristic, status)) {
+                    return true;
+                }
+            }
+        }
+        for (int i = 0; i < fallbackHandlers.size(); i++) {
+            if (fallbackHandlers.get(i).onCharacteristicRead(gatt, characteristic, status)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        List<GattCallback> characteristicHandlers = handlers.get(characteristic.getUuid());
+        if (characteristicHandlers != null) {
+            for (int i = 0; i < characteristicHandlers.size(); i++) {
+                if (characteristicHandlers.get(i).onCharacteristicChanged(gatt, characteristic)) {
+                    return true;
+                }
+            }
+        }
+        for (int i = 0; i < fallbackHandlers.size(); i++) {
+            if (fallbackHandlers.get(i).onCharacteristicChanged(gatt, characteristic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,61 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A copy of a characteristic with the value it had when an event arrived. The Bluetooth
+ * stack sets the value of the original characteristic for every following event, so
+ * handlers running later on the {@link GattCallbackExecutor} get this copy instead.
+ * Service, instance id and descriptors are the ones of the original characteristic.
+ */
+final class CharacteristicSnapshot extends BluetoothGattCharacteristic {
+    private final BluetoothGattCharacteristic original;
+
+    CharacteristicSnapshot(BluetoothGattCharacteristic original, byte[] value) {
+        super(original.getUuid(), original.getProperties(), original.getPermissions());
+        this.original = original;
+        setWriteType(original.getWriteType());
+        setValue(value);
+    }
+
+    @Override
+    public BluetoothGattService getService() {
+        return original.getService();
+    }
+
+    @Override
+    public int getInstanceId() {
+        return original.getInstanceId();
+    }
+
+    @Override
+    public BluetoothGattDescriptor getDescriptor(UUID uuid) {
+        return original.getDescriptor(uuid);
+    }
+
+    @Override
+    public List<BluetoothGattDescriptor> getDescriptors() {
+        return original.getDescriptors();
+    }
+}
@@ -0,0 +1,115 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Calls the {@link GattCallback} of one device on a thread of its own, so that slow
+ * handlers, like parsing fetched data, logging hex dumps or database access, do not block
+ * the binder thread that delivers the events of the Bluetooth stack. Events are handled one
+ * after the other in the order they arrived, so the handlers see the same sequence of events
+ * as before, and the return values within a chain of callbacks keep their meaning.
+ * <p/>
+ * Notifications are the most frequent events: their values are copied once on arrival,
+ * and handlers get a {@link CharacteristicSnapshot} with that copy, which they may keep.
+ */
+final class GattCallbackExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(GattCallbackExecutor.class);
+
+    private final ExecutorService executor;
+    private final BtLEQueueStatistics statistics;
+
+    GattCallbackExecutor(final String threadName, BtLEQueueStatistics statistics) {
+        this.statistics = statistics;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Runs the given task after all events that arrived before.
+     */
+    void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("Ignoring GATT event after shutdown");
+        }
+    }
+
+    /**
+     * Copies the current value of the characteristic and calls
+     * {@link GattCallback#onCharacteristicChanged(BluetoothGatt, BluetoothGattCharacteristic)}
+     * with it after all events that arrived before.
+     */
+    void onCharacteristicChanged(GattCallback callback, BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, long arrivalNanos) {
+        byte[] value = characteristic.getValue();
+        execute(new Notification(callback, gatt, characteristic, value != null ? value.clone() : null, arrivalNanos));
+    }
+
+    /**
+     * Handles the events that already arrived, but no new ones.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private final class Notification implements Runnable {
+        private final GattCallback callback;
+        private final BluetoothGatt gatt;
+        private final BluetoothGattCharacteristic characteristic;
+        private final byte[] value;
+        private final long arrivalNanos;
+
+        Notification(GattCallback callback, BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value, long arrivalNanos) {
+            this.callback = callback;
+            this.gatt = gatt;
+            this.characteristic = characteristic;
+            this.value = value;
+            this.arrivalNanos = arrivalNanos;
+        }
+
+        @Override
+        public void run() {
+            long startNanos = System.nanoTime();
+            UUID uuid = characteristic.getUuid();
+            try {
+                callback.onCharacteristicChanged(gatt, new CharacteristicSnapshot(characteristic, value));
+            } catch (Throwable ex) {
+                LOG.error("onCharaceristicChanged: " + ex.getMessage(), ex);
+            }
+            statistics.recordCallbackDelay(startNanos - arrivalNanos);
+            statistics.recordNotification(uuid, arrivalNanos, System.nanoTime() - startNanos);
+        }
+    }
+}
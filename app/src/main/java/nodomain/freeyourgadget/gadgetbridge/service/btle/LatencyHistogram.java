@@ -0,0 +1,123 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations with power-of-two microsecond buckets. Recording a
+ * value costs a few atomic increments, so it can be used on the GATT callback threads
+ * without a measurable slowdown. Percentiles are approximated by the upper bound of the
+ * bucket they fall into.
+ */
+public class LatencyHistogram {
+    /**
+     * Bucket i counts durations below 2^i microseconds, the last one everything above
+     * (about 36 minutes).
+     */
+    static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong nanosTotal = new AtomicLong();
+    private final AtomicLong nanosMax = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(getBucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+        count.incrementAndGet();
+        nanosTotal.addAndGet(nanos);
+        long current;
+        do {
+            current = nanosMax.get();
+            if (nanos <= current) {
+                return;
+            }
+        } while (!nanosMax.compareAndSet(current, nanos));
+    }
+
+    static int getBucket(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getAverageMicros() {
+        long count = getCount();
+        return count > 0 ? TimeUnit.NANOSECONDS.toMicros(nanosTotal.get() / count) : 0;
+    }
+
+    public long getMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(nanosMax.get());
+    }
+
+    /**
+     * Returns the upper bound in microseconds of the bucket containing the given
+     * percentile (0-100), or 0 if nothing was recorded yet.
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min(1L << i, getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        nanosTotal.set(0);
+        nanosMax.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d times, avg %s, p50 %s, p90 %s, p99 %s, max %s",
+                getCount(), format(getAverageMicros()), format(getPercentileMicros(50)),
+                format(getPercentileMicros(90)), format(getPercentileMicros(99)), format(getMaxMicros()));
+    }
+
+    private static String format(long micros) {
+        if (micros < 10000) {
+            return micros + " us";
+        }
+        return TimeUnit.MICROSECONDS.toMillis(micros) + " ms";
+    }
+}
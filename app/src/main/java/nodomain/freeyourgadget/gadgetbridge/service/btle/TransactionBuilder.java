@@ -26,6 +26,9 @@ import org.slf4j.LoggerFactory;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.BulkWriteAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.NotifyAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.ReadAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.RequestMtuAction;
@@ -60,6 +63,34 @@ public class TransactionBuilder {
         return add(action);
     }
 
+    /**
+     * Writes the given packets to the characteristic one after another, without waiting
+     * for a response for each of them if the characteristic supports that.
+     * See {@link BulkWriteAction} for details.
+     */
+    public TransactionBuilder writeBulk(BluetoothGattCharacteristic characteristic, List<byte[]> packets) {
+        return writeBulk(characteristic, packets, BulkWriteAction.DEFAULT_WINDOW);
+    }
+
+    /**
+     * Writes the given packets to the characteristic one after another.
+     *
+     * @param window the number of packets after which a write with response is done, or 1
+     *               if the peer requires all packets to be written with response
+     * @see BulkWriteAction
+     */
+    public TransactionBuilder writeBulk(BluetoothGattCharacteristic characteristic, List<byte[]> packets, int window) {
+        if (characteristic == null) {
+            LOG.warn("Unable to write characteristic: null");
+            return this;
+        }
+        if (packets.isEmpty()) {
+            return this;
+        }
+        BulkWriteAction action = new BulkWriteAction(characteristic, packets, window);
+        return add(action);
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     public TransactionBuilder requestMtu(int mtu){
         return add(
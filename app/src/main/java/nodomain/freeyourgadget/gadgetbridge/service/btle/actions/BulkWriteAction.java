@@ -0,0 +1,213 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle.actions;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
+
+/**
+ * Writes a sequence of packets to a single GATT characteristic, e.g. for firmware or file
+ * uploads, as one action instead of one {@link WriteAction} per packet.
+ * <p/>
+ * If the characteristic supports it, the packets are written without response, so that
+ * the next packet can be written as soon as the local Bluetooth stack has accepted the
+ * previous one, instead of waiting a connection interval for the peer's response. In order
+ * not to overrun the peer, every {@link #getWindow()}-th packet and the last one are written
+ * with response if the characteristic supports that, so at most that many packets are
+ * unacknowledged at any time. When the characteristic does not support writes without
+ * response, when they were disabled for the action, or when the stack repeatedly refuses
+ * them, all packets are written with response.
+ * <p/>
+ * Android only allows one outstanding GATT operation, also for writes without response,
+ * so the action waits for each {@link BluetoothGatt} write callback, which the
+ * {@link nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEQueue} passes on through
+ * {@link #onCharacteristicWrite(int)}.
+ */
+public class BulkWriteAction extends BtLEAction {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkWriteAction.class);
+
+    /**
+     * The default number of packets after which a write with response is done.
+     */
+    public static final int DEFAULT_WINDOW = 16;
+
+    // the stack refuses writes while its buffers are full, retry a few times before giving up
+    private static final int MAX_REFUSED_WRITES = 20;
+    private static final int REFUSED_WRITE_DELAY_MILLIS = 5;
+    private static final int WRITE_TIMEOUT_MILLIS = 10000;
+
+    private final List<byte[]> packets;
+    private final int window;
+    private final Semaphore writeCompleted = new Semaphore(0);
+    private volatile int writeStatus;
+    private volatile boolean aborted;
+
+    private int acknowledgedPackets;
+    private long bytesPerSecond;
+
+    /**
+     * @param window the number of packets after which a write with response is done, or 1
+     *               to write all packets with response
+     */
+    public BulkWriteAction(BluetoothGattCharacteristic characteristic, List<byte[]> packets, int window) {
+        super(characteristic);
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1: " + window);
+        }
+        this.packets = packets;
+        this.window = window;
+    }
+
+    /**
+     * Splits the given range of the data into packets of at most the given length.
+     */
+    public static List<byte[]> split(byte[] data, int offset, int length, int packetLength) {
+        List<byte[]> packets = new ArrayList<>((length + packetLength - 1) / packetLength);
+        for (int start = offset; start < offset + length; start += packetLength) {
+            packets.add(Arrays.copyOfRange(data, start, Math.min(start + packetLength, offset + length)));
+        }
+        return packets;
+    }
+
+    @Override
+    public boolean run(BluetoothGatt gatt) {
+        BluetoothGattCharacteristic characteristic = getCharacteristic();
+        int properties = characteristic.getProperties();
+        boolean canWriteWithResponse = (properties & BluetoothGattCharacteristic.PROPERTY_WRITE) > 0;
+        boolean canWriteWithoutResponse = (properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) > 0;
+        if (!canWriteWithResponse && !canWriteWithoutResponse) {
+            LOG.warn("Characteristic " + characteristic.getUuid() + " is not writable");
+            return false;
+        }
+        // without a response to wait for, the window cannot be enforced
+        boolean withoutResponse = canWriteWithoutResponse && (window > 1 || !canWriteWithResponse);
+
+        int originalWriteType = characteristic.getWriteType();
+        long start = System.nanoTime();
+        long bytes = 0;
+        acknowledgedPackets = 0;
+        writeCompleted.drainPermits();
+        try {
+            for (int i = 0, count = packets.size(); i < count; i++) {
+                boolean acknowledged = canWriteWithResponse && (!withoutResponse || (i + 1) % window == 0 || i == count - 1);
+                int refused = 0;
+                while (!write(gatt, characteristic, packets.get(i), acknowledged)) {
+                    if (aborted) {
+                        return false;
+                    }
+                    if (++refused >= MAX_REFUSED_WRITES) {
+                        if (acknowledged || !canWriteWithResponse) {
+                            LOG.error("Unable to write packet " + i + " of " + count + " to " + characteristic.getUuid());
+                            return false;
+                        }
+                        LOG.warn("Writes without response are refused, writing with response from now on");
+                        withoutResponse = false;
+                        acknowledged = true;
+                        refused = 0;
+                    }
+                    Thread.sleep(REFUSED_WRITE_DELAY_MILLIS);
+                }
+                if (!writeCompleted.tryAcquire(WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    LOG.error("Timeout writing packet " + i + " of " + count + " to " + characteristic.getUuid());
+                    return false;
+                }
+                if (aborted || writeStatus != BluetoothGatt.GATT_SUCCESS) {
+                    LOG.error("Writing packet " + i + " of " + count + " failed: " + writeStatus);
+                    return false;
+                }
+                if (acknowledged) {
+                    acknowledgedPackets++;
+                }
+                bytes += packets.get(i).length;
+            }
+        } catch (InterruptedException ex) {
+            LOG.info("Interrupted while writing packets");
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            characteristic.setWriteType(originalWriteType);
+            long nanos = Math.max(1, System.nanoTime() - start);
+            bytesPerSecond = bytes * TimeUnit.SECONDS.toNanos(1) / nanos;
+            LOG.info("Wrote " + bytes + " bytes in " + packets.size() + " packets (" + acknowledgedPackets
+                    + " with response) in " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms: " + bytesPerSecond + " bytes/s");
+        }
+        return true;
+    }
+
+    private boolean write(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] packet, boolean acknowledged) {
+        characteristic.setWriteType(acknowledged ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        return characteristic.setValue(packet) && gatt.writeCharacteristic(characteristic);
+    }
+
+    /**
+     * Called from the GATT callback thread when a packet has been written.
+     */
+    public void onCharacteristicWrite(int status) {
+        writeStatus = status;
+        writeCompleted.release();
+    }
+
+    /**
+     * Stops writing, e.g. when the device has been disconnected.
+     */
+    public void abort() {
+        aborted = true;
+        writeCompleted.release();
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Returns the number of packets that were written with response in the last run.
+     */
+    public int getAcknowledgedPackets() {
+        return acknowledgedPackets;
+    }
+
+    /**
+     * Returns the throughput of the last run, in bytes per second.
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Returns false, the action waits for the written packets itself.
+     */
+    @Override
+    public boolean expectsResult() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + ": " + packets.size() + " packets, window " + window;
+    }
+}
@@ -22,6 +22,7 @@ import android.content.Intent;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
@@ -111,4 +112,13 @@ public abstract class AbstractBleProfile<T extends AbstractBTLEDeviceSupport> ex
     public void enableNotify(TransactionBuilder builder, boolean enable) {
     }
 
+    /**
+     * Returns the characteristics whose reads and notifications this profile handles, so
+     * that the device support only passes those to the profile. Returns null by default,
+     * meaning that the profile is asked for every characteristic.
+     */
+    public Collection<UUID> getHandledCharacteristics() {
+        return null;
+    }
+
 }
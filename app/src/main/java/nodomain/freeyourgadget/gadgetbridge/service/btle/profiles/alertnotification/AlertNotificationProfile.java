@@ -23,6 +23,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
@@ -39,6 +42,12 @@ public class AlertNotificationProfile<T extends AbstractBTLEDeviceSupport> exten
         super(support);
     }
 
+    @Override
+    public Collection<UUID> getHandledCharacteristics() {
+        // only writes, nothing to read or be notified about
+        return Collections.emptyList();
+    }
+
     public void setMaxLength(int maxLength) {
         this.maxLength = maxLength;
     }
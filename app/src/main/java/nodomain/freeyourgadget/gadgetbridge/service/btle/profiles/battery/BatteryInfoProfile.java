@@ -23,6 +23,8 @@ import android.content.Intent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
@@ -58,6 +60,11 @@ public class BatteryInfoProfile<T extends AbstractBTLEDeviceSupport> extends Abs
         builder.notify(getCharacteristic(BatteryInfoProfile.UUID_CHARACTERISTIC_BATTERY_LEVEL), enable);
     }
 
+    @Override
+    public Collection<UUID> getHandledCharacteristics() {
+        return Collections.singletonList(UUID_CHARACTERISTIC_BATTERY_LEVEL);
+    }
+
     @Override
     public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         if (status == BluetoothGatt.GATT_SUCCESS) {
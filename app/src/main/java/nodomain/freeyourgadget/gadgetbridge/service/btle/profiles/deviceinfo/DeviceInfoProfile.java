@@ -23,6 +23,9 @@ import android.content.Intent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
@@ -50,6 +53,16 @@ public class DeviceInfoProfile<T extends AbstractBTLEDeviceSupport> extends Abst
     public static final UUID UUID_CHARACTERISTIC_SYSTEM_ID = GattCharacteristic.UUID_CHARACTERISTIC_SYSTEM_ID;
     public static final UUID UUID_CHARACTERISTIC_IEEE_11073_20601_REGULATORY_CERTIFICATION_DATA_LIST = GattCharacteristic.UUID_CHARACTERISTIC_IEEE_11073_20601_REGULATORY_CERTIFICATION_DATA_LIST;
     public static final UUID UUID_CHARACTERISTIC_PNP_ID = GattCharacteristic.UUID_CHARACTERISTIC_PNP_ID;
+    private static final Collection<UUID> HANDLED_CHARACTERISTICS = Collections.unmodifiableList(Arrays.asList(
+            UUID_CHARACTERISTIC_MANUFACTURER_NAME_STRING,
+            UUID_CHARACTERISTIC_MODEL_NUMBER_STRING,
+            UUID_CHARACTERISTIC_SERIAL_NUMBER_STRING,
+            UUID_CHARACTERISTIC_HARDWARE_REVISION_STRING,
+            UUID_CHARACTERISTIC_FIRMWARE_REVISION_STRING,
+            UUID_CHARACTERISTIC_SOFTWARE_REVISION_STRING,
+            UUID_CHARACTERISTIC_SYSTEM_ID,
+            UUID_CHARACTERISTIC_IEEE_11073_20601_REGULATORY_CERTIFICATION_DATA_LIST,
+            UUID_CHARACTERISTIC_PNP_ID));
     private final DeviceInfo deviceInfo = new DeviceInfo();
 
     public DeviceInfoProfile(T support) {
@@ -68,6 +81,11 @@ public class DeviceInfoProfile<T extends AbstractBTLEDeviceSupport> extends Abst
                 .read(getCharacteristic(UUID_CHARACTERISTIC_PNP_ID));
     }
 
+    @Override
+    public Collection<UUID> getHandledCharacteristics() {
+        return HANDLED_CHARACTERISTICS;
+    }
+
     @Override
     public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         if (status == BluetoothGatt.GATT_SUCCESS) {
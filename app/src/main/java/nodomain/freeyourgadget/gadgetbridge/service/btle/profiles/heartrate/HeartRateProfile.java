@@ -23,6 +23,10 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+
 import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.GattCharacteristic;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
@@ -59,6 +63,11 @@ public class HeartRateProfile<T extends AbstractBTLEDeviceSupport> extends Abstr
 
     }
 
+    @Override
+    public Collection<UUID> getHandledCharacteristics() {
+        return Collections.singletonList(GattCharacteristic.UUID_CHARACTERISTIC_HEART_RATE_MEASUREMENT);
+    }
+
     @Override
     public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
         if (GattCharacteristic.UUID_CHARACTERISTIC_HEART_RATE_MEASUREMENT.equals(characteristic.getUuid())) {
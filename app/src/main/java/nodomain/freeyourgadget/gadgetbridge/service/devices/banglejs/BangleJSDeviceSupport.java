@@ -408,7 +408,7 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
                     BangleJSSampleProvider provider = new BangleJSSampleProvider(getDevice(), dbHandler.getDaoSession());
                     sample.setDeviceId(deviceId);
                     sample.setUserId(userId);
-                    provider.addGBActivitySample(sample);
+                    provider.addGBActivitySampleBuffered(sample);
                 } catch (Exception ex) {
                     LOG.warn("Error saving activity: " + ex.getLocalizedMessage());
                 }
@@ -1411,10 +1411,18 @@ public class FitProDeviceSupport extends AbstractBTLEDeviceSupport {
     public void addGBActivitySample(FitProActivitySample sample) {
         List<FitProActivitySample> samples = new ArrayList<>();
         samples.add(sample);
-        addGBActivitySamples(samples);
+        addGBActivitySamples(samples, true);
     }
 
     private boolean addGBActivitySamples(List<FitProActivitySample> samples) {
+        return addGBActivitySamples(samples, false);
+    }
+
+    /**
+     * @param realtime whether these are realtime samples, which are written through the
+     *                 realtime sample buffer
+     */
+    private boolean addGBActivitySamples(List<FitProActivitySample> samples, boolean realtime) {
         try (DBHandler dbHandler = GBApplication.acquireDB()) {
 
             User user = DBHelper.getUser(dbHandler.getDaoSession());
@@ -1425,7 +1433,12 @@ public class FitProDeviceSupport extends AbstractBTLEDeviceSupport {
                 sample.setDevice(device);
                 sample.setUser(user);
                 sample.setProvider(provider);
-                provider.addGBActivitySample(sample);
+                if (realtime) {
+                    provider.addGBActivitySampleBuffered(sample);
+                }
+            }
+            if (!realtime) {
+                provider.addGBActivitySamples(samples);
             }
 
         } catch (Exception ex) {
@@ -300,7 +300,7 @@ class HPlusHandlerThread extends GBDeviceIoThread {
                     }
                 }
 
-                provider.getSampleDao().insertOrReplaceInTx(samples);
+                provider.addGBActivitySamples(samples);
                 mDaySlotRecords.clear();
 
                 //Create an overlay with unused slots
@@ -333,6 +333,7 @@ class HPlusHandlerThread extends GBDeviceIoThread {
                         overlayList.add(new HPlusHealthActivityOverlay(firstSlotTimestamp, lastSlotTimestamp, ActivityKind.TYPE_NOT_WORN, deviceId, userId, null));
 
                     overlayDao.insertOrReplaceInTx(overlayList);
+                    provider.notifySamplesChanged(notWornSlots.get(0), notWornSlots.get(notWornSlots.size() - 1));
                 }
 
             } catch (GBException ex) {
@@ -383,6 +384,7 @@ class HPlusHandlerThread extends GBDeviceIoThread {
             }
 
             overlayDao.insertOrReplaceInTx(overlayList);
+            provider.notifySamplesChanged(record.bedTimeStart, record.bedTimeEnd);
 
             //Store the data
             HPlusHealthActivitySample sample = createSample(dbHandler, record.timestamp);
@@ -430,19 +432,11 @@ class HPlusHandlerThread extends GBDeviceIoThread {
         try (DBHandler dbHandler = GBApplication.acquireDB()) {
             HPlusHealthSampleProvider provider = new HPlusHealthSampleProvider(getDevice(), dbHandler.getDaoSession());
 
-            HPlusHealthActivitySample sample = createSample(dbHandler, record.timestamp);
-            sample.setRawKind(record.type);
-            sample.setRawIntensity(record.intensity);
-            sample.setHeartRate(record.heartRate);
-            sample.setDistance(record.distance);
-            sample.setCalories(record.calories);
-            sample.setSteps(record.steps);
-
-            sample.setRawHPlusHealthData(record.getRawData());
-            sample.setProvider(provider);
-
-            provider.addGBActivitySample(sample);
+            HPlusHealthActivitySample sample = createRealtimeSample(dbHandler, provider, record);
+            provider.addGBActivitySampleBuffered(sample);
 
+            // the buffered sample is written later and must not be changed anymore
+            sample = createRealtimeSample(dbHandler, provider, record);
             sample.setSteps(sample.getSteps() - prevRealTimeRecord.steps);
 
             Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
@@ -460,6 +454,20 @@ class HPlusHandlerThread extends GBDeviceIoThread {
         return true;
     }
 
+    private HPlusHealthActivitySample createRealtimeSample(DBHandler dbHandler, HPlusHealthSampleProvider provider, HPlusDataRecordRealtime record) {
+        HPlusHealthActivitySample sample = createSample(dbHandler, record.timestamp);
+        sample.setRawKind(record.type);
+        sample.setRawIntensity(record.intensity);
+        sample.setHeartRate(record.heartRate);
+        sample.setDistance(record.distance);
+        sample.setCalories(record.calories);
+        sample.setSteps(record.steps);
+
+        sample.setRawHPlusHealthData(record.getRawData());
+        sample.setProvider(provider);
+        return sample;
+    }
+
     /**
      * Process a day summary message
      * This message includes aggregates regarding an entire day
@@ -122,6 +122,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.Weather;
 import nodomain.freeyourgadget.gadgetbridge.model.WeatherSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.WorldClock;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractGattCallback;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.GattCharacteristic;
@@ -325,6 +326,105 @@ public class HuamiSupport extends AbstractBTLEDeviceSupport {
         deviceInfoProfile = new DeviceInfoProfile<>(this);
         deviceInfoProfile.addListener(mListener);
         addSupportedProfile(deviceInfoProfile);
+
+        addCharacteristicHandlers();
+    }
+
+    private void addCharacteristicHandlers() {
+        addCharacteristicHandler(GattCharacteristic.UUID_CHARACTERISTIC_DEVICE_NAME, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                handleDeviceName(characteristic.getValue(), status);
+                return true;
+            }
+        });
+        addCharacteristicHandler(HuamiService.UUID_CHARACTERISTIC_6_BATTERY_INFO, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                handleBatteryInfo(characteristic.getValue(), status);
+                return true;
+            }
+
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                handleBatteryInfo(characteristic.getValue(), BluetoothGatt.GATT_SUCCESS);
+                return true;
+            }
+        });
+        addCharacteristicHandler(MiBandService.UUID_CHARACTERISTIC_REALTIME_STEPS, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                handleRealtimeSteps(characteristic.getValue());
+                return true;
+            }
+        });
+        addCharacteristicHandler(GattCharacteristic.UUID_CHARACTERISTIC_HEART_RATE_MEASUREMENT, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                logHeartrate(characteristic.getValue(), status);
+                return true;
+            }
+
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                handleHeartrate(characteristic.getValue());
+                return true;
+            }
+        });
+        addCharacteristicHandler(HuamiService.UUID_CHARACTERISTIC_AUTH, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                LOG.info("AUTHENTICATION?? " + characteristic.getUuid());
+                logMessageContent(characteristic.getValue());
+                return true;
+            }
+        });
+        addCharacteristicHandler(HuamiService.UUID_CHARACTERISTIC_DEVICEEVENT, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                handleDeviceEvent(characteristic.getValue());
+                return true;
+            }
+
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                handleDeviceEvent(characteristic.getValue());
+                return true;
+            }
+        });
+        addCharacteristicHandler(HuamiService.UUID_CHARACTERISTIC_7_REALTIME_STEPS, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                handleRealtimeSteps(characteristic.getValue());
+                return true;
+            }
+
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                handleRealtimeSteps(characteristic.getValue());
+                return true;
+            }
+        });
+        addCharacteristicHandler(HuamiService.UUID_CHARACTERISTIC_3_CONFIGURATION, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                handleConfigurationInfo(characteristic.getValue());
+                return true;
+            }
+        });
+        addCharacteristicHandler(HuamiService.UUID_CHARACTERISTIC_CHUNKEDTRANSFER_2021_READ, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                if (huamiChunked2021Decoder == null) {
+                    return false;
+                }
+                byte[] decoded_data = huamiChunked2021Decoder.decode(characteristic.getValue());
+                if (decoded_data != null) {
+                    handleConfigurationInfo(decoded_data);
+                }
+                return true;
+            }
+        });
     }
 
     @Override
@@ -1966,71 +2066,25 @@ public class HuamiSupport extends AbstractBTLEDeviceSupport {
     @Override
     public boolean onCharacteristicChanged(BluetoothGatt gatt,
                                            BluetoothGattCharacteristic characteristic) {
-        super.onCharacteristicChanged(gatt, characteristic);
-
-        UUID characteristicUUID = characteristic.getUuid();
-        if (HuamiService.UUID_CHARACTERISTIC_6_BATTERY_INFO.equals(characteristicUUID)) {
-            handleBatteryInfo(characteristic.getValue(), BluetoothGatt.GATT_SUCCESS);
-            return true;
-        } else if (MiBandService.UUID_CHARACTERISTIC_REALTIME_STEPS.equals(characteristicUUID)) {
-            handleRealtimeSteps(characteristic.getValue());
+        // the characteristics are handled by the handlers added in addCharacteristicHandlers()
+        if (super.onCharacteristicChanged(gatt, characteristic)) {
             return true;
-        } else if (GattCharacteristic.UUID_CHARACTERISTIC_HEART_RATE_MEASUREMENT.equals(characteristicUUID)) {
-            handleHeartrate(characteristic.getValue());
-            return true;
-        } else if (HuamiService.UUID_CHARACTERISTIC_AUTH.equals(characteristicUUID)) {
-            LOG.info("AUTHENTICATION?? " + characteristicUUID);
-            logMessageContent(characteristic.getValue());
-            return true;
-        } else if (HuamiService.UUID_CHARACTERISTIC_DEVICEEVENT.equals(characteristicUUID)) {
-            handleDeviceEvent(characteristic.getValue());
-            return true;
-        } else if (HuamiService.UUID_CHARACTERISTIC_7_REALTIME_STEPS.equals(characteristicUUID)) {
-            handleRealtimeSteps(characteristic.getValue());
-            return true;
-        } else if (HuamiService.UUID_CHARACTERISTIC_3_CONFIGURATION.equals(characteristicUUID)) {
-            handleConfigurationInfo(characteristic.getValue());
-            return true;
-        } else if (HuamiService.UUID_CHARACTERISTIC_CHUNKEDTRANSFER_2021_READ.equals(characteristicUUID) && huamiChunked2021Decoder != null) {
-            byte[] decoded_data = huamiChunked2021Decoder.decode(characteristic.getValue());
-            if (decoded_data != null) {
-                handleConfigurationInfo(decoded_data);
-            }
-            return true;
-        } else {
-            LOG.info("Unhandled characteristic changed: " + characteristicUUID);
-            logMessageContent(characteristic.getValue());
         }
 
+        LOG.info("Unhandled characteristic changed: " + characteristic.getUuid());
+        logMessageContent(characteristic.getValue());
         return false;
     }
 
     @Override
     public boolean onCharacteristicRead(BluetoothGatt gatt,
                                         BluetoothGattCharacteristic characteristic, int status) {
-        super.onCharacteristicRead(gatt, characteristic, status);
-
-        UUID characteristicUUID = characteristic.getUuid();
-        if (GattCharacteristic.UUID_CHARACTERISTIC_DEVICE_NAME.equals(characteristicUUID)) {
-            handleDeviceName(characteristic.getValue(), status);
-            return true;
-        } else if (HuamiService.UUID_CHARACTERISTIC_6_BATTERY_INFO.equals(characteristicUUID)) {
-            handleBatteryInfo(characteristic.getValue(), status);
-            return true;
-        } else if (GattCharacteristic.UUID_CHARACTERISTIC_HEART_RATE_MEASUREMENT.equals(characteristicUUID)) {
-            logHeartrate(characteristic.getValue(), status);
+        if (super.onCharacteristicRead(gatt, characteristic, status)) {
             return true;
-        } else if (HuamiService.UUID_CHARACTERISTIC_7_REALTIME_STEPS.equals(characteristicUUID)) {
-            handleRealtimeSteps(characteristic.getValue());
-            return true;
-        } else if (HuamiService.UUID_CHARACTERISTIC_DEVICEEVENT.equals(characteristicUUID)) {
-            handleDeviceEvent(characteristic.getValue());
-            return true;
-        } else {
-            LOG.info("Unhandled characteristic read: " + characteristicUUID);
-            logMessageContent(characteristic.getValue());
         }
 
+        LOG.info("Unhandled characteristic read: " + characteristic.getUuid());
+        logMessageContent(characteristic.getValue());
         return false;
     }
 
@@ -2246,18 +2300,13 @@ public class HuamiSupport extends AbstractBTLEDeviceSupport {
                         User user = DBHelper.getUser(session);
                         int ts = (int) (System.currentTimeMillis() / 1000);
                         MiBand2SampleProvider provider = new MiBand2SampleProvider(gbDevice, session);
-                        MiBandActivitySample sample = createActivitySample(device, user, ts, provider);
-                        sample.setHeartRate(getHeartrateBpm());
-//                        sample.setSteps(getSteps());
-                        sample.setRawIntensity(ActivitySample.NOT_MEASURED);
-                        sample.setRawKind(HuamiConst.TYPE_ACTIVITY); // to make it visible in the charts TODO: add a MANUAL kind for that?
+                        MiBandActivitySample sample = createRealtimeSample(device, user, ts, provider);
+                        provider.addGBActivitySampleBuffered(sample);
 
-                        provider.addGBActivitySample(sample);
-
-                        // set the steps only afterwards, since realtime steps are also recorded
+                        // the buffered sample is written later and must not be changed anymore,
+                        // so use a separate one for the steps, since realtime steps are also recorded
                         // in the regular samples and we must not count them twice
-                        // Note: we know that the DAO sample is never committed again, so we simply
-                        // change the value here in memory.
+                        sample = createRealtimeSample(device, user, ts, provider);
                         sample.setSteps(getSteps());
 
                         if (LOG.isDebugEnabled()) {
@@ -2272,6 +2321,14 @@ public class HuamiSupport extends AbstractBTLEDeviceSupport {
                         LOG.warn("Unable to acquire db for saving realtime samples", e);
                     }
                 }
+
+                private MiBandActivitySample createRealtimeSample(Device device, User user, int ts, MiBand2SampleProvider provider) {
+                    MiBandActivitySample sample = createActivitySample(device, user, ts, provider);
+                    sample.setHeartRate(getHeartrateBpm());
+                    sample.setRawIntensity(ActivitySample.NOT_MEASURED);
+                    sample.setRawKind(HuamiConst.TYPE_ACTIVITY); // to make it visible in the charts TODO: add a MANUAL kind for that?
+                    return sample;
+                }
             };
         }
         return realtimeSamplesSupport;
@@ -27,7 +27,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -37,6 +36,7 @@ import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiFWHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiService;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.BulkWriteAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetDeviceBusyAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetProgressAction;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.AbstractHuamiOperation;
@@ -242,22 +242,21 @@ public class UpdateFirmwareOperation extends AbstractHuamiOperation {
             TransactionBuilder builder = performInitialized("send firmware packet");
             builder.write(fwCControlChar, getFirmwareStartCommand());
 
-            for (int i = 0; i < packets; i++) {
-                byte[] fwChunk = Arrays.copyOfRange(fwbytes, i * packetLength, i * packetLength + packetLength);
-
-                builder.write(fwCDataChar, fwChunk);
-                firmwareProgress += packetLength;
+            // a sync command follows packet i for all i > 0 && i % 100 == 0, so the
+            // packets up to there are written in bulk
+            for (int i = 100; i < packets; i += 100) {
+                int blockEnd = (i + 1) * packetLength;
+                builder.writeBulk(fwCDataChar, BulkWriteAction.split(fwbytes, firmwareProgress, blockEnd - firmwareProgress, packetLength));
+                firmwareProgress = blockEnd;
 
                 int progressPercent = (int) ((((float) firmwareProgress) / len) * 100);
-                if ((i > 0) && (i % 100 == 0)) {
-                    builder.write(fwCControlChar, new byte[]{HuamiService.COMMAND_FIRMWARE_UPDATE_SYNC});
-                    builder.add(new SetProgressAction(getContext().getString(R.string.updatefirmwareoperation_update_in_progress), true, progressPercent, getContext()));
-                }
+                builder.write(fwCControlChar, new byte[]{HuamiService.COMMAND_FIRMWARE_UPDATE_SYNC});
+                builder.add(new SetProgressAction(getContext().getString(R.string.updatefirmwareoperation_update_in_progress), true, progressPercent, getContext()));
             }
 
             if (firmwareProgress < len) {
-                byte[] lastChunk = Arrays.copyOfRange(fwbytes, packets * packetLength, len);
-                builder.write(fwCDataChar, lastChunk);
+                // the remaining full packets and the last, possibly shorter one
+                builder.writeBulk(fwCDataChar, BulkWriteAction.split(fwbytes, firmwareProgress, len - firmwareProgress, packetLength));
             }
 
             builder.write(fwCControlChar, new byte[]{HuamiService.COMMAND_FIRMWARE_UPDATE_SYNC});
@@ -23,12 +23,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Arrays;
 
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiService;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.BulkWriteAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetDeviceBusyAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetProgressAction;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiFirmwareInfo;
@@ -225,8 +225,6 @@ public class UpdateFirmwareOperation2020 extends UpdateFirmwareOperation {
             chunkLength = remaining;
         }
 
-        int packets = chunkLength / packetLength;
-        int chunkProgress = 0;
 
         try {
             if (remaining <= 0) {
@@ -235,18 +233,7 @@ public class UpdateFirmwareOperation2020 extends UpdateFirmwareOperation {
             }
 
             TransactionBuilder builder = performInitialized("send firmware packets");
-
-            for (int i = 0; i < packets; i++) {
-                byte[] fwChunk = Arrays.copyOfRange(fwbytes, offset + i * packetLength, offset + i * packetLength + packetLength);
-
-                builder.write(fwCDataChar, fwChunk);
-                chunkProgress += packetLength;
-            }
-
-            if (chunkProgress < chunkLength) {
-                byte[] lastChunk = Arrays.copyOfRange(fwbytes, offset + packets * packetLength, offset + packets * packetLength + (chunkLength - chunkProgress));
-                builder.write(fwCDataChar, lastChunk);
-            }
+            builder.writeBulk(fwCDataChar, BulkWriteAction.split(fwbytes, offset, chunkLength, packetLength));
 
             int progressPercent = (int) ((((float) (offset + chunkLength)) / len) * 100);
 
@@ -34,8 +34,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -44,10 +47,11 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventFindPhone;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIngestionPipeline;
 import nodomain.freeyourgadget.gadgetbridge.devices.lefun.LefunConstants;
+import nodomain.freeyourgadget.gadgetbridge.devices.lefun.LefunSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.devices.lefun.commands.FeaturesCommand;
 import nodomain.freeyourgadget.gadgetbridge.devices.lefun.commands.FindPhoneCommand;
 import nodomain.freeyourgadget.gadgetbridge.devices.lefun.commands.GetActivityDataCommand;
@@ -110,6 +114,7 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
 
     private final List<Request> inProgressRequests = Collections.synchronizedList(new ArrayList<Request>());
     private final Queue<Request> queuedRequests = new ConcurrentLinkedQueue<>();
+    private final List<FetchedRecord> fetchedRecords = new ArrayList<>();
 
     private int lastStepsCount = -1;
     private int lastStepsTimestamp;
@@ -945,93 +950,60 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
     }
 
     /**
-     * Fetches an activity sample given the timestamp
+     * Fetches the activity samples in the given time range
      *
-     * @param session   DAO session
-     * @param timestamp the timestamp
-     * @return fetched activity or null if none exists
+     * @param session DAO session
+     * @param tsFrom  the first timestamp
+     * @param tsTo    the last timestamp
+     * @return fetched activities by timestamp
      */
-    private LefunActivitySample getActivitySample(DaoSession session, int timestamp) {
+    private Map<Integer, LefunActivitySample> getActivitySamples(DaoSession session, int tsFrom, int tsTo) {
         LefunActivitySampleDao dao = session.getLefunActivitySampleDao();
-        Long userId = DBHelper.getUser(session).getId();
-        Long deviceId = DBHelper.getDevice(getDevice(), session).getId();
+        long userId = DBHelper.getUserId(session);
+        long deviceId = DBHelper.getDeviceId(getDevice(), session);
         Query<LefunActivitySample> q = dao.queryBuilder()
-                .where(LefunActivitySampleDao.Properties.Timestamp.eq(timestamp))
+                .where(LefunActivitySampleDao.Properties.Timestamp.between(tsFrom, tsTo))
                 .where(LefunActivitySampleDao.Properties.DeviceId.eq(deviceId))
                 .where(LefunActivitySampleDao.Properties.UserId.eq(userId))
                 .build();
-        return q.unique();
+        Map<Integer, LefunActivitySample> samples = new HashMap<>();
+        for (LefunActivitySample sample : q.list()) {
+            samples.put(sample.getTimestamp(), sample);
+        }
+        return samples;
     }
 
     /**
-     * Processes activity data and stores it
+     * Gets the activity sample to merge a record into, creating it if none exists
      *
-     * @param command the activity data
+     * @param session   DAO session
+     * @param samples   the samples of the records being stored
+     * @param timestamp the timestamp
+     * @param rawKind   the kind of a newly created sample
+     * @return the activity sample
      */
-    public void handleActivityData(GetActivityDataCommand command) {
-        try (DBHandler handler = GBApplication.acquireDB()) {
-            DaoSession session = handler.getDaoSession();
-            int timestamp = dateToTimestamp(command.getYear(), command.getMonth(), command.getDay(),
-                    command.getHour(), command.getMinute(), (byte) 0);
-            // For the most part I'm ignoring the sample provider, because it doesn't really help
-            // when I need to combine sample data instead of replacing
-            LefunActivitySample sample = getActivitySample(session, timestamp);
-            if (sample == null) {
-                sample = new LefunActivitySample(timestamp,
-                        DBHelper.getDevice(getDevice(), session).getId());
-                sample.setUserId(DBHelper.getUser(session).getId());
-                sample.setRawKind(LefunConstants.DB_ACTIVITY_KIND_ACTIVITY);
-            }
-
-            sample.setSteps(command.getSteps());
-            sample.setDistance(command.getDistance());
-            sample.setCalories(command.getCalories());
-            sample.setRawIntensity(LefunConstants.INTENSITY_AWAKE);
-
-            session.getLefunActivitySampleDao().insertOrReplace(sample);
-        } catch (Exception e) {
-            LOG.error("Error handling activity data", e);
+    private LefunActivitySample getActivitySample(DaoSession session, Map<Integer, LefunActivitySample> samples,
+                                                  int timestamp, int rawKind) {
+        LefunActivitySample sample = samples.get(timestamp);
+        if (sample == null) {
+            sample = new LefunActivitySample(timestamp,
+                    DBHelper.getDeviceId(getDevice(), session));
+            sample.setUserId(DBHelper.getUserId(session));
+            sample.setRawKind(rawKind);
+            samples.put(timestamp, sample);
         }
+        return sample;
     }
 
     /**
-     * Processes PPG data and stores it
+     * Processes activity data and stores it along with the rest of the fetch request
      *
-     * @param timestamp the timestamp
-     * @param ppgType   the PPG type
-     * @param ppgData   the data from the PPG operation
+     * @param command the activity data
      */
-    private void handlePpgData(int timestamp, int ppgType, byte[] ppgData) {
-        int ppgData0 = ppgData[0] & 0xff;
-        int ppgData1 = ppgData.length > 1 ? ppgData[1] & 0xff : 0;
-
-        try (DBHandler handler = GBApplication.acquireDB()) {
-            DaoSession session = handler.getDaoSession();
-
-            if (ppgType == LefunConstants.PPG_TYPE_HEART_RATE) {
-                LefunActivitySample sample = getActivitySample(session, timestamp);
-                if (sample == null) {
-                    sample = new LefunActivitySample(timestamp,
-                            DBHelper.getDevice(getDevice(), session).getId());
-                    sample.setUserId(DBHelper.getUser(session).getId());
-                    sample.setRawKind(LefunConstants.DB_ACTIVITY_KIND_HEART_RATE);
-                }
-
-                sample.setHeartRate(ppgData0);
-
-                session.getLefunActivitySampleDao().insertOrReplace(sample);
-            }
-
-            LefunBiometricSample bioSample = new LefunBiometricSample(timestamp,
-                    DBHelper.getDevice(getDevice(), session).getId());
-            bioSample.setUserId(DBHelper.getUser(session).getId());
-            bioSample.setType(ppgType);
-            bioSample.setValue1(ppgData0);
-            bioSample.setValue2(ppgData1);
-            session.getLefunBiometricSampleDao().insertOrReplace(bioSample);
-        } catch (Exception e) {
-            LOG.error("Error handling PPG data", e);
-        }
+    public void handleActivityData(GetActivityDataCommand command) {
+        int timestamp = dateToTimestamp(command.getYear(), command.getMonth(), command.getDay(),
+                command.getHour(), command.getMinute(), (byte) 0);
+        fetchedRecords.add(new FetchedRecord(timestamp, command));
     }
 
     /**
@@ -1042,9 +1014,7 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
     public void handlePpgData(GetPpgDataCommand command) {
         int timestamp = dateToTimestamp(command.getYear(), command.getMonth(), command.getDay(),
                 command.getHour(), command.getMinute(), command.getSecond());
-        int ppgType = command.getPpgType();
-        byte[] ppgData = command.getPpgData();
-        handlePpgData(timestamp, ppgType, ppgData);
+        fetchedRecords.add(new FetchedRecord(timestamp, command));
     }
 
     /**
@@ -1054,9 +1024,7 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
      */
     public void handlePpgData(PpgResultCommand command) {
         int timestamp = (int) (Calendar.getInstance().getTimeInMillis() / 1000);
-        int ppgType = command.getPpgType();
-        byte[] ppgData = command.getPpgData();
-        handlePpgData(timestamp, ppgType, ppgData);
+        storeRecords(Collections.singletonList(new FetchedRecord(timestamp, command)));
     }
 
     /**
@@ -1065,52 +1033,156 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
      * @param command the sleep data
      */
     public void handleSleepData(GetSleepDataCommand command) {
-        try (DBHandler handler = GBApplication.acquireDB()) {
-            DaoSession session = handler.getDaoSession();
-            int timestamp = dateToTimestamp(command.getYear(), command.getMonth(), command.getDay(),
-                    command.getHour(), command.getMinute(), (byte) 0);
-
-            LefunActivitySample sample = getActivitySample(session, timestamp);
-            if (sample == null) {
-                sample = new LefunActivitySample(timestamp,
-                        DBHelper.getDevice(getDevice(), session).getId());
-                sample.setUserId(DBHelper.getUser(session).getId());
+        int timestamp = dateToTimestamp(command.getYear(), command.getMonth(), command.getDay(),
+                command.getHour(), command.getMinute(), (byte) 0);
+        fetchedRecords.add(new FetchedRecord(timestamp, command));
+    }
+
+    /**
+     * Stores the records received by the finished fetch request. A request returns a day
+     * of activity or sleep data or all data of one PPG type, which is merged into the
+     * existing samples in one write operation.
+     */
+    public void storeFetchedRecords() {
+        if (fetchedRecords.isEmpty()) {
+            return;
+        }
+        storeRecords(new ArrayList<>(fetchedRecords));
+        fetchedRecords.clear();
+    }
+
+    private void storeRecords(final List<FetchedRecord> records) {
+        // Samples are merged on the writer thread of the ingestion pipeline, in order
+        // with the other data of the fetch
+        SampleIngestionPipeline.getInstance().submit(new SampleIngestionPipeline.WriteOperation() {
+            @Override
+            public void write(DaoSession session) {
+                try {
+                    writeRecords(session, records);
+                } catch (Exception e) {
+                    LOG.error("Error storing fetched data", e);
+                }
             }
+        });
+    }
 
-            int rawKind;
-            int intensity;
-            switch (command.getSleepType()) {
-                case GetSleepDataCommand.SLEEP_TYPE_AWAKE:
-                    rawKind = LefunConstants.DB_ACTIVITY_KIND_ACTIVITY;
-                    intensity = LefunConstants.INTENSITY_AWAKE;
-                    break;
-                case GetSleepDataCommand.SLEEP_TYPE_LIGHT_SLEEP:
-                    rawKind = LefunConstants.DB_ACTIVITY_KIND_LIGHT_SLEEP;
-                    intensity = LefunConstants.INTENSITY_LIGHT_SLEEP;
-                    break;
-                case GetSleepDataCommand.SLEEP_TYPE_DEEP_SLEEP:
-                    rawKind = LefunConstants.DB_ACTIVITY_KIND_DEEP_SLEEP;
-                    intensity = LefunConstants.INTENSITY_DEEP_SLEEP;
-                    break;
-                default:
-                    rawKind = LefunConstants.DB_ACTIVITY_KIND_UNKNOWN;
-                    intensity = LefunConstants.INTENSITY_AWAKE;
-                    break;
+    private void writeRecords(DaoSession session, List<FetchedRecord> records) {
+        int tsFrom = Integer.MAX_VALUE;
+        int tsTo = Integer.MIN_VALUE;
+        for (FetchedRecord record : records) {
+            tsFrom = Math.min(tsFrom, record.timestamp);
+            tsTo = Math.max(tsTo, record.timestamp);
+        }
+
+        // For the most part I'm ignoring the sample provider, because it doesn't really help
+        // when I need to combine sample data instead of replacing. The merged samples are
+        // still written through it, so that the data derived from the samples is updated.
+        Map<Integer, LefunActivitySample> samples = getActivitySamples(session, tsFrom, tsTo);
+        Map<Integer, LefunActivitySample> mergedSamples = new TreeMap<>();
+        List<LefunBiometricSample> bioSamples = new ArrayList<>();
+        List<LefunSleepSample> sleepSamples = new ArrayList<>();
+        for (FetchedRecord record : records) {
+            LefunActivitySample sample = null;
+            if (record.command instanceof GetActivityDataCommand) {
+                sample = getActivitySample(session, samples, record.timestamp,
+                        LefunConstants.DB_ACTIVITY_KIND_ACTIVITY);
+                mergeActivityData(sample, (GetActivityDataCommand) record.command);
+            } else if (record.command instanceof GetPpgDataCommand) {
+                GetPpgDataCommand command = (GetPpgDataCommand) record.command;
+                sample = mergePpgData(session, samples, bioSamples, record.timestamp,
+                        command.getPpgType(), command.getPpgData());
+            } else if (record.command instanceof PpgResultCommand) {
+                PpgResultCommand command = (PpgResultCommand) record.command;
+                sample = mergePpgData(session, samples, bioSamples, record.timestamp,
+                        command.getPpgType(), command.getPpgData());
+            } else if (record.command instanceof GetSleepDataCommand) {
+                GetSleepDataCommand command = (GetSleepDataCommand) record.command;
+                sample = getActivitySample(session, samples, record.timestamp,
+                        LefunConstants.DB_ACTIVITY_KIND_UNKNOWN);
+                mergeSleepData(sample, command);
+
+                LefunSleepSample sleepSample = new LefunSleepSample(record.timestamp,
+                        DBHelper.getDeviceId(getDevice(), session));
+                sleepSample.setUserId(DBHelper.getUserId(session));
+                sleepSample.setType(command.getSleepType());
+                sleepSamples.add(sleepSample);
+            }
+            if (sample != null) {
+                mergedSamples.put(record.timestamp, sample);
             }
+        }
 
-            sample.setRawKind(rawKind);
-            sample.setRawIntensity(intensity);
+        if (!mergedSamples.isEmpty()) {
+            new LefunSampleProvider(getDevice(), session)
+                    .addGBActivitySamples(new ArrayList<>(mergedSamples.values()));
+        }
+        if (!bioSamples.isEmpty()) {
+            session.getLefunBiometricSampleDao().insertOrReplaceInTx(bioSamples);
+        }
+        if (!sleepSamples.isEmpty()) {
+            session.getLefunSleepSampleDao().insertOrReplaceInTx(sleepSamples);
+        }
+    }
 
-            session.getLefunActivitySampleDao().insertOrReplace(sample);
+    private void mergeActivityData(LefunActivitySample sample, GetActivityDataCommand command) {
+        sample.setSteps(command.getSteps());
+        sample.setDistance(command.getDistance());
+        sample.setCalories(command.getCalories());
+        sample.setRawIntensity(LefunConstants.INTENSITY_AWAKE);
+    }
 
-            LefunSleepSample sleepSample = new LefunSleepSample(timestamp,
-                    DBHelper.getDevice(getDevice(), session).getId());
-            sleepSample.setUserId(DBHelper.getUser(session).getId());
-            sleepSample.setType(command.getSleepType());
-            session.getLefunSleepSampleDao().insertOrReplace(sleepSample);
-        } catch (Exception e) {
-            LOG.error("Error handling sleep data", e);
+    /**
+     * Merges PPG data into the activity samples if it is a heart rate
+     *
+     * @return the merged activity sample, or null if the data is not a heart rate
+     */
+    private LefunActivitySample mergePpgData(DaoSession session, Map<Integer, LefunActivitySample> samples,
+                                             List<LefunBiometricSample> bioSamples,
+                                             int timestamp, int ppgType, byte[] ppgData) {
+        int ppgData0 = ppgData[0] & 0xff;
+        int ppgData1 = ppgData.length > 1 ? ppgData[1] & 0xff : 0;
+
+        LefunBiometricSample bioSample = new LefunBiometricSample(timestamp,
+                DBHelper.getDeviceId(getDevice(), session));
+        bioSample.setUserId(DBHelper.getUserId(session));
+        bioSample.setType(ppgType);
+        bioSample.setValue1(ppgData0);
+        bioSample.setValue2(ppgData1);
+        bioSamples.add(bioSample);
+
+        if (ppgType != LefunConstants.PPG_TYPE_HEART_RATE) {
+            return null;
+        }
+        LefunActivitySample sample = getActivitySample(session, samples, timestamp,
+                LefunConstants.DB_ACTIVITY_KIND_HEART_RATE);
+        sample.setHeartRate(ppgData0);
+        return sample;
+    }
+
+    private void mergeSleepData(LefunActivitySample sample, GetSleepDataCommand command) {
+        int rawKind;
+        int intensity;
+        switch (command.getSleepType()) {
+            case GetSleepDataCommand.SLEEP_TYPE_AWAKE:
+                rawKind = LefunConstants.DB_ACTIVITY_KIND_ACTIVITY;
+                intensity = LefunConstants.INTENSITY_AWAKE;
+                break;
+            case GetSleepDataCommand.SLEEP_TYPE_LIGHT_SLEEP:
+                rawKind = LefunConstants.DB_ACTIVITY_KIND_LIGHT_SLEEP;
+                intensity = LefunConstants.INTENSITY_LIGHT_SLEEP;
+                break;
+            case GetSleepDataCommand.SLEEP_TYPE_DEEP_SLEEP:
+                rawKind = LefunConstants.DB_ACTIVITY_KIND_DEEP_SLEEP;
+                intensity = LefunConstants.INTENSITY_DEEP_SLEEP;
+                break;
+            default:
+                rawKind = LefunConstants.DB_ACTIVITY_KIND_UNKNOWN;
+                intensity = LefunConstants.INTENSITY_AWAKE;
+                break;
         }
+
+        sample.setRawKind(rawKind);
+        sample.setRawIntensity(intensity);
     }
 
     /**
@@ -1129,4 +1201,17 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
             }
         }
     }
+
+    /**
+     * A record received from the device, to be stored with the rest of its fetch request
+     */
+    private static class FetchedRecord {
+        final int timestamp;
+        final Object command;
+
+        FetchedRecord(int timestamp, Object command) {
+            this.timestamp = timestamp;
+            this.command = command;
+        }
+    }
 }
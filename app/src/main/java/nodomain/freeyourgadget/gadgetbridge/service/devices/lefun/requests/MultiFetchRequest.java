@@ -22,6 +22,7 @@ import android.widget.Toast;
 
 import java.io.IOException;
 
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIngestionPipeline;
 import nodomain.freeyourgadget.gadgetbridge.devices.lefun.LefunConstants;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetDeviceBusyAction;
@@ -71,7 +72,14 @@ public abstract class MultiFetchRequest extends Request {
         }
         unsetBusy();
         operationStatus = OperationStatus.FINISHED;
-        getSupport().runNextQueuedRequest();
+        getSupport().storeFetchedRecords();
+        // Don't fetch more while the fetched records are still waiting to be written
+        SampleIngestionPipeline.getInstance().runWhenUncongested(new Runnable() {
+            @Override
+            public void run() {
+                getSupport().runNextQueuedRequest();
+            }
+        });
     }
 
     @Override
@@ -59,13 +59,13 @@ import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventBatteryInf
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventCallControl;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventFindPhone;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventVersionInfo;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIngestionPipeline;
 import nodomain.freeyourgadget.gadgetbridge.devices.lenovo.DataType;
 import nodomain.freeyourgadget.gadgetbridge.devices.lenovo.watchxplus.WatchXPlusConstants;
 import nodomain.freeyourgadget.gadgetbridge.devices.lenovo.watchxplus.WatchXPlusDeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.lenovo.watchxplus.WatchXPlusSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.WatchXPlusActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.WatchXPlusHealthActivityOverlay;
-import nodomain.freeyourgadget.gadgetbridge.entities.WatchXPlusHealthActivityOverlayDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
@@ -100,6 +100,10 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
     private int requestedDataTimestamp;
     private int dataSlots = 0;
     private DataType currentDataType;
+    // the ids of the fetched samples and overlays, resolved once when a fetch starts, so
+    // that the data chunks do not need the database
+    private long fetchUserId;
+    private long fetchDeviceId;
 
     private byte ACK_CALIBRATION = 0;
 
@@ -1597,7 +1601,7 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
         LOG.info(" Watch contains " + dataCount + " " + type + " entries");
         dataSlots = dataCount;
         dataToFetch.clear();
-        if (dataCount != 0) {
+        if (dataCount != 0 && resolveFetchIds()) {
             requestDataDetails(dataToFetch.size(), type);
         }
     }
@@ -1696,12 +1700,12 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
         int dataType = Conversion.fromByteArr16(value[2], value[3]);
         int timezoneOffset = TimeZone.getDefault().getOffset(System.currentTimeMillis())/1000;
         DataType type = DataType.getType(dataType);
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            WatchXPlusSampleProvider provider = new WatchXPlusSampleProvider(getDevice(), dbHandler.getDaoSession());
+        try {
             List<WatchXPlusActivitySample> samples = new ArrayList<>();
+            // written in batches by the ingestion pipeline, not per chunk
+            SampleIngestionPipeline pipeline = SampleIngestionPipeline.getInstance();
 
             if (DataType.SLEEP.equals(type)) {
-                WatchXPlusHealthActivityOverlayDao overlayDao = dbHandler.getDaoSession().getWatchXPlusHealthActivityOverlayDao();
                 List<WatchXPlusHealthActivityOverlay> overlayList = new ArrayList<>();
 
                 for (int i = 4; i < value.length; i+= 2) {
@@ -1713,16 +1717,14 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
 
                     int tsWithOffset = requestedDataTimestamp + (((((chunkNo * 16) / 2) + ((i - 4) / 2)) *5) * 60) - timezoneOffset;
                     LOG.debug(" SLEEP requested timestamp " + requestedDataTimestamp + " chunkNo " + chunkNo + " Got data: " + new Date((long) tsWithOffset * 1000) + ", rawIntensity: " + val);
-                    WatchXPlusActivitySample sample = createSample(dbHandler, tsWithOffset);
-                    sample.setTimestamp(tsWithOffset);
-                    sample.setProvider(provider);
+                    WatchXPlusActivitySample sample = createSample(fetchUserId, fetchDeviceId, tsWithOffset);
                     sample.setRawIntensity(val);
                     sample.setRawKind(val == 0 ? ActivityKind.TYPE_DEEP_SLEEP : ActivityKind.TYPE_LIGHT_SLEEP);
                     samples.add(sample);
                     overlayList.add(new WatchXPlusHealthActivityOverlay(sample.getTimestamp(), sample.getTimestamp()+300, sample.getRawKind(), sample.getDeviceId(), sample.getUserId(), sample.getRawWatchXPlusHealthData()));
                 }
-                overlayDao.insertOrReplaceInTx(overlayList);
-                provider.addGBActivitySamples(samples.toArray(new WatchXPlusActivitySample[0]));
+                pipeline.submitEntities(overlayList);
+                pipeline.submit(getDevice(), samples);
 
                 handleEndOfDataChunks(chunkNo, type);
             } else if (DataType.HEART_RATE.equals(type)) {
@@ -1735,14 +1737,12 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
                     }
                     int tsWithOffset = requestedDataTimestamp + (((((chunkNo * 16) + i) - 4) * 2) * 60) - timezoneOffset;
                     LOG.debug(" HEART RATE requested timestamp " + requestedDataTimestamp + " chunkNo " + chunkNo + " Got data: " + new Date((long) tsWithOffset * 1000) + ", value: " + val);
-                    WatchXPlusActivitySample sample = createSample(dbHandler, tsWithOffset);
-                    sample.setTimestamp(tsWithOffset);
+                    WatchXPlusActivitySample sample = createSample(fetchUserId, fetchDeviceId, tsWithOffset);
                     sample.setHeartRate(val);
-                    sample.setProvider(provider);
                     sample.setRawKind(ActivityKind.TYPE_ACTIVITY);
                     samples.add(sample);
                 }
-                provider.addGBActivitySamples(samples.toArray(new WatchXPlusActivitySample[0]));
+                pipeline.submit(getDevice(), samples);
 
                 handleEndOfDataChunks(chunkNo, type);
             } else {
@@ -1764,14 +1764,21 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
 
     }
 
-    private void handleEndOfDataChunks(int chunkNo, DataType type) {
+    private void handleEndOfDataChunks(int chunkNo, final DataType type) {
         if(!dataToFetch.isEmpty() && chunkNo == dataToFetch.get(requestedDataTimestamp) - 1) {
             dataToFetch.remove(requestedDataTimestamp);
             removeDataContentForTimestamp(requestedDataTimestamp, currentDataType);
             if (!dataToFetch.isEmpty()) {
                 Map.Entry<Integer, Integer> currentValue = dataToFetch.entrySet().iterator().next();
                 requestedDataTimestamp = currentValue.getKey();
-                requestDataContentForTimestamp(requestedDataTimestamp, type);
+                final int timestamp = requestedDataTimestamp;
+                // wait for the writer if the previous slots are not stored yet
+                SampleIngestionPipeline.getInstance().runWhenUncongested(new Runnable() {
+                    @Override
+                    public void run() {
+                        requestDataContentForTimestamp(timestamp, type);
+                    }
+                });
             } else {
                 dataSlots = 0;
                 if(type.equals(DataType.HEART_RATE)) {
@@ -1922,10 +1929,28 @@ public class WatchXPlusDeviceSupport extends AbstractBTLEDeviceSupport {
         end.setTimeInMillis(timeStampEnd * 1000L);
     }
 
+    /**
+     * Resolves the user and device ids for the fetch that is about to start.
+     *
+     * @return false if the database is not accessible, i.e. the fetch must not start
+     */
+    private boolean resolveFetchIds() {
+        try (DBHandler dbHandler = GBApplication.acquireDB()) {
+            fetchUserId = DBHelper.getUserId(dbHandler.getDaoSession());
+            fetchDeviceId = DBHelper.getDeviceId(getDevice(), dbHandler.getDaoSession());
+            return true;
+        } catch (Exception ex) {
+            LOG.warn(" Unable to access the database, not fetching data ", ex);
+            return false;
+        }
+    }
+
     private WatchXPlusActivitySample createSample(DBHandler dbHandler, int timestamp) {
-        Long userId = DBHelper.getUser(dbHandler.getDaoSession()).getId();
-        Long deviceId = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId();
+        return createSample(DBHelper.getUserId(dbHandler.getDaoSession()),
+                DBHelper.getDeviceId(getDevice(), dbHandler.getDaoSession()), timestamp);
+    }
 
+    private WatchXPlusActivitySample createSample(long userId, long deviceId, int timestamp) {
         return new WatchXPlusActivitySample(
                 timestamp,                      // ts
                 deviceId, userId,               // User id
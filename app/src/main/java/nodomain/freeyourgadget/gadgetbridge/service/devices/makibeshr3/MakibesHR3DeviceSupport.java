@@ -631,6 +631,14 @@ public class MakibesHR3DeviceSupport extends AbstractBTLEDeviceSupport implement
     }
 
     private void addGBActivitySamples(MakibesHR3ActivitySample[] samples) {
+        this.addGBActivitySamples(samples, false);
+    }
+
+    /**
+     * @param realtime whether these are realtime samples, which are written through the
+     *                 realtime sample buffer
+     */
+    private void addGBActivitySamples(MakibesHR3ActivitySample[] samples, boolean realtime) {
         try (DBHandler dbHandler = GBApplication.acquireDB()) {
 
             User user = DBHelper.getUser(dbHandler.getDaoSession());
@@ -645,7 +653,12 @@ public class MakibesHR3DeviceSupport extends AbstractBTLEDeviceSupport implement
 
                 sample.setRawIntensity(ActivitySample.NOT_MEASURED);
 
-                provider.addGBActivitySample(sample);
+                if (realtime) {
+                    provider.addGBActivitySampleBuffered(sample);
+                }
+            }
+            if (!realtime) {
+                provider.addGBActivitySamples(samples);
             }
 
         } catch (Exception ex) {
@@ -661,6 +674,10 @@ public class MakibesHR3DeviceSupport extends AbstractBTLEDeviceSupport implement
         this.addGBActivitySamples(new MakibesHR3ActivitySample[]{sample});
     }
 
+    private void addRealtimeSample(MakibesHR3ActivitySample sample) {
+        this.addGBActivitySamples(new MakibesHR3ActivitySample[]{sample}, true);
+    }
+
     /**
      * Should only be called after the sample has been populated by
      * {@link MakibesHR3DeviceSupport#addGBActivitySample} or
@@ -699,7 +716,7 @@ public class MakibesHR3DeviceSupport extends AbstractBTLEDeviceSupport implement
             }
         }
 
-        this.addGBActivitySample(sample);
+        this.addRealtimeSample(sample);
         this.broadcastSample(sample);
     }
 
@@ -75,6 +75,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.model.WeatherSpec;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractGattCallback;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.GattCharacteristic;
@@ -141,6 +142,79 @@ public class MiBandSupport extends AbstractBTLEDeviceSupport {
         addSupportedService(MiBandService.UUID_SERVICE_MIBAND_SERVICE);
         addSupportedService(MiBandService.UUID_SERVICE_HEART_RATE);
         addSupportedService(GattService.UUID_SERVICE_IMMEDIATE_ALERT);
+
+        addCharacteristicHandlers();
+    }
+
+    private void addCharacteristicHandlers() {
+        addCharacteristicHandler(MiBandService.UUID_CHARACTERISTIC_DEVICE_INFO, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                handleDeviceInfo(characteristic.getValue(), status);
+                return true;
+            }
+        });
+        addCharacteristicHandler(GattCharacteristic.UUID_CHARACTERISTIC_DEVICE_NAME, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                handleDeviceName(characteristic.getValue(), status);
+                return true;
+            }
+        });
+        addCharacteristicHandler(MiBandService.UUID_CHARACTERISTIC_BATTERY, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                handleBatteryInfo(characteristic.getValue(), status);
+                return true;
+            }
+
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                handleBatteryInfo(characteristic.getValue(), BluetoothGatt.GATT_SUCCESS);
+                return true;
+            }
+        });
+        addCharacteristicHandler(MiBandService.UUID_CHARACTERISTIC_NOTIFICATION, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                handleNotificationNotif(characteristic.getValue());
+                return true;
+            }
+        });
+        addCharacteristicHandler(MiBandService.UUID_CHARACTERISTIC_REALTIME_STEPS, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                handleRealtimeSteps(characteristic.getValue());
+                return true;
+            }
+        });
+        addCharacteristicHandler(MiBandService.UUID_CHARACTERISTIC_HEART_RATE_MEASUREMENT, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                logHeartrate(characteristic.getValue(), status);
+                return true;
+            }
+
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                handleHeartrate(characteristic.getValue());
+                return true;
+            }
+        });
+        addCharacteristicHandler(MiBandService.UUID_CHARACTERISTIC_SENSOR_DATA, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                handleSensorData(characteristic.getValue());
+                return true;
+            }
+        });
+        addCharacteristicHandler(MiBandService.UUID_CHARACTERISTIC_DATE_TIME, new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                logDate(characteristic.getValue(), status);
+                return true;
+            }
+        });
     }
 
     @Override
@@ -875,55 +949,25 @@ public class MiBandSupport extends AbstractBTLEDeviceSupport {
     @Override
     public boolean onCharacteristicChanged(BluetoothGatt gatt,
                                            BluetoothGattCharacteristic characteristic) {
-        super.onCharacteristicChanged(gatt, characteristic);
-
-        UUID characteristicUUID = characteristic.getUuid();
-        if (MiBandService.UUID_CHARACTERISTIC_BATTERY.equals(characteristicUUID)) {
-            handleBatteryInfo(characteristic.getValue(), BluetoothGatt.GATT_SUCCESS);
-            return true;
-        } else if (MiBandService.UUID_CHARACTERISTIC_NOTIFICATION.equals(characteristicUUID)) {
-            handleNotificationNotif(characteristic.getValue());
+        // the characteristics are handled by the handlers added in addCharacteristicHandlers()
+        if (super.onCharacteristicChanged(gatt, characteristic)) {
             return true;
-        } else if (MiBandService.UUID_CHARACTERISTIC_REALTIME_STEPS.equals(characteristicUUID)) {
-            handleRealtimeSteps(characteristic.getValue());
-            return true;
-        } else if (MiBandService.UUID_CHARACTERISTIC_HEART_RATE_MEASUREMENT.equals(characteristicUUID)) {
-            handleHeartrate(characteristic.getValue());
-            return true;
-        } else if (MiBandService.UUID_CHARACTERISTIC_SENSOR_DATA.equals(characteristicUUID)) {
-            handleSensorData(characteristic.getValue());
-        } else {
-            LOG.info("Unhandled characteristic changed: " + characteristicUUID);
-            logMessageContent(characteristic.getValue());
         }
+
+        LOG.info("Unhandled characteristic changed: " + characteristic.getUuid());
+        logMessageContent(characteristic.getValue());
         return false;
     }
 
     @Override
     public boolean onCharacteristicRead(BluetoothGatt gatt,
                                         BluetoothGattCharacteristic characteristic, int status) {
-        super.onCharacteristicRead(gatt, characteristic, status);
-
-        UUID characteristicUUID = characteristic.getUuid();
-        if (MiBandService.UUID_CHARACTERISTIC_DEVICE_INFO.equals(characteristicUUID)) {
-            handleDeviceInfo(characteristic.getValue(), status);
-            return true;
-        } else if (GattCharacteristic.UUID_CHARACTERISTIC_DEVICE_NAME.equals(characteristicUUID)) {
-            handleDeviceName(characteristic.getValue(), status);
-            return true;
-        } else if (MiBandService.UUID_CHARACTERISTIC_BATTERY.equals(characteristicUUID)) {
-            handleBatteryInfo(characteristic.getValue(), status);
+        if (super.onCharacteristicRead(gatt, characteristic, status)) {
             return true;
-        } else if (MiBandService.UUID_CHARACTERISTIC_HEART_RATE_MEASUREMENT.equals(characteristicUUID)) {
-            logHeartrate(characteristic.getValue(), status);
-            return true;
-        } else if (MiBandService.UUID_CHARACTERISTIC_DATE_TIME.equals(characteristicUUID)) {
-            logDate(characteristic.getValue(), status);
-            return true;
-        } else {
-            LOG.info("Unhandled characteristic read: " + characteristicUUID);
-            logMessageContent(characteristic.getValue());
         }
+
+        LOG.info("Unhandled characteristic read: " + characteristic.getUuid());
+        logMessageContent(characteristic.getValue());
         return false;
     }
 
@@ -1021,17 +1065,13 @@ public class MiBandSupport extends AbstractBTLEDeviceSupport {
                         User user = DBHelper.getUser(session);
                         int ts = (int) (System.currentTimeMillis() / 1000);
                         MiBandSampleProvider provider = new MiBandSampleProvider(gbDevice, session);
-                        MiBandActivitySample sample = createActivitySample(device, user, ts, provider);
-                        sample.setHeartRate(getHeartrateBpm());
-                        sample.setRawIntensity(ActivitySample.NOT_MEASURED);
-                        sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY); // to make it visible in the charts TODO: add a MANUAL kind for that?
+                        MiBandActivitySample sample = createRealtimeSample(device, user, ts, provider);
+                        provider.addGBActivitySampleBuffered(sample);
 
-                        provider.addGBActivitySample(sample);
-
-                        // set the steps only afterwards, since realtime steps are also recorded
+                        // the buffered sample is written later and must not be changed anymore,
+                        // so use a separate one for the steps, since realtime steps are also recorded
                         // in the regular samples and we must not count them twice
-                        // Note: we know that the DAO sample is never committed again, so we simply
-                        // change the value here in memory.
+                        sample = createRealtimeSample(device, user, ts, provider);
                         sample.setSteps(getSteps());
 
                         if (LOG.isDebugEnabled()) {
@@ -1046,6 +1086,14 @@ public class MiBandSupport extends AbstractBTLEDeviceSupport {
                         LOG.warn("Unable to acquire db for saving realtime samples", e);
                     }
                 }
+
+                private MiBandActivitySample createRealtimeSample(Device device, User user, int ts, MiBandSampleProvider provider) {
+                    MiBandActivitySample sample = createActivitySample(device, user, ts, provider);
+                    sample.setHeartRate(getHeartrateBpm());
+                    sample.setRawIntensity(ActivitySample.NOT_MEASURED);
+                    sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY); // to make it visible in the charts TODO: add a MANUAL kind for that?
+                    return sample;
+                }
             };
         }
         return realtimeSamplesSupport;
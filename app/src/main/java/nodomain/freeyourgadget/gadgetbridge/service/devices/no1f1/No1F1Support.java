@@ -41,6 +41,7 @@ import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventBatteryInfo;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventVersionInfo;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIngestionPipeline;
 import nodomain.freeyourgadget.gadgetbridge.devices.no1f1.No1F1Constants;
 import nodomain.freeyourgadget.gadgetbridge.devices.no1f1.No1F1SampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.No1F1ActivitySample;
@@ -572,6 +573,15 @@ public class No1F1Support extends AbstractBTLEDeviceSupport {
         }
     }
 
+    private void fetchWhenUncongested(final byte type) {
+        SampleIngestionPipeline.getInstance().runWhenUncongested(new Runnable() {
+            @Override
+            public void run() {
+                sendFetchCommand(type);
+            }
+        });
+    }
+
     private void sendFetchCommand(byte type) {
         samples.clear();
         crc = 0;
@@ -601,39 +611,40 @@ public class No1F1Support extends AbstractBTLEDeviceSupport {
                     getDevice().sendDeviceUpdateIntent(getContext());
                 }
             } else if (samples.size() > 0) {
-                try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                    Long userId = DBHelper.getUser(dbHandler.getDaoSession()).getId();
-                    Long deviceId = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId();
-                    No1F1SampleProvider provider = new No1F1SampleProvider(getDevice(), dbHandler.getDaoSession());
-                    for (int i = 0; i < samples.size(); i++) {
-                        samples.get(i).setDeviceId(deviceId);
-                        samples.get(i).setUserId(userId);
-                        if (data[0] == No1F1Constants.CMD_FETCH_STEPS) {
-                            samples.get(i).setRawKind(ActivityKind.TYPE_ACTIVITY);
-                            samples.get(i).setRawIntensity(samples.get(i).getSteps());
-                        } else if (data[0] == No1F1Constants.CMD_FETCH_SLEEP) {
-                            if (samples.get(i).getRawIntensity() < 7)
-                                samples.get(i).setRawKind(ActivityKind.TYPE_DEEP_SLEEP);
-                            else
-                                samples.get(i).setRawKind(ActivityKind.TYPE_LIGHT_SLEEP);
-                        }
-                        provider.addGBActivitySample(samples.get(i));
-                    }
-                    LOG.info("Activity data saved");
+                for (int i = 0; i < samples.size(); i++) {
                     if (data[0] == No1F1Constants.CMD_FETCH_STEPS) {
-                        sendFetchCommand(No1F1Constants.CMD_FETCH_SLEEP);
+                        samples.get(i).setRawKind(ActivityKind.TYPE_ACTIVITY);
+                        samples.get(i).setRawIntensity(samples.get(i).getSteps());
                     } else if (data[0] == No1F1Constants.CMD_FETCH_SLEEP) {
-                        sendFetchCommand(No1F1Constants.CMD_FETCH_HEARTRATE);
-                    } else {
-                        GB.updateTransferNotification(null,"", false, 100, getContext());
-                        if (getDevice().isBusy()) {
-                            getDevice().unsetBusyTask();
-                            GB.signalActivityDataFinish();
-                        }
+                        if (samples.get(i).getRawIntensity() < 7)
+                            samples.get(i).setRawKind(ActivityKind.TYPE_DEEP_SLEEP);
+                        else
+                            samples.get(i).setRawKind(ActivityKind.TYPE_LIGHT_SLEEP);
                     }
-                } catch (Exception ex) {
-                    GB.toast(getContext(), "Error saving activity data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
+                }
+                // the pipeline copies the list and sets the user and device ids, so the
+                // list can be reused for the next fetch
+                SampleIngestionPipeline pipeline = SampleIngestionPipeline.getInstance();
+                if (!pipeline.submit(getDevice(), samples)) {
                     GB.updateTransferNotification(null,"Data transfer failed", false, 0, getContext());
+                    return;
+                }
+                LOG.info("Activity data submitted");
+                if (data[0] == No1F1Constants.CMD_FETCH_STEPS) {
+                    fetchWhenUncongested(No1F1Constants.CMD_FETCH_SLEEP);
+                } else if (data[0] == No1F1Constants.CMD_FETCH_SLEEP) {
+                    fetchWhenUncongested(No1F1Constants.CMD_FETCH_HEARTRATE);
+                } else {
+                    GB.updateTransferNotification(null,"", false, 100, getContext());
+                    if (getDevice().isBusy()) {
+                        getDevice().unsetBusyTask();
+                        pipeline.runWhenWritten(new Runnable() {
+                            @Override
+                            public void run() {
+                                GB.signalActivityDataFinish();
+                            }
+                        });
+                    }
                 }
             }
         } else {
@@ -689,12 +700,12 @@ public class No1F1Support extends AbstractBTLEDeviceSupport {
             sample.setHeartRate(data[3] & 0xff);
             LOG.info("Current heart rate is: " + sample.getHeartRate() + " BPM");
             try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                Long userId = DBHelper.getUser(dbHandler.getDaoSession()).getId();
-                Long deviceId = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId();
+                long userId = DBHelper.getUserId(dbHandler.getDaoSession());
+                long deviceId = DBHelper.getDeviceId(getDevice(), dbHandler.getDaoSession());
                 No1F1SampleProvider provider = new No1F1SampleProvider(getDevice(), dbHandler.getDaoSession());
                 sample.setDeviceId(deviceId);
                 sample.setUserId(userId);
-                provider.addGBActivitySample(sample);
+                provider.addGBActivitySampleBuffered(sample);
             } catch (Exception ex) {
                 LOG.warn("Error saving current heart rate: " + ex.getLocalizedMessage());
             }
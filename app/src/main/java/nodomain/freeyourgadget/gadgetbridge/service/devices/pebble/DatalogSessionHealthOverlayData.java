@@ -30,6 +30,7 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleHealthSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
@@ -79,8 +80,8 @@ class DatalogSessionHealthOverlayData extends DatalogSessionPebbleHealth {
     private void store(OverlayRecord[] overlayRecords) {
         try (DBHandler dbHandler = GBApplication.acquireDB()) {
             DaoSession session = dbHandler.getDaoSession();
-            Long userId = DBHelper.getUser(session).getId();
-            Long deviceId = DBHelper.getDevice(getDevice(), session).getId();
+            Long userId = DBHelper.getUserId(session);
+            Long deviceId = DBHelper.getDeviceId(getDevice(), session);
 
             PebbleHealthActivityOverlayDao overlayDao = session.getPebbleHealthActivityOverlayDao();
 
@@ -89,6 +90,17 @@ class DatalogSessionHealthOverlayData extends DatalogSessionPebbleHealth {
                 overlayList.add(new PebbleHealthActivityOverlay(overlayRecord.timestampStart, overlayRecord.timestampStart + overlayRecord.durationSeconds, overlayRecord.type, deviceId, userId, overlayRecord.getRawData()));
             }
             overlayDao.insertOrReplaceInTx(overlayList);
+
+            // the overlays change the kind of the samples they cover
+            int tsFrom = Integer.MAX_VALUE;
+            int tsTo = Integer.MIN_VALUE;
+            for (PebbleHealthActivityOverlay overlay : overlayList) {
+                tsFrom = Math.min(tsFrom, overlay.getTimestampFrom());
+                tsTo = Math.max(tsTo, overlay.getTimestampTo());
+            }
+            if (!overlayList.isEmpty()) {
+                new PebbleHealthSampleProvider(getDevice(), session).notifySamplesChanged(tsFrom, tsTo);
+            }
         } catch (Exception ex) {
             LOG.debug(ex.getMessage());
         }
@@ -98,8 +98,8 @@ class DatalogSessionHealthSteps extends DatalogSessionPebbleHealth {
             PebbleHealthSampleProvider sampleProvider = new PebbleHealthSampleProvider(getDevice(), dbHandler.getDaoSession());
             PebbleHealthActivitySample[] samples = new PebbleHealthActivitySample[stepsRecords.length];
             // TODO: user and device
-            Long userId = DBHelper.getUser(dbHandler.getDaoSession()).getId();
-            Long deviceId = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId();
+            Long userId = DBHelper.getUserId(dbHandler.getDaoSession());
+            Long deviceId = DBHelper.getDeviceId(getDevice(), dbHandler.getDaoSession());
             for (int j = 0; j < stepsRecords.length; j++) {
                 StepsRecord stepsRecord = stepsRecords[j];
                 samples[j] = new PebbleHealthActivitySample(
@@ -112,10 +112,10 @@ public class JSInterface {
             LOG.info("WEBVIEW message to pebble: " + out.toString());
             if (needsTransaction) {
                 this.lastTransaction++;
-                GBApplication.deviceService().onAppConfiguration(this.mUuid, out.toString(), this.lastTransaction);
+                GBApplication.deviceService(device).onAppConfiguration(this.mUuid, out.toString(), this.lastTransaction);
                 return this.lastTransaction.toString();
             } else {
-                GBApplication.deviceService().onAppConfiguration(this.mUuid, out.toString(), null);
+                GBApplication.deviceService(device).onAppConfiguration(this.mUuid, out.toString(), null);
             }
 
         } catch (JSONException e) {
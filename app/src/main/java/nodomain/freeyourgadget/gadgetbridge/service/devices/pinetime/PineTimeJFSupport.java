@@ -798,9 +798,8 @@ public class PineTimeJFSupport extends AbstractBTLEDeviceSupport implements DfuL
                 sample.setProvider(provider);
 
                 sample.setRawIntensity(ActivitySample.NOT_MEASURED);
-
-                provider.addGBActivitySample(sample);
             }
+            provider.addGBActivitySamples(samples);
 
         } catch (Exception ex) {
             GB.toast(getContext(), "Error saving samples: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
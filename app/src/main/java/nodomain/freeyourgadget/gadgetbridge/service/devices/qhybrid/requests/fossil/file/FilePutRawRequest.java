@@ -33,6 +33,8 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fos
 public class FilePutRawRequest extends FossilRequest {
     public enum UploadState {INITIALIZED, UPLOADING, CLOSING, UPLOADED}
 
+    private static final int PACKETS_PER_BLOCK = 64;
+
     public UploadState state;
 
     public ArrayList<byte[]> packets = new ArrayList<>();
@@ -89,10 +91,11 @@ public class FilePutRawRequest extends FossilRequest {
 
                     this.prepareFilePackets(this.file);
 
-                    for (int i = 0, packetCount = packets.size(); i < packetCount; i++) {
-                        byte[] packet = packets.get(i);
-                        transactionBuilder.write(uploadCharacteristic, packet);
-                        onPacketWritten(transactionBuilder, i, packetCount);
+                    // the packets are written in blocks, in order to be able to report the progress in between
+                    for (int i = 0, packetCount = packets.size(); i < packetCount; i += PACKETS_PER_BLOCK) {
+                        int blockEnd = Math.min(i + PACKETS_PER_BLOCK, packetCount);
+                        transactionBuilder.writeBulk(uploadCharacteristic, new ArrayList<>(packets.subList(i, blockEnd)));
+                        onPacketWritten(transactionBuilder, blockEnd - 1, packetCount);
                     }
 
                     transactionBuilder.queue(adapter.getDeviceSupport().getQueue());
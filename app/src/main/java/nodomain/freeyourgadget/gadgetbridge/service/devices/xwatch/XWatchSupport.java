@@ -35,15 +35,9 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.UUID;
 
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventVersionInfo;
-import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
-import nodomain.freeyourgadget.gadgetbridge.devices.xwatch.XWatchSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIngestionPipeline;
 import nodomain.freeyourgadget.gadgetbridge.devices.xwatch.XWatchService;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
-import nodomain.freeyourgadget.gadgetbridge.entities.User;
 import nodomain.freeyourgadget.gadgetbridge.entities.XWatchActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice.State;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
@@ -365,16 +359,6 @@ public class XWatchSupport extends AbstractBTLEDeviceSupport {
         //TODO: Implement (if necessary)
     }
 
-    public XWatchActivitySample createActivitySample(Device device, User user, int timestampInSeconds, SampleProvider provider) {
-        XWatchActivitySample sample = new XWatchActivitySample();
-        sample.setDevice(device);
-        sample.setUser(user);
-        sample.setTimestamp(timestampInSeconds);
-        sample.setProvider(provider);
-
-        return sample;
-    }
-
     private void handleDeviceInfo(byte[] value, int status) {
         if (status == BluetoothGatt.GATT_SUCCESS) {
             DeviceInfo mDeviceInfo = new DeviceInfo(value);
@@ -445,10 +429,7 @@ public class XWatchSupport extends AbstractBTLEDeviceSupport {
                 LOG.warn("DATA: " + String.format("0x%4x", b));
             }
         } else {
-            try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                XWatchSampleProvider provider = new XWatchSampleProvider(getDevice(), dbHandler.getDaoSession());
-                User user = DBHelper.getUser(dbHandler.getDaoSession());
-                Device device = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession());
+            try {
                 int timestampInSeconds = 0;
 
                 timestampInSeconds = getTimestampFromData(
@@ -462,7 +443,9 @@ public class XWatchSupport extends AbstractBTLEDeviceSupport {
                 intensity = (value[7] & 255) + ((value[8] & 255) << 8);
                 steps = (value[9] & 255) + ((value[10] & 255) << 8);
 
-                XWatchActivitySample sample = createActivitySample(device, user, timestampInSeconds, provider);
+                // the ingestion pipeline's writer sets the user and device ids
+                XWatchActivitySample sample = new XWatchActivitySample();
+                sample.setTimestamp(timestampInSeconds);
                 sample.setRawIntensity(intensity);
                 sample.setSteps(steps);
                 sample.setRawKind(category);
@@ -471,18 +454,23 @@ public class XWatchSupport extends AbstractBTLEDeviceSupport {
                     LOG.debug("sample: " + sample);
                 }
 
-                provider.addGBActivitySample(sample);
+                SampleIngestionPipeline.getInstance().submit(getDevice(), sample);
 
                 if (value[5] == 95) {
                     dayToFetch++;
                     if (dayToFetch <= maxDayToFetch) {
-                        try {
-                            builder = performInitialized("fetchActivityData");
-                            requestDetailedData(builder);
-                            builder.queue(getQueue());
-                        } catch (IOException e) {
-                            GB.toast(getContext(), "Error fetching activity data: " + e.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
-                        }
+                        SampleIngestionPipeline.getInstance().runWhenUncongested(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    builder = performInitialized("fetchActivityData");
+                                    requestDetailedData(builder);
+                                    builder.queue(getQueue());
+                                } catch (IOException e) {
+                                    GB.toast(getContext(), "Error fetching activity data: " + e.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
+                                }
+                            }
+                        });
                     }
                 }
             } catch (Exception ex) {
@@ -41,14 +41,12 @@ import java.util.UUID;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventBatteryInfo;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventCallControl;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventMusicControl;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventVersionInfo;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIngestionPipeline;
 import nodomain.freeyourgadget.gadgetbridge.devices.zetime.ZeTimeConstants;
-import nodomain.freeyourgadget.gadgetbridge.devices.zetime.ZeTimeSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.ZeTimeActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
@@ -1168,6 +1166,23 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
         }
     }
 
+    /**
+     * Requests the next kind of data that is available, but only once the ingestion
+     * pipeline has caught up with what was fetched so far.
+     */
+    private void fetchNextWhenUncongested() {
+        SampleIngestionPipeline.getInstance().runWhenUncongested(new Runnable() {
+            @Override
+            public void run() {
+                if (availableHeartRateData > 0) {
+                    getHeartRateData();
+                } else if (availableSleepData > 0) {
+                    getSleepData();
+                }
+            }
+        });
+    }
+
     private void deleteHeartRateData() {
         try {
             TransactionBuilder builder = performInitialized("deleteHeartRateData");
@@ -1218,6 +1233,17 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
         }
     }
 
+    /**
+     * Hands the sample over to the ingestion pipeline, so that a fetch of many records
+     * does not wait for a database transaction per record. The writer sets the user and
+     * device ids, so this does not touch the database.
+     */
+    private void submitSample(ZeTimeActivitySample sample) {
+        if (!SampleIngestionPipeline.getInstance().submit(getDevice(), sample)) {
+            GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
+        }
+    }
+
     private void handleStepsData(byte[] msg) {
         ZeTimeActivitySample sample = new ZeTimeActivitySample();
         Calendar now = GregorianCalendar.getInstance();
@@ -1232,15 +1258,7 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
         sample.setRawKind(ActivityKind.TYPE_ACTIVITY);
         sample.setRawIntensity(sample.getSteps());
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-            sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-            ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-            provider.addGBActivitySample(sample);
-        } catch (Exception ex) {
-            GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
-            GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
-        }
+        submitSample(sample);
 
         progressSteps = (msg[5] & 0xff) | ((msg[6] << 8) & 0xff00);
         GB.updateTransferNotification(null, getContext().getString(R.string.busy_task_fetch_activity_data), true, progressSteps * 100 / availableStepsData, getContext());
@@ -1256,11 +1274,7 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             if (!prefs.getBoolean(ZeTimeConstants.PREF_ZETIME_DONT_DEL_ACTDATA, false)) {
                 deleteStepData();
             }
-            if (availableHeartRateData > 0) {
-                getHeartRateData();
-            } else if (availableSleepData > 0) {
-                getSleepData();
-            }
+            fetchNextWhenUncongested();
         }
     }
 
@@ -1279,15 +1293,7 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             sample.setRawKind(ActivityKind.TYPE_UNKNOWN);
         }
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-            sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-            ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-            provider.addGBActivitySample(sample);
-        } catch (Exception ex) {
-            GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
-            GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
-        }
+        submitSample(sample);
 
         progressSleep = (msg[5] & 0xff) | (msg[6] << 8) & 0xff00;
         GB.updateTransferNotification(null, getContext().getString(R.string.busy_task_fetch_activity_data), true, progressSleep * 100 / availableSleepData, getContext());
@@ -1298,7 +1304,13 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             GB.updateTransferNotification(null, "", false, 100, getContext());
             if (getDevice().isBusy()) {
                 getDevice().unsetBusyTask();
-                GB.signalActivityDataFinish();
+                // signal only after the fetched samples have actually been written
+                SampleIngestionPipeline.getInstance().runWhenWritten(new Runnable() {
+                    @Override
+                    public void run() {
+                        GB.signalActivityDataFinish();
+                    }
+                });
             }
             if (!prefs.getBoolean(ZeTimeConstants.PREF_ZETIME_DONT_DEL_ACTDATA, false)) {
                 deleteSleepData();
@@ -1315,15 +1327,7 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
         sample.setHeartRate(msg[11]);
         sample.setTimestamp(timestamp);
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-            sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-            ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-            provider.addGBActivitySample(sample);
-        } catch (Exception ex) {
-            GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
-            GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
-        }
+        submitSample(sample);
 
         progressHeartRate = (msg[5] & 0xff) | ((msg[6] << 8) & 0xff00);
         GB.updateTransferNotification(null, getContext().getString(R.string.busy_task_fetch_activity_data), true, progressHeartRate * 100 / availableHeartRateData, getContext());
@@ -1333,18 +1337,11 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             timestamp = (msg[17] << 24) & 0xff000000 | (msg[16] << 16) & 0xff0000 | (msg[15] << 8) & 0xff00 | (msg[14] & 0xff);
             timestamp += eightHourOffset; // the timestamp from the watch has an offset of eight hours, do not know why...
             timestamp -= ((now.get(Calendar.ZONE_OFFSET) / 1000) + (now.get(Calendar.DST_OFFSET) / 1000));  // TimeZone hour + daylight saving
+            sample = new ZeTimeActivitySample();
             sample.setHeartRate(msg[18]);
             sample.setTimestamp(timestamp);
 
-            try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-                sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-                ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-                provider.addGBActivitySample(sample);
-            } catch (Exception ex) {
-                GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
-                GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
-            }
+            submitSample(sample);
 
             progressHeartRate = (msg[12] & 0xff) | ((msg[13] << 8) & 0xff00);
             GB.updateTransferNotification(null, getContext().getString(R.string.busy_task_fetch_activity_data), true, (int) (progressHeartRate * 100 / availableHeartRateData), getContext());
@@ -1362,9 +1359,7 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             if (!prefs.getBoolean(ZeTimeConstants.PREF_ZETIME_DONT_DEL_ACTDATA, false)) {
                 deleteHeartRateData();
             }
-            if (availableSleepData > 0) {
-                getSleepData();
-            }
+            fetchNextWhenUncongested();
         }
     }
 
@@ -30,6 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Calendar;
+import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.BuildConfig;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -58,24 +59,32 @@ public class AutoConnectIntervalReceiver extends BroadcastReceiver {
             return;
         }
 
-        GBDevice gbDevice = service.getGBDevice();
-        if (gbDevice == null) {
+        List<GBDevice> gbDevices = service.getGBDevices();
+        if (gbDevices.isEmpty()) {
             return;
         }
 
         if (action.equals(DeviceManager.ACTION_DEVICES_CHANGED)) {
-            if (gbDevice.isInitialized()) {
-                LOG.info("will reset connection delay, device is initialized!");
-                mDelay = 4;
+            boolean initialized = false;
+            boolean waitingForReconnect = false;
+            for (GBDevice gbDevice : gbDevices) {
+                initialized |= gbDevice.isInitialized();
+                waitingForReconnect |= gbDevice.getState() == GBDevice.State.WAITING_FOR_RECONNECT;
             }
-            else if (gbDevice.getState() == GBDevice.State.WAITING_FOR_RECONNECT) {
+            if (waitingForReconnect) {
                 scheduleReconnect();
             }
+            else if (initialized) {
+                LOG.info("will reset connection delay, device is initialized!");
+                mDelay = 4;
+            }
         }
         else if (action.equals("GB_RECONNECT")) {
-            if (gbDevice.getState() == GBDevice.State.WAITING_FOR_RECONNECT) {
-                LOG.info("Will re-connect to " + gbDevice.getAddress() + "(" + gbDevice.getName() + ")");
-                GBApplication.deviceService().connect();
+            for (GBDevice gbDevice : gbDevices) {
+                if (gbDevice.getState() == GBDevice.State.WAITING_FOR_RECONNECT) {
+                    LOG.info("Will re-connect to " + gbDevice.getAddress() + "(" + gbDevice.getName() + ")");
+                    GBApplication.deviceService(gbDevice).connect();
+                }
             }
         }
     }
@@ -135,8 +135,10 @@ public class BondingUtil {
         new Handler(mainLooper).postDelayed(new Runnable() {
             @Override
             public void run() {
-                GBApplication.deviceService().disconnect();
                 GBDevice device = DeviceHelper.getInstance().toSupportedDevice(candidate);
+                if (device != null) {
+                    GBApplication.deviceService(device).disconnect();
+                }
                 connectToGBDevice(device);
             }
         }, DELAY_AFTER_BONDING);
@@ -180,7 +182,7 @@ public class BondingUtil {
     public static void connectThenComplete(BondingInterface bondingInterface, GBDevice device) {
         toast(bondingInterface.getContext(), bondingInterface.getContext().getString(R.string.discovery_trying_to_connect_to, device.getName()), Toast.LENGTH_SHORT, GB.INFO);
         // Disconnect when LE Pebble so that the user can manually initiate a connection
-        GBApplication.deviceService().disconnect();
+        GBApplication.deviceService(device).disconnect();
         GBApplication.deviceService().connect(device, true);
         bondingInterface.onBondingComplete(true);
     }
@@ -51,6 +51,7 @@ import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.ControlCenterv2;
 import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventScreenshot;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityDataPrecomputer;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
@@ -159,6 +160,8 @@ public class GB {
         }
 
         Intent deviceCommunicationServiceIntent = new Intent(context, DeviceCommunicationService.class);
+        // the actions are meant for this device only, others may be connected as well
+        deviceCommunicationServiceIntent.putExtra(GBDevice.EXTRA_DEVICE, device);
         if (connected) {
             deviceCommunicationServiceIntent.setAction(DeviceService.ACTION_DISCONNECT);
             PendingIntent disconnectPendingIntent = PendingIntent.getService(context, 0, deviceCommunicationServiceIntent, PendingIntent.FLAG_ONE_SHOT);
@@ -171,7 +174,6 @@ public class GB {
             }
         } else if (device.getState().equals(GBDevice.State.WAITING_FOR_RECONNECT) || device.getState().equals(GBDevice.State.NOT_CONNECTED)) {
             deviceCommunicationServiceIntent.setAction(DeviceService.ACTION_CONNECT);
-            deviceCommunicationServiceIntent.putExtra(GBDevice.EXTRA_DEVICE, device);
             PendingIntent reconnectPendingIntent = PendingIntent.getService(context, 2, deviceCommunicationServiceIntent, PendingIntent.FLAG_UPDATE_CURRENT);
             builder.addAction(R.drawable.ic_notification, context.getString(R.string.controlcenter_connect), reconnectPendingIntent);
         }
@@ -540,5 +542,6 @@ public class GB {
     public static void signalActivityDataFinish() {
         Intent intent = new Intent(GBApplication.ACTION_NEW_DATA);
         LocalBroadcastManager.getInstance(GBApplication.getContext()).sendBroadcast(intent);
+        ActivityDataPrecomputer.schedule();
     }
 }
@@ -47,6 +47,7 @@ public class GBPrefs {
     public static final String AUTO_EXPORT_LOCATION = "auto_export_location";
     public static final String PING_TONE = "ping_tone";
     public static final String AUTO_EXPORT_INTERVAL = "auto_export_interval";
+    public static final String AUTO_EXPORT_INCREMENTAL = "auto_export_incremental";
     private static final boolean AUTO_START_DEFAULT = true;
     private static final String BG_JS_ENABLED = "pebble_enable_background_javascript";
     private static final boolean BG_JS_ENABLED_DEFAULT = false;
@@ -60,6 +61,7 @@ public class GBPrefs {
 
     public static final String CHART_MAX_HEART_RATE = "chart_max_heart_rate";
     public static final String CHART_MIN_HEART_RATE = "chart_min_heart_rate";
+    public static final String CHART_DOWNSAMPLING = "chart_downsampling";
 
     private final Prefs mPrefs;
 
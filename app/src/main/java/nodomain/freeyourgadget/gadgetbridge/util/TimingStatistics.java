@@ -0,0 +1,86 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often and how long something took, e.g. rendering a chart, in order to be
+ * able to compare timings between versions and settings. Like the
+ * {@link nodomain.freeyourgadget.gadgetbridge.database.DBLockStatistics}, updating the
+ * counters is lock-free and cheap enough to be always enabled.
+ */
+public class TimingStatistics {
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong nanosTotal = new AtomicLong();
+    private final AtomicLong nanosMax = new AtomicLong();
+    private final AtomicLong nanosLast = new AtomicLong();
+
+    public TimingStatistics(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        count.incrementAndGet();
+        nanosTotal.addAndGet(nanos);
+        nanosLast.set(nanos);
+        long current;
+        do {
+            current = nanosMax.get();
+            if (nanos <= current) {
+                return;
+            }
+        } while (!nanosMax.compareAndSet(current, nanos));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanosTotal.get());
+    }
+
+    public long getAverageMillis() {
+        long count = getCount();
+        return count > 0 ? TimeUnit.NANOSECONDS.toMillis(nanosTotal.get() / count) : 0;
+    }
+
+    public long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanosMax.get());
+    }
+
+    public long getLastMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanosLast.get());
+    }
+
+    public void reset() {
+        count.set(0);
+        nanosTotal.set(0);
+        nanosMax.set(0);
+        nanosLast.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: %d times, last/average/max %d/%d/%d ms",
+                name, getCount(), getLastMillis(), getAverageMillis(), getMaxMillis());
+    }
+}
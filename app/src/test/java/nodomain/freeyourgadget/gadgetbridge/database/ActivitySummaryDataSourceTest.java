@@ -0,0 +1,70 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ActivitySummaryDataSourceTest extends TestBase {
+
+    @Test
+    public void testPaging() {
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:00:00:20");
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        // two summaries share a start time, so that a page boundary falls between them
+        long[] startTimes = {5000, 4000, 4000, 3000, 2000};
+        List<Long> expectedIds = new ArrayList<>();
+        for (long startTime : startTimes) {
+            BaseActivitySummary summary = new BaseActivitySummary();
+            summary.setStartTime(new Date(startTime));
+            summary.setEndTime(new Date(startTime + 500));
+            summary.setActivityKind(ActivityKind.TYPE_RUNNING);
+            summary.setDevice(device);
+            summary.setUser(user);
+            summary.setSummaryData("{}");
+            daoSession.getBaseActivitySummaryDao().insert(summary);
+        }
+        // newest first, ties broken by the higher id
+        expectedIds.add(1L);
+        expectedIds.add(3L);
+        expectedIds.add(2L);
+        expectedIds.add(4L);
+        expectedIds.add(5L);
+
+        ActivitySummaryDataSource dataSource = new ActivitySummaryDataSource(dummyGBDevice, 0, 0, 0, null, 0, null);
+        List<Long> ids = new ArrayList<>();
+        BaseActivitySummary last = null;
+        List<BaseActivitySummary> page;
+        do {
+            page = dataSource.loadPage(daoSession, last, 2, null);
+            for (BaseActivitySummary summary : page) {
+                assertNull(summary.getSummaryData());
+                ids.add(summary.getId());
+                last = summary;
+            }
+        } while (page.size() == 2);
+        assertEquals(expectedIds, ids);
+
+        BaseActivitySummary second = dataSource.loadSummary(daoSession, 3L);
+        assertNotNull(second.getSummaryData());
+        assertEquals(Long.valueOf(2L), dataSource.loadNeighbour(daoSession, second, true).getId());
+        assertEquals(Long.valueOf(1L), dataSource.loadNeighbour(daoSession, second, false).getId());
+        assertNull(dataSource.loadNeighbour(daoSession, dataSource.loadSummary(daoSession, 1L), false));
+
+        assertEquals(5, dataSource.loadTotals(daoSession, null).count);
+        assertEquals(1, dataSource.loadActivityKinds(daoSession).size());
+    }
+}
@@ -0,0 +1,62 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+
+public class DatabaseExportTest extends TestBase {
+
+    @Test
+    public void testExportedDatabaseOpens() throws Exception {
+        GBDevice device = createDummyGDevice("00:00:00:00:40");
+        MiBandSampleProvider provider = new MiBandSampleProvider(device, daoSession);
+        addSamples(provider, 1000, 500);
+
+        File dir = FileUtils.createTempDir("export");
+        File exported = new File(dir, "export.db");
+        try (OutputStream out = new FileOutputStream(exported)) {
+            new DBHelper(getContext()).exportDB(out);
+        }
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(exported.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            assertEquals("ok", DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null));
+            assertEquals(500, DatabaseUtils.queryNumEntries(db, MiBandActivitySampleDao.TABLENAME));
+        } finally {
+            db.close();
+        }
+        SQLiteDatabase.deleteDatabase(exported);
+    }
+
+    static void addSamples(MiBandSampleProvider provider, int start, int count) {
+        long userId = DBHelper.getUserId(provider.getSession());
+        long deviceId = DBHelper.getDeviceId(provider.getDevice(), provider.getSession());
+        MiBandActivitySample[] samples = new MiBandActivitySample[count];
+        for (int i = 0; i < count; i++) {
+            MiBandActivitySample sample = new MiBandActivitySample();
+            sample.setTimestamp(start + i * 60);
+            sample.setUserId(userId);
+            sample.setDeviceId(deviceId);
+            sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+            sample.setRawIntensity(10);
+            sample.setSteps(i % 100);
+            sample.setHeartRate(70);
+            samples[i] = sample;
+        }
+        provider.addGBActivitySamples(samples);
+    }
+}
@@ -202,4 +202,26 @@ public class EntitiesTest extends TestBase {
 
         assertEquals("2.0", DBHelper.getDeviceAttributes(deviceNew).getFirmwareVersion1());
     }
+
+    @Test
+    public void testDeviceIdentityCache() throws Exception {
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:00:00:03");
+        dummyGBDevice.setState(GBDevice.State.INITIALIZED);
+
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+        assertEquals(device.getId().longValue(), DBHelper.getDeviceId(dummyGBDevice, daoSession));
+        assertEquals(device.getId(), DBHelper.findDeviceId(dummyGBDevice, daoSession));
+
+        // changes of the GBDevice must still reach the database
+        dummyGBDevice.setAlias("Alias");
+        Device renamed = DBHelper.getDevice(dummyGBDevice, daoSession);
+        assertEquals(device.getId(), renamed.getId());
+        daoSession.clear();
+        assertEquals("Alias", daoSession.getDeviceDao().load(device.getId()).getAlias());
+
+        // a replaced database must not return stale ids
+        daoSession.getDeviceDao().deleteAll();
+        DBHelper.invalidateIdentityCache();
+        assertNull(DBHelper.findDeviceId(dummyGBDevice, daoSession));
+    }
 }
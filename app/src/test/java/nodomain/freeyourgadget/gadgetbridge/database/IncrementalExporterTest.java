@@ -0,0 +1,103 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalExporterTest extends TestBase {
+    private static final int START = 1600000000;
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        GBDevice device = createDummyGDevice("00:00:00:00:41");
+        MiBandSampleProvider provider = new MiBandSampleProvider(device, daoSession);
+        // leave a gap, which the device fills later
+        DatabaseExportTest.addSamples(provider, START, 300);
+        DatabaseExportTest.addSamples(provider, START + 400 * 60, 200);
+
+        IncrementalExporter exporter = new IncrementalExporter(getContext());
+        assertTrue(exporter.needsBaseExport(dbHandler));
+        File base = new File(FileUtils.createTempDir("export"), "base.db");
+        try (OutputStream out = new FileOutputStream(base)) {
+            exporter.exportBase(out, null);
+        }
+        assertFalse(exporter.needsBaseExport(dbHandler));
+
+        // newer samples, the history of the gap, an updated and a deleted sample
+        DatabaseExportTest.addSamples(provider, START + 600 * 60, 100);
+        DatabaseExportTest.addSamples(provider, START + 300 * 60, 100);
+        MiBandActivitySampleDao dao = daoSession.getMiBandActivitySampleDao();
+        MiBandActivitySample updated = dao.queryBuilder().where(MiBandActivitySampleDao.Properties.Timestamp.eq(START + 500 * 60)).unique();
+        updated.setSteps(1234);
+        dao.insertOrReplace(updated);
+        dao.queryBuilder().where(MiBandActivitySampleDao.Properties.Timestamp.eq(START + 550 * 60))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+        daoSession.clear();
+
+        assertFalse(exporter.needsBaseExport(dbHandler));
+        exporter.exportDelta(dbHandler);
+
+        // restore the base export and merge the delta into it
+        SQLiteDatabase restored = SQLiteDatabase.openDatabase(base.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            assertEquals(1, exporter.mergeDeltas(restored, IncrementalExporter.getDeltaDir(FileUtils.getExternalFilesDir())));
+            List<String> expected = dump(dbHandler.getDatabase(), MiBandActivitySampleDao.TABLENAME);
+            assertEquals(699, expected.size());
+            assertEquals(expected, dump(restored, MiBandActivitySampleDao.TABLENAME));
+        } finally {
+            restored.close();
+        }
+        SQLiteDatabase.deleteDatabase(base);
+    }
+
+    @Test
+    public void testSettledChangeNeedsBaseExport() throws Exception {
+        GBDevice device = createDummyGDevice("00:00:00:00:42");
+        MiBandSampleProvider provider = new MiBandSampleProvider(device, daoSession);
+        DatabaseExportTest.addSamples(provider, START, 100);
+
+        IncrementalExporter exporter = new IncrementalExporter(getContext());
+        File base = new File(FileUtils.createTempDir("export"), "base.db");
+        try (OutputStream out = new FileOutputStream(base)) {
+            exporter.exportBase(out, null);
+        }
+        assertFalse(exporter.needsBaseExport(dbHandler));
+
+        // older than the overlap of the deltas
+        DatabaseExportTest.addSamples(provider, START - 2 * (int) IncrementalExporter.OVERLAP_SECONDS, 10);
+        assertTrue(exporter.needsBaseExport(dbHandler));
+        SQLiteDatabase.deleteDatabase(base);
+    }
+
+    private static List<String> dump(SQLiteDatabase db, String table) {
+        List<String> rows = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT * FROM " + table + " ORDER BY TIMESTAMP, DEVICE_ID", null)) {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    row.append(cursor.getString(i)).append('|');
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+}
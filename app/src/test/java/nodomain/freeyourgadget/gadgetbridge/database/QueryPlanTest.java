@@ -0,0 +1,126 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.greenrobot.dao.AbstractDao;
+import de.greenrobot.dao.Property;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummaryDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevelDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.CalendarSyncStateDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.SleepSessionDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.StepSessionDao;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the standard queries of the sample providers
+ * and charts use an index instead of scanning whole tables.
+ */
+public class QueryPlanTest extends TestBase {
+
+    @Test
+    public void testSampleQueries() {
+        int checkedTables = 0;
+        for (AbstractDao<?, ?> dao : daoSession.getAllDaos()) {
+            Set<String> columns = getColumns(dao);
+            if (!columns.contains("DEVICE_ID") || !columns.contains("TIMESTAMP")) {
+                continue;
+            }
+            String table = dao.getTablename();
+            // AbstractSampleProvider#getGBActivitySamples()
+            assertNoTableScan("SELECT * FROM " + table + " WHERE DEVICE_ID=? AND TIMESTAMP>=? AND TIMESTAMP<=?",
+                    "1", "1000", "2000");
+            if (columns.contains("RAW_KIND")) {
+                assertNoTableScan("SELECT * FROM " + table + " WHERE DEVICE_ID=? AND TIMESTAMP>=? AND TIMESTAMP<=? AND (RAW_KIND=? OR RAW_KIND=?)",
+                        "1", "1000", "2000", "1", "2");
+            }
+            if (columns.contains("USER_ID")) {
+                // AbstractSampleProvider#getLatestActivitySample()
+                assertNoTableScan("SELECT * FROM " + table + " WHERE DEVICE_ID=? ORDER BY TIMESTAMP DESC LIMIT 1",
+                        "1");
+            }
+            checkedTables++;
+        }
+        assertTrue(checkedTables > 20);
+    }
+
+    @Test
+    public void testOverlayQueries() {
+        int checkedTables = 0;
+        for (AbstractDao<?, ?> dao : daoSession.getAllDaos()) {
+            Set<String> columns = getColumns(dao);
+            if (!columns.contains("DEVICE_ID") || !columns.contains("TIMESTAMP_TO")) {
+                continue;
+            }
+            String table = dao.getTablename();
+            // HPlusHealthSampleProvider#getAllActivitySamples()
+            assertNoTableScan("SELECT * FROM " + table + " WHERE DEVICE_ID=? AND TIMESTAMP_FROM>=? AND TIMESTAMP_TO<=? AND TIMESTAMP_TO>=?",
+                    "1", "1000", "2000", "1000");
+            // PebbleHealthSampleProvider#getAllActivitySamples()
+            assertNoTableScan("SELECT * FROM " + table + " WHERE DEVICE_ID=? AND TIMESTAMP_TO>=? AND TIMESTAMP_FROM<=?",
+                    "1", "1000", "2000");
+            checkedTables++;
+        }
+        assertTrue(checkedTables >= 3);
+    }
+
+    @Test
+    public void testOtherQueries() {
+        // ActivitySummaryDataSource
+        assertNoTableScan("SELECT * FROM " + BaseActivitySummaryDao.TABLENAME + " WHERE DEVICE_ID=? ORDER BY START_TIME DESC",
+                "1");
+        assertNoTableScan("SELECT * FROM " + BaseActivitySummaryDao.TABLENAME + " WHERE DEVICE_ID=? AND START_TIME>? ORDER BY START_TIME DESC",
+                "1", "1000");
+        assertNoTableScan("SELECT _id FROM " + BaseActivitySummaryDao.TABLENAME + " WHERE DEVICE_ID=? AND (START_TIME<? OR (START_TIME=? AND _id<?)) ORDER BY START_TIME DESC,_id DESC LIMIT 50",
+                "1", "1000", "1000", "5");
+        assertNoTableScan("SELECT COUNT(*),SUM(END_TIME-START_TIME),SUM(CALORIES_BURNT),SUM(DISTANCE_METERS),SUM(ACTIVE_SECONDS) FROM "
+                + BaseActivitySummaryDao.TABLENAME + " WHERE DEVICE_ID=? AND START_TIME>?",
+                "1", "1000");
+        // SleepSessions
+        assertNoTableScan("SELECT * FROM " + SleepSessionDao.TABLENAME + " WHERE DEVICE_ID=? AND SLEEP_START>=? AND SLEEP_START<=? ORDER BY SLEEP_START",
+                "1", "1000", "2000");
+        // StepSessions
+        assertNoTableScan("SELECT * FROM " + StepSessionDao.TABLENAME + " WHERE DEVICE_ID=? AND SESSION_START>=? AND SESSION_START<=? ORDER BY SESSION_START",
+                "1", "1000", "2000");
+        // BatteryInfoChartFragment
+        assertNoTableScan("SELECT * FROM " + BatteryLevelDao.TABLENAME + " WHERE DEVICE_ID=? AND BATTERY_INDEX=? AND TIMESTAMP>? AND TIMESTAMP<? ORDER BY TIMESTAMP",
+                "1", "0", "1000", "2000");
+        // CalendarReceiver
+        assertNoTableScan("SELECT * FROM " + CalendarSyncStateDao.TABLENAME + " WHERE DEVICE_ID=?",
+                "1");
+        assertNoTableScan("SELECT * FROM " + CalendarSyncStateDao.TABLENAME + " WHERE DEVICE_ID=? AND CALENDAR_ENTRY_ID=?",
+                "1", "2");
+    }
+
+    private Set<String> getColumns(AbstractDao<?, ?> dao) {
+        Set<String> columns = new HashSet<>();
+        for (Property property : dao.getProperties()) {
+            columns.add(property.columnName);
+        }
+        return columns;
+    }
+
+    private void assertNoTableScan(String sql, String... args) {
+        List<String> plan = new ArrayList<>();
+        try (Cursor cursor = daoSession.getDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, args)) {
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailColumn));
+            }
+        }
+        for (String step : plan) {
+            if (step.startsWith("SCAN")) {
+                fail("Full table scan for " + sql + ": " + plan);
+            }
+        }
+    }
+}
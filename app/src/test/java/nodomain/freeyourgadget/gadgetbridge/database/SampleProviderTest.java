@@ -2,20 +2,40 @@ package nodomain.freeyourgadget.gadgetbridge.database;
 
 import org.junit.Test;
 
+import java.util.Calendar;
+import java.util.GregorianCalendar;
 import java.util.List;
-
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.SampleBlock;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.SleepAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.StepAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityAmountCache;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityRollups;
+import nodomain.freeyourgadget.gadgetbridge.devices.RealtimeSampleBuffer;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIterator;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SleepSessions;
+import nodomain.freeyourgadget.gadgetbridge.devices.StepSessions;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -170,4 +190,368 @@ public class SampleProviderTest extends TestBase {
         sleepSamples = sampleProvider.getSleepSamples(1500, 2500);
         assertEquals(1, sleepSamples.size());
     }
+
+    @Test
+    public void testIterateAllActivitySamples() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        MiBandActivitySample[] samples = new MiBandActivitySample[100];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 1000 + i * 60, 10, 70, i, user, device);
+        }
+        sampleProvider.addGBActivitySamples(samples);
+
+        List<MiBandActivitySample> expected = sampleProvider.getAllActivitySamples(1000, 1000 + 49 * 60);
+        assertEquals(50, expected.size());
+        int count = 0;
+        try (SampleIterator<MiBandActivitySample> iterator = sampleProvider.iterateAllActivitySamples(1000, 1000 + 49 * 60)) {
+            for (MiBandActivitySample sample : iterator) {
+                assertEquals(expected.get(count).getTimestamp(), sample.getTimestamp());
+                assertEquals(expected.get(count).getSteps(), sample.getSteps());
+                assertSame(sampleProvider, sample.getProvider());
+                count++;
+            }
+            assertFalse(iterator.hasNext());
+        }
+        assertEquals(50, count);
+
+        try (SampleIterator<MiBandActivitySample> iterator = sampleProvider.iterateAllActivitySamples(0, 999)) {
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void testSampleBlock() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        // more samples than fit into one block, with sleep phases crossing the block boundaries
+        MiBandActivitySample[] samples = new MiBandActivitySample[3000];
+        for (int i = 0; i < samples.length; i++) {
+            boolean sleeping = (i / 400) % 2 == 1;
+            int rawKind = sleeping ? (i % 3 == 0 ? MiBandSampleProvider.TYPE_LIGHT_SLEEP : MiBandSampleProvider.TYPE_DEEP_SLEEP) : MiBandSampleProvider.TYPE_ACTIVITY;
+            samples[i] = createSample(sampleProvider, rawKind, 1000 + i * 60, 10 + i % 50, 60 + i % 20, sleeping ? 0 : i % 120, user, device);
+        }
+        sampleProvider.addGBActivitySamples(samples);
+
+        List<MiBandActivitySample> list = sampleProvider.getAllActivitySamples(0, Integer.MAX_VALUE);
+        SampleBlock block = SampleBlock.of(list);
+        assertEquals(list.size(), block.size());
+        for (int i = 0; i < list.size(); i++) {
+            MiBandActivitySample sample = list.get(i);
+            assertEquals(sample.getTimestamp(), block.getTimestamp(i));
+            assertEquals(sample.getKind(), block.getKind(i));
+            assertEquals(sample.getSteps(), block.getSteps(i));
+            assertEquals(sample.getHeartRate(), block.getHeartRate(i));
+            assertEquals(sample.getIntensity(), block.getIntensity(i), 0f);
+        }
+
+        // the streaming variants read the samples in chunks and must not lose any state in between
+        ActivityAmounts fromBlock = new ActivityAnalysis().calculateActivityAmounts(block);
+        ActivityAmounts streamed;
+        try (SampleIterator<MiBandActivitySample> iterator = sampleProvider.iterateAllActivitySamples(0, Integer.MAX_VALUE)) {
+            streamed = new ActivityAnalysis().calculateActivityAmounts(iterator);
+        }
+        assertEquals(fromBlock.getTotalSeconds(), streamed.getTotalSeconds());
+        assertEquals(getSteps(fromBlock), getSteps(streamed));
+        assertEquals(fromBlock.getAmounts().size(), streamed.getAmounts().size());
+
+        List<SleepAnalysis.SleepSession> sleepSessions = new SleepAnalysis().calculateSleepSessions(block);
+        List<SleepAnalysis.SleepSession> streamedSleepSessions = new SleepAnalysis().calculateSleepSessions(list);
+        assertEquals(4, sleepSessions.size());
+        assertEquals(sleepSessions.size(), streamedSleepSessions.size());
+        for (int i = 0; i < sleepSessions.size(); i++) {
+            assertEquals(sleepSessions.get(i).getSleepStart(), streamedSleepSessions.get(i).getSleepStart());
+            assertEquals(sleepSessions.get(i).getSleepEnd(), streamedSleepSessions.get(i).getSleepEnd());
+            assertEquals(sleepSessions.get(i).getDeepSleepDuration(), streamedSleepSessions.get(i).getDeepSleepDuration());
+        }
+
+        List<ActivitySession> stepSessions = new StepAnalysis().calculateStepSessions(block);
+        List<ActivitySession> streamedStepSessions = new StepAnalysis().calculateStepSessions(list);
+        assertFalse(stepSessions.isEmpty());
+        assertEquals(stepSessions.size(), streamedStepSessions.size());
+        for (int i = 0; i < stepSessions.size(); i++) {
+            assertEquals(stepSessions.get(i).getStartTime(), streamedStepSessions.get(i).getStartTime());
+            assertEquals(stepSessions.get(i).getActiveSteps(), streamedStepSessions.get(i).getActiveSteps());
+            assertEquals(stepSessions.get(i).getHeartRateAverage(), streamedStepSessions.get(i).getHeartRateAverage());
+        }
+    }
+
+    @Test
+    public void testRealtimeSampleBuffer() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        for (int i = 0; i < 10; i++) {
+            sampleProvider.addGBActivitySampleBuffered(createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 1000 + i, 10, 70, 0, user, device));
+        }
+        // nothing written yet
+        assertEquals(0, sampleProvider.getAllActivitySamples(0, 2000).size());
+
+        RealtimeSampleBuffer.flush(dummyGBDevice);
+        assertEquals(10, sampleProvider.getAllActivitySamples(0, 2000).size());
+
+        // flushing again must not write anything
+        RealtimeSampleBuffer.flush(dummyGBDevice);
+        assertEquals(10, sampleProvider.getAllActivitySamples(0, 2000).size());
+    }
+
+    @Test
+    public void testActivityRollups() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        int base = 100 * ActivityRollups.DAY_SECONDS;
+        MiBandActivitySample[] samples = new MiBandActivitySample[120];
+        for (int i = 0; i < samples.length; i++) {
+            boolean sleeping = i >= 60;
+            int rawKind = sleeping ? MiBandSampleProvider.TYPE_DEEP_SLEEP : MiBandSampleProvider.TYPE_ACTIVITY;
+            samples[i] = createSample(sampleProvider, rawKind, base + i * 60, 10, 60 + i % 10, sleeping ? 2 : 10, user, device);
+        }
+        sampleProvider.addGBActivitySamples(samples);
+
+        // not built yet
+        assertNull(ActivityRollups.getActivityAmounts(sampleProvider, base, base + 2 * ActivityRollups.HOUR_SECONDS - 1));
+
+        ActivityRollups.rebuild(sampleProvider);
+        assertTrue(ActivityRollups.isAvailable(dummyGBDevice));
+
+        int tsTo = base + 2 * ActivityRollups.HOUR_SECONDS - 1;
+        ActivityAmounts fromRollups = ActivityRollups.getActivityAmounts(sampleProvider, base, tsTo);
+        ActivityAmounts fromSamples = new ActivityAnalysis().calculateActivityAmounts(sampleProvider.getAllActivitySamples(base, tsTo));
+        assertNotNull(fromRollups);
+        assertEquals(fromSamples.getTotalSeconds(), fromRollups.getTotalSeconds());
+        assertEquals(getSteps(fromSamples), getSteps(fromRollups));
+        assertEquals(720, getSteps(fromRollups));
+        // the steps are split per activity kind, like in ActivityAnalysis
+        assertEquals(fromSamples.getAmounts().size(), fromRollups.getAmounts().size());
+        for (int i = 0; i < fromSamples.getAmounts().size(); i++) {
+            ActivityAmount expected = fromSamples.getAmounts().get(i);
+            ActivityAmount actual = fromRollups.getAmounts().get(i);
+            assertEquals(expected.getActivityKind(), actual.getActivityKind());
+            assertEquals(expected.getTotalSteps(), actual.getTotalSteps());
+        }
+
+        // unaligned ranges are not supported
+        assertNull(ActivityRollups.getActivityAmounts(sampleProvider, base + 1, tsTo));
+
+        // single samples are picked up as well, once their hour has been recomputed; readers
+        // never do that themselves, they fall back to the samples for that hour until then
+        sampleProvider.addGBActivitySample(createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, tsTo + 60, 10, 70, 100, user, device));
+        assertNull(ActivityRollups.getActivityAmounts(sampleProvider, base, tsTo + ActivityRollups.HOUR_SECONDS));
+        assertNotNull(ActivityRollups.getActivityAmounts(sampleProvider, base, tsTo));
+        ActivityRollups.flush(sampleProvider);
+        fromRollups = ActivityRollups.getActivityAmounts(sampleProvider, base, tsTo + ActivityRollups.HOUR_SECONDS);
+        assertNotNull(fromRollups);
+        assertEquals(820, getSteps(fromRollups));
+    }
+
+    @Test
+    public void testSleepSessions() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        int night = 200 * ActivityRollups.DAY_SECONDS;
+        sampleProvider.addGBActivitySamples(createNight(sampleProvider, night, user, device));
+        // not built yet
+        assertNull(SleepSessions.getSleepSessions(sampleProvider, night, night + ActivityRollups.DAY_SECONDS));
+
+        SleepSessions.rebuild(sampleProvider);
+        assertTrue(SleepSessions.isAvailable(dummyGBDevice));
+        assertSleepSessions(sampleProvider, night, 1);
+
+        // the next night is segmented incrementally, by the precomputer that the writes
+        // only mark it for
+        int nextNight = night + ActivityRollups.DAY_SECONDS;
+        sampleProvider.addGBActivitySamples(createNight(sampleProvider, nextNight, user, device));
+        assertNull(SleepSessions.getSleepSessions(sampleProvider, nextNight, nextNight + ActivityRollups.DAY_SECONDS));
+        SleepSessions.flush(sampleProvider);
+        assertSleepSessions(sampleProvider, night, 2);
+
+        // waking up in the middle of the first night splits its session, once the sessions
+        // have been updated; readers fall back to the samples until then
+        sampleProvider.addGBActivitySample(createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, night + 120 * 60, 10, 70, 100, user, device));
+        assertNull(SleepSessions.getSleepSessions(sampleProvider, night, night + ActivityRollups.DAY_SECONDS));
+        SleepSessions.flush(sampleProvider);
+        assertSleepSessions(sampleProvider, night, 3);
+    }
+
+    /**
+     * Returns an hour of activity, followed by two hours of deep sleep and another hour of activity.
+     */
+    private MiBandActivitySample[] createNight(MiBandSampleProvider sampleProvider, int start, User user, Device device) {
+        MiBandActivitySample[] samples = new MiBandActivitySample[240];
+        for (int i = 0; i < samples.length; i++) {
+            boolean sleeping = i >= 60 && i < 180;
+            int rawKind = sleeping ? MiBandSampleProvider.TYPE_DEEP_SLEEP : MiBandSampleProvider.TYPE_ACTIVITY;
+            samples[i] = createSample(sampleProvider, rawKind, start + i * 60, 10, 60, sleeping ? 0 : 10, user, device);
+        }
+        return samples;
+    }
+
+    private void assertSleepSessions(MiBandSampleProvider sampleProvider, int tsFrom, int expectedCount) {
+        int tsTo = tsFrom + 3 * ActivityRollups.DAY_SECONDS;
+        List<SleepAnalysis.SleepSession> stored = SleepSessions.getSleepSessions(sampleProvider, tsFrom, tsTo);
+        List<SleepAnalysis.SleepSession> calculated = new SleepAnalysis().calculateSleepSessions(sampleProvider.getAllActivitySamples(tsFrom, tsTo));
+        assertNotNull(stored);
+        assertEquals(expectedCount, stored.size());
+        assertEquals(calculated.size(), stored.size());
+        for (int i = 0; i < stored.size(); i++) {
+            assertEquals(calculated.get(i).getSleepStart(), stored.get(i).getSleepStart());
+            assertEquals(calculated.get(i).getSleepEnd(), stored.get(i).getSleepEnd());
+            assertEquals(calculated.get(i).getDeepSleepDuration(), stored.get(i).getDeepSleepDuration());
+        }
+    }
+
+    @Test
+    public void testStepSessions() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        int day = 300 * ActivityRollups.DAY_SECONDS;
+        sampleProvider.addGBActivitySamples(createWalk(sampleProvider, day, user, device));
+        sampleProvider.addGBActivitySamples(createWalk(sampleProvider, day + 2 * 60 * 60, user, device));
+        // not built yet
+        assertNull(StepSessions.getStepSessions(sampleProvider, day, day + ActivityRollups.DAY_SECONDS));
+
+        StepSessions.rebuild(sampleProvider);
+        assertTrue(StepSessions.isAvailable(dummyGBDevice));
+        assertStepSessions(sampleProvider, day, 2);
+        // the total steps come from the rollups
+        ActivityRollups.rebuild(sampleProvider);
+        assertEquals(Integer.valueOf(2 * 60 * 100), StepSessions.getTotalSteps(sampleProvider, day, day + ActivityRollups.DAY_SECONDS));
+
+        // a later walk is segmented incrementally
+        sampleProvider.addGBActivitySamples(createWalk(sampleProvider, day + 4 * 60 * 60, user, device));
+        StepSessions.flush(sampleProvider);
+        assertStepSessions(sampleProvider, day, 3);
+    }
+
+    @Test
+    public void testStepSessionAcrossPasses() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        int day = 300 * ActivityRollups.DAY_SECONDS;
+        sampleProvider.addGBActivitySamples(createWalk(sampleProvider, day, user, device));
+        // the rebuild passes start at the first sample and cover a week each; this walk
+        // starts half an hour before the second pass
+        int walkStart = day + 7 * ActivityRollups.DAY_SECONDS - 30 * 60;
+        sampleProvider.addGBActivitySamples(createWalk(sampleProvider, walkStart, user, device));
+
+        StepSessions.rebuild(sampleProvider);
+        assertStepSessions(sampleProvider, walkStart - 60 * 60, 1);
+
+        // updating the samples around the walk must not store its remainder either
+        sampleProvider.addGBActivitySamples(createWalk(sampleProvider, walkStart + 3 * 60 * 60, user, device));
+        StepSessions.flush(sampleProvider);
+        assertStepSessions(sampleProvider, walkStart - 60 * 60, 2);
+    }
+
+    @Test
+    public void testCancelledRebuild() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        int day = 300 * ActivityRollups.DAY_SECONDS;
+        sampleProvider.addGBActivitySamples(createWalk(sampleProvider, day, user, device));
+        sampleProvider.addGBActivitySamples(createWalk(sampleProvider, day + 8 * ActivityRollups.DAY_SECONDS, user, device));
+
+        // a cancelled rebuild stops before its next pass and leaves the data unavailable
+        AtomicBoolean cancelled = new AtomicBoolean(true);
+        ActivityRollups.ensureAvailable(sampleProvider, cancelled);
+        SleepSessions.ensureAvailable(sampleProvider, cancelled);
+        StepSessions.ensureAvailable(sampleProvider, cancelled);
+        assertFalse(ActivityRollups.isAvailable(dummyGBDevice));
+        assertFalse(SleepSessions.isAvailable(dummyGBDevice));
+        assertFalse(StepSessions.isAvailable(dummyGBDevice));
+        assertNull(ActivityRollups.getActivityAmounts(sampleProvider, day, day + ActivityRollups.DAY_SECONDS - 1));
+
+        // the next job builds them from scratch
+        cancelled.set(false);
+        ActivityRollups.ensureAvailable(sampleProvider, cancelled);
+        SleepSessions.ensureAvailable(sampleProvider, cancelled);
+        StepSessions.ensureAvailable(sampleProvider, cancelled);
+        assertTrue(ActivityRollups.isAvailable(dummyGBDevice));
+        assertTrue(SleepSessions.isAvailable(dummyGBDevice));
+        assertTrue(StepSessions.isAvailable(dummyGBDevice));
+        assertStepSessions(sampleProvider, day + 8 * ActivityRollups.DAY_SECONDS, 1);
+    }
+
+    /**
+     * Returns an hour of walking with 100 steps per minute, followed by an idle hour.
+     */
+    private MiBandActivitySample[] createWalk(MiBandSampleProvider sampleProvider, int start, User user, Device device) {
+        MiBandActivitySample[] samples = new MiBandActivitySample[120];
+        for (int i = 0; i < samples.length; i++) {
+            int steps = i < 60 ? 100 : 0;
+            samples[i] = createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, start + i * 60, steps > 0 ? 100 : 5, 80, steps, user, device);
+        }
+        return samples;
+    }
+
+    private void assertStepSessions(MiBandSampleProvider sampleProvider, int tsFrom, int expectedCount) {
+        int tsTo = tsFrom + ActivityRollups.DAY_SECONDS;
+        List<ActivitySession> stored = StepSessions.getStepSessions(sampleProvider, tsFrom, tsTo);
+        List<ActivitySession> calculated = new StepAnalysis().calculateStepSessions(sampleProvider.getAllActivitySamples(tsFrom, tsTo));
+        assertNotNull(stored);
+        assertEquals(expectedCount, stored.size());
+        assertEquals(calculated.size(), stored.size());
+        for (int i = 0; i < stored.size(); i++) {
+            assertEquals(calculated.get(i).getStartTime(), stored.get(i).getStartTime());
+            assertEquals(calculated.get(i).getEndTime(), stored.get(i).getEndTime());
+            assertEquals(calculated.get(i).getActiveSteps(), stored.get(i).getActiveSteps());
+        }
+    }
+
+    @Test
+    public void testActivityAmountCache() {
+        GBDevice miBand = new GBDevice("00:00:00:00:20", "MI", null, DeviceType.MIBAND);
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(miBand, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(miBand, daoSession);
+
+        Calendar day = GregorianCalendar.getInstance();
+        day.set(2020, Calendar.JUNE, 10, 12, 0, 0);
+        int noon = (int) (day.getTimeInMillis() / 1000);
+        sampleProvider.addGBActivitySample(createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, noon, 10, 70, 100, user, device));
+        sampleProvider.addGBActivitySample(createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, noon + 60, 10, 70, 100, user, device));
+
+        ActivityAmounts amounts = ActivityAmountCache.getActivityAmountsOfDay(dbHandler, miBand, day, 0);
+        assertEquals(200, getSteps(amounts));
+        assertSame(amounts, ActivityAmountCache.getActivityAmountsOfDay(dbHandler, miBand, day, 0));
+
+        // samples of other days do not invalidate the entry
+        sampleProvider.addGBActivitySample(createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, noon + 2 * ActivityRollups.DAY_SECONDS, 10, 70, 100, user, device));
+        assertSame(amounts, ActivityAmountCache.getActivityAmountsOfDay(dbHandler, miBand, day, 0));
+
+        // but samples of the same day do
+        sampleProvider.addGBActivitySample(createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, noon + 120, 10, 70, 100, user, device));
+        ActivityAmounts updated = ActivityAmountCache.getActivityAmountsOfDay(dbHandler, miBand, day, 0);
+        assertNotSame(amounts, updated);
+        assertEquals(300, getSteps(updated));
+
+        // as do changes written without the provider, once they are reported
+        sampleProvider.getSampleDao().insertOrReplace(createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, noon + 180, 10, 70, 100, user, device));
+        assertSame(updated, ActivityAmountCache.getActivityAmountsOfDay(dbHandler, miBand, day, 0));
+        sampleProvider.notifySamplesChanged(noon + 180, noon + 180);
+        assertEquals(400, getSteps(ActivityAmountCache.getActivityAmountsOfDay(dbHandler, miBand, day, 0)));
+    }
+
+    private long getSteps(ActivityAmounts amounts) {
+        long steps = 0;
+        for (ActivityAmount amount : amounts.getAmounts()) {
+            steps += amount.getTotalSteps();
+        }
+        return steps;
+    }
 }
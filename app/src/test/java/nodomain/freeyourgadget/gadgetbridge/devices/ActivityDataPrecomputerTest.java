@@ -0,0 +1,111 @@
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActivityDataPrecomputerTest extends TestBase {
+
+    @Test
+    public void testSupersedeRunningJob() throws Exception {
+        GBDevice device = createDummyGDevice("00:00:00:00:30");
+        BlockingJob first = new BlockingJob(device);
+        ActivityDataPrecomputer.schedule(first);
+        assertTrue(first.started.await(5, TimeUnit.SECONDS));
+        assertTrue(ActivityDataPrecomputer.isScheduled(device));
+
+        // the running job is asked to stop, the new one runs after it
+        BlockingJob second = new BlockingJob(device);
+        ActivityDataPrecomputer.schedule(second);
+        assertTrue(first.cancelled.get());
+        assertFalse(second.cancelled.get());
+        first.release.countDown();
+        second.release.countDown();
+        assertTrue(second.started.await(5, TimeUnit.SECONDS));
+        waitUntilIdle(device);
+
+        assertEquals(Boolean.FALSE, first.result);
+        assertEquals(Boolean.TRUE, second.result);
+        assertFalse(ActivityDataPrecomputer.isScheduled(device));
+    }
+
+    @Test
+    public void testSupersedePendingJob() throws Exception {
+        GBDevice blockingDevice = createDummyGDevice("00:00:00:00:31");
+        GBDevice device = createDummyGDevice("00:00:00:00:32");
+        // the jobs run one after another, so this keeps the others pending
+        BlockingJob blocking = new BlockingJob(blockingDevice);
+        ActivityDataPrecomputer.schedule(blocking);
+        assertTrue(blocking.started.await(5, TimeUnit.SECONDS));
+
+        BlockingJob pending = new BlockingJob(device);
+        pending.release.countDown();
+        ActivityDataPrecomputer.schedule(pending);
+        BlockingJob replacement = new BlockingJob(device);
+        replacement.release.countDown();
+        ActivityDataPrecomputer.schedule(replacement);
+        assertTrue(pending.cancelled.get());
+
+        blocking.release.countDown();
+        assertTrue(replacement.started.await(5, TimeUnit.SECONDS));
+        waitUntilIdle(device);
+        waitUntilIdle(blockingDevice);
+        // the superseded job never ran
+        assertEquals(1, pending.started.getCount());
+        assertEquals(Boolean.TRUE, replacement.result);
+    }
+
+    @Test
+    public void testScheduleIfIdle() throws Exception {
+        GBDevice device = createDummyGDevice("00:00:00:00:33");
+        BlockingJob running = new BlockingJob(device);
+        ActivityDataPrecomputer.schedule(running);
+        assertTrue(running.started.await(5, TimeUnit.SECONDS));
+
+        // a reader finding the data missing must not keep a running job from finishing
+        ActivityDataPrecomputer.scheduleIfIdle(device);
+        assertFalse(running.cancelled.get());
+
+        running.release.countDown();
+        waitUntilIdle(device);
+        assertEquals(Boolean.TRUE, running.result);
+    }
+
+    private void waitUntilIdle(GBDevice device) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ActivityDataPrecomputer.isScheduled(device)) {
+            assertTrue("job did not finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Does not touch the database, which the test thread holds, but waits until it is
+     * released and then reports whether it was cancelled in the meantime.
+     */
+    private static class BlockingJob extends ActivityDataPrecomputer.Job {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile Boolean result;
+
+        BlockingJob(GBDevice device) {
+            super(device);
+        }
+
+        @Override
+        boolean precompute() throws Exception {
+            started.countDown();
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+            result = !cancelled.get();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusHealthSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleHealthSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlay;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlayDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.hplus.HPlusDataRecord;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the overlay engine based sample providers with the previous implementations,
+ * which applied one overlay after another to all samples.
+ */
+public class ActivityOverlayEngineTest extends TestBase {
+    private static final int DAY_SECONDS = 24 * 60 * 60;
+    // 2020-01-01 00:00 UTC
+    private static final int START = 1577836800;
+    private static final int DAYS = 2;
+    private static final int OVERLAYS = 40;
+
+    @Test
+    public void testOverlappingOverlays() {
+        List<PebbleHealthActivitySample> samples = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            PebbleHealthActivitySample sample = new PebbleHealthActivitySample();
+            sample.setTimestamp(i * 10);
+            samples.add(sample);
+        }
+        List<int[]> overlays = new ArrayList<>();
+        overlays.add(new int[]{0, 50, 1});
+        overlays.add(new int[]{20, 30, 2});
+        overlays.add(new int[]{10, 40, 3});
+        overlays.add(new int[]{90, 100, 4});
+        new ActivityOverlayEngine<PebbleHealthActivitySample, int[]>() {
+            @Override
+            protected int getTimestampFrom(int[] overlay) {
+                return overlay[0];
+            }
+
+            @Override
+            protected int getTimestampTo(int[] overlay) {
+                return overlay[1];
+            }
+
+            @Override
+            protected void apply(PebbleHealthActivitySample sample, int[] overlay, int overlayIndex) {
+                sample.setRawKind(overlay[2]);
+            }
+        }.applyOverlays(samples, overlays);
+
+        int[] expected = {1, 3, 3, 3, 1, ActivityKind.TYPE_UNKNOWN, ActivityKind.TYPE_UNKNOWN, ActivityKind.TYPE_UNKNOWN, ActivityKind.TYPE_UNKNOWN, 4};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("sample " + i, expected[i], samples.get(i).getRawKind());
+        }
+    }
+
+    @Test
+    public void testPebbleHealth() {
+        GBDevice device = createDummyGDevice("00:00:00:00:40");
+        PebbleHealthSampleProvider provider = new PebbleHealthSampleProvider(device, daoSession);
+        long userId = DBHelper.getUserId(daoSession);
+        long deviceId = DBHelper.getDeviceId(device, daoSession);
+        Random random = new Random(42);
+
+        List<PebbleHealthActivitySample> samples = new ArrayList<>();
+        for (int ts = START; ts < START + DAYS * DAY_SECONDS; ts += 60) {
+            PebbleHealthActivitySample sample = new PebbleHealthActivitySample();
+            sample.setTimestamp(ts);
+            sample.setDeviceId(deviceId);
+            sample.setUserId(userId);
+            sample.setRawIntensity(random.nextInt(1000));
+            sample.setSteps(random.nextInt(100));
+            sample.setHeartRate(60 + random.nextInt(60));
+            samples.add(sample);
+        }
+        daoSession.getPebbleHealthActivitySampleDao().insertInTx(samples);
+
+        Set<String> keys = new HashSet<>();
+        while (keys.size() < OVERLAYS) {
+            int from = START - 7200 + random.nextInt(DAYS * DAY_SECONDS);
+            int to = from + 300 + random.nextInt(6 * 3600);
+            int kind = 1 + random.nextInt(6);
+            if (keys.add(from + "/" + to + "/" + kind)) {
+                PebbleHealthActivityOverlay overlay = new PebbleHealthActivityOverlay();
+                overlay.setTimestampFrom(from);
+                overlay.setTimestampTo(to);
+                overlay.setRawKind(kind);
+                overlay.setDeviceId(deviceId);
+                overlay.setUserId(userId);
+                daoSession.getPebbleHealthActivityOverlayDao().insert(overlay);
+            }
+        }
+
+        int from = START + 3600;
+        int to = START + DAYS * DAY_SECONDS - 3600;
+        List<PebbleHealthActivitySample> actual = provider.getAllActivitySamples(from, to);
+
+        // previous implementation
+        List<PebbleHealthActivitySample> expected = daoSession.getPebbleHealthActivitySampleDao().queryBuilder()
+                .where(PebbleHealthActivitySampleDao.Properties.DeviceId.eq(deviceId),
+                        PebbleHealthActivitySampleDao.Properties.Timestamp.ge(from),
+                        PebbleHealthActivitySampleDao.Properties.Timestamp.le(to))
+                .orderAsc(PebbleHealthActivitySampleDao.Properties.Timestamp).list();
+        List<PebbleHealthActivityOverlay> overlayRecords = daoSession.getPebbleHealthActivityOverlayDao().queryBuilder()
+                .where(PebbleHealthActivityOverlayDao.Properties.DeviceId.eq(deviceId), PebbleHealthActivityOverlayDao.Properties.TimestampTo.ge(from))
+                .where(PebbleHealthActivityOverlayDao.Properties.TimestampFrom.le(to)).list();
+        for (PebbleHealthActivityOverlay overlay : overlayRecords) {
+            for (PebbleHealthActivitySample sample : expected) {
+                if (overlay.getTimestampFrom() <= sample.getTimestamp() && sample.getTimestamp() < overlay.getTimestampTo()) {
+                    sample.setRawKind(overlay.getRawKind());
+                }
+            }
+        }
+
+        assertSameSamples(expected, actual);
+    }
+
+    @Test
+    public void testHPlusHealth() {
+        GBDevice device = createDummyGDevice("00:00:00:00:41");
+        HPlusHealthSampleProvider provider = new HPlusHealthSampleProvider(device, daoSession);
+        long userId = DBHelper.getUserId(daoSession);
+        long deviceId = DBHelper.getDeviceId(device, daoSession);
+        Random random = new Random(42);
+
+        int[] kinds = {HPlusDataRecord.TYPE_DAY_SLOT, HPlusDataRecord.TYPE_REALTIME, HPlusDataRecord.TYPE_DAY_SUMMARY,
+                ActivityKind.TYPE_NOT_WORN, HPlusDataRecord.TYPE_UNKNOWN};
+        List<HPlusHealthActivitySample> samples = new ArrayList<>();
+        for (int ts = START; ts < START + DAYS * DAY_SECONDS; ts += 60) {
+            int steps = random.nextInt(3) == 0 ? random.nextInt(100) : 0;
+            samples.add(new HPlusHealthActivitySample(ts, deviceId, userId, null,
+                    kinds[random.nextInt(kinds.length)], random.nextInt(100), steps, 60 + random.nextInt(60), 0, 0));
+        }
+        daoSession.getHPlusHealthActivitySampleDao().insertInTx(samples);
+
+        int[] overlayKinds = {ActivityKind.TYPE_LIGHT_SLEEP, ActivityKind.TYPE_DEEP_SLEEP, ActivityKind.TYPE_NOT_WORN, ActivityKind.TYPE_ACTIVITY};
+        Set<String> keys = new HashSet<>();
+        while (keys.size() < OVERLAYS) {
+            int from = START - 7200 + random.nextInt(DAYS * DAY_SECONDS);
+            int to = from + 300 + random.nextInt(6 * 3600);
+            int kind = overlayKinds[random.nextInt(overlayKinds.length)];
+            if (keys.add(from + "/" + to + "/" + kind)) {
+                HPlusHealthActivityOverlay overlay = new HPlusHealthActivityOverlay();
+                overlay.setTimestampFrom(from);
+                overlay.setTimestampTo(to);
+                overlay.setRawKind(kind);
+                overlay.setDeviceId(deviceId);
+                overlay.setUserId(userId);
+                daoSession.getHPlusHealthActivityOverlayDao().insert(overlay);
+            }
+        }
+
+        int from = START + 3600;
+        int to = START + DAYS * DAY_SECONDS - 3600;
+        List<HPlusHealthActivitySample> actual = provider.getAllActivitySamples(from, to);
+        List<HPlusHealthActivitySample> expected = getHPlusSamplesPreviously(deviceId, from, to);
+        assertSameSamples(expected, actual);
+    }
+
+    /**
+     * The previous implementation of HPlusHealthSampleProvider#getAllActivitySamples().
+     */
+    private List<HPlusHealthActivitySample> getHPlusSamplesPreviously(long deviceId, int timestamp_from, int timestamp_to) {
+        List<HPlusHealthActivitySample> samples = daoSession.getHPlusHealthActivitySampleDao().queryBuilder()
+                .where(HPlusHealthActivitySampleDao.Properties.DeviceId.eq(deviceId),
+                        HPlusHealthActivitySampleDao.Properties.Timestamp.ge(timestamp_from),
+                        HPlusHealthActivitySampleDao.Properties.Timestamp.le(timestamp_to))
+                .orderAsc(HPlusHealthActivitySampleDao.Properties.Timestamp).list();
+        List<HPlusHealthActivityOverlay> overlayRecords = daoSession.getHPlusHealthActivityOverlayDao().queryBuilder()
+                .where(HPlusHealthActivityOverlayDao.Properties.DeviceId.eq(deviceId),
+                        HPlusHealthActivityOverlayDao.Properties.TimestampFrom.ge(timestamp_from - 3600 * 24),
+                        HPlusHealthActivityOverlayDao.Properties.TimestampTo.le(timestamp_to),
+                        HPlusHealthActivityOverlayDao.Properties.TimestampTo.ge(timestamp_from)).list();
+
+        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
+            samples.add(createVirtualHPlusSample(Math.max(overlay.getTimestampFrom() - 1, timestamp_from), overlay));
+            samples.add(createVirtualHPlusSample(Math.max(overlay.getTimestampFrom(), timestamp_from), overlay));
+            samples.add(createVirtualHPlusSample(Math.min(overlay.getTimestampTo() - 1, timestamp_to - 1), overlay));
+            samples.add(createVirtualHPlusSample(Math.min(overlay.getTimestampTo(), timestamp_to), overlay));
+        }
+        Collections.sort(samples, new Comparator<HPlusHealthActivitySample>() {
+            public int compare(HPlusHealthActivitySample one, HPlusHealthActivitySample other) {
+                return one.getTimestamp() - other.getTimestamp();
+            }
+        });
+
+        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
+            long nonSleepTimeEnd = 0;
+            for (HPlusHealthActivitySample sample : samples) {
+                if (sample.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                    continue;
+
+                if (sample.getTimestamp() >= overlay.getTimestampFrom() && sample.getTimestamp() < overlay.getTimestampTo()) {
+                    if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN || overlay.getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP || overlay.getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
+                        if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0) {
+                            nonSleepTimeEnd = sample.getTimestamp() + 10 * 60;
+                            continue;
+                        } else if (sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd) {
+                            continue;
+                        }
+
+                        if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                            sample.setHeartRate(0);
+
+                        if (sample.getRawKind() != ActivityKind.TYPE_NOT_WORN)
+                            sample.setRawKind(overlay.getRawKind());
+
+                        sample.setRawIntensity(10);
+                    }
+                }
+            }
+        }
+
+        Calendar today = GregorianCalendar.getInstance();
+        today.set(Calendar.HOUR_OF_DAY, 0);
+        today.set(Calendar.MINUTE, 0);
+        today.set(Calendar.SECOND, 0);
+        today.set(Calendar.MILLISECOND, 0);
+        for (HPlusHealthActivitySample sample : samples) {
+            // all samples are in the past
+            assertTrue(sample.getTimestamp() < today.getTimeInMillis() / 1000);
+            if (sample.getRawKind() != HPlusDataRecord.TYPE_DAY_SUMMARY) {
+                sample.setSteps(ActivitySample.NOT_MEASURED);
+            }
+        }
+        return samples;
+    }
+
+    private HPlusHealthActivitySample createVirtualHPlusSample(int timestamp, HPlusHealthActivityOverlay overlay) {
+        return new HPlusHealthActivitySample(timestamp, overlay.getDeviceId(), overlay.getUserId(), null,
+                ActivityKind.TYPE_UNKNOWN, 1, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED,
+                ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED);
+    }
+
+    private void assertSameSamples(List<? extends AbstractActivitySample> expected, List<? extends AbstractActivitySample> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            AbstractActivitySample expectedSample = expected.get(i);
+            AbstractActivitySample actualSample = actual.get(i);
+            String message = "sample " + i + " at " + expectedSample.getTimestamp();
+            assertEquals(message, expectedSample.getTimestamp(), actualSample.getTimestamp());
+            assertEquals(message, expectedSample.getRawKind(), actualSample.getRawKind());
+            assertEquals(message, expectedSample.getRawIntensity(), actualSample.getRawIntensity());
+            assertEquals(message, expectedSample.getSteps(), actualSample.getSteps());
+            assertEquals(message, expectedSample.getHeartRate(), actualSample.getHeartRate());
+        }
+    }
+}
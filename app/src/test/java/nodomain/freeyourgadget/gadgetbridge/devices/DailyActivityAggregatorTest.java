@@ -0,0 +1,111 @@
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+
+public class DailyActivityAggregatorTest extends TestBase {
+    private static final int DAY_SECONDS = ActivityRollups.DAY_SECONDS;
+    // 2020-01-01 00:00 UTC
+    private static final int FIRST_DAY = 1577836800;
+
+    @Test
+    public void testSameResultAsPerDayAnalysis() {
+        MiBandSampleProvider provider = createProvider("00:00:00:00:30", 40);
+        // starting half a day earlier, like the sleep charts
+        int[] starts = getDayStarts(FIRST_DAY - DAY_SECONDS / 2, 40);
+        ActivityAmounts[] expected = aggregatePerDay(provider, starts);
+        ActivityAmounts[] actual = DailyActivityAggregator.aggregate(provider, starts, DAY_SECONDS);
+        assertSameAmounts(expected, actual);
+    }
+
+    @Test
+    public void testEmptyDays() {
+        MiBandSampleProvider provider = createProvider("00:00:00:00:31", 2);
+        int[] starts = getDayStarts(FIRST_DAY + 5 * DAY_SECONDS, 3);
+        ActivityAmounts[] actual = DailyActivityAggregator.aggregate(provider, starts, DAY_SECONDS);
+        assertEquals(3, actual.length);
+        for (ActivityAmounts amounts : actual) {
+            assertEquals(0, amounts.getAmounts().size());
+        }
+    }
+
+    private MiBandSampleProvider createProvider(String address, int days) {
+        GBDevice dummyGBDevice = createDummyGDevice(address);
+        MiBandSampleProvider provider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        long userId = DBHelper.getUserId(daoSession);
+        long deviceId = DBHelper.getDeviceId(dummyGBDevice, daoSession);
+
+        for (int day = 0; day < days; day++) {
+            List<MiBandActivitySample> samples = new ArrayList<>(DAY_SECONDS / 60);
+            for (int minute = 0; minute < DAY_SECONDS / 60; minute++) {
+                MiBandActivitySample sample = new MiBandActivitySample();
+                sample.setTimestamp(FIRST_DAY + day * DAY_SECONDS + minute * 60);
+                sample.setUserId(userId);
+                sample.setDeviceId(deviceId);
+                int hour = minute / 60;
+                if (hour < 7) {
+                    sample.setRawKind(hour % 2 == 0 ? MiBandSampleProvider.TYPE_LIGHT_SLEEP : MiBandSampleProvider.TYPE_DEEP_SLEEP);
+                } else if (hour == 12 && day % 3 == 0) {
+                    sample.setRawKind(MiBandSampleProvider.TYPE_NONWEAR);
+                } else {
+                    sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+                    sample.setSteps((minute * 7 + day) % 120);
+                }
+                sample.setRawIntensity(minute % 50);
+                sample.setHeartRate(60 + minute % 40);
+                samples.add(sample);
+            }
+            daoSession.getMiBandActivitySampleDao().insertInTx(samples);
+        }
+        return provider;
+    }
+
+    private int[] getDayStarts(int firstDayStart, int days) {
+        int[] starts = new int[days];
+        for (int i = 0; i < days; i++) {
+            starts[i] = firstDayStart + i * DAY_SECONDS;
+        }
+        return starts;
+    }
+
+    private ActivityAmounts[] aggregatePerDay(MiBandSampleProvider provider, int[] starts) {
+        ActivityAmounts[] result = new ActivityAmounts[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            try (SampleIterator<MiBandActivitySample> samples = provider.iterateAllActivitySamples(starts[i], starts[i] + DAY_SECONDS - 1)) {
+                result[i] = new ActivityAnalysis().calculateActivityAmounts(samples);
+            }
+        }
+        return result;
+    }
+
+    private void assertSameAmounts(ActivityAmounts[] expected, ActivityAmounts[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int day = 0; day < expected.length; day++) {
+            List<ActivityAmount> expectedAmounts = expected[day].getAmounts();
+            List<ActivityAmount> actualAmounts = actual[day].getAmounts();
+            assertEquals("day " + day, expectedAmounts.size(), actualAmounts.size());
+            for (int i = 0; i < expectedAmounts.size(); i++) {
+                ActivityAmount expectedAmount = expectedAmounts.get(i);
+                ActivityAmount actualAmount = actualAmounts.get(i);
+                assertEquals(expectedAmount.getActivityKind(), actualAmount.getActivityKind());
+                assertEquals(expectedAmount.getTotalSeconds(), actualAmount.getTotalSeconds());
+                assertEquals(expectedAmount.getTotalSteps(), actualAmount.getTotalSteps());
+                assertEquals(expectedAmount.getStartDate(), actualAmount.getStartDate());
+                assertEquals(expectedAmount.getEndDate(), actualAmount.getEndDate());
+            }
+        }
+    }
+}
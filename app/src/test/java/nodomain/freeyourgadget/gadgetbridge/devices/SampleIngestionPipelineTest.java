@@ -0,0 +1,166 @@
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleIngestionPipelineTest extends TestBase {
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    @Test
+    public void testTenDayFetch() {
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:00:00:20");
+        MiBandSampleProvider provider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        long userId = DBHelper.getUserId(daoSession);
+        long deviceId = DBHelper.getDeviceId(dummyGBDevice, daoSession);
+
+        // simulate a fetch of 10 days of minute samples, submitted one record at a time
+        // like the device supports do. Without the pipeline, this is one transaction per record.
+        SampleIngestionPipeline pipeline = new SampleIngestionPipeline(SampleIngestionPipeline.DEFAULT_CAPACITY, false);
+        int records = 10 * MINUTES_PER_DAY;
+        for (int i = 0; i < records; i++) {
+            MiBandActivitySample sample = new MiBandActivitySample();
+            sample.setTimestamp(1000 + i * 60);
+            sample.setUserId(userId);
+            sample.setDeviceId(deviceId);
+            sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+            sample.setRawIntensity(10);
+            sample.setSteps(i % 100);
+            sample.setHeartRate(70);
+            pipeline.submit(provider, sample);
+        }
+        pipeline.writePending();
+
+        assertEquals(records, provider.getAllActivitySamples(0, Integer.MAX_VALUE).size());
+        assertEquals(records, pipeline.getWrittenRecords());
+        assertEquals(0, pipeline.getQueueDepth());
+        assertEquals(0, pipeline.getFailedTransactions());
+        assertTrue(pipeline.getBackpressureCount() > 0);
+        assertTrue("too many transactions: " + pipeline, pipeline.getTransactions() * 100 <= records);
+    }
+
+    @Test
+    public void testOrdering() {
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:00:00:21");
+        final MiBandSampleProvider provider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        long userId = DBHelper.getUserId(daoSession);
+        long deviceId = DBHelper.getDeviceId(dummyGBDevice, daoSession);
+
+        SampleIngestionPipeline pipeline = new SampleIngestionPipeline(16, false);
+        List<MiBandActivitySample> samples = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            MiBandActivitySample sample = new MiBandActivitySample();
+            sample.setTimestamp(1000 + i * 60);
+            sample.setUserId(userId);
+            sample.setDeviceId(deviceId);
+            sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+            sample.setSteps(10);
+            samples.add(sample);
+        }
+        pipeline.submit(provider, samples);
+        // the list is copied on submission
+        samples.clear();
+
+        final int[] seenByOperation = new int[1];
+        pipeline.submit(new SampleIngestionPipeline.WriteOperation() {
+            @Override
+            public void write(DaoSession session) {
+                seenByOperation[0] = provider.getAllActivitySamples(0, Integer.MAX_VALUE).size();
+            }
+        });
+        final boolean[] written = new boolean[1];
+        pipeline.runWhenWritten(new Runnable() {
+            @Override
+            public void run() {
+                written[0] = true;
+            }
+        });
+        assertEquals(0, provider.getAllActivitySamples(0, Integer.MAX_VALUE).size());
+
+        pipeline.writePending();
+        assertEquals(10, seenByOperation[0]);
+        assertTrue(written[0]);
+        assertEquals(10, pipeline.getWrittenRecords());
+        // one for the samples, one for the operation
+        assertEquals(2, pipeline.getTransactions());
+    }
+
+    @Test
+    public void testRunWhenUncongested() {
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:00:00:23");
+        final MiBandSampleProvider provider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        long userId = DBHelper.getUserId(daoSession);
+        long deviceId = DBHelper.getDeviceId(dummyGBDevice, daoSession);
+
+        SampleIngestionPipeline pipeline = new SampleIngestionPipeline(16, false);
+        final int[] seenByRequest = new int[1];
+        Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                seenByRequest[0] = provider.getAllActivitySamples(0, Integer.MAX_VALUE).size();
+            }
+        };
+
+        for (int i = 0; i < 13; i++) {
+            MiBandActivitySample sample = new MiBandActivitySample();
+            sample.setTimestamp(1000 + i * 60);
+            sample.setUserId(userId);
+            sample.setDeviceId(deviceId);
+            sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+            pipeline.submit(provider, sample);
+            if (i == 0) {
+                // not congested, the request runs before anything was written
+                pipeline.runWhenUncongested(request);
+                assertEquals(0, seenByRequest[0]);
+            }
+        }
+        assertTrue(pipeline.isCongested());
+
+        // the next request only runs once the fetched samples are written
+        pipeline.runWhenUncongested(request);
+        assertEquals(13, seenByRequest[0]);
+        assertEquals(0, pipeline.getQueueDepth());
+        assertEquals(1, pipeline.getBackpressureCount());
+    }
+
+    @Test
+    public void testFailureIsolation() {
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:00:00:22");
+        MiBandSampleProvider provider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        long userId = DBHelper.getUserId(daoSession);
+        long deviceId = DBHelper.getDeviceId(dummyGBDevice, daoSession);
+
+        SampleIngestionPipeline pipeline = new SampleIngestionPipeline(16, false);
+        for (int i = 0; i < 2; i++) {
+            MiBandActivitySample sample = new MiBandActivitySample();
+            sample.setTimestamp(1000 + i * 60);
+            sample.setUserId(userId);
+            sample.setDeviceId(deviceId);
+            sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+            pipeline.submit(provider, sample);
+            pipeline.submit(new SampleIngestionPipeline.WriteOperation() {
+                @Override
+                public void write(DaoSession session) {
+                    throw new IllegalStateException("failing operation");
+                }
+            });
+        }
+        pipeline.writePending();
+
+        assertEquals(2, provider.getAllActivitySamples(0, Integer.MAX_VALUE).size());
+        assertEquals(2, pipeline.getWrittenRecords());
+        assertEquals(2, pipeline.getFailedTransactions());
+    }
+}
@@ -22,9 +22,11 @@ import static org.junit.Assert.assertTrue;
 
 public class DeviceCommunicationServiceTestCase extends TestBase {
     private static final java.lang.String TEST_DEVICE_ADDRESS = TestDeviceSupport.class.getName();
+    private static final String SECOND_TEST_DEVICE_ADDRESS = TEST_DEVICE_ADDRESS + ".2";
 
     /**
-     * Factory that always returns the mockSupport instance
+     * Factory that returns the mockSupport instance for the test device and
+     * secondMockSupport for the second one
      */
     private class TestDeviceSupportFactory extends DeviceSupportFactory {
         TestDeviceSupportFactory(Context context) {
@@ -33,6 +35,9 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
 
         @Override
         public synchronized DeviceSupport createDeviceSupport(GBDevice device) throws GBException {
+            if (SECOND_TEST_DEVICE_ADDRESS.equals(device.getAddress())) {
+                return secondMockSupport;
+            }
             return mockSupport;
         }
     }
@@ -41,6 +46,7 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
     @Mock
     private TestDeviceSupport realSupport;
     private TestDeviceSupport mockSupport;
+    private TestDeviceSupport secondMockSupport;
 
     public DeviceCommunicationServiceTestCase() {
         super();
@@ -53,6 +59,9 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
         realSupport = new TestDeviceSupport();
         realSupport.setContext(new GBDevice(TEST_DEVICE_ADDRESS, "Test Device", "Test Device Alias", DeviceType.TEST), null, getContext());
         mockSupport = Mockito.spy(realSupport);
+        TestDeviceSupport secondRealSupport = new TestDeviceSupport();
+        secondRealSupport.setContext(new GBDevice(SECOND_TEST_DEVICE_ADDRESS, "Second Test Device", null, DeviceType.TEST), null, getContext());
+        secondMockSupport = Mockito.spy(secondRealSupport);
         DeviceCommunicationService.setDeviceSupportFactory(new TestDeviceSupportFactory(getContext()));
 
         mDeviceService = new TestDeviceService(getContext());
@@ -102,6 +111,37 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
         inOrder.verifyNoMoreInteractions();
     }
 
+    @Test
+    public void testMultipleDevices() {
+        ensureConnected();
+        GBDevice secondDevice = secondMockSupport.getDevice();
+        mDeviceService.connect(secondDevice);
+        Mockito.verify(secondMockSupport, Mockito.times(1)).connect();
+        // connecting the second device must not disconnect the first one
+        Mockito.verify(mockSupport, Mockito.never()).dispose();
+        assertTrue(getDevice().isInitialized());
+        assertTrue(secondDevice.isInitialized());
+        assertEquals(2, mDeviceService.getService().getGBDevices().size());
+
+        // requests for a single device only reach that device
+        mDeviceService.forDevice(secondDevice).onFindDevice(true);
+        Mockito.verify(mockSupport, Mockito.never()).onFindDevice(true);
+        Mockito.verify(secondMockSupport, Mockito.times(1)).onFindDevice(true);
+
+        // all others reach all devices
+        mDeviceService.onSetTime();
+        Mockito.verify(mockSupport, Mockito.times(1)).onSetTime();
+        Mockito.verify(secondMockSupport, Mockito.times(1)).onSetTime();
+
+        mDeviceService.forDevice(getDevice()).disconnect();
+        Mockito.verify(mockSupport, Mockito.times(1)).dispose();
+        Mockito.verify(secondMockSupport, Mockito.never()).dispose();
+        assertEquals(GBDevice.State.NOT_CONNECTED, getDevice().getState());
+        assertTrue(secondDevice.isInitialized());
+        assertEquals(1, mDeviceService.getService().getGBDevices().size());
+        assertEquals(secondDevice, mDeviceService.getService().getGBDevice(SECOND_TEST_DEVICE_ADDRESS));
+    }
+
     @Test
     public void testTransliterationSupport() {
         SharedPreferences settings = GBApplication.getPrefs().getPreferences();
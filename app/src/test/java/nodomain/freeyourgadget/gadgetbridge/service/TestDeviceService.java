@@ -7,6 +7,7 @@ import android.content.Intent;
 import org.robolectric.Robolectric;
 import org.robolectric.android.controller.ServiceController;
 
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceService;
 
 /**
@@ -24,6 +25,22 @@ class TestDeviceService extends GBDeviceService {
         service = serviceController.create().get();
     }
 
+    private TestDeviceService(Context context, GBDevice device, TestDeviceService parent) {
+        super(context, device);
+
+        serviceController = parent.serviceController;
+        service = parent.service;
+    }
+
+    @Override
+    public TestDeviceService forDevice(GBDevice device) {
+        return new TestDeviceService(mContext, device, this);
+    }
+
+    DeviceCommunicationService getService() {
+        return service;
+    }
+
     @Override
     protected void invokeService(Intent intent) {
         // calling though to the service natively does not work with robolectric,
@@ -0,0 +1,77 @@
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BtLEQueueStatisticsTest extends TestBase {
+    private static final UUID UUID_NOTIFY = UUID.fromString("00000002-0000-3512-2118-0009af100700");
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(50));
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(30));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(3090, histogram.getAverageMicros());
+        assertEquals(30000, histogram.getMaxMicros());
+        assertEquals(128, histogram.getPercentileMicros(50));
+        assertEquals(128, histogram.getPercentileMicros(90));
+        assertEquals(30000, histogram.getPercentileMicros(99));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void testBuckets() {
+        assertEquals(0, LatencyHistogram.getBucket(0));
+        assertEquals(1, LatencyHistogram.getBucket(1));
+        assertEquals(2, LatencyHistogram.getBucket(2));
+        assertEquals(2, LatencyHistogram.getBucket(3));
+        assertEquals(11, LatencyHistogram.getBucket(1024));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testStatistics() {
+        BtLEQueueStatistics statistics = BtLEQueueStatistics.get("AA:BB:CC:DD:EE:01");
+        assertSame(statistics, BtLEQueueStatistics.get("AA:BB:CC:DD:EE:01"));
+
+        statistics.recordEnqueued(3);
+        statistics.recordEnqueued(1);
+        statistics.recordAction(BtLEQueueStatistics.ActionType.WRITE, TimeUnit.MILLISECONDS.toNanos(15));
+        statistics.addBytesOut(new byte[20]);
+        statistics.addBytesIn(new byte[]{1, 2, 3});
+        statistics.addBytesIn(null);
+        statistics.recordNotification(UUID_NOTIFY, TimeUnit.MILLISECONDS.toNanos(1000), 500);
+        statistics.recordNotification(UUID_NOTIFY, TimeUnit.MILLISECONDS.toNanos(1050), 500);
+
+        assertEquals(1, statistics.getActionLatency(BtLEQueueStatistics.ActionType.WRITE).getCount());
+        assertEquals(20, statistics.getBytesOut());
+        assertEquals(3, statistics.getBytesIn());
+        String report = statistics.toString();
+        assertTrue(report, report.contains("max queue depth 3"));
+        assertTrue(report, report.contains("Notifications " + UUID_NOTIFY + ": 2 received"));
+        assertTrue(BtLEQueueStatistics.getAll().contains(statistics));
+
+        BtLEQueueStatistics.resetAll();
+        assertEquals(0, statistics.getBytesIn());
+        assertEquals(0, statistics.getActionLatency(BtLEQueueStatistics.ActionType.WRITE).getCount());
+        assertSame(statistics, BtLEQueueStatistics.get("AA:BB:CC:DD:EE:01"));
+    }
+}
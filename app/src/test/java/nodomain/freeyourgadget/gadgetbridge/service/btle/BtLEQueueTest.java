@@ -1,18 +1,62 @@
 package nodomain.freeyourgadget.gadgetbridge.service.btle;
 
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+
 import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.PlainAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.ReadAction;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+
 public class BtLEQueueTest extends TestBase {
+    private static final String DEVICE_ADDRESS = "00:00:00:00:25";
+    private static final UUID UUID_SERVICE = UUID.fromString("0000fee0-0000-1000-8000-00805f9b34fb");
+    private static final UUID UUID_DATA = UUID.fromString("00000005-0000-3512-2118-0009af100700");
+    private static final int NOTIFICATIONS = 20000;
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    private BluetoothGattService service;
+    private BluetoothGattCharacteristic characteristic;
+    private BluetoothGatt gatt;
+    private BtLEQueue queue;
 
     @Override
     public void setUp() throws Exception {
         super.setUp();
+        service = new BluetoothGattService(UUID_SERVICE, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        characteristic = new BluetoothGattCharacteristic(UUID_DATA,
+                BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        service.addCharacteristic(characteristic);
+        gatt = Mockito.mock(BluetoothGatt.class);
+        Mockito.when(gatt.getServices()).thenReturn(Collections.singletonList(service));
     }
 
     @Override
     public void tearDown() throws Exception {
+        if (queue != null) {
+            queue.dispose();
+        }
         super.tearDown();
     }
 
@@ -20,4 +64,131 @@ public class BtLEQueueTest extends TestBase {
     public void testIsConnected() throws Exception {
         // TODO
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testNotificationFlood() throws Exception {
+        final CountDownLatch received = new CountDownLatch(NOTIFICATIONS);
+        final List<byte[]> values = new ArrayList<>(NOTIFICATIONS);
+        final List<Thread> handlerThreads = new ArrayList<>(1);
+        final List<BluetoothGattService> services = new ArrayList<>(1);
+        BluetoothGattCallback gattCallback = connect(new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                if (handlerThreads.isEmpty()) {
+                    handlerThreads.add(Thread.currentThread());
+                    services.add(characteristic.getService());
+                }
+                values.add(characteristic.getValue());
+                if (values.size() % 500 == 0) {
+                    // a slow handler, so that notifications pile up and buffers get reused
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                received.countDown();
+                return true;
+            }
+        });
+
+        // like the Bluetooth stack, reuse the characteristic for every notification
+        long bytesIn = BtLEQueueStatistics.get(DEVICE_ADDRESS).getBytesIn();
+        for (int i = 0; i < NOTIFICATIONS; i++) {
+            byte[] value = createValue(i);
+            characteristic.setValue(value);
+            gattCallback.onCharacteristicChanged(gatt, characteristic);
+            bytesIn += value.length;
+        }
+
+        assertTrue(received.await(30, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), handlerThreads.get(0));
+        assertSame(service, services.get(0));
+        for (int i = 0; i < NOTIFICATIONS; i++) {
+            byte[] expected = createValue(i);
+            byte[] value = values.get(i);
+            assertEquals("length of notification " + i, expected.length, value.length);
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals("notification " + i, expected[j], value[j]);
+            }
+        }
+        assertEquals(bytesIn, BtLEQueueStatistics.get(DEVICE_ADDRESS).getBytesIn());
+    }
+
+    @Test
+    public void testEventOrder() throws Exception {
+        final CountDownLatch done = new CountDownLatch(4);
+        final BluetoothGattCallback gattCallback = connect(new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                try {
+                    // the next action must still wait for this handler
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                events.add("read " + characteristic.getValue()[0]);
+                done.countDown();
+                return true;
+            }
+
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                events.add("changed " + characteristic.getValue()[0]);
+                done.countDown();
+                return true;
+            }
+        });
+        Mockito.when(gatt.readCharacteristic(any(BluetoothGattCharacteristic.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                characteristic.setValue(new byte[]{1});
+                gattCallback.onCharacteristicChanged(gatt, characteristic);
+                characteristic.setValue(new byte[]{2});
+                gattCallback.onCharacteristicRead(gatt, characteristic, BluetoothGatt.GATT_SUCCESS);
+                characteristic.setValue(new byte[]{3});
+                gattCallback.onCharacteristicChanged(gatt, characteristic);
+                return true;
+            }
+        });
+
+        Transaction transaction = new Transaction("read");
+        transaction.add(new ReadAction(characteristic));
+        transaction.add(new PlainAction() {
+            @Override
+            public boolean run(BluetoothGatt gatt) {
+                events.add("next action");
+                done.countDown();
+                return true;
+            }
+        });
+        queue.add(transaction);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(4, events.size());
+        assertTrue(events.indexOf("changed 1") < events.indexOf("read 2"));
+        assertTrue(events.indexOf("read 2") < events.indexOf("changed 3"));
+        assertTrue(events.indexOf("read 2") < events.indexOf("next action"));
+    }
+
+    private BluetoothGattCallback connect(GattCallback callback) {
+        GBDevice device = createDummyGDevice(DEVICE_ADDRESS);
+        queue = new BtLEQueue(null, device, callback, null, getContext(), Collections.<BluetoothGattService>emptySet());
+        BluetoothGattCallback gattCallback = queue.getGattCallback();
+        gattCallback.onConnectionStateChange(gatt, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_CONNECTED);
+        assertTrue(device.isConnected());
+        return gattCallback;
+    }
+
+    /**
+     * Returns a value of varying length that encodes the given sequence number.
+     */
+    private static byte[] createValue(int sequence) {
+        byte[] value = new byte[4 + sequence % 17];
+        value[0] = (byte) sequence;
+        value[1] = (byte) (sequence >> 8);
+        value[2] = (byte) (sequence >> 16);
+        for (int i = 3; i < value.length; i++) {
+            value[i] = (byte) (sequence + i);
+        }
+        return value;
+    }
+}
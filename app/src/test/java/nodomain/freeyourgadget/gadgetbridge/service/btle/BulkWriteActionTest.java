@@ -0,0 +1,108 @@
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.BulkWriteAction;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+
+public class BulkWriteActionTest extends TestBase {
+    private static final UUID UUID_DATA = UUID.fromString("00000016-0000-3512-2118-0009af100700");
+
+    private final List<Integer> writeTypes = new ArrayList<>();
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    @Test
+    public void testWriteWithoutResponse() {
+        BluetoothGattCharacteristic characteristic = createCharacteristic(
+                BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE);
+        byte[] data = createData(1010);
+        BulkWriteAction action = new BulkWriteAction(characteristic, BulkWriteAction.split(data, 0, data.length, 20), 4);
+        int originalWriteType = characteristic.getWriteType();
+
+        assertTrue(action.run(createGatt(action, -1)));
+        assertArrayEquals(data, written.toByteArray());
+        assertEquals(51, writeTypes.size());
+        for (int i = 0; i < writeTypes.size(); i++) {
+            boolean acknowledged = (i + 1) % 4 == 0 || i == writeTypes.size() - 1;
+            int expected = acknowledged ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+            assertEquals("write type of packet " + i, expected, (int) writeTypes.get(i));
+        }
+        assertEquals(13, action.getAcknowledgedPackets());
+        assertEquals(originalWriteType, characteristic.getWriteType());
+    }
+
+    @Test
+    public void testWriteWithResponse() {
+        // the peer only supports writes with response
+        BluetoothGattCharacteristic characteristic = createCharacteristic(BluetoothGattCharacteristic.PROPERTY_WRITE);
+        byte[] data = createData(100);
+        BulkWriteAction action = new BulkWriteAction(characteristic, BulkWriteAction.split(data, 0, data.length, 20), 4);
+
+        assertTrue(action.run(createGatt(action, -1)));
+        assertArrayEquals(data, written.toByteArray());
+        for (int writeType : writeTypes) {
+            assertEquals(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, writeType);
+        }
+        assertEquals(5, action.getAcknowledgedPackets());
+    }
+
+    @Test
+    public void testFailedWrite() {
+        BluetoothGattCharacteristic characteristic = createCharacteristic(BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE);
+        byte[] data = createData(100);
+        BulkWriteAction action = new BulkWriteAction(characteristic, BulkWriteAction.split(data, 0, data.length, 20), 4);
+
+        assertFalse(action.run(createGatt(action, 2)));
+        assertEquals(3, writeTypes.size());
+        // no writes with response are possible
+        assertEquals(0, action.getAcknowledgedPackets());
+    }
+
+    private BluetoothGattCharacteristic createCharacteristic(int properties) {
+        return new BluetoothGattCharacteristic(UUID_DATA, properties, BluetoothGattCharacteristic.PERMISSION_WRITE);
+    }
+
+    private byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    /**
+     * Returns a gatt that confirms every write immediately, failing the one with the given index.
+     */
+    private BluetoothGatt createGatt(final BulkWriteAction action, final int failingWrite) {
+        BluetoothGatt gatt = Mockito.mock(BluetoothGatt.class);
+        Mockito.when(gatt.writeCharacteristic(any(BluetoothGattCharacteristic.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                BluetoothGattCharacteristic characteristic = (BluetoothGattCharacteristic) invocation.getArguments()[0];
+                int index = writeTypes.size();
+                writeTypes.add(characteristic.getWriteType());
+                written.write(characteristic.getValue());
+                action.onCharacteristicWrite(index == failingWrite ? BluetoothGatt.GATT_FAILURE : BluetoothGatt.GATT_SUCCESS);
+                return true;
+            }
+        });
+        return gatt;
+    }
+}
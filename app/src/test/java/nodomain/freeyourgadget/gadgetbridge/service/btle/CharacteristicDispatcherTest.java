@@ -0,0 +1,87 @@
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.battery.BatteryInfoProfile;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CharacteristicDispatcherTest extends TestBase {
+    private static final UUID UUID_STEPS = UUID.fromString("00000007-0000-3512-2118-0009af100700");
+    private static final UUID UUID_EVENT = UUID.fromString("00000010-0000-3512-2118-0009af100700");
+    private static final UUID UUID_OTHER = UUID.fromString("00000020-0000-3512-2118-0009af100700");
+
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    public void testDispatch() {
+        CharacteristicDispatcher dispatcher = new CharacteristicDispatcher();
+        dispatcher.add(UUID_STEPS, new RecordingCallback("steps1", false));
+        dispatcher.add(UUID_STEPS, new RecordingCallback("steps2", true));
+        dispatcher.add(UUID_STEPS, new RecordingCallback("steps3", true));
+        dispatcher.add(UUID_EVENT, new RecordingCallback("event", false));
+        dispatcher.addFallback(new RecordingCallback("fallback", false));
+
+        assertTrue(dispatcher.onCharacteristicChanged(null, createCharacteristic(UUID_STEPS)));
+        assertEquals("[steps1 changed, steps2 changed]", calls.toString());
+
+        calls.clear();
+        assertFalse(dispatcher.onCharacteristicRead(null, createCharacteristic(UUID_EVENT), BluetoothGatt.GATT_SUCCESS));
+        assertEquals("[event read, fallback read]", calls.toString());
+
+        calls.clear();
+        assertFalse(dispatcher.onCharacteristicChanged(null, createCharacteristic(UUID_OTHER)));
+        assertEquals("[fallback changed]", calls.toString());
+    }
+
+    @Test
+    public void testProfileCharacteristics() {
+        BatteryInfoProfile<AbstractBTLEDeviceSupport> profile = new BatteryInfoProfile<>(null);
+        CharacteristicDispatcher dispatcher = new CharacteristicDispatcher();
+        for (UUID characteristic : profile.getHandledCharacteristics()) {
+            dispatcher.add(characteristic, new RecordingCallback("battery", true));
+        }
+
+        assertTrue(dispatcher.onCharacteristicChanged(null, createCharacteristic(GattCharacteristic.UUID_CHARACTERISTIC_BATTERY_LEVEL)));
+        assertFalse(dispatcher.onCharacteristicChanged(null, createCharacteristic(UUID_STEPS)));
+        assertEquals("[battery changed]", calls.toString());
+    }
+
+    private static BluetoothGattCharacteristic createCharacteristic(UUID uuid) {
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(uuid, BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        characteristic.setValue(new byte[]{1, 2, 3});
+        return characteristic;
+    }
+
+    private class RecordingCallback extends AbstractGattCallback {
+        private final String name;
+        private final boolean handled;
+
+        RecordingCallback(String name, boolean handled) {
+            this.name = name;
+            this.handled = handled;
+        }
+
+        @Override
+        public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            calls.add(name + " read");
+            return handled;
+        }
+
+        @Override
+        public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            calls.add(name + " changed");
+            return handled;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import com.github.mikephil.charting.data.Entry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ChartDownsampler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests ChartDownsampler
+ */
+public class ChartDownsamplerTest extends TestBase {
+
+    @Test
+    public void testSmallSeriesUnchanged() {
+        List<Entry> entries = createSeries(100);
+        assertSame(entries, ChartDownsampler.downsample(entries, 100));
+    }
+
+    @Test
+    public void testPeaksAndTransitionsKept() {
+        // a day of seconds, with a single peak and a drop to zero
+        List<Entry> entries = createSeries(86400);
+        entries.get(40000).setY(1000);
+        entries.get(60000).setY(0);
+
+        List<Entry> result = ChartDownsampler.downsample(entries, 1000);
+        assertTrue("too many entries: " + result.size(), result.size() <= 1000);
+        assertSame(entries.get(0), result.get(0));
+        assertSame(entries.get(entries.size() - 1), result.get(result.size() - 1));
+        assertTrue(result.contains(entries.get(40000)));
+        assertTrue(result.contains(entries.get(60000)));
+        for (int i = 1; i < result.size(); i++) {
+            assertTrue(result.get(i - 1).getX() < result.get(i).getX());
+        }
+    }
+
+    @Test
+    public void testConstantX() {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entries.add(new Entry(5, i));
+        }
+        assertEquals(100, ChartDownsampler.downsample(entries, 10).size());
+    }
+
+    private List<Entry> createSeries(int size) {
+        List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry(i, 10 + i % 50));
+        }
+        return entries;
+    }
+}
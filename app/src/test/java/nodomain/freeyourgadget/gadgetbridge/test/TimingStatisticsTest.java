@@ -0,0 +1,59 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.util.TimingStatistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimingStatisticsTest extends TestBase {
+
+    @Test
+    public void testRecord() {
+        TimingStatistics statistics = new TimingStatistics("Test");
+        assertEquals(0, statistics.getCount());
+        assertEquals(0, statistics.getAverageMillis());
+
+        statistics.record(TimeUnit.MILLISECONDS.toNanos(10));
+        statistics.record(TimeUnit.MILLISECONDS.toNanos(50));
+        statistics.record(TimeUnit.MILLISECONDS.toNanos(30));
+        assertEquals(3, statistics.getCount());
+        assertEquals(90, statistics.getTotalMillis());
+        assertEquals(30, statistics.getAverageMillis());
+        assertEquals(50, statistics.getMaxMillis());
+        assertEquals(30, statistics.getLastMillis());
+        assertTrue(statistics.toString().startsWith("Test: 3 times"));
+
+        statistics.reset();
+        assertEquals(0, statistics.getCount());
+        assertEquals(0, statistics.getMaxMillis());
+        assertEquals(0, statistics.getLastMillis());
+    }
+
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        final TimingStatistics statistics = new TimingStatistics("Test");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= 1000; i++) {
+                        statistics.record(TimeUnit.MILLISECONDS.toNanos(i + offset));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4000, statistics.getCount());
+        // the maximum must not be lost to a concurrent update
+        assertEquals(1003, statistics.getMaxMillis());
+    }
+}
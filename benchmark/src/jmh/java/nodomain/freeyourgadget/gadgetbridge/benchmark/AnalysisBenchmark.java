@@ -0,0 +1,64 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.SleepAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.StepAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
+
+@State(Scope.Benchmark)
+public class AnalysisBenchmark {
+    /** Number of days of minute samples */
+    @Param({"1", "7", "30"})
+    public int days;
+
+    private List<MiBandActivitySample> samples;
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment.init();
+        MiBandSampleProvider provider = new MiBandSampleProvider(SyntheticData.createDevice("AA:BB:CC:DD:EE:FF"), null);
+        samples = SyntheticData.createMinuteSamples(provider, 1, 1, SyntheticData.FIRST_DAY, days, 1);
+    }
+
+    @Benchmark
+    public ActivityAmounts activityAmounts() {
+        return new ActivityAnalysis().calculateActivityAmounts(samples);
+    }
+
+    @Benchmark
+    public List<SleepAnalysis.SleepSession> sleepSessions() {
+        return new SleepAnalysis().calculateSleepSessions(samples);
+    }
+
+    @Benchmark
+    public List<ActivitySession> stepSessions() {
+        return new StepAnalysis().calculateStepSessions(samples);
+    }
+}
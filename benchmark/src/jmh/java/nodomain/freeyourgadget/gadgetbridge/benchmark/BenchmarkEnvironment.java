@@ -0,0 +1,226 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import android.content.SharedPreferences;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
+import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+
+/**
+ * Provides the static state that code under benchmark expects from a running
+ * {@link GBApplication}, without an Android runtime. Only the preferences are
+ * set up: code that needs a Context cannot be benchmarked on a plain JVM.
+ */
+public class BenchmarkEnvironment {
+    private static SharedPreferences sharedPrefs;
+
+    private BenchmarkEnvironment() {
+    }
+
+    /**
+     * Installs empty in-memory preferences into GBApplication, so that all
+     * preference lookups return their defaults. Safe to call repeatedly.
+     */
+    public static synchronized void init() {
+        if (sharedPrefs != null) {
+            return;
+        }
+        sharedPrefs = new InMemorySharedPreferences();
+        Prefs prefs = new Prefs(sharedPrefs);
+        setStaticField(GBApplication.class, "sharedPrefs", sharedPrefs);
+        setStaticField(GBApplication.class, "prefs", prefs);
+        setStaticField(GBApplication.class, "gbPrefs", new GBPrefs(prefs));
+    }
+
+    public static SharedPreferences getSharedPreferences() {
+        init();
+        return sharedPrefs;
+    }
+
+    /**
+     * Makes DBHelper#findDeviceId() return the given id for the device, without
+     * looking up the device entity in the database.
+     */
+    @SuppressWarnings("unchecked")
+    public static void registerDevice(GBDevice device, long deviceId) {
+        try {
+            Class<?> identityClass = Class.forName(DBHelper.class.getName() + "$DeviceIdentity");
+            Constructor<?> constructor = identityClass.getDeclaredConstructor(long.class);
+            constructor.setAccessible(true);
+            Field field = DBHelper.class.getDeclaredField("deviceIdentities");
+            field.setAccessible(true);
+            ((Map<String, Object>) field.get(null)).put(device.getAddress(), constructor.newInstance(deviceId));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to register device " + device.getAddress(), e);
+        }
+    }
+
+    private static void setStaticField(Class<?> clazz, String name, Object value) {
+        try {
+            Field field = clazz.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(null, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to set " + clazz.getSimpleName() + "." + name, e);
+        }
+    }
+
+    private static class InMemorySharedPreferences implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return (String) get(key, defValue);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return (Set<String>) get(key, defValues);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return (Integer) get(key, defValue);
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return (Long) get(key, defValue);
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return (Float) get(key, defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return (Boolean) get(key, defValue);
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new InMemoryEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        private synchronized Object get(String key, Object defValue) {
+            return values.containsKey(key) ? values.get(key) : defValue;
+        }
+
+        private class InMemoryEditor implements Editor {
+            private final Map<String, Object> changes = new HashMap<>();
+            private final Set<String> removals = new HashSet<>();
+            private boolean clear;
+
+            @Override
+            public Editor putString(String key, String value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                return put(key, values != null ? new HashSet<>(values) : null);
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor remove(String key) {
+                removals.add(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (InMemorySharedPreferences.this) {
+                    if (clear) {
+                        values.clear();
+                    }
+                    for (String key : removals) {
+                        values.remove(key);
+                    }
+                    values.putAll(changes);
+                }
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+
+            private Editor put(String key, Object value) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import nodomain.freeyourgadget.gadgetbridge.util.CRC32C;
+import nodomain.freeyourgadget.gadgetbridge.util.CheckSums;
+
+@State(Scope.Benchmark)
+public class ChecksumBenchmark {
+    /** Size of the data, about a BLE packet, a file chunk and a firmware part */
+    @Param({"20", "4096", "262144"})
+    public int size;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() {
+        data = SyntheticData.createRandomBytes(size, 1);
+    }
+
+    @Benchmark
+    public int crc8() {
+        return CheckSums.getCRC8(data);
+    }
+
+    @Benchmark
+    public int crc16() {
+        return CheckSums.getCRC16(data);
+    }
+
+    @Benchmark
+    public int crc16ansi() {
+        return CheckSums.getCRC16ansi(data);
+    }
+
+    @Benchmark
+    public int crc16ccitt() {
+        return CheckSums.crc16_ccitt(data);
+    }
+
+    @Benchmark
+    public int crc32() {
+        return CheckSums.getCRC32(data);
+    }
+
+    @Benchmark
+    public long crc32c() {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,82 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.SQLException;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.devices.DailyActivityAggregator;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+
+/**
+ * The activity amounts of each day of a window, calculated with one query and
+ * analysis per day like the week charts did before, and with the single scan of
+ * DailyActivityAggregator.
+ */
+@State(Scope.Benchmark)
+public class DailyActivityAggregatorBenchmark {
+    private static final long DEVICE_ID = 1;
+    private static final long USER_ID = 1;
+
+    /** Number of days in the window */
+    @Param({"30", "90", "365"})
+    public int days;
+
+    private SampleDatabase database;
+    private JdbcSampleProvider provider;
+    private int[] dayStarts;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkEnvironment.init();
+        database = new SampleDatabase();
+        provider = database.createProvider(SyntheticData.createDevice("AA:BB:CC:DD:EE:FF"), DEVICE_ID);
+        database.insert(SyntheticData.createMinuteSamples(provider, DEVICE_ID, USER_ID, SyntheticData.FIRST_DAY, days, 1));
+
+        dayStarts = new int[days];
+        for (int i = 0; i < days; i++) {
+            dayStarts[i] = SyntheticData.FIRST_DAY + i * SyntheticData.DAY_SECONDS;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public ActivityAmounts[] perDayLoop() {
+        ActivityAmounts[] result = new ActivityAmounts[dayStarts.length];
+        for (int i = 0; i < dayStarts.length; i++) {
+            result[i] = new ActivityAnalysis().calculateActivityAmounts(
+                    provider.getAllActivitySamples(dayStarts[i], dayStarts[i] + SyntheticData.DAY_SECONDS - 1));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public ActivityAmounts[] singleScan() {
+        return DailyActivityAggregator.aggregate(provider, dayStarts, SyntheticData.DAY_SECONDS);
+    }
+}
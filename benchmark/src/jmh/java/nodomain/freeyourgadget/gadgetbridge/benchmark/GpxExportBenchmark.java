@@ -0,0 +1,62 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+import nodomain.freeyourgadget.gadgetbridge.export.ActivityTrackExporter;
+import nodomain.freeyourgadget.gadgetbridge.export.GPXExporter;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+
+@State(Scope.Benchmark)
+public class GpxExportBenchmark {
+    /** Duration of the track in seconds, with one point per second */
+    @Param({"600", "3600", "14400"})
+    public int duration;
+
+    private ActivityTrack track;
+    private GPXExporter exporter;
+    private File targetFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkEnvironment.init();
+        track = SyntheticData.createActivityTrack(duration, 1);
+        exporter = new GPXExporter();
+        exporter.setCreator("Gadgetbridge Benchmark");
+        targetFile = File.createTempFile("gpx-exporter-benchmark", ".gpx");
+    }
+
+    @TearDown
+    public void tearDown() {
+        targetFile.delete();
+    }
+
+    @Benchmark
+    public long performExport() throws IOException, ActivityTrackExporter.GPXTrackEmptyException {
+        exporter.performExport(track, targetFile);
+        return targetFile.length();
+    }
+}
@@ -0,0 +1,62 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiActivitySummaryParser;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiActivityDetailsParser;
+
+@State(Scope.Benchmark)
+public class HuamiParserBenchmark {
+    /** Duration of the recorded activity in seconds */
+    @Param({"600", "3600", "14400"})
+    public int duration;
+
+    private BaseActivitySummary summary;
+    private byte[] details;
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment.init();
+        summary = SyntheticData.createHuamiSummary(duration, 1);
+        details = SyntheticData.createHuamiActivityDetails(duration, 1);
+    }
+
+    @Benchmark
+    public ActivityTrack parseActivityDetails() throws GBException {
+        return new HuamiActivityDetailsParser(summary).parse(details);
+    }
+
+    @Benchmark
+    public BaseActivitySummary parseActivitySummary() {
+        // the parser updates the summary in place, so work on a fresh copy each time
+        BaseActivitySummary copy = new BaseActivitySummary();
+        copy.setStartTime(summary.getStartTime());
+        copy.setRawSummaryData(Arrays.copyOf(summary.getRawSummaryData(), summary.getRawSummaryData().length));
+        return new HuamiActivitySummaryParser().parseBinaryData(copy);
+    }
+}
@@ -0,0 +1,63 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import java.util.Collections;
+import java.util.List;
+
+import de.greenrobot.dao.query.QueryBuilder;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIterator;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+/**
+ * A Mi Band sample provider that runs its queries against a SampleDatabase. The
+ * queries are built by AbstractSampleProvider exactly like in the app, only running
+ * them is done through JDBC instead of the Android database.
+ */
+public class JdbcSampleProvider extends MiBandSampleProvider {
+    private final SampleDatabase database;
+
+    JdbcSampleProvider(GBDevice device, SampleDatabase database) {
+        super(device, database.getSession());
+        this.database = database;
+    }
+
+    @Override
+    protected List<MiBandActivitySample> getGBActivitySamples(int timestamp_from, int timestamp_to, int activityType) {
+        QueryBuilder<MiBandActivitySample> qb = createSampleQuery(timestamp_from, timestamp_to, activityType);
+        if (qb == null) {
+            return Collections.emptyList();
+        }
+        List<MiBandActivitySample> samples = database.list(qb.build(), getSampleDao());
+        for (MiBandActivitySample sample : samples) {
+            sample.setProvider(this);
+        }
+        detachFromSession();
+        return samples;
+    }
+
+    /**
+     * Without the Android database there is no lazy list, so the samples are loaded
+     * at once. This costs memory, but about the same time as iterating in the app.
+     */
+    @Override
+    protected SampleIterator<MiBandActivitySample> iterateGBActivitySamples(int timestamp_from, int timestamp_to, int activityType) {
+        return new SampleIterator<>(getGBActivitySamples(timestamp_from, timestamp_to, activityType));
+    }
+}
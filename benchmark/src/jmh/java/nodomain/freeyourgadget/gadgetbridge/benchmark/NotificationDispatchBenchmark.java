@@ -0,0 +1,129 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiService;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandService;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractGattCallback;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.CharacteristicDispatcher;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.GattCharacteristic;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.AbstractBleProfile;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.battery.BatteryInfoProfile;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.deviceinfo.DeviceInfoProfile;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.heartrate.HeartRateProfile;
+
+/**
+ * Compares dispatching BLE notifications by asking every profile and then going
+ * through an if-chain of UUID comparisons, the way device supports did before, with
+ * looking up the handler for the characteristic in a {@link CharacteristicDispatcher}.
+ * The characteristics and their order are the ones of the Huami support, with the
+ * battery, device info and heart rate profiles in front of them.
+ */
+@State(Scope.Benchmark)
+public class NotificationDispatchBenchmark {
+    private static final List<UUID> CHARACTERISTICS = Arrays.asList(
+            HuamiService.UUID_CHARACTERISTIC_6_BATTERY_INFO,
+            MiBandService.UUID_CHARACTERISTIC_REALTIME_STEPS,
+            GattCharacteristic.UUID_CHARACTERISTIC_HEART_RATE_MEASUREMENT,
+            HuamiService.UUID_CHARACTERISTIC_AUTH,
+            HuamiService.UUID_CHARACTERISTIC_DEVICEEVENT,
+            HuamiService.UUID_CHARACTERISTIC_7_REALTIME_STEPS,
+            HuamiService.UUID_CHARACTERISTIC_3_CONFIGURATION,
+            HuamiService.UUID_CHARACTERISTIC_CHUNKEDTRANSFER_2021_READ);
+
+    /** Position of the notified characteristic in the if-chain */
+    @Param({"0", "4", "7"})
+    public int position;
+
+    private CharacteristicDispatcher chainDispatcher;
+    private CharacteristicDispatcher mapDispatcher;
+    private BluetoothGattCharacteristic characteristic;
+    private long handledBytes;
+
+    @Setup
+    public void setUp() {
+        List<AbstractBleProfile<?>> profiles = Arrays.<AbstractBleProfile<?>>asList(
+                new BatteryInfoProfile<AbstractBTLEDeviceSupport>(null),
+                new DeviceInfoProfile<AbstractBTLEDeviceSupport>(null),
+                new HeartRateProfile<AbstractBTLEDeviceSupport>(null));
+
+        chainDispatcher = new CharacteristicDispatcher();
+        for (AbstractBleProfile<?> profile : profiles) {
+            chainDispatcher.addFallback(profile);
+        }
+        chainDispatcher.addFallback(new AbstractGattCallback() {
+            @Override
+            public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                UUID characteristicUUID = characteristic.getUuid();
+                for (UUID handled : CHARACTERISTICS) {
+                    if (handled.equals(characteristicUUID)) {
+                        handle(characteristic.getValue());
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+
+        mapDispatcher = new CharacteristicDispatcher();
+        for (AbstractBleProfile<?> profile : profiles) {
+            for (UUID handled : profile.getHandledCharacteristics()) {
+                mapDispatcher.add(handled, profile);
+            }
+        }
+        for (UUID handled : CHARACTERISTICS) {
+            mapDispatcher.add(handled, new AbstractGattCallback() {
+                @Override
+                public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                    handle(characteristic.getValue());
+                    return true;
+                }
+            });
+        }
+
+        characteristic = new BluetoothGattCharacteristic(CHARACTERISTICS.get(position), BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        characteristic.setValue(SyntheticData.createRandomBytes(20, 1));
+    }
+
+    private void handle(byte[] value) {
+        handledBytes += value.length;
+    }
+
+    @Benchmark
+    public boolean profilesAndIfChain() {
+        return chainDispatcher.onCharacteristicChanged(null, characteristic);
+    }
+
+    @Benchmark
+    public boolean dispatchTable() {
+        return mapDispatcher.onCharacteristicChanged(null, characteristic);
+    }
+}
@@ -0,0 +1,88 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.PebbleProtocol;
+
+@State(Scope.Benchmark)
+public class PebbleProtocolBenchmark {
+    private static final UUID APP_UUID = UUID.fromString("01234567-89ab-cdef-0123-456789abcdef");
+
+    private PebbleProtocol protocol;
+    private byte[] musicControl;
+    private byte[] phoneControl;
+    private byte[] appMessage;
+    private NotificationSpec notificationSpec;
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment.init();
+        protocol = new PebbleProtocol(new GBDevice("AA:BB:CC:DD:EE:FF", "Benchmark Pebble", null, DeviceType.PEBBLE));
+        musicControl = SyntheticData.createPebbleMusicControl();
+        phoneControl = SyntheticData.createPebblePhoneControl();
+        appMessage = SyntheticData.createPebbleAppMessage(APP_UUID, 12);
+
+        notificationSpec = new NotificationSpec(1);
+        notificationSpec.type = NotificationType.GENERIC_SMS;
+        notificationSpec.sender = "Benchmark Sender";
+        notificationSpec.subject = "Benchmark";
+        notificationSpec.body = SyntheticData.createText(SyntheticData.TEXT_LATIN, 256);
+        notificationSpec.cannedReplies = new String[]{"Yes", "No", "Later"};
+    }
+
+    @Benchmark
+    public GBDeviceEvent[] decodeMusicControl() {
+        return protocol.decodeResponse(musicControl);
+    }
+
+    @Benchmark
+    public GBDeviceEvent[] decodePhoneControl() {
+        return protocol.decodeResponse(phoneControl);
+    }
+
+    @Benchmark
+    public GBDeviceEvent[] decodeAppMessage() {
+        return protocol.decodeResponse(appMessage);
+    }
+
+    @Benchmark
+    public byte[] encodeNotification() {
+        return protocol.encodeNotification(notificationSpec);
+    }
+
+    @Benchmark
+    public byte[] encodeSetMusicInfo() {
+        return protocol.encodeSetMusicInfo("Benchmark Artist", "Benchmark Album", "Benchmark Track", 240, 12, 3);
+    }
+
+    @Benchmark
+    public byte[] encodeSetTime() {
+        return protocol.encodeSetTime();
+    }
+}
@@ -0,0 +1,238 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import de.greenrobot.dao.AbstractDao;
+import de.greenrobot.dao.InternalQueryDaoAccess;
+import de.greenrobot.dao.Property;
+import de.greenrobot.dao.query.Query;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+/**
+ * An in-memory SQLite database with the Mi Band sample table, accessed through
+ * JDBC since the Android database classes need a device. Table, primary key and
+ * index are derived from the greenDAO metadata. The queries are built by the
+ * sample providers of the app, see JdbcSampleProvider, and their results are
+ * loaded by the generated DAO, so query plans and costs match the app.
+ */
+public class SampleDatabase implements Closeable {
+    private static final String TABLE = MiBandActivitySampleDao.TABLENAME;
+
+    private final Connection connection;
+    private final List<Property> properties;
+    // the DAOs only need the Android database for running statements, which is done here
+    private final DaoSession session = new DaoMaster((SQLiteDatabase) null).newSession();
+
+    public SampleDatabase() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        properties = getProperties();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(createTableSql());
+            // see GBDaoGenerator#addCommonActivitySampleProperties()
+            statement.execute("CREATE INDEX IDX_" + TABLE + "_DEVICE_ID_TIMESTAMP ON \"" + TABLE + "\" (\""
+                    + MiBandActivitySampleDao.Properties.DeviceId.columnName + "\" ASC,\""
+                    + MiBandActivitySampleDao.Properties.Timestamp.columnName + "\" ASC)");
+        }
+    }
+
+    public void insert(List<MiBandActivitySample> samples) throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO \"").append(TABLE).append("\" (");
+        StringBuilder values = new StringBuilder(") VALUES (");
+        for (int i = 0; i < properties.size(); i++) {
+            if (i > 0) {
+                sql.append(',');
+                values.append(',');
+            }
+            sql.append('"').append(properties.get(i).columnName).append('"');
+            values.append('?');
+        }
+        sql.append(values).append(')');
+
+        connection.setAutoCommit(false);
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            for (MiBandActivitySample sample : samples) {
+                for (int i = 0; i < properties.size(); i++) {
+                    statement.setObject(i + 1, getValue(sample, properties.get(i)));
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    public DaoSession getSession() {
+        return session;
+    }
+
+    /**
+     * Returns a provider for the samples of the given device, which are stored with
+     * the given device id.
+     */
+    public JdbcSampleProvider createProvider(GBDevice device, long deviceId) {
+        BenchmarkEnvironment.registerDevice(device, deviceId);
+        return new JdbcSampleProvider(device, this);
+    }
+
+    /**
+     * Runs the given query like Query#list() does, i.e. reads the entities from a
+     * cursor over the result with the DAO.
+     */
+    public <T> List<T> list(Query<T> query, AbstractDao<T, ?> dao) {
+        String sql = (String) getQueryField(query, "sql");
+        String[] parameters = (String[]) getQueryField(query, "parameters");
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setString(i + 1, parameters[i]);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                String[] columns = new String[metaData.getColumnCount()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = metaData.getColumnLabel(i + 1);
+                }
+                MatrixCursor cursor = new MatrixCursor(columns);
+                Object[] row = new Object[columns.length];
+                while (resultSet.next()) {
+                    for (int i = 0; i < columns.length; i++) {
+                        row[i] = resultSet.getObject(i + 1);
+                    }
+                    cursor.addRow(row);
+                }
+                return new InternalQueryDaoAccess<>(dao).loadAllAndCloseCursor(cursor);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to run " + sql, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private Object getValue(MiBandActivitySample sample, Property property) {
+        if (property == MiBandActivitySampleDao.Properties.Timestamp) {
+            return sample.getTimestamp();
+        } else if (property == MiBandActivitySampleDao.Properties.DeviceId) {
+            return sample.getDeviceId();
+        } else if (property == MiBandActivitySampleDao.Properties.UserId) {
+            return sample.getUserId();
+        } else if (property == MiBandActivitySampleDao.Properties.RawIntensity) {
+            return sample.getRawIntensity();
+        } else if (property == MiBandActivitySampleDao.Properties.Steps) {
+            return sample.getSteps();
+        } else if (property == MiBandActivitySampleDao.Properties.RawKind) {
+            return sample.getRawKind();
+        } else if (property == MiBandActivitySampleDao.Properties.HeartRate) {
+            return sample.getHeartRate();
+        }
+        throw new IllegalStateException("Unknown property " + property.name);
+    }
+
+    private String createTableSql() {
+        StringBuilder sql = new StringBuilder("CREATE TABLE \"").append(TABLE).append("\" (");
+        List<String> primaryKey = new ArrayList<>();
+        for (Property property : properties) {
+            sql.append('"').append(property.columnName).append("\" ").append(getColumnType(property)).append(" NOT NULL,");
+            if (property.primaryKey) {
+                primaryKey.add('"' + property.columnName + '"');
+            }
+        }
+        sql.append("PRIMARY KEY (");
+        for (int i = 0; i < primaryKey.size(); i++) {
+            sql.append(i > 0 ? "," : "").append(primaryKey.get(i));
+        }
+        // GBDaoGenerator creates all tables with a composite primary key without rowid,
+        // see DBHelper#getWithoutRowId()
+        return sql.append(") ON CONFLICT REPLACE) WITHOUT ROWID").toString();
+    }
+
+    private static Object getQueryField(Query<?> query, String name) {
+        // the fields are declared in a package private superclass of Query
+        for (Class<?> clazz = query.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+            try {
+                Field field = clazz.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(query);
+            } catch (NoSuchFieldException e) {
+                // look further up
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalStateException("Query has no field " + name);
+    }
+
+    private static String getColumnType(Property property) {
+        if (property.type == byte[].class) {
+            return "BLOB";
+        } else if (property.type == String.class) {
+            return "TEXT";
+        } else if (property.type == float.class || property.type == double.class) {
+            return "REAL";
+        }
+        return "INTEGER";
+    }
+
+    private static List<Property> getProperties() {
+        List<Property> properties = new ArrayList<>();
+        for (Field field : MiBandActivitySampleDao.Properties.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == Property.class) {
+                try {
+                    properties.add((Property) field.get(null));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        Collections.sort(properties, new Comparator<Property>() {
+            @Override
+            public int compare(Property lhs, Property rhs) {
+                return Integer.compare(lhs.ordinal, rhs.ordinal);
+            }
+        });
+        return properties;
+    }
+}
@@ -0,0 +1,94 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleIterator;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+
+/**
+ * Range queries of a sample provider against a year of minute samples of one
+ * device, with the samples of a second device interleaved in the same table.
+ */
+@State(Scope.Benchmark)
+public class SampleProviderBenchmark {
+    private static final int YEAR_DAYS = 365;
+    private static final long DEVICE_ID = 1;
+    private static final long OTHER_DEVICE_ID = 2;
+    private static final long USER_ID = 1;
+
+    /** Number of days to query */
+    @Param({"1", "7", "30"})
+    public int days;
+
+    private SampleDatabase database;
+    private JdbcSampleProvider provider;
+    private int timestampFrom;
+    private int timestampTo;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkEnvironment.init();
+        database = new SampleDatabase();
+        provider = database.createProvider(SyntheticData.createDevice("AA:BB:CC:DD:EE:FF"), DEVICE_ID);
+        JdbcSampleProvider otherProvider = database.createProvider(SyntheticData.createDevice("AA:BB:CC:DD:EE:00"), OTHER_DEVICE_ID);
+        database.insert(SyntheticData.createMinuteSamples(provider, DEVICE_ID, USER_ID, SyntheticData.FIRST_DAY, YEAR_DAYS, 1));
+        database.insert(SyntheticData.createMinuteSamples(otherProvider, OTHER_DEVICE_ID, USER_ID, SyntheticData.FIRST_DAY, YEAR_DAYS, 2));
+
+        // query the middle of the year, so that there is data on both sides of the range
+        timestampFrom = SyntheticData.FIRST_DAY + (YEAR_DAYS / 2) * SyntheticData.DAY_SECONDS;
+        timestampTo = timestampFrom + days * SyntheticData.DAY_SECONDS - 1;
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<MiBandActivitySample> allSamples() {
+        return provider.getAllActivitySamples(timestampFrom, timestampTo);
+    }
+
+    @Benchmark
+    public List<MiBandActivitySample> sleepSamples() {
+        return provider.getSleepSamples(timestampFrom, timestampTo);
+    }
+
+    @Benchmark
+    public ActivityAmounts activityAmounts() {
+        return new ActivityAnalysis().calculateActivityAmounts(provider.getAllActivitySamples(timestampFrom, timestampTo));
+    }
+
+    @Benchmark
+    public ActivityAmounts iteratedActivityAmounts() {
+        try (SampleIterator<MiBandActivitySample> samples = provider.iterateAllActivitySamples(timestampFrom, timestampTo)) {
+            return new ActivityAnalysis().calculateActivityAmounts(samples);
+        }
+    }
+}
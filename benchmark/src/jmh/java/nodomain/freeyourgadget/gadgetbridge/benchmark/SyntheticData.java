@@ -0,0 +1,314 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.model.GPSCoordinate;
+
+/**
+ * Deterministic generators for the input data of the benchmarks. All generators
+ * take a seed, so that the same parameters always produce the same data and
+ * results stay comparable between runs.
+ */
+public class SyntheticData {
+    /** 2020-01-01 00:00:00 UTC */
+    public static final int FIRST_DAY = 1577836800;
+    public static final int DAY_SECONDS = 24 * 60 * 60;
+
+    public static final String TEXT_LATIN = "The quick brown fox jumps over the lazy dog. ";
+    public static final String TEXT_CYRILLIC = "Съешь же ещё этих мягких французских булок, да выпей чаю. ";
+    public static final String TEXT_GREEK = "Ξεσκεπάζω την ψυχοφθόρα βδελυγμία. ";
+    public static final String TEXT_ARABIC = "نص حكيم له سر قاطع وذو شأن عظيم مكتوب على ثوب أخضر ومغلف بجلد أزرق. ";
+    public static final String TEXT_HEBREW = "דג סקרן שט בים מאוכזב ולפתע מצא חברה. ";
+
+    private static final byte HUAMI_TYPE_GPS = 0;
+    private static final byte HUAMI_TYPE_HR = 1;
+    private static final int HUAMI_SUMMARY_VERSION = 515;
+    private static final int HUAMI_OUTDOOR_RUNNING = 1;
+
+    private static final short PEBBLE_ENDPOINT_MUSICCONTROL = 32;
+    private static final short PEBBLE_ENDPOINT_PHONECONTROL = 33;
+    private static final short PEBBLE_ENDPOINT_APPLICATIONMESSAGE = 48;
+    private static final byte PEBBLE_MUSICCONTROL_NEXT = 4;
+    private static final byte PEBBLE_PHONECONTROL_HANGUP = 2;
+    private static final byte PEBBLE_APPLICATIONMESSAGE_PUSH = 1;
+    private static final byte PEBBLE_TYPE_CSTRING = 1;
+    private static final byte PEBBLE_TYPE_UINT = 2;
+    private static final byte PEBBLE_TYPE_INT = 3;
+
+    private SyntheticData() {
+    }
+
+    public static GBDevice createDevice(String address) {
+        return new GBDevice(address, "Benchmark Mi Band", null, DeviceType.MIBAND);
+    }
+
+    /**
+     * Creates one Mi Band sample per minute for the given number of days, starting
+     * at firstTimestamp. Every day consists of a night of alternating deep and light
+     * sleep from 23:00 to 07:00, walks of varying length during the day, idle periods
+     * with a few steps and an hour of charging in the evening.
+     */
+    public static List<MiBandActivitySample> createMinuteSamples(MiBandSampleProvider provider, long deviceId, long userId, int firstTimestamp, int days, long seed) {
+        Random random = new Random(seed);
+        List<MiBandActivitySample> samples = new ArrayList<>(days * 24 * 60);
+        int walkMinutesLeft = 0;
+        for (int day = 0; day < days; day++) {
+            int chargingStart = (18 + random.nextInt(4)) * 60;
+            for (int minute = 0; minute < 24 * 60; minute++) {
+                MiBandActivitySample sample = new MiBandActivitySample();
+                sample.setProvider(provider);
+                sample.setTimestamp(firstTimestamp + day * DAY_SECONDS + minute * 60);
+                sample.setDeviceId(deviceId);
+                sample.setUserId(userId);
+                if (minute < 7 * 60 || minute >= 23 * 60) {
+                    // 90 minute sleep cycles, starting with deep sleep
+                    int cycleMinute = (minute + 60) % 90;
+                    sample.setRawKind(cycleMinute < 30 ? MiBandSampleProvider.TYPE_DEEP_SLEEP : MiBandSampleProvider.TYPE_LIGHT_SLEEP);
+                    sample.setRawIntensity(random.nextInt(cycleMinute < 30 ? 5 : 20));
+                    sample.setHeartRate(50 + random.nextInt(10));
+                    walkMinutesLeft = 0;
+                } else if (minute >= chargingStart && minute < chargingStart + 60) {
+                    sample.setRawKind(MiBandSampleProvider.TYPE_CHARGING);
+                    sample.setHeartRate(255);
+                } else {
+                    if (walkMinutesLeft == 0 && random.nextInt(100) < 3) {
+                        walkMinutesLeft = 5 + random.nextInt(40);
+                    }
+                    sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+                    if (walkMinutesLeft > 0) {
+                        walkMinutesLeft--;
+                        sample.setSteps(80 + random.nextInt(50));
+                        sample.setRawIntensity(60 + random.nextInt(60));
+                        sample.setHeartRate(90 + random.nextInt(40));
+                    } else {
+                        sample.setSteps(random.nextInt(100) < 20 ? random.nextInt(30) : 0);
+                        sample.setRawIntensity(random.nextInt(40));
+                        sample.setHeartRate(60 + random.nextInt(25));
+                    }
+                }
+                samples.add(sample);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Creates a summary as stored after fetching a Huami sports activity, i.e. with
+     * start time and raw summary data, but before it has been parsed.
+     */
+    public static BaseActivitySummary createHuamiSummary(int durationSeconds, long seed) {
+        Random random = new Random(seed);
+        Date startTime = new Date(FIRST_DAY * 1000L);
+        ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) HUAMI_SUMMARY_VERSION);
+        buffer.putShort((short) HUAMI_OUTDOOR_RUNNING);
+        buffer.putInt(FIRST_DAY);
+        buffer.putInt(FIRST_DAY + durationSeconds);
+        buffer.putInt(40000000); // base longitude
+        buffer.putInt(150000000); // base latitude
+        buffer.putInt(100); // base altitude
+        buffer.putInt(durationSeconds * 3); // steps
+        buffer.putInt(durationSeconds); // active seconds
+        for (int i = 0; i < 4; i++) {
+            buffer.putInt(random.nextInt()); // latitude and longitude bounds
+        }
+        // calories, distances, altitudes, speeds, paces, cadences and strides
+        for (int i = 0; i < 20; i++) {
+            buffer.putFloat(random.nextFloat() * 100);
+        }
+        buffer.putInt(0);
+        buffer.putShort((short) (120 + random.nextInt(40))); // average heart rate
+        buffer.putShort((short) (300 + random.nextInt(60))); // seconds per km
+        buffer.putShort((short) (90 + random.nextInt(20))); // average stride
+        buffer.putShort((short) (160 + random.nextInt(30))); // max heart rate
+        // ascent, descent and flat distance and time
+        buffer.putInt(0);
+        for (int i = 0; i < 3; i++) {
+            buffer.putFloat(random.nextFloat() * 1000);
+            buffer.putInt(random.nextInt(durationSeconds * 1000));
+        }
+
+        User user = new User(0L);
+        user.setName("Benchmark User");
+        Device device = new Device(0L);
+        device.setName("Benchmark Device");
+
+        BaseActivitySummary summary = new BaseActivitySummary();
+        summary.setName("Benchmark Run");
+        summary.setUser(user);
+        summary.setDevice(device);
+        summary.setStartTime(startTime);
+        summary.setEndTime(new Date(startTime.getTime() + durationSeconds * 1000L));
+        summary.setBaseLongitude(40000000);
+        summary.setBaseLatitude(150000000);
+        summary.setBaseAltitude(100);
+        summary.setRawSummaryData(buffer.array());
+        return summary;
+    }
+
+    /**
+     * Creates Huami activity details with one GPS and one heart rate record per second,
+     * the way a band records an outdoor run.
+     */
+    public static byte[] createHuamiActivityDetails(int durationSeconds, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer buffer = ByteBuffer.allocate(durationSeconds * 16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int second = 0; second < durationSeconds; second++) {
+            byte timeOffset = (byte) second;
+            buffer.put(HUAMI_TYPE_GPS);
+            buffer.put(timeOffset);
+            buffer.putShort((short) (random.nextInt(200) - 50)); // longitude delta
+            buffer.putShort((short) (random.nextInt(200) - 50)); // latitude delta
+            buffer.putShort((short) (random.nextInt(5) - 2)); // altitude delta
+
+            buffer.put(HUAMI_TYPE_HR);
+            buffer.put(timeOffset);
+            buffer.put((byte) (120 + random.nextInt(60)));
+            buffer.put(new byte[5]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Creates a track with one point per second, with location and heart rate.
+     */
+    public static ActivityTrack createActivityTrack(int durationSeconds, long seed) {
+        Random random = new Random(seed);
+        User user = new User(0L);
+        user.setName("Benchmark User");
+        Device device = new Device(0L);
+        device.setName("Benchmark Device");
+
+        ActivityTrack track = new ActivityTrack();
+        track.setName("Benchmark Track");
+        track.setBaseTime(new Date(FIRST_DAY * 1000L));
+        track.setUser(user);
+        track.setDevice(device);
+
+        double longitude = 13.4;
+        double latitude = 52.5;
+        double altitude = 35;
+        for (int second = 0; second < durationSeconds; second++) {
+            longitude += (random.nextDouble() - 0.3) * 0.00005;
+            latitude += (random.nextDouble() - 0.3) * 0.00005;
+            altitude += random.nextDouble() - 0.5;
+            ActivityPoint point = new ActivityPoint(new Date((FIRST_DAY + second) * 1000L));
+            point.setLocation(new GPSCoordinate(longitude, latitude, altitude));
+            point.setHeartRate(120 + random.nextInt(60));
+            track.addTrackPoint(point);
+        }
+        return track;
+    }
+
+    /**
+     * Repeats the given text until it has the given length.
+     */
+    public static String createText(String text, int length) {
+        StringBuilder builder = new StringBuilder(length + text.length());
+        while (builder.length() < length) {
+            builder.append(text);
+        }
+        return builder.substring(0, length);
+    }
+
+    public static byte[] createRandomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * A "next track" request of the Pebble music control endpoint.
+     */
+    public static byte[] createPebbleMusicControl() {
+        return createPebblePacket(PEBBLE_ENDPOINT_MUSICCONTROL, new byte[]{PEBBLE_MUSICCONTROL_NEXT});
+    }
+
+    /**
+     * A "hang up" request of the Pebble phone control endpoint.
+     */
+    public static byte[] createPebblePhoneControl() {
+        return createPebblePacket(PEBBLE_ENDPOINT_PHONECONTROL, new byte[]{PEBBLE_PHONECONTROL_HANGUP, 0, 0, 0, 0});
+    }
+
+    /**
+     * An app message push from an app without a dedicated handler, with the given
+     * number of alternating uint, int and string entries.
+     */
+    public static byte[] createPebbleAppMessage(UUID uuid, int entries) {
+        ByteBuffer buffer = ByteBuffer.allocate(2048);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.put(PEBBLE_APPLICATIONMESSAGE_PUSH);
+        buffer.put((byte) 1); // transaction id
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) entries);
+        for (int key = 0; key < entries; key++) {
+            buffer.putInt(key);
+            switch (key % 3) {
+                case 0:
+                    buffer.put(PEBBLE_TYPE_UINT);
+                    buffer.putShort((short) 4);
+                    buffer.putInt(key * 1000);
+                    break;
+                case 1:
+                    buffer.put(PEBBLE_TYPE_INT);
+                    buffer.putShort((short) 2);
+                    buffer.putShort((short) -key);
+                    break;
+                default:
+                    byte[] value = ("value " + key).getBytes(StandardCharsets.UTF_8);
+                    buffer.put(PEBBLE_TYPE_CSTRING);
+                    buffer.putShort((short) (value.length + 1));
+                    buffer.put(value);
+                    buffer.put((byte) 0);
+            }
+        }
+        byte[] payload = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(payload);
+        return createPebblePacket(PEBBLE_ENDPOINT_APPLICATIONMESSAGE, payload);
+    }
+
+    private static byte[] createPebblePacket(short endpoint, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + payload.length);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.putShort((short) payload.length);
+        buffer.putShort(endpoint);
+        buffer.put(payload);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,71 @@
+/*  Copyright (C) 2022 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import nodomain.freeyourgadget.gadgetbridge.util.LanguageUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.RtlUtils;
+
+/**
+ * EmojiConverter is not covered: it loads its emoji table from the assets of a
+ * Context, which does not exist outside of Android.
+ */
+@State(Scope.Benchmark)
+public class TextBenchmark {
+    /** Length of the text, about a short notification and a long message */
+    @Param({"64", "1024"})
+    public int length;
+
+    private String latin;
+    private String cyrillic;
+    private String greek;
+    private String arabic;
+
+    @Setup
+    public void setUp() {
+        BenchmarkEnvironment.init();
+        latin = SyntheticData.createText(SyntheticData.TEXT_LATIN, length);
+        cyrillic = SyntheticData.createText(SyntheticData.TEXT_CYRILLIC, length);
+        greek = SyntheticData.createText(SyntheticData.TEXT_GREEK, length);
+        arabic = SyntheticData.createText(SyntheticData.TEXT_ARABIC, length);
+    }
+
+    @Benchmark
+    public String transliterateLatin() {
+        return LanguageUtils.transliterate(latin);
+    }
+
+    @Benchmark
+    public String transliterateCyrillic() {
+        return LanguageUtils.transliterate(cyrillic);
+    }
+
+    @Benchmark
+    public String transliterateGreek() {
+        return LanguageUtils.transliterate(greek);
+    }
+
+    @Benchmark
+    public String convertToContextual() {
+        return RtlUtils.convertToContextual(arabic);
+    }
+}